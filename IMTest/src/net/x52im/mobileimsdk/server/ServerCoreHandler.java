@@ -18,9 +18,11 @@ package net.x52im.mobileimsdk.server;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import net.x52im.mobileimsdk.server.cluster.PresenceDirectory;
 import net.x52im.mobileimsdk.server.event.MessageQoSEventListenerS2C;
 import net.x52im.mobileimsdk.server.event.ServerEventListener;
 import net.x52im.mobileimsdk.server.network.Gateway;
+import net.x52im.mobileimsdk.server.network.SessionContext;
 import net.x52im.mobileimsdk.server.processor.BridgeProcessor;
 import net.x52im.mobileimsdk.server.processor.LogicProcessor;
 import net.x52im.mobileimsdk.server.processor.OnlineProcessor;
@@ -174,41 +176,78 @@ public class ServerCoreHandler
      */
 //    public void messageReceived(Channel session, ByteBuf bytebuf) throws Exception 
     public void messageReceived(Channel session, Protocal pFromClient) throws Exception 
+    {
+    	messageReceived(SessionContext.get(session), pFromClient);
+    }
+    
+    /**
+     * 框架中收到客户端消息的回调方法（各网关的InboundHandler已缓存了该会话的上下文时使用）。
+     * <p>
+     * 与 {@link #messageReceived(Channel, Protocal)} 相同，只是会话的user_id、网络类型、客户端信息
+     * 等直接从会话上下文中读取，无需再查找Channel的属性和拼接字符串。
+     * 
+     * @param sessionContext 收到消息对应的会话上下文
+     * @param pFromClient 读取到的数据内容（已被转换成Protocal对象）
+     * @throws Exception 当有错误发生时将抛出异常
+     * @since 6.1
+     * @see SessionContext
+     */
+    public void messageReceived(SessionContext sessionContext, Protocal pFromClient) throws Exception 
     {
 //    	// 读取收到的数据
 //    	Protocal pFromClient = ServerToolKits.fromIOBuffer(bytebuf);
 
-    	String remoteAddress = ServerToolKits.clientInfoToString(session);
+    	final Channel session = sessionContext.getChannel();
+    	final String gatewayFlag = sessionContext.getGatewayFlag();
+    	String remoteAddress = sessionContext.getClientInfo();
+    	sessionContext.onMessageReceived();
     	
     	// TODO: 以下代码仅用于开发调试时，建议即时注释掉！！
-    	logger.info("---------------------------------------------------------");
-    	logger.info("[IMCORE-"+Gateway.getGatewayFlag(session)+"] << 收到客户端"+remoteAddress+"的消息:::"+pFromClient.toGsonString());
+    	if(logger.isInfoEnabled())
+    	{
+    		logger.info("---------------------------------------------------------");
+    		logger.info("[IMCORE-"+gatewayFlag+"] << 收到客户端"+remoteAddress+"的消息:::"+pFromClient.toGsonString());
+    	}
 
     	switch(pFromClient.getType())
     	{
 	    	// 【MobileIMSDK框架层协议：客户端与客户端、客户端与服务端之间的ACK应答包】
 	    	case ProtocalType.C.FROM_CLIENT_TYPE_OF_RECIVED:
 	    	{
-	    		logger.info("[IMCORE-{}]<< 收到客户端{}的ACK应答包发送请求.", Gateway.$(session), remoteAddress);
+	    		logger.info("[IMCORE-{}]<< 收到客户端{}的ACK应答包发送请求.", gatewayFlag, remoteAddress);
 	
-	    		if(!OnlineProcessor.isLogined(session))
+	    		if(!sessionContext.isLogined())
 	    		{
 	    			LocalSendHelper.replyDataForUnlogined(session, pFromClient, null);
 	    			return;
 	    		}
 	
-	    		logicProcessor.processACK(pFromClient, remoteAddress);
+	    		logicProcessor.processACK(session, pFromClient, remoteAddress);
+	    		break;
+	    	}
+	    	// 【MobileIMSDK框架层协议：客户端一次应答多条消息的批量ACK应答包】
+	    	case ProtocalType.C.FROM_CLIENT_TYPE_OF_RECIVED$BATCH:
+	    	{
+	    		logger.info("[IMCORE-{}]<< 收到客户端{}的批量ACK应答包发送请求.", gatewayFlag, remoteAddress);
+	
+	    		if(!sessionContext.isLogined())
+	    		{
+	    			LocalSendHelper.replyDataForUnlogined(session, pFromClient, null);
+	    			return;
+	    		}
+	
+	    		logicProcessor.processACKBatch(session, pFromClient, remoteAddress);
 	    		break;
 	    	}
 	    	// 【MobileIMSDK框架层协议：用户通用数据转发请求】
 	    	case ProtocalType.C.FROM_CLIENT_TYPE_OF_COMMON$DATA:
 	    	{
-	    		logger.info("[IMCORE-{}]<< 收到客户端{}的通用数据发送请求.", Gateway.$(session), remoteAddress);
+	    		logger.info("[IMCORE-{}]<< 收到客户端{}的通用数据发送请求.", gatewayFlag, remoteAddress);
 	
 	    		// 开始回调
 	    		if(serverEventListener != null)
 	    		{
-	    			if(!OnlineProcessor.isLogined(session))
+	    			if(!sessionContext.isLogined())
 	    			{
 	    				LocalSendHelper.replyDataForUnlogined(session, pFromClient, null);
 	    				return;
@@ -223,7 +262,7 @@ public class ServerCoreHandler
 	    		}
 	    		else
 	    		{
-	    			logger.warn("[IMCORE-{}]<< 收到客户端{}的通用数据传输消息，但回调对象是null，回调无法继续.", Gateway.$(session), remoteAddress);
+	    			logger.warn("[IMCORE-{}]<< 收到客户端{}的通用数据传输消息，但回调对象是null，回调无法继续.", gatewayFlag, remoteAddress);
 	    		}
 	    		break;
 	    	}
@@ -232,9 +271,9 @@ public class ServerCoreHandler
 	    	{
 	    		// TODO: 以下代码仅用于开发调试时，建议即时注释掉！！
 		        logger.debug("[IMCORE-{}]>> 【1收心跳{}】收到客户端{}的心跳包."
-		        		, Gateway.$(session), OnlineProcessor.getUserIdFromChannel(session), remoteAddress);
+		        		, gatewayFlag, sessionContext.getUserId(), remoteAddress);
 	    		
-		        if(!OnlineProcessor.isLogined(session))
+		        if(!sessionContext.isLogined())
 	    		{
 	    			LocalSendHelper.replyDataForUnlogined(session, pFromClient, null);
 	    			return;
@@ -254,7 +293,7 @@ public class ServerCoreHandler
 	    	// 目前的逻辑是：用户退出登陆时不需要反馈给客户端
 	    	case ProtocalType.C.FROM_CLIENT_TYPE_OF_LOGOUT:
 	    	{
-	    		logger.info("[IMCORE-{}]<< 收到客户端{}的退出登陆请求.", Gateway.$(session), remoteAddress);
+	    		logger.info("[IMCORE-{}]<< 收到客户端{}的退出登陆请求.", gatewayFlag, remoteAddress);
 	    		// 立即注销用户会话
 	    		session.close();
 	    		break;
@@ -270,7 +309,7 @@ public class ServerCoreHandler
 	    	default:
 	    	{
 	    		logger.warn("[IMCORE-{}]【注意】收到的客户端{}消息类型：{}，但目前该类型服务端不支持解析和处理！"
-	    				, Gateway.$(session), remoteAddress, pFromClient.getType());
+	    				, gatewayFlag, remoteAddress, pFromClient.getType());
 	    		break;
 	    	}
     	}
@@ -294,14 +333,15 @@ public class ServerCoreHandler
      * 
      * @param session 被关闭的会话Channel引用
      * @throws Exception 任何错误发生时将抛出本异常
-     * @see net.x52im.mobileimsdk.server.processor.OnlineProcessor#removeUser(int)
+     * @see net.x52im.mobileimsdk.server.processor.OnlineProcessor#removeDevice(String, Channel)
      * @see net.x52im.mobileimsdk.server.event.ServerEventListener#onUserLogoutAction_CallBack(int, Object)
      * @see net.x52im.mobileimsdk.server.network.tcp.MBTCPClientInboundHandler#channelInactive(io.netty.channel.ChannelHandlerContext)
      */
     public void sessionClosed(Channel session) throws Exception 
     {
+    	final SessionContext sessionContext = SessionContext.get(session);
     	// 取出在连接认证时放入会话中的user_id
-    	String user_id = OnlineProcessor.getUserIdFromChannel(session);
+    	String user_id = sessionContext.getUserId();
     	
     	if(user_id != null)
     	{
@@ -309,7 +349,7 @@ public class ServerCoreHandler
 	    	Channel sessionInOnlinelist = OnlineProcessor.getInstance().getOnlineSession(user_id);
 	    	
 	    	logger.info("[IMCORE-{}]{}的会话已关闭(user_id={}, firstLoginTime={})了..."
-	    			, Gateway.$(session), ServerToolKits.clientInfoToString(session), user_id, OnlineProcessor.getFirstLoginTimeFromChannel(session));
+	    			, Gateway.$(session), sessionContext.getClientInfo(), user_id, sessionContext.getFirstLoginTime());
 	    	
 	    	// TODO just for DEBUG：以下代码仅作Debug之用，您随时可删除之！
 	    	{// DEBUG Start
@@ -334,38 +374,60 @@ public class ServerCoreHandler
     		// [产生此bug的根本原因是]：在线列表中的key是user_id，而同一个user_id发起的新会话，在在线列表
     		// 中被放入时的逻辑时只覆盖之前的会话，而未close掉（之所以这么做是为了方便以后做多点登陆功能），
     		// 而且在线列表就这么实现的话，当前来说并没有什么问题。
-    		if(sessionInOnlinelist != null && session != null && session == sessionInOnlinelist)
+    		//
+    		// 自v6.1起，“比较并移除”由在线列表以原子操作完成（此前先get再remove，两步之间该用户的
+    		// 新会话若恰好登陆，新会话会被错误地移除）。
+    		//
+    		// 从在线列表中移除
+    		// 【理论上：】因为每个session只在用户登陆成功后才会放入列表中，那么每
+    		//         一个存放在在线列表中的session肯定都对应了user_id。所以
+    		//		    此处先取出session中之前存放的id再把这个session从在线列表中删除
+    		//        的算法是可以保证session被关闭的同时肯定能同步将它从在线列表中移除，
+    		//        从而保证在列表的准确性！
+    		//
+    		// 自v6.1起同一账号可多端同时在线，移除的只是该会话对应的终端，返回值为该用户剩余的在线终端数。
+    		int remainingDevices = OnlineProcessor.getInstance().removeDevice(user_id, session);
+    		if(remainingDevices >= 0)
     		//## Bug FIX: 20171211 END
     		{
     			// 尽最大可能移除用户登陆成功后暂存到会话对象中的user_id
 				OnlineProcessor.removeAttributesForChannel(session);
-    			
-    			// 从在线列表中移除
-    			// 【理论上：】因为每个session只在用户登陆成功后才会放入列表中，那么每
-    			//         一个存放在在线列表中的session肯定都对应了user_id。所以
-    			//		    此处先取出session中之前存放的id再把这个session从在线列表中删除
-    			//        的算法是可以保证session被关闭的同时肯定能同步将它从在线列表中移除，
-    			//        从而保证在列表的准确性！
-    			OnlineProcessor.getInstance().removeUser(user_id);
+				
+				// 该用户仍有其它终端在线：用户并未下线，不需要更新集群在线状态目录，也不回调onUserLogout
+				if(remainingDevices > 0)
+				{
+					logger.debug("[IMCORE-{}]>> 会话{}被系统close了，用户{}仍有{}个终端在线，不回调onUserLogout."
+							, Gateway.$(session), sessionContext.getClientInfo(), user_id, remainingDevices);
+					return;
+				}
+				
+				// 该用户在本节点已没有其它在线终端了：从集群在线状态目录中移除（若移除期间该用户恰好又在
+				// 本节点登陆了，则重新记录上线，以免目录中漏掉）
+				if(PresenceDirectory.ENABLED)
+				{
+					PresenceDirectory.getInstance().userOffline(user_id);
+					if(OnlineProcessor.isOnline(user_id))
+						PresenceDirectory.getInstance().userOnline(user_id);
+				}
 
     			// 开始回调
     			if(serverEventListener != null)
-    				// 通知回调：用户退出登陆了
+    				// 通知回调：用户退出登陆了（即该用户的最后一个在线终端已下线）
     				serverEventListener.onUserLogout(user_id, null, session);
     			else
     				logger.debug("[IMCORE-{}]>> 会话{}被系统close了，但回调对象是null，没有进行回调通知."
-    						, Gateway.$(session), ServerToolKits.clientInfoToString(session));
+    						, Gateway.$(session), sessionContext.getClientInfo());
     		}
     		else
     		{
     			logger.warn("[IMCORE-{}]【2】【注意】会话{}不在在线列表中，意味着它是被客户端弃用/或被服务端强踢，本次忽略这条关闭事件即可！"
-    					, Gateway.$(session), ServerToolKits.clientInfoToString(session));
+    					, Gateway.$(session), sessionContext.getClientInfo());
     		}
     	}
     	else
     	{
     		logger.warn("[IMCORE-{}]【注意】会话{}被系统close了，但它里面没有存放user_id，它很可能是没有成功合法认证而被提前关闭，从而正常释放资源。"
-    				, Gateway.$(session), ServerToolKits.clientInfoToString(session));
+    				, Gateway.$(session), sessionContext.getClientInfo());
     	}
     }
 
@@ -18,14 +18,17 @@ package net.x52im.mobileimsdk.server;
 
 import java.io.IOException;
 
+import net.x52im.mobileimsdk.server.cluster.PresenceDirectory;
 import net.x52im.mobileimsdk.server.event.MessageQoSEventListenerS2C;
 import net.x52im.mobileimsdk.server.event.ServerEventListener;
 import net.x52im.mobileimsdk.server.network.Gateway;
+import net.x52im.mobileimsdk.server.network.GatewayEventLoopGroups;
 import net.x52im.mobileimsdk.server.network.GatewayTCP;
 import net.x52im.mobileimsdk.server.network.GatewayUDP;
 import net.x52im.mobileimsdk.server.network.GatewayWebsocket;
 import net.x52im.mobileimsdk.server.qos.QoS4ReciveDaemonC2S;
 import net.x52im.mobileimsdk.server.qos.QoS4SendDaemonS2C;
+import net.x52im.mobileimsdk.server.protocal.DefaultFingerPrintGenerator;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
 
 import org.slf4j.Logger;
@@ -92,6 +95,17 @@ public abstract class ServerLauncher
 	 */
 	public static boolean serverTimestamp = false;
 	
+	/**
+	 * 是否允许客户端在登陆时协商使用紧凑2进制报文格式。true表示允许，否则一律使用JSON格式，默认true。
+	 * <p>
+	 * 只有在登陆信息中明确要求使用2进制格式的客户端才会被切换，老版本客户端不受影响。
+	 * 
+	 * @see net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec
+	 * @see net.x52im.mobileimsdk.server.protocal.c.PLoginInfo#getProtocalFormat()
+	 * @since 6.1
+	 */
+	public static boolean binaryProtocalEnabled = true;
+	
     /**
      * 是否允许与MobileIMSDK Web版进行互通。true表示需要互通，否则不互通，默认false。
      * <p>
@@ -135,6 +149,14 @@ public abstract class ServerLauncher
     /** WebSocket网关实现类 */
     private Gateway ws = null;
     
+    /** 
+     * 各网关共用的Netty线程池。
+     * 
+     * @since 6.1
+     * @see #initEventLoopGroups()
+     */
+    protected GatewayEventLoopGroups eventLoopGroups = null;
+    
     public ServerLauncher() throws IOException 
     {
     	// default do nothing
@@ -163,26 +185,47 @@ public abstract class ServerLauncher
      */
     protected abstract void initListeners();
     
+    /**
+     * 初始化各网关共用的Netty线程池。
+     * <p>
+     * 各线程池的线程数和I/O时间占比请通过 {@link GatewayEventLoopGroups} 中的静态参数设置，如有需要，
+     * 子类也可以重写本方法返回自已的实现。
+     * 
+     * @return 各网关共用的线程池
+     * @since 6.1
+     */
+    protected GatewayEventLoopGroups initEventLoopGroups()
+    {
+    	return new GatewayEventLoopGroups();
+    }
+    
     /**
      * 初始化 网关（一个网关实例对应一种网络通信类型）。
+     * <p>
+     * 自v6.1起，所有网关共用同一套Netty线程池 {@link #eventLoopGroups}。
      */
     protected void initGateways()
     {
+    	eventLoopGroups = initEventLoopGroups();
+    	
     	if(Gateway.isSupportUDP(supportedGateways))
     	{
 	    	udp = new GatewayUDP();
+	    	udp.setEventLoopGroups(eventLoopGroups);
 	    	udp.init(this.serverCoreHandler);
     	}
     	
     	if(Gateway.isSupportTCP(supportedGateways))
     	{
 	    	tcp = new GatewayTCP();
+	    	tcp.setEventLoopGroups(eventLoopGroups);
 	    	tcp.init(this.serverCoreHandler);
     	}
     	
     	if(Gateway.isSupportWebSocket(supportedGateways))
     	{
     		ws = new GatewayWebsocket();
+    		ws.setEventLoopGroups(eventLoopGroups);
     		ws.init(this.serverCoreHandler);
     	}
     }
@@ -236,6 +279,21 @@ public abstract class ServerLauncher
     			logger.info("[IMCORE] 配置项：未开启与MobileIMSDK Web的互通.");
     		}
     		
+    		// 需要集群在线状态目录时，先清除本节点上次（可能是异常退出的）遗留的在线记录(since 6.1)
+    		if(PresenceDirectory.ENABLED)
+    		{
+    			PresenceDirectory.getInstance().clearLocalNode();
+    			logger.info("[IMCORE] 配置项：已开启集群在线状态目录（本节点：{}）.", PresenceDirectory.getInstance().getNodeId());
+    		}
+    		
+    		// 使用默认的指纹码生成器时，集群部署须为每台服务器设置不同的节点id(since 6.1)
+    		if(Protocal.getFingerPrintGenerator() instanceof DefaultFingerPrintGenerator
+    				&& !DefaultFingerPrintGenerator.isNodeIdConfigured())
+    		{
+    			logger.warn("[IMCORE] 配置项：未设置DefaultFingerPrintGenerator.NODE_ID，将使用随机的节点id，集群部署时指纹码有"
+    					+ "重复的可能，请为每台服务器设置不同的值！");
+    		}
+    		
     		// ** 【9】服务端开始各通信类型的网络侦听
     		bind();
 
@@ -269,6 +327,7 @@ public abstract class ServerLauncher
      * @see io.netty.channel.Channel#close()
      * @see net.x52im.mobileimsdk.server.qos.QoS4ReciveDaemonC2S#stop()
      * @see net.x52im.mobileimsdk.server.qos.QoS4SendDaemonS2C#stop()
+     * @see net.x52im.mobileimsdk.server.bridge.MQProvider#stop()
      * @see net.x52im.mobileimsdk.server.bridge.QoS4ReciveDaemonC2B#stop()
      * @see net.x52im.mobileimsdk.server.bridge.QoS4SendDaemonB2C#stop()
      */
@@ -281,6 +340,12 @@ public abstract class ServerLauncher
     		tcp.shutdown();
     	if(ws != null)
     		ws.shutdown();
+    	// 所有网关的服务端Channel均已开始关闭后，再优雅地退出各网关共用的线程池
+    	if(eventLoopGroups != null)
+    	{
+    		eventLoopGroups.shutdownGracefully();
+    		eventLoopGroups = null;
+    	}
     	//** 【1】END
     	
 		//** 【2】释放MobileIMSDK框架的资源 START
@@ -288,6 +353,12 @@ public abstract class ServerLauncher
     	QoS4ReciveDaemonC2S.getInstance().stop();
     	// 停止服务端对S2C模式下QoS机制的丢包重传和离线通知线程
     	QoS4SendDaemonS2C.getInstance().stop();
+    	// 停止与Web的互通桥接器：尚未得到MQ服务器确认的桥接消息均以失败结果通知(since 6.1)
+    	if(ServerLauncher.bridgeEnabled && serverCoreHandler != null && serverCoreHandler.getBridgeProcessor() != null)
+    		serverCoreHandler.getBridgeProcessor().stop();
+    	// 从集群在线状态目录中清除本节点上的全部用户(since 6.1)
+    	if(PresenceDirectory.ENABLED)
+    		PresenceDirectory.getInstance().clearLocalNode();
 //    	// 需要与Web版互通时
 //    	if(ServerLauncher.bridgeEnabled){
 //    		QoS4ReciveDaemonC2B.getInstance().stop();
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.bridge;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.MessageProperties;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * 异步、批量的RabbitMQ消息发布器（基于Publisher Confirms机制）。
+ * <p>
+ * {@link MQProvider#publish(String)} 是同步调用：调用线程（对于MobileIMSDK来说就是Netty的I/O线程）
+ * 要直接在共享的Channel上执行basicPublish，MQ服务器或网络稍有迟缓，该I/O线程上所有连接的消息处理都会
+ * 被阻塞。本类将发布操作交给一个专用的线程：
+ * <ul>
+ * <li>1）调用者只是把消息放入有界队列，队列满时立即以失败结果回调，绝不阻塞调用线程；</li>
+ * <li>2）发布线程每次从队列中取出一批消息连续发布，减少线程唤醒和网络写的次数；</li>
+ * <li>3）Channel开启了confirm模式，MQ服务器确认（ack）或拒绝（nack）后再通过 {@link PublishCallback}
+ *    异步回调发布结果，因而回调为true即意味着消息已被MQ服务器可靠接收；</li>
+ * <li>4）Channel断开或被替换时，所有尚未得到确认的消息均以失败结果回调，不会出现“没有下文”的消息。</li>
+ * </ul>
+ * <p>
+ * 与 {@link MQProvider} 一样，本类的代码不限于MobileIMSDK使用，可用于任意合适场景。
+ * 
+ * @since 6.1
+ * @see MQProvider#publishAsync(String, PublishCallback)
+ */
+public class MQAsyncPublisher
+{
+	private static Logger logger = LoggerFactory.getLogger(MQAsyncPublisher.class);  
+	
+	/** 默认的待发布队列容量 */
+	public final static int DEFAULT_QUEUE_CAPACITY = 65536;
+	/** 默认的每批最大发布条数 */
+	public final static int DEFAULT_BATCH_SIZE = 256;
+	
+	/** 待发布的消息队列（有界） */
+	protected final ArrayBlockingQueue<PendingPublish> queue;
+	/** 每批最大发布条数 */
+	protected final int batchSize;
+	/** 当前用于发布的Channel（已开启confirm模式）及其尚未得到确认的消息，Channel尚未就绪时为null */
+	protected volatile ConfirmChannel confirmChannel = null;
+	/** 发布线程 */
+	protected Thread publishThread = null;
+	protected volatile boolean running = false;
+	
+	/** TAG for log */
+	protected String TAG = null;
+	
+	/**
+	 * 新建一个异步发布器对象（使用默认的队列容量和批大小）。
+	 * 
+	 * @param TAG 用于log显示时的前缀，仅此而已
+	 * @see #MQAsyncPublisher(String, int, int)
+	 */
+	public MQAsyncPublisher(String TAG)
+	{
+		this(TAG, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * 新建一个异步发布器对象。
+	 * 
+	 * @param TAG 用于log显示时的前缀，仅此而已
+	 * @param queueCapacity 待发布队列的容量，队列满时新的发布请求将立即以失败结果回调
+	 * @param batchSize 每批最大发布条数
+	 */
+	public MQAsyncPublisher(String TAG, int queueCapacity, int batchSize)
+	{
+		if(queueCapacity <= 0 || batchSize <= 0)
+			throw new IllegalArgumentException("["+TAG+"]无效的参数queueCapacity或batchSize！");
+		
+		this.TAG = TAG;
+		this.queue = new ArrayBlockingQueue<PendingPublish>(queueCapacity);
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * 启动发布线程（可无害地重复调用）。
+	 */
+	public synchronized void start()
+	{
+		if(running)
+			return;
+		
+		running = true;
+		publishThread = new Thread(new Runnable(){
+			@Override
+			public void run()
+			{
+				publishLoop();
+			}
+		}, "mq-async-publisher-"+TAG);
+		publishThread.setDaemon(true);
+		publishThread.start();
+	}
+	
+	/**
+	 * 停止发布线程，队列中尚未发布的、以及已发布但尚未得到确认的消息均以失败结果回调。
+	 * <p>
+	 * 此后须先调用 {@link #setChannel(Channel)} 设置新的Channel，再调用 {@link #start()} 重新启动。
+	 */
+	public synchronized void stop()
+	{
+		running = false;
+		if(publishThread != null)
+		{
+			publishThread.interrupt();
+			try
+			{
+				// 等待发布线程处理完手头的这一批消息，以免它们在下面的失败回调之后才被发布
+				publishThread.join(1000);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			publishThread = null;
+		}
+		
+		ArrayList<PendingPublish> rest = new ArrayList<PendingPublish>();
+		queue.drainTo(rest);
+		for(PendingPublish p : rest)
+			p.complete(false);
+		
+		try
+		{
+			setChannel(null);
+		}
+		catch (Exception e)
+		{
+			// setChannel(null)不会抛出异常
+		}
+	}
+	
+	/**
+	 * 设置用于发布的Channel（首次连接成功及每次连接恢复后由 {@link MQProvider} 调用）。
+	 * <p>
+	 * 本方法将为该Channel开启confirm模式，之前的Channel上尚未得到确认的消息将以失败结果回调
+	 * （它们的确认不会再到来了）。
+	 * 
+	 * @param ch 新建好的发布用Channel，为null表示Channel已不可用
+	 * @throws Exception 开启confirm模式出错时抛出本异常
+	 */
+	public void setChannel(Channel ch) throws Exception
+	{
+		ConfirmChannel old = this.confirmChannel;
+		
+		if(ch != null)
+		{
+			final ConfirmChannel cc = new ConfirmChannel(ch);
+			ch.confirmSelect();
+			ch.addConfirmListener(new ConfirmListener(){
+				@Override
+				public void handleAck(long deliveryTag, boolean multiple)
+				{
+					cc.confirm(deliveryTag, multiple, true);
+				}
+				
+				@Override
+				public void handleNack(long deliveryTag, boolean multiple)
+				{
+					logger.warn("["+TAG+"-↑] - MQ服务器拒绝了deliveryTag="+deliveryTag+"(multiple="+multiple+")的消息【NO】");
+					cc.confirm(deliveryTag, multiple, false);
+				}
+			});
+			ch.addShutdownListener(new ShutdownListener(){
+				@Override
+				public void shutdownCompleted(ShutdownSignalException cause)
+				{
+					cc.failAll();
+				}
+			});
+			this.confirmChannel = cc;
+		}
+		else
+		{
+			this.confirmChannel = null;
+		}
+		
+		if(old != null)
+			old.failAll();
+	}
+	
+	/**
+	 * 异步发布一条消息（本方法不会阻塞）。
+	 * 
+	 * @param exchangeName
+	 * @param routingKey
+	 * @param message 消息内容（已编码好的byte数组）
+	 * @param callback 发布结果的回调（可为null）
+	 * @return true表示已成功放入待发布队列（最终结果以回调为准），false表示队列已满或发布器未启动（此时也会以失败结果回调）
+	 */
+	public boolean publish(String exchangeName, String routingKey, byte[] message, PublishCallback callback)
+	{
+		PendingPublish p = new PendingPublish(exchangeName, routingKey, message, callback);
+		if(running && queue.offer(p))
+			return true;
+		
+		logger.warn("["+TAG+"-↑] - 异步发布器"+(running ? "的待发布队列已满("+queue.size()+")" : "尚未启动")+"，本条消息发布失败【NO】");
+		p.complete(false);
+		return false;
+	}
+	
+	/**
+	 * 当前队列中待发布的消息数。
+	 */
+	public int getQueueSize()
+	{
+		return queue.size();
+	}
+	
+	/**
+	 * 已发布、尚未得到MQ服务器确认的消息数。
+	 */
+	public int getUnconfirmedSize()
+	{
+		ConfirmChannel cc = confirmChannel;
+		return cc != null ? cc.unconfirmed.size() : 0;
+	}
+	
+	protected void publishLoop()
+	{
+		ArrayList<PendingPublish> batch = new ArrayList<PendingPublish>(batchSize);
+		while(running)
+		{
+			try
+			{
+				PendingPublish first = queue.poll(1, TimeUnit.SECONDS);
+				if(first == null)
+					continue;
+				
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				publishBatch(batch);
+			}
+			catch (InterruptedException e)
+			{
+				// stop()时的中断，由while条件决定是否退出
+			}
+			catch (Exception e)
+			{
+				logger.error("["+TAG+"-↑] - 异步发布线程运行时出错了："+e.getMessage(), e);
+			}
+			finally
+			{
+				batch.clear();
+			}
+		}
+	}
+	
+	protected void publishBatch(ArrayList<PendingPublish> batch)
+	{
+		ConfirmChannel cc = confirmChannel;
+		if(cc == null || !cc.channel.isOpen())
+		{
+			logger.warn("["+TAG+"-↑] - 发布用的Channel尚未就绪，本批"+batch.size()+"条消息发布失败【NO】");
+			for(PendingPublish p : batch)
+				p.complete(false);
+			return;
+		}
+		
+		for(int i = 0; i < batch.size(); i++)
+		{
+			PendingPublish p = batch.get(i);
+			long seqNo = -1;
+			try
+			{
+				// 与同步的publish共用同一个Channel，需保证“取序号+发布”的原子性
+				synchronized(cc.channel)
+				{
+					seqNo = cc.channel.getNextPublishSeqNo();
+					cc.unconfirmed.put(seqNo, p);
+					cc.channel.basicPublish(p.exchangeName, p.routingKey
+							// 此属性指明消息需要持久化
+							, MessageProperties.PERSISTENT_TEXT_PLAIN, p.message);
+				}
+			}
+			catch (Exception e)
+			{
+				logger.error("["+TAG+"-↑] - 异步publish时出错了，原因："+e.getMessage()+"【NO】", e);
+				if(seqNo >= 0)
+					cc.unconfirmed.remove(seqNo);
+				p.complete(false);
+			}
+		}
+	}
+	
+	/**
+	 * 发布结果的回调接口。
+	 * <p>
+	 * 回调可能发生在调用者线程（立即失败时）、发布线程或RabbitMQ客户端的线程中，实现者不应在其中
+	 * 执行耗时操作，必要时请切换到自已的线程中处理。
+	 */
+	public interface PublishCallback
+	{
+		/**
+		 * 发布结果通知。
+		 * 
+		 * @param confirmed true表示消息已被MQ服务器确认接收，false表示发布失败或被MQ服务器拒绝
+		 * @param message 消息内容
+		 */
+		void onResult(boolean confirmed, byte[] message);
+	}
+	
+	/**
+	 * 一条待发布（或待确认）的消息。
+	 */
+	protected static class PendingPublish
+	{
+		final String exchangeName;
+		final String routingKey;
+		final byte[] message;
+		final PublishCallback callback;
+		
+		PendingPublish(String exchangeName, String routingKey, byte[] message, PublishCallback callback)
+		{
+			this.exchangeName = exchangeName;
+			this.routingKey = routingKey;
+			this.message = message;
+			this.callback = callback;
+		}
+		
+		void complete(boolean confirmed)
+		{
+			if(callback != null)
+			{
+				try
+				{
+					callback.onResult(confirmed, message);
+				}
+				catch (Exception e)
+				{
+					logger.warn("[MQAsyncPublisher] - 发布结果回调出错了："+e.getMessage(), e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 开启了confirm模式的Channel及其上尚未得到确认的消息（key为发布序号）。
+	 */
+	protected static class ConfirmChannel
+	{
+		final Channel channel;
+		final ConcurrentSkipListMap<Long, PendingPublish> unconfirmed = new ConcurrentSkipListMap<Long, PendingPublish>();
+		
+		ConfirmChannel(Channel channel)
+		{
+			this.channel = channel;
+		}
+		
+		void confirm(long deliveryTag, boolean multiple, boolean ack)
+		{
+			if(multiple)
+			{
+				ConcurrentNavigableMap<Long, PendingPublish> confirmed = unconfirmed.headMap(deliveryTag, true);
+				Iterator<Map.Entry<Long, PendingPublish>> it = confirmed.entrySet().iterator();
+				while(it.hasNext())
+				{
+					Map.Entry<Long, PendingPublish> entry = it.next();
+					if(unconfirmed.remove(entry.getKey(), entry.getValue()))
+						entry.getValue().complete(ack);
+				}
+			}
+			else
+			{
+				PendingPublish p = unconfirmed.remove(deliveryTag);
+				if(p != null)
+					p.complete(ack);
+			}
+		}
+		
+		void failAll()
+		{
+			Iterator<Map.Entry<Long, PendingPublish>> it = unconfirmed.entrySet().iterator();
+			while(it.hasNext())
+			{
+				Map.Entry<Long, PendingPublish> entry = it.next();
+				if(unconfirmed.remove(entry.getKey(), entry.getValue()))
+					entry.getValue().complete(false);
+			}
+		}
+	}
+}
@@ -49,7 +49,8 @@ import com.rabbitmq.client.ShutdownSignalException;
  *  <li>3）与MQ服务器的断线重连和恢复能力；</li>
  *  <li>4）发送出错暂存到缓存数组（内存中），并在下次重连正常时自动重发；</li>
  *  <li>5）遵照官方的最佳实践：复用同的是一个连接（connection）、各自两个channel（一个用于生产者、一个用于消费者）；</li>
- *  <li>6）消费者手动ACK能力：业务层处理不成功可重新放回队列。</li>
+ *  <li>6）消费者手动ACK能力：业务层处理不成功可重新放回队列；</li>
+ *  <li>7）异步批量的消息发布（基于Publisher Confirms），见 {@link #publishAsync(String, MQAsyncPublisher.PublishCallback)}（since 6.1）。</li>
  *  </ul>
  * 
  * @author Jack Jiang(http://www.52im.net/thread-2792-1-1.html)
@@ -78,8 +79,15 @@ public class MQProvider
 	 *      ，connction返回直接是null，当然就不存在automaticRecovery能力了，所以需要自已
 	 *   来尝试重新start，一定要注意思路哦，别理解乱了。*/
 	protected final Timer timerForStartAgain = new Timer();
+	/** 已登记在 {@link #timerForStartAgain} 上、尚未执行的重新start任务（since 6.1，{@link #stop()}时将被取消） */
+	protected TimerTask startAgainTask = null;
 	/** 此标识仅用于防止首次连接失败重试时因TimeTask的异步执行而发生重复执行的可能，仅此而已 */
 	protected boolean startRunning = false;
+	/** 
+	 * 是否已被 {@link #stop()}（since 6.1）：为true时，尚未执行的重新start、worker重试等任务都
+	 * 不再执行，以免停止后又重新连上MQ服务器。再次调用 {@link #start()} 时复位。
+	 */
+	protected volatile boolean stopped = false;
 	
 	/** 本定时的作用是当worker启动或运行过程中出错时，可以自动进行恢复，而不至于丧失功能 */
 	protected final Timer timerForRetryWorker = new Timer();
@@ -105,6 +113,12 @@ public class MQProvider
 	 */
 	protected boolean publishTrayAgainEnable = false;
 	
+	/** 
+	 * 异步批量发布器（since 6.1）：有生产者队列时才会创建，发布操作在其专用线程中进行，
+	 * 调用者不会因MQ服务器或网络的迟缓而被阻塞。
+	 */
+	protected MQAsyncPublisher asyncPublisher = null;
+	
 	/** 本类中消费者收到的消息通过此观察者进行回调通知 */
 	protected Observer consumerObserver = null;
 	
@@ -172,6 +186,12 @@ public class MQProvider
 		if(this.decodeCharset == null || this.decodeCharset.trim().length() == 0)
 			this.decodeCharset = DEFAULT_DECODE_CHARSET;
 		
+		if(this.publishToQueue != null)
+		{
+			this.asyncPublisher = new MQAsyncPublisher(TAG);
+			this.asyncPublisher.start();
+		}
+		
 		init();
 	}
 	
@@ -233,7 +253,8 @@ public class MQProvider
 					{
 						logger.info("["+TAG+"] - 连接已成功自动恢复了！【OK】");
 						
-						start();
+						if(!stopped)
+							start();
 					}
 				});
 			}
@@ -255,6 +276,7 @@ public class MQProvider
 	{
 		if(startRunning)
 			return;
+		stopped = false;
 		
 		try
 		{
@@ -277,12 +299,14 @@ public class MQProvider
 					 *   来尝试重新start，一定要注意思路哦，别理解乱了。
 					 */
 					// 暂停5秒（后再重试）（注意：不能使用Thread.sleep那种方法，否则相当于无穷无尽在一个start里嵌套调用start，注意理解）
-					timerForStartAgain.schedule(new TimerTask() {
+					startAgainTask = new TimerTask() {
 						public void run() {
-							// 重新开始
-							start();
+							// 重新开始（期间已被stop()的则不再重试）
+							if(!stopped)
+								start();
 						}
-					}, 5 * 1000);// 暂停5秒后重试
+					};
+					timerForStartAgain.schedule(startAgainTask, 5 * 1000);// 暂停5秒后重试
 				}
 			}
 			else
@@ -297,6 +321,38 @@ public class MQProvider
 		}
 	}
 	
+	/**
+	 * 停止本provider：取消尚未执行的重新start任务，停止异步发布器（尚未得到确认的消息均以失败结果回调）
+	 * 并关闭与MQ服务器的连接。
+	 * 
+	 * @since 6.1
+	 */
+	public void stop()
+	{
+		// 先取消尚未执行的重新start任务，以免停止后又重新连上MQ服务器
+		stopped = true;
+		TimerTask t = startAgainTask;
+		if(t != null)
+			t.cancel();
+		
+		if(asyncPublisher != null)
+			asyncPublisher.stop();
+		
+		Connection conn = _connection;
+		_connection = null;
+		if(conn != null)
+		{
+			try
+			{
+				conn.close();
+			}
+			catch (Exception e)
+			{
+				logger.warn("["+TAG+"] - [stop()中]connection.close()时发生错误。", e);
+			}
+		}
+	}
+	
 	protected void whenConnected(Connection conn)
 	{
 		this.startPublisher(conn);
@@ -335,6 +391,13 @@ public class MQProvider
 				logger.info("["+TAG+"-↑] - [startPublisher中] Queue[当前队列消息数："+qOK.getMessageCount()
 						+",消费者："+qOK.getConsumerCount()+"]已成功建立，Publisher初始化成功，"
 						+"消息将可publish过去且不怕丢失了。【OK】(当前暂存数组长度:N/A)");//"+offlinePubQueue.size()+")");
+				
+				// 异步发布器改用新的Channel（将为其开启confirm模式），stop()后重新start()时一并重新启动
+				if(asyncPublisher != null)
+				{
+					asyncPublisher.setChannel(_pubChannel);
+					asyncPublisher.start();
+				}
 
 				if(publishTrayAgainEnable)
 				{
@@ -401,11 +464,16 @@ public class MQProvider
 		
 		try
 		{
-			_pubChannel.basicPublish(exchangeName, routingKey
-					// 此属性指明消息需要持久化（RabbitMQ规定：队列和消息都
-					// 设置持久化才能保证一条消息被持久化，实践证明仅队列持久化是没用的哦）
-					, MessageProperties.PERSISTENT_TEXT_PLAIN
-					, message.getBytes(this.encodeCharset));
+			Channel ch = _pubChannel;
+			// 与异步发布器共用同一个Channel，需保证其confirm序号的连续性
+			synchronized(ch)
+			{
+				ch.basicPublish(exchangeName, routingKey
+						// 此属性指明消息需要持久化（RabbitMQ规定：队列和消息都
+						// 设置持久化才能保证一条消息被持久化，实践证明仅队列持久化是没用的哦）
+						, MessageProperties.PERSISTENT_TEXT_PLAIN
+						, message.getBytes(this.encodeCharset));
+			}
 			logger.info("["+TAG+"-↑] - [startPublisher()中] publish()成功了 ！(数据:"
 					+exchangeName+","+routingKey+","+message+")");
 			ok = true;
@@ -425,6 +493,58 @@ public class MQProvider
 		return ok;
 	}
 	
+	/**
+	 * 向默认的exchange和队列异步发布一条消息（本方法不会阻塞调用线程）。
+	 * <p>
+	 * 消息将由 {@link MQAsyncPublisher} 的专用线程批量发布，MQ服务器确认（或拒绝）后通过callback
+	 * 回调发布结果。
+	 * 
+	 * @param message
+	 * @param callback 发布结果的回调（可为null）
+	 * @return true表示已成功提交（最终结果以回调为准），false表示提交失败（此时也会以失败结果回调）
+	 * @since 6.1
+	 */
+	public boolean publishAsync(String message, MQAsyncPublisher.PublishCallback callback)
+	{
+		return this.publishAsync("", this.publishToQueue, message, callback);
+	}
+	
+	/**
+	 * 异步发布一条消息（本方法不会阻塞调用线程）。
+	 * 
+	 * @param exchangeName
+	 * @param routingKey
+	 * @param message
+	 * @param callback 发布结果的回调（可为null）
+	 * @return true表示已成功提交（最终结果以回调为准），false表示提交失败（此时也会以失败结果回调）
+	 * @since 6.1
+	 */
+	protected boolean publishAsync(String exchangeName, String routingKey, String message, MQAsyncPublisher.PublishCallback callback)
+	{
+		byte[] body;
+		try
+		{
+			body = message.getBytes(this.encodeCharset);
+		}
+		catch (Exception e)
+		{
+			logger.error("["+TAG+"-↑] - publishAsync()时编码消息出错了："+e.getMessage(), e);
+			if(callback != null)
+				callback.onResult(false, null);
+			return false;
+		}
+		
+		if(asyncPublisher == null)
+		{
+			logger.error("["+TAG+"-↑] - 没有设置生产者队列，publishAsync()没有继续！");
+			if(callback != null)
+				callback.onResult(false, body);
+			return false;
+		}
+		
+		return asyncPublisher.publish(exchangeName, routingKey, body, callback);
+	}
+	
 	// A worker that acks messages only if processed succesfully
 	protected void startWorker(Connection conn)
 	{
@@ -499,8 +619,9 @@ public class MQProvider
 			// 暂停5秒（后再重试）（注意：不能使用Thread.sleep那种方法，否则相当于无穷无尽在一个start里嵌套调用start，注意理解）
 			this.timerForRetryWorker.schedule(new TimerTask() {
 				public void run() {
-					// 重新开始
-					startWorker(MQProvider.this._connection);
+					// 重新开始（期间已被stop()的则不再重试）
+					if(!stopped)
+						startWorker(MQProvider.this._connection);
 				}
 			}, 5 * 1000);// 暂停5秒后重试
 		}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.cluster;
+
+import net.x52im.mobileimsdk.server.network.MBObserver;
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+
+/**
+ * 节点间直接转发消息的通道（由应用层按自已的集群通信方式实现，比如节点间的长连接、RPC等）。
+ * <p>
+ * 设置后（见 {@link PresenceDirectory#setForwarder(ClusterForwarder)}），接收方在集群中其它节点上在线
+ * 的C2C消息将直接转发给该节点，不再经由MQ桥接；未设置时仍按原有的桥接方式处理。
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.utils.GlobalSendHelper#sendDataC2C
+ */
+public interface ClusterForwarder
+{
+	/**
+	 * 将消息转发给指定节点，由该节点实时发给接收方。
+	 * <p>
+	 * 本方法在Netty的I/O线程中被调用，请勿阻塞；resultObserver可在任意线程中回调，且必须回调一次。
+	 *
+	 * @param nodeId 接收方所在的节点
+	 * @param p 要转发的消息
+	 * @param resultObserver 转发结果的观察者：true表示该节点已将消息实时发给接收方，false表示未能送达
+	 *                       （将按实时发送失败进行离线处理）
+	 */
+	void forward(String nodeId, Protocal p, MBObserver resultObserver);
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.cluster;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 进程内的集群在线状态目录后端（即 {@link PresenceBackend} 的本地替身）。
+ * <p>
+ * 目录只存放在当前JVM中，适用于单机部署、以及在一个进程内模拟多个节点的测试（多个
+ * {@link PresenceDirectory} 共用同一个实例即可）。这也是 {@link PresenceDirectory} 默认使用的后端。
+ * <p>
+ * 每个用户的节点集合是不可变的，增删节点时复制出新集合并以CAS方式替换（与在线列表的更新方式一致），
+ * 因而查询无需任何锁，也不会阻塞。
+ *
+ * @since 6.1
+ */
+public class InProcessPresenceBackend implements PresenceBackend
+{
+	/** 在线目录：key=user_id、value=所在的全部节点（不可变的集合） */
+	private final ConcurrentMap<String, Set<String>> directory = new ConcurrentHashMap<String, Set<String>>();
+	private final CopyOnWriteArrayList<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+
+	@Override
+	public void online(String userId, String nodeId)
+	{
+		for(;;)
+		{
+			Set<String> old = directory.get(userId);
+			if(old == null)
+			{
+				if(directory.putIfAbsent(userId, Collections.singleton(nodeId)) == null)
+					break;
+				continue;
+			}
+			
+			// 已记录在该节点上：无需任何改动
+			if(old.contains(nodeId))
+				return;
+			
+			Set<String> update = new HashSet<String>(old);
+			update.add(nodeId);
+			if(directory.replace(userId, old, Collections.unmodifiableSet(update)))
+				break;
+		}
+		fireInvalidate(userId);
+	}
+
+	@Override
+	public void offline(String userId, String nodeId)
+	{
+		if(removeNode(userId, nodeId))
+			fireInvalidate(userId);
+	}
+
+	@Override
+	public void offlineAll(String nodeId)
+	{
+		for(Map.Entry<String, Set<String>> entry : directory.entrySet())
+		{
+			if(entry.getValue().contains(nodeId) && removeNode(entry.getKey(), nodeId))
+				fireInvalidate(entry.getKey());
+		}
+	}
+
+	@Override
+	public Set<String> lookup(String userId)
+	{
+		Set<String> nodes = directory.get(userId);
+		return nodes != null ? nodes : Collections.<String>emptySet();
+	}
+
+	@Override
+	public void addInvalidationListener(InvalidationListener listener)
+	{
+		listeners.addIfAbsent(listener);
+	}
+
+	@Override
+	public void removeInvalidationListener(InvalidationListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * 当前记录为在线的用户数。
+	 */
+	public int size()
+	{
+		return directory.size();
+	}
+
+	/**
+	 * 从用户的节点集合中移除指定节点（集合为空时整个移除）。
+	 *
+	 * @return true表示已移除，false表示该用户原本就没有记录在该节点上
+	 */
+	private boolean removeNode(String userId, String nodeId)
+	{
+		for(;;)
+		{
+			Set<String> old = directory.get(userId);
+			if(old == null || !old.contains(nodeId))
+				return false;
+			
+			if(old.size() == 1)
+			{
+				if(directory.remove(userId, old))
+					return true;
+				continue;
+			}
+			
+			Set<String> update = new HashSet<String>(old);
+			update.remove(nodeId);
+			if(directory.replace(userId, old, Collections.unmodifiableSet(update)))
+				return true;
+		}
+	}
+
+	private void fireInvalidate(String userId)
+	{
+		for(InvalidationListener l : listeners)
+			l.invalidate(userId);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.cluster;
+
+import java.util.Set;
+
+/**
+ * 集群在线状态目录（user_id → 所在节点）的存储后端。
+ * <p>
+ * 同一账号可多端同时在线（见 {@link net.x52im.mobileimsdk.server.processor.OnlineProcessor}），各终端可能分别
+ * 登陆在不同的节点上，因而目录中每个用户对应的是一个节点集合：某节点上线、下线只增删该节点，不影响该用户
+ * 在其它节点上的记录。
+ * <p>
+ * 生产环境中可基于Redis、etcd等共享存储实现（其它节点对目录的修改，通过它们的订阅/通知机制回调
+ * {@link InvalidationListener}）；单机和测试时可使用进程内的 {@link InProcessPresenceBackend}。
+ * <p>
+ * <b>实现说明：</b>本接口的所有方法都会在Netty的I/O线程中被调用，<font color="red">均不允许阻塞</font>
+ * （阻塞期间该I/O线程上的所有会话都将停顿）：{@link #online(String, String)}、{@link #offline(String, String)}
+ * 可异步提交；{@link #lookup(String)} 虽然只在近端缓存未命中时才会被调用（C2C消息的接收方不在本机在线时），
+ * 也须直接从本地内存中作答（比如由共享存储的订阅/通知机制维护的本地副本），而不能每次都同步查询远程存储。
+ *
+ * @since 6.1
+ * @see PresenceDirectory#setBackend(PresenceBackend)
+ */
+public interface PresenceBackend
+{
+	/**
+	 * 记录用户已在指定节点上线（该用户在其它节点上的记录不受影响）。
+	 *
+	 * @param userId 用户的user_id
+	 * @param nodeId 节点标识
+	 */
+	void online(String userId, String nodeId);
+
+	/**
+	 * 移除用户在指定节点上的记录（该用户在其它节点上的记录不受影响）。
+	 *
+	 * @param userId 用户的user_id
+	 * @param nodeId 节点标识
+	 */
+	void offline(String userId, String nodeId);
+
+	/**
+	 * 移除所有用户在指定节点上的记录（节点启动或关闭时调用，用于清除该节点此前异常退出时遗留的记录）。
+	 *
+	 * @param nodeId 节点标识
+	 */
+	void offlineAll(String nodeId);
+
+	/**
+	 * 查询用户所在的全部节点。
+	 *
+	 * @param userId 用户的user_id
+	 * @return 节点标识的集合（调用方不会修改它），用户不在线时返回空集合
+	 */
+	Set<String> lookup(String userId);
+
+	/**
+	 * 添加目录变化的监听者：任何节点改变了某用户的记录后，均须通知到各监听者。
+	 */
+	void addInvalidationListener(InvalidationListener listener);
+
+	/**
+	 * 移除目录变化的监听者。
+	 */
+	void removeInvalidationListener(InvalidationListener listener);
+
+	/**
+	 * 目录变化的监听者（用于使各节点的近端缓存失效）。
+	 */
+	interface InvalidationListener
+	{
+		/**
+		 * 该用户的记录已被改变。
+		 *
+		 * @param userId 用户的user_id，为null表示全部记录都可能已改变
+		 */
+		void invalidate(String userId);
+	}
+}
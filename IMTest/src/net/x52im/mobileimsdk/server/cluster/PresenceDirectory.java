@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.cluster;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 集群在线状态目录：记录每个在线用户当前所在的节点（即user_id → 节点集合，同一用户的多个终端
+ * 可能分别登陆在不同的节点上）。
+ * <p>
+ * 各节点在用户登陆成功、会话关闭时把变化写入共享的目录后端（见 {@link PresenceBackend}），C2C消息
+ * 的接收方在其它节点上在线时，据此即可知道它在哪些节点上，从而直接转发给这些节点（见 {@link ClusterForwarder}），
+ * 而不必一律经由MQ桥接。
+ * <p>
+ * <b>近端缓存：</b>查询结果（包括“不在线”）缓存在本节点内，此后对同一用户的查询只需一次本地Map查找；
+ * 目录中任何用户的记录被改变时，后端会通知各节点使其缓存失效，另外每条缓存还有最长存活时间
+ * （{@link #NEAR_CACHE_TTL}），以防个别失效通知丢失时长期使用过时的结果。
+ * <p>
+ * <b>线程说明：</b>查询在Netty的I/O线程中进行，缓存未命中时将同步调用 {@link PresenceBackend#lookup(String)}，
+ * 因而后端的实现不允许阻塞（详见 {@link PresenceBackend}）。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.utils.GlobalSendHelper#sendDataC2C
+ */
+public class PresenceDirectory
+{
+	private static Logger logger = LoggerFactory.getLogger(PresenceDirectory.class);
+
+	/**
+	 * 是否启用集群在线状态目录，默认false。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static boolean ENABLED = false;
+
+	/**
+	 * 本节点在集群中的唯一标识，默认为null（即使用“进程号@主机名”）。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static String NODE_ID = null;
+
+	/**
+	 * 近端缓存的最大条目数，默认262144，超过时整个缓存将被清空重建。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int NEAR_CACHE_MAX_SIZE = 1 << 18;
+
+	/**
+	 * 近端缓存每个条目的最长存活时间（单位：毫秒），默认60秒。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static long NEAR_CACHE_TTL = 60 * 1000;
+
+	private static PresenceDirectory instance = null;
+
+	/** 本节点的标识 */
+	private final String nodeId;
+	/** 近端缓存：key=user_id、value=查询结果 */
+	private final ConcurrentMap<String, CacheEntry> nearCache = new ConcurrentHashMap<String, CacheEntry>();
+	/** 缓存失效通知的计数（用于发现查询后端期间发生的失效） */
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private volatile PresenceBackend backend = null;
+	private volatile ClusterForwarder forwarder = null;
+
+	private final PresenceBackend.InvalidationListener invalidationListener = new PresenceBackend.InvalidationListener(){
+		@Override
+		public void invalidate(String userId)
+		{
+			PresenceDirectory.this.invalidate(userId);
+		}
+	};
+
+	/**
+	 * 为了简化API调用，本方法将以单例的形式存活。
+	 *
+	 * @return 本类的全局单例
+	 */
+	public static PresenceDirectory getInstance()
+	{
+		if (instance == null) {
+			synchronized (PresenceDirectory.class) {
+				if (instance == null) {
+					instance = new PresenceDirectory(NODE_ID != null ? NODE_ID : ManagementFactory.getRuntimeMXBean().getName()
+							, new InProcessPresenceBackend());
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * 创建一个独立的目录实例（一般只用于在一个进程内模拟多个节点的测试，其它情况请使用 {@link #getInstance()}）。
+	 *
+	 * @param nodeId 节点标识
+	 * @param backend 目录后端
+	 */
+	public PresenceDirectory(String nodeId, PresenceBackend backend)
+	{
+		this.nodeId = nodeId;
+		setBackend(backend);
+	}
+
+	/**
+	 * 设置目录后端（替换掉默认的 {@link InProcessPresenceBackend}），近端缓存将被清空。
+	 */
+	public synchronized void setBackend(PresenceBackend backend)
+	{
+		if(backend == null)
+			throw new IllegalArgumentException("backend不能为null！");
+
+		if(this.backend != null)
+			this.backend.removeInvalidationListener(invalidationListener);
+		backend.addInvalidationListener(invalidationListener);
+		this.backend = backend;
+		invalidate(null);
+	}
+
+	public PresenceBackend getBackend()
+	{
+		return backend;
+	}
+
+	/**
+	 * 设置节点间直接转发消息的通道，为null表示不直接转发（接收方在其它节点上的消息仍经由MQ桥接）。
+	 */
+	public void setForwarder(ClusterForwarder forwarder)
+	{
+		this.forwarder = forwarder;
+	}
+
+	public ClusterForwarder getForwarder()
+	{
+		return forwarder;
+	}
+
+	/**
+	 * 本节点的标识。
+	 */
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+
+	/**
+	 * 是否就是本节点。
+	 */
+	public boolean isLocalNode(String nodeId)
+	{
+		return this.nodeId.equals(nodeId);
+	}
+
+	/**
+	 * 用户已在本节点上线。
+	 *
+	 * @param userId 用户的user_id
+	 */
+	public void userOnline(String userId)
+	{
+		try
+		{
+			backend.online(userId, nodeId);
+		}
+		catch (Exception e)
+		{
+			logger.warn("[IMCORE-集群] 记录用户"+userId+"在本节点("+nodeId+")上线时出错了：", e);
+		}
+	}
+
+	/**
+	 * 用户已在本节点下线（该用户在其它节点上的记录不受影响）。
+	 *
+	 * @param userId 用户的user_id
+	 */
+	public void userOffline(String userId)
+	{
+		try
+		{
+			backend.offline(userId, nodeId);
+		}
+		catch (Exception e)
+		{
+			logger.warn("[IMCORE-集群] 记录用户"+userId+"在本节点("+nodeId+")下线时出错了：", e);
+		}
+	}
+
+	/**
+	 * 清除目录中记录在本节点上的全部用户（节点启动、关闭时调用）。
+	 */
+	public void clearLocalNode()
+	{
+		try
+		{
+			backend.offlineAll(nodeId);
+		}
+		catch (Exception e)
+		{
+			logger.warn("[IMCORE-集群] 清除本节点("+nodeId+")的在线记录时出错了：", e);
+		}
+		invalidate(null);
+	}
+
+	/**
+	 * 查询用户当前所在的全部节点（优先使用近端缓存）。
+	 *
+	 * @param userId 用户的user_id
+	 * @return 节点标识的集合（不可修改），用户不在线（或查询出错）时返回空集合
+	 */
+	public Set<String> lookup(String userId)
+	{
+		return lookupEntry(userId).nodes;
+	}
+
+	/**
+	 * 查询用户当前所在的其它节点（即不含本节点，优先使用近端缓存）。
+	 * <p>
+	 * 返回的列表随查询结果一起缓存，缓存命中时本方法不会创建任何对象。
+	 *
+	 * @param userId 用户的user_id
+	 * @return 节点标识的列表（不可修改），用户不在其它节点上在线（或查询出错）时返回空列表
+	 */
+	public List<String> lookupRemoteNodes(String userId)
+	{
+		return lookupEntry(userId).remoteNodes;
+	}
+
+	private CacheEntry lookupEntry(String userId)
+	{
+		if(userId == null)
+			return CacheEntry.OFFLINE;
+
+		long now = System.currentTimeMillis();
+		CacheEntry entry = nearCache.get(userId);
+		if(entry != null && entry.expireTime > now)
+			return entry;
+
+		// 缓存未命中：查询后端，查询期间若收到了失效通知，则本次结果不放入缓存（它可能已过时）
+		long stamp = invalidations.get();
+		Set<String> nodes;
+		try
+		{
+			nodes = backend.lookup(userId);
+		}
+		catch (Exception e)
+		{
+			logger.warn("[IMCORE-集群] 查询用户"+userId+"所在的节点时出错了：", e);
+			return CacheEntry.OFFLINE;
+		}
+
+		entry = newCacheEntry(nodes, now + NEAR_CACHE_TTL);
+		if(nearCache.size() >= NEAR_CACHE_MAX_SIZE)
+			nearCache.clear();
+		nearCache.put(userId, entry);
+		if(invalidations.get() != stamp)
+			nearCache.remove(userId);
+		return entry;
+	}
+
+	/**
+	 * 由后端的查询结果生成缓存条目（同时算出其中本节点以外的节点）。
+	 */
+	private CacheEntry newCacheEntry(Set<String> nodes, long expireTime)
+	{
+		if(nodes == null || nodes.isEmpty())
+			return new CacheEntry(Collections.<String>emptySet(), Collections.<String>emptyList(), expireTime);
+
+		List<String> remoteNodes = new ArrayList<String>(nodes.size());
+		for(String node : nodes)
+		{
+			if(!isLocalNode(node))
+				remoteNodes.add(node);
+		}
+		return new CacheEntry(Collections.unmodifiableSet(new HashSet<String>(nodes))
+				, remoteNodes.isEmpty() ? Collections.<String>emptyList() : Collections.unmodifiableList(remoteNodes), expireTime);
+	}
+
+	/**
+	 * 使近端缓存中该用户的条目失效。
+	 *
+	 * @param userId 用户的user_id，为null表示使全部条目失效
+	 */
+	public void invalidate(String userId)
+	{
+		invalidations.incrementAndGet();
+		if(userId == null)
+			nearCache.clear();
+		else
+			nearCache.remove(userId);
+	}
+
+	/**
+	 * 近端缓存的一个条目。
+	 */
+	private final static class CacheEntry
+	{
+		/** 不在线（用于查询出错等不缓存的场合） */
+		final static CacheEntry OFFLINE = new CacheEntry(Collections.<String>emptySet(), Collections.<String>emptyList(), 0);
+
+		/** 所在的全部节点，空集合表示不在线 */
+		final Set<String> nodes;
+		/** 其中本节点以外的节点 */
+		final List<String> remoteNodes;
+		/** 过期时间 */
+		final long expireTime;
+
+		CacheEntry(Set<String> nodes, List<String> remoteNodes, long expireTime)
+		{
+			this.nodes = nodes;
+			this.remoteNodes = remoteNodes;
+			this.expireTime = expireTime;
+		}
+	}
+}
@@ -80,4 +80,19 @@ public interface MessageQoSEventListenerS2C
 	 * 来找到原先已发生的消息并可在UI是将其标记为”已送达“或”已读“以便提升用户体验
 	 */
 	void messagesBeReceived(String theFingerPrint);
+	
+	/**
+	 * 多条消息已被对方收到的回调事件通知（客户端以批量ACK应答包一次应答了多条消息时调用）.
+	 * <p>
+	 * 默认实现为逐条调用 {@link #messagesBeReceived(String)}，需要批量处理（比如批量更新数据库中的
+	 * 消息状态）的应用层可重写本方法，以便一批应答只需处理一次。
+	 * 
+	 * @param theFingerPrints 已被收到的各消息的指纹特征码（唯一ID）
+	 * @since 6.1
+	 */
+	default void messagesBeReceived(ArrayList<String> theFingerPrints)
+	{
+		for(String theFingerPrint : theFingerPrints)
+			messagesBeReceived(theFingerPrint);
+	}
 }
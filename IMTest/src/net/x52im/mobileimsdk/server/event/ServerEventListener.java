@@ -68,6 +68,9 @@ public interface ServerEventListener
 	 * 用户退出登录回调方法定义（可理解为下线通知回调）。
 	 * <p>
 	 * 服务端的应用层通常可在本方法中实现用户下线通知等。
+	 * <p>
+	 * 自v6.1起同一账号可多端同时在线，本回调只在该用户最后一个在线终端的会话关闭时才会被调用（其它终端
+	 * 下线时该用户仍然在线，不会回调）。
 	 * 
 	 * @param userId 下线的用户user_id
 	 * @param obj
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+
+/**
+ * 指定了报文格式的待发{@link Protocal}报文。
+ * <p>
+ * 一般情况下各网关的编码器按该会话当前协商好的报文格式编码，写出本类的实例则按其指定的格式编码。
+ * 目前用于登陆响应：会话的报文格式在响应写出前即已切换为新格式（此后发给该会话的其它报文都使用
+ * 新格式），而登陆响应本身仍须以客户端发起登陆时使用的JSON格式发出。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see MBProtocalEncoder
+ * @see net.x52im.mobileimsdk.server.network.websocket.MBWebsocketProtocalEncoder
+ * @see net.x52im.mobileimsdk.server.utils.LocalSendHelper#sendData(io.netty.channel.Channel, Protocal, int, MBObserver)
+ */
+public final class FormattedProtocal
+{
+	private final Protocal protocal;
+	private final int protocalFormat;
+
+	/**
+	 * @param protocal 要发送的报文
+	 * @param protocalFormat 编码时使用的报文格式，见 {@link net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec#FORMAT_JSON} 等
+	 */
+	public FormattedProtocal(Protocal protocal, int protocalFormat)
+	{
+		this.protocal = protocal;
+		this.protocalFormat = protocalFormat;
+	}
+
+	public Protocal getProtocal()
+	{
+		return protocal;
+	}
+
+	public int getProtocalFormat()
+	{
+		return protocalFormat;
+	}
+}
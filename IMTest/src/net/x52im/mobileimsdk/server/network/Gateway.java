@@ -19,6 +19,7 @@ package net.x52im.mobileimsdk.server.network;
 import io.netty.channel.Channel;
 import io.netty.util.AttributeKey;
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
+import net.x52im.mobileimsdk.server.qos.RttEstimator;
 
 /**
  * 网关（用于服务端支持的各种网络通信类型的父类）。
@@ -31,7 +32,12 @@ public abstract class Gateway
 	/** 用于用户会话（即Netty中的“Channel”）中存放Socket类型标识的属性key */
 	public final static String SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE = "__socket_type__";
 	
-	/** 用于用户会话（即Netty中的“Channel”）中存取属性 {@link SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE} 用的AttributeKey */
+	/**
+	 * 用于用户会话（即Netty中的“Channel”）中存取属性 {@link SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE} 用的AttributeKey
+	 * 
+	 * @deprecated 自v6.1起，该信息改为存放在 {@link SessionContext} 中，本属性只为兼容老代码而仍被同步设置（见 {@link SessionContext#setSocketType(int)}），将在以后的版本中移除，请使用 {@link #getSocketType(Channel)} 存取
+	 */
+	@Deprecated
 	public static final AttributeKey<Integer> SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE_ATTR = AttributeKey.newInstance(SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE);
 	
 //	/** 网络通信类型常量：UDP */
@@ -48,6 +54,36 @@ public abstract class Gateway
 	/** 网络通信类型常量：WebSocket */
 	public static final int SOCKET_TYPE_WEBSOCKET = 0x0004; // 即2进制：0000 0100
 	
+	/** 各网关共用的Netty线程池（由ServerLauncher统一创建和关闭） */
+	protected GatewayEventLoopGroups eventLoopGroups = null;
+	
+	/**
+	 * 设置本网关要使用的Netty线程池（须在 {@link #init(ServerCoreHandler)} 之前调用）。
+	 * 
+	 * @param eventLoopGroups 各网关共用的线程池
+	 * @since 6.1
+	 * @see net.x52im.mobileimsdk.server.ServerLauncher#initGateways()
+	 */
+	public void setEventLoopGroups(GatewayEventLoopGroups eventLoopGroups)
+	{
+		this.eventLoopGroups = eventLoopGroups;
+	}
+	
+	/**
+	 * 返回本网关要使用的Netty线程池，尚未设置时立即抛出异常（而不是在启动过程中途出现空指针）。
+	 * 
+	 * @return 各网关共用的线程池
+	 * @throws IllegalStateException 尚未调用 {@link #setEventLoopGroups(GatewayEventLoopGroups)} 时
+	 * @since 6.1
+	 */
+	protected GatewayEventLoopGroups requireEventLoopGroups()
+	{
+		if(eventLoopGroups == null)
+			throw new IllegalStateException("[IMCORE] "+getClass().getSimpleName()+"的Netty线程池尚未设置，"
+					+ "请在init()之前调用setEventLoopGroups()（通过ServerLauncher启动时将自动设置）！");
+		return eventLoopGroups;
+	}
+	
 	/**
 	 * 初始化。
 	 * 
@@ -78,7 +114,7 @@ public abstract class Gateway
 	 */
 	public static void setSocketType(Channel c, int socketType)
 	{
-		c.attr(SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE_ATTR).set(socketType);
+		SessionContext.get(c).setSocketType(socketType);
 	}
 	
 	/**
@@ -88,7 +124,7 @@ public abstract class Gateway
 	 */
 	public static void removeSocketType(Channel c)
 	{
-		c.attr(SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE_ATTR).set(null);
+		SessionContext.get(c).setSocketType(-1);
 	}
 	
 	/**
@@ -102,10 +138,45 @@ public abstract class Gateway
 	 */
 	public static int getSocketType(Channel c)
 	{
-		Integer socketType = c.attr(SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE_ATTR).get();
-		if(socketType != null)
-			return socketType.intValue();
-		return -1;
+		return SessionContext.get(c).getSocketType();
+	}
+	
+	/**
+	 * 为该Channel设置登陆时协商好的报文格式（此后服务端发给该客户端的报文将采用此格式编码）。
+	 * 
+	 * @param c 通信会话Channel对象引用
+	 * @param protocalFormat 报文格式
+	 * @see net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec#FORMAT_JSON
+	 * @see net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec#FORMAT_BINARY_V1
+	 * @since 6.1
+	 */
+	public static void setProtocalFormat(Channel c, int protocalFormat)
+	{
+		SessionContext.get(c).setProtocalFormat(protocalFormat);
+	}
+	
+	/**
+	 * 获取该Channel登陆时协商好的报文格式。
+	 * 
+	 * @param c 通信会话Channel对象引用
+	 * @return 报文格式，尚未协商时返回 {@link net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec#FORMAT_JSON}
+	 * @since 6.1
+	 */
+	public static int getProtocalFormat(Channel c)
+	{
+		return SessionContext.get(c).getProtocalFormat();
+	}
+	
+	/**
+	 * 获取该Channel的RTT估算器（首次获取时自动创建）。
+	 * 
+	 * @param c 通信会话Channel对象引用
+	 * @return RTT估算器
+	 * @since 6.1
+	 */
+	public static RttEstimator getRttEstimator(Channel c)
+	{
+		return SessionContext.get(c).getRttEstimator();
 	}
 	
 	/**
@@ -200,13 +271,7 @@ public abstract class Gateway
 	public static String getGatewayFlag(Channel c)
 	{
 //		logger.info(">>>>>> c.class="+c.getClass().getName());
-		if(Gateway.isUDPChannel(c))
-			return "udp";
-		else if(Gateway.isTCPChannel(c))
-			return "tcp";
-		else if(Gateway.isWebSocketChannel(c))
-			return "websocket";
-		else 
-			return "unknow";
+		// 自v6.1起，该描述随网络类型标识一起预先生成好，直接取出即可
+		return c != null ? SessionContext.get(c).getGatewayFlag() : "unknow";
 	}
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseCombiner;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 各网关共用的Netty线程池（由 {@link net.x52im.mobileimsdk.server.ServerLauncher} 统一创建和关闭）。
+ * <p>
+ * v6.1以前每个网关各自创建一套boss和worker线程池（UDP网关还有一个独立的会话线程池），同时开启
+ * UDP、TCP、WebSocket三种网关时，仅I/O线程就有约6倍CPU核数之多，它们争抢同样的CPU核心，带来大量
+ * 无谓的线程切换。现在所有网关共用以下几个线程池，各线程池的线程数和I/O时间占比均可单独设置：
+ * <ul>
+ *   <li>1）acceptor线程池：用于TCP和WebSocket网关接收新连接；</li>
+ *   <li>2）I/O线程池：用于TCP、WebSocket连接的读写，以及UDP网关各socket的收发（UDP会话默认也在此处理，
+ *       详见 {@link GatewayUDP#SESSION_ON_IO_THREAD}）；</li>
+ *   <li>3）UDP会话线程池：仅在 {@link GatewayUDP#SESSION_ON_IO_THREAD} 为false时才会创建。</li>
+ * </ul>
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see Gateway#setEventLoopGroups(GatewayEventLoopGroups)
+ */
+public class GatewayEventLoopGroups
+{
+	private static Logger logger = LoggerFactory.getLogger(GatewayEventLoopGroups.class);
+
+	/**
+	 * acceptor线程池（用于TCP和WebSocket网关接收新连接）的线程数，默认1。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int ACCEPTOR_THREADS = 1;
+
+	/**
+	 * acceptor线程池中I/O处理所占的时间比例（1~100），默认50（即Netty的默认值），使用epoll传输时将被忽略。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int ACCEPTOR_IO_RATIO = 50;
+
+	/**
+	 * I/O线程池（各网关共用）的线程数，默认0（表示与CPU核数相同）。
+	 * <p>
+	 * v6.1以前各网关的worker线程池均使用Netty的默认值（CPU核数的2倍）。I/O线程中不应有阻塞操作，
+	 * 因而线程数与CPU核数相同即可充分利用CPU，更多的线程只会增加线程切换的开销。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int IO_THREADS = 0;
+
+	/**
+	 * I/O线程池中I/O处理所占的时间比例（1~100），默认50（即Netty的默认值）。
+	 * <p>
+	 * 其余时间用于执行提交到I/O线程的任务（比如跨线程的消息写出、定时任务等），业务回调较重时可适当调低。
+	 * 本设置只对NIO传输有效，使用epoll传输时将被忽略（见 {@link NettyTransport#newEventLoopGroup(int, int)}）。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int IO_RATIO = 50;
+
+	/**
+	 * UDP会话线程池的线程数，默认0（表示使用Netty的默认值，即CPU核数的2倍）。
+	 * <p>
+	 * 仅在 {@link GatewayUDP#SESSION_ON_IO_THREAD} 为false时有效。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int UDP_SESSION_THREADS = 0;
+
+	/** acceptor线程池 */
+	private final EventLoopGroup acceptorGroup;
+	/** I/O线程池 */
+	private final EventLoopGroup ioGroup;
+	/** I/O线程池的线程数 */
+	private final int ioThreads;
+	/** UDP会话线程池（按需创建） */
+	private EventLoopGroup udpSessionGroup = null;
+	/** TCP和WebSocket连接共用的空闲超时检查器（按需创建） */
+	private IdleSessionReaper idleSessionReaper = null;
+
+	public GatewayEventLoopGroups()
+	{
+		this.ioThreads = IO_THREADS > 0 ? IO_THREADS : Runtime.getRuntime().availableProcessors();
+		this.acceptorGroup = NettyTransport.newEventLoopGroup(ACCEPTOR_THREADS, ACCEPTOR_IO_RATIO);
+		this.ioGroup = NettyTransport.newEventLoopGroup(ioThreads, IO_RATIO);
+
+		logger.info("[IMCORE] 网关线程池：acceptor线程{}个（ioRatio={}），I/O线程{}个（ioRatio={}）。"
+				, ACCEPTOR_THREADS, ACCEPTOR_IO_RATIO, ioThreads, IO_RATIO);
+	}
+
+	/**
+	 * acceptor线程池（用于TCP和WebSocket网关接收新连接）。
+	 */
+	public EventLoopGroup acceptorGroup()
+	{
+		return acceptorGroup;
+	}
+
+	/**
+	 * I/O线程池（各网关共用）。
+	 */
+	public EventLoopGroup ioGroup()
+	{
+		return ioGroup;
+	}
+
+	/**
+	 * I/O线程池的线程数。
+	 */
+	public int ioThreads()
+	{
+		return ioThreads;
+	}
+
+	/**
+	 * UDP会话线程池（首次调用时创建）。
+	 *
+	 * @see GatewayUDP#SESSION_ON_IO_THREAD
+	 */
+	public synchronized EventLoopGroup udpSessionGroup()
+	{
+		if(udpSessionGroup == null)
+			udpSessionGroup = new DefaultEventLoopGroup(UDP_SESSION_THREADS);
+		return udpSessionGroup;
+	}
+
+	/**
+	 * TCP和WebSocket连接共用的空闲超时检查器（首次调用时创建）。
+	 *
+	 * @see IdleSessionReaper
+	 */
+	public synchronized IdleSessionReaper idleSessionReaper()
+	{
+		if(idleSessionReaper == null)
+			idleSessionReaper = new IdleSessionReaper();
+		return idleSessionReaper;
+	}
+
+	/**
+	 * 优雅地关闭所有线程池（应在各网关的服务端Channel关闭之后调用）。
+	 *
+	 * @return 所有线程池均已终止时完成的Future
+	 */
+	public synchronized Future<Void> shutdownGracefully()
+	{
+		Promise<Void> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+		PromiseCombiner combiner = new PromiseCombiner(ImmediateEventExecutor.INSTANCE);
+		combiner.add(acceptorGroup.shutdownGracefully());
+		combiner.add(ioGroup.shutdownGracefully());
+		if(udpSessionGroup != null)
+			combiner.add(udpSessionGroup.shutdownGracefully());
+		if(idleSessionReaper != null)
+			idleSessionReaper.stop();
+		combiner.finish(promise);
+		return promise;
+	}
+}
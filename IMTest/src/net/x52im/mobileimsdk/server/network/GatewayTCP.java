@@ -19,17 +19,13 @@ package net.x52im.mobileimsdk.server.network;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
-import io.netty.handler.timeout.ReadTimeoutHandler;
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.network.tcp.MBTCPClientInboundHandler;
 
@@ -111,22 +107,22 @@ public class GatewayTCP extends Gateway
      * <font color="#ff0000">框架专用内部变量：</font>
      * bossGroup用来接收进来的连接 (EventLoopGroup是用来处理IO操作的线程池 ) .
      * <p>
-     * 作为全局变量的目的，当前仅用于关闭服务器时来释放此连接池对应的资源，别无它用。
+     * 自v6.1起，即各网关共用的acceptor线程池（由ServerLauncher统一创建和关闭）。
      * 
-     * @see net.x52im.mobileimsdk.server.ServerLauncher#startup()
+     * @see GatewayEventLoopGroups#acceptorGroup()
      */
-	protected final EventLoopGroup __bossGroup4Netty = new NioEventLoopGroup(1);
+	protected EventLoopGroup __bossGroup4Netty = null;
  	
  	/** 
  	 * <font color="#ff0000">框架专用内部变量：</font>
  	 * workerGroup用来处理已经被接收的连接   (EventLoopGroup是用来处理IO操作的线程池 ) .
  	 * 
      * <p>
-     * 作为全局变量的目的，当前仅用于关闭服务器时来释放此连接池对应的资源，别无它用。
+     * 自v6.1起，即各网关共用的I/O线程池（由ServerLauncher统一创建和关闭）。
      * 
- 	 * @see net.x52im.mobileimsdk.server.ServerLauncher#startup()
+ 	 * @see GatewayEventLoopGroups#ioGroup()
  	 */
- 	protected final EventLoopGroup __workerGroup4Netty = new NioEventLoopGroup();
+ 	protected EventLoopGroup __workerGroup4Netty = null;
  	
  	/**
  	 * <font color="#ff0000">框架专用内部变量：</font>
@@ -150,12 +146,18 @@ public class GatewayTCP extends Gateway
  	@Override
  	public void init(ServerCoreHandler serverCoreHandler)
     {
+ 		final GatewayEventLoopGroups eventLoopGroups = requireEventLoopGroups();
+ 		
+ 		//** 使用各网关共用的线程池
+ 		__bossGroup4Netty = eventLoopGroups.acceptorGroup();
+ 		__workerGroup4Netty = eventLoopGroups.ioGroup();
+ 		
     	//** 新建启动器
         bootstrap = new ServerBootstrap()
 			// 设置并绑定Reactor线程池
 			.group(__bossGroup4Netty, __workerGroup4Netty)
 			// 设置并绑定服务端Channel
-			.channel(NioServerSocketChannel.class)
+			.channel(NettyTransport.serverSocketChannelClass())
 			// 初始化针对客户端的handler链
 			.childHandler(initChildChannelHandler(serverCoreHandler));
         
@@ -166,6 +168,8 @@ public class GatewayTCP extends Gateway
         bootstrap.childOption(ChannelOption.SO_KEEPALIVE, true);
         // 禁用nagle算法，关闭延迟发送
         bootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+        // 写缓冲的高低水位（超过高水位时Channel变为不可写，详见OutboundBackpressureHandler）
+        bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, OutboundBackpressureHandler.writeBufferWaterMark());
     }
     
  	@Override
@@ -182,20 +186,7 @@ public class GatewayTCP extends Gateway
         
 		//-> 把Netty服务的服务器Channel引用保存起来备用
 		__serverChannel4Netty = cf.channel();
-		//-> 采用非同步方法监听netty的退出，从而优雅地实现资源释放（异步不会阻塞后面代码的执行）
-		//-------------------------------------------------------------------------------
-		//  [注意]：.closeFuture().await()或.closeFuture().sync()将导致线程阻塞，这在很多
-		//         场景下是不合适的，最优雅的方式，应该是使用.closeFuture().addListener()
-		//         来实现netty的优雅退出，请参考：https://blog.csdn.net/a294634473/article/details/89709324
-		//-------------------------------------------------------------------------------
-		__serverChannel4Netty.closeFuture().addListener(new ChannelFutureListener() {
-			@Override
-			public void operationComplete(ChannelFuture future) throws Exception {
-				// 释放资源退出：优雅地退出netty的线程组
-				__bossGroup4Netty.shutdownGracefully();
-				__workerGroup4Netty.shutdownGracefully();
-			}
-		});
+		//-> 线程池为各网关共用，将由ServerLauncher在所有网关关闭后统一退出（v6.1以前在此监听本网关的关闭并退出其自有的线程池）
 		
 		logger.info("[IMCORE-tcp] .... continue ...");
 		logger.info("[IMCORE-tcp] 基于MobileIMSDK的TCP服务正在端口"+ PORT +"上监听中...");
@@ -207,8 +198,7 @@ public class GatewayTCP extends Gateway
  	@Override
 	public void shutdown()
 	{
-    	// 关闭netty的服务端channel（此调用将自动触发上方
-    	// __serverChannel4Netty.closeFuture().addListener(..)添加的监听器，从而实现netty的优雅退出）
+    	// 关闭netty的服务端channel（共用的线程池由ServerLauncher负责退出）
     	if (__serverChannel4Netty != null) 
     		__serverChannel4Netty.close();
     	
@@ -225,11 +215,16 @@ public class GatewayTCP extends Gateway
 	 * @return handler链对象
 	 * @see #init()
 	 * @see net.x52im.mobileimsdk.server.network.tcp.MBTCPClientInboundHandler
-	 * @see io.netty.handler.timeout.ReadTimeoutHandler.ReadTimeoutHandler
+	 * @see MBProtocalEncoder
+	 * @see IdleSessionReaper
+	 * @see KeepAliveFastPathHandler
+	 * @see OutboundBackpressureHandler
 	 * @see io.netty.channel.ChannelInitializer.ChannelInitializer
 	 */
     protected ChannelHandler initChildChannelHandler(final ServerCoreHandler serverCoreHandler)
 	{
+		// 会话超时由各网关共用的时间轮统一检查（v6.1以前为每个连接一个ReadTimeoutHandler）
+		final IdleSessionReaper idleSessionReaper = eventLoopGroups.idleSessionReaper();
 		// 返回Netty的Inbound Hanndler链
 		return new ChannelInitializer<Channel>() {
 			@Override
@@ -245,9 +240,16 @@ public class GatewayTCP extends Gateway
 							TCP_FRAME_FIXED_HEADER_LENGTH+TCP_FRAME_MAX_BODY_LENGTH
                         	, 0, TCP_FRAME_FIXED_HEADER_LENGTH, 0, TCP_FRAME_FIXED_HEADER_LENGTH));
                 pipeline.addLast("frameEncoder", new LengthFieldPrepender(TCP_FRAME_FIXED_HEADER_LENGTH));
+                // Protocal报文编码器（发送时直接write(Protocal)即可，编码结果再交由上面的frameEncoder加上帧头）
+                pipeline.addLast("protocalEncoder", MBProtocalEncoder.INSTANCE);
+                // 写出背压控制（接收方读取过慢时积压待发数据，持续不可写则断开）
+                pipeline.addLast("outboundBackpressure", new OutboundBackpressureHandler(serverCoreHandler));
                 
 				// 设置会话超时处理handler
-				pipeline.addLast(new ReadTimeoutHandler(SESION_RECYCLER_EXPIRE));
+				pipeline.addLast(idleSessionReaper.newHandler(SESION_RECYCLER_EXPIRE));
+				// 心跳包的快速处理handler（已登陆会话的心跳包不再进入业务层）
+				if(KeepAliveFastPathHandler.ENABLED)
+					pipeline.addLast(KeepAliveFastPathHandler.INSTANCE);
 				// 设置客户端的会话逻辑handler
 				pipeline.addLast(new MBTCPClientInboundHandler(serverCoreHandler));
 			}
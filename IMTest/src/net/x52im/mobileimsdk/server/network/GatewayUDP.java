@@ -16,19 +16,21 @@
  */
 package net.x52im.mobileimsdk.server.network;
 
+import java.security.SecureRandom;
+
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.channel.epoll.EpollChannelOption;
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.network.udp.MBUDPClientInboundHandler;
-import net.x52im.mobileimsdk.server.network.udp.MBUDPServerChannel;
+import net.x52im.mobileimsdk.server.network.udp.MBUDPParentEventLoopGroup;
+import net.x52im.mobileimsdk.server.network.udp.MBUDPSessionTable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +45,9 @@ public class GatewayUDP extends Gateway
 {
 	private static Logger logger = LoggerFactory.getLogger(GatewayUDP.class); 
 	
+	/** 生成会话迁移凭证用的随机数发生器（只在登陆成功时使用） */
+	private final static SecureRandom migrationTokenRandom = new SecureRandom();
+	
 	/** 
 	 * 服务端UDP监听端口，默认7901。
 	 * <p>
@@ -79,26 +84,132 @@ public class GatewayUDP extends Gateway
      */
     public static int SESION_RECYCLER_EXPIRE = 10;
     
+    /**
+     * UDP监听端口上同时打开的socket个数，默认0（表示与共用的I/O线程数相同，即每个I/O线程一个socket）。
+     * <p>
+     * 仅在使用原生epoll传输时有效：各socket均以SO_REUSEPORT方式绑定到同一端口，并分别由不同的
+     * I/O线程读取、各自维护自已的UDP“会话”列表，由内核按客户端的“IP+端口”把数据报稳定地分散
+     * 到各socket上，从而使UDP的接收能力不再受限于单个线程。设为1或当前使用的是NIO传输时，只打开
+     * 一个socket（即v6.1以前的行为）。
+     * <p>
+     * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+     * 
+     * @since 6.1
+     * @see NettyTransport#isEpoll()
+     * @see GatewayEventLoopGroups#IO_THREADS
+     */
+    public static int REUSEPORT_SOCKETS = 0;
+    
+    /**
+     * UDP会话是否直接在收到其数据报的I/O线程上处理，默认true。
+     * <p>
+     * true表示UDP会话的读取、业务处理（即 {@link ServerCoreHandler} 中的各回调）和应答的写出都在收到
+     * 数据报的那个I/O线程上完成，每个数据报不再有跨线程传递的开销（与TCP网关的线程模型一致，因而
+     * 各回调方法中同样不应有阻塞操作）；false表示UDP会话由独立的线程池处理（即v6.1以前的行为）。
+     * <p>
+     * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+     * 
+     * @since 6.1
+     * @see MBUDPParentEventLoopGroup
+     */
+    public static boolean SESSION_ON_IO_THREAD = true;
+    
+    /**
+     * 每个UDP socket上同时存在的UDP会话个数上限，默认200000。
+     * <p>
+     * 达到上限后，来自新地址的数据报将被直接丢弃（已有的会话不受影响），直到有会话超时或关闭，
+     * 以此防止大量伪造来源地址的数据报耗尽服务端内存。以SO_REUSEPORT方式打开多个socket时，
+     * 本上限对每个socket分别有效。
+     * <p>
+     * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+     * 
+     * @since 6.1
+     * @see MBUDPSessionTable
+     */
+    public static int MAX_SESSIONS = 200000;
+    
+    /**
+     * 可接收的单个UDP数据报的最大长度（单位：字节），默认2048（即v6.1以前固定使用的接收缓冲大小）。
+     * <p>
+     * 超过此长度的数据报将被截断（与v6.1以前一致），因而本值应不小于客户端可能发出的最大数据报长度。
+     * <p>
+     * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+     * 
+     * @since 6.1
+     * @see #MAX_DATAGRAMS_PER_READ
+     */
+    public static int MAX_DATAGRAM_SIZE = 2048;
+    
+    /**
+     * 每次socket可读时最多连续读取的数据报个数，默认64。
+     * <p>
+     * v6.1以前每次socket可读时只读取一个数据报，大量客户端同时发送（比如集中重连）时，每个数据报
+     * 都要经历一次完整的I/O事件处理。连续读取多个数据报时，所有数据报都读入同一块按近期流量自适应
+     * 调整大小的池化内存中（各数据报为其中的一个切片），使用原生epoll传输时还将以recvmmsg的方式一次
+     * 系统调用读取多个数据报。
+     * <p>
+     * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+     * 
+     * @since 6.1
+     * @see #MAX_DATAGRAM_SIZE
+     */
+    public static int MAX_DATAGRAMS_PER_READ = 64;
+    
+    /**
+     * 是否允许已登陆用户的UDP会话迁移到新的客户端地址上，默认false。
+     * <p>
+     * 客户端所处的NAT映射超时或被重新分配、移动网络切换基站等，都会使服务端看到的客户端端口（甚至IP）
+     * 发生变化。true表示登陆成功时向客户端下发一个随机的迁移凭证（见 
+     * {@link net.x52im.mobileimsdk.server.protocal.s.PLoginInfoResponse#getMigrationToken()}），此后
+     * 收到来自新地址、且带有该凭证的心跳包时，直接把原有的会话迁移到新地址上继续使用，客户端无需重新
+     * 登陆，原会话也不必等到超时才被清理；false表示新地址将被视为一个未登陆的新会话（即v6.1以前的行为）。
+     * <p>
+     * 数据报中的user_id可被任意伪造，因而只凭user_id绝不会迁移会话；触发迁移的心跳包本身也不会再交由
+     * 迁移后的会话处理。开启本功能需客户端支持在心跳包中携带迁移凭证。
+     * <p>
+     * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+     * 
+     * @since 6.1
+     * @see #SESSION_MIGRATION_SAME_IP_ONLY
+     */
+    public static boolean SESSION_MIGRATION = false;
+    
+    /**
+     * 会话迁移时是否要求新、旧地址的IP相同（即仅允许端口变化），默认true。
+     * <p>
+     * <b>安全提示：</b>迁移凭证以明文传输，能窃听到客户端数据的人即可冒用它。而绝大多数NAT设备都会把同一
+     * 内网主机的所有映射分配在同一个公网IP上（即RFC 4787中建议的“IP地址池配对”行为），因此只允许端口
+     * 变化即可覆盖最常见的NAT重新映射场景，同时把上述风险限制在与该用户共享同一公网IP的范围内。
+     * 确有跨IP迁移需求（比如WiFi与移动网络间的切换）时，才建议设为false。
+     * <p>
+     * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+     * 
+     * @since 6.1
+     * @see #SESSION_MIGRATION
+     */
+    public static boolean SESSION_MIGRATION_SAME_IP_ONLY = true;
+    
     /** 
      * <font color="#ff0000">框架专用内部变量：</font>
      * bossGroup用来接收进来的连接 (EventLoopGroup是用来处理IO操作的线程池 ) .
      * <p>
-     * 作为全局变量的目的，当前仅用于关闭服务器时来释放此连接池对应的资源，别无它用。
+     * 自v6.1起，即各网关共用的I/O线程池（UDP的各服务器Channel直接注册在I/O线程上收发数据报）。
      * 
-     * @see #startup()
+     * @see GatewayEventLoopGroups#ioGroup()
      */
-    protected final EventLoopGroup __bossGroup4Netty = new NioEventLoopGroup();
+    protected EventLoopGroup __bossGroup4Netty = null;
  	
  	/** 
  	 * <font color="#ff0000">框架专用内部变量：</font>
  	 * workerGroup用来处理已经被接收的连接   (EventLoopGroup是用来处理IO操作的线程池 ) .
  	 * 
      * <p>
-     * 作为全局变量的目的，当前仅用于关闭服务器时来释放此连接池对应的资源，别无它用。
+     * 自v6.1起，即把UDP会话注册到其服务器Channel所在I/O线程上的 {@link MBUDPParentEventLoopGroup}，
+     * 或各网关共用的UDP会话线程池（由ServerLauncher统一创建和关闭）。
      * 
- 	 * @see net.x52im.mobileimsdk.server#startup()
+ 	 * @see #SESSION_ON_IO_THREAD
  	 */
- 	protected final EventLoopGroup __workerGroup4Netty = new DefaultEventLoopGroup();
+ 	protected EventLoopGroup __workerGroup4Netty = null;
  	
  	/**
  	 * <font color="#ff0000">框架专用内部变量：</font>服务器Channel引用.
@@ -110,6 +221,15 @@ public class GatewayUDP extends Gateway
  	 */
  	protected Channel __serverChannel4Netty = null;
  	
+ 	/**
+ 	 * <font color="#ff0000">框架专用内部变量：</font>以SO_REUSEPORT方式打开多个socket时，所有的服务器Channel引用
+ 	 * （其中第1个即为 {@link #__serverChannel4Netty}）.
+ 	 * 
+ 	 * @since 6.1
+ 	 * @see #REUSEPORT_SOCKETS
+ 	 */
+ 	protected Channel[] __serverChannels4Netty = null;
+ 	
  	/** 启动器 */
  	protected ServerBootstrap bootstrap = null;
  	
@@ -123,42 +243,63 @@ public class GatewayUDP extends Gateway
  	@Override
     public void init(ServerCoreHandler serverCoreHandler)
     {
+ 		final GatewayEventLoopGroups eventLoopGroups = requireEventLoopGroups();
+ 		
+ 		// UDP的各服务器Channel使用各网关共用的I/O线程池
+ 		__bossGroup4Netty = eventLoopGroups.ioGroup();
+ 		// UDP会话所用的线程池：与服务端Channel共用I/O线程，或者使用独立的线程池
+ 		__workerGroup4Netty = SESSION_ON_IO_THREAD ? new MBUDPParentEventLoopGroup(__bossGroup4Netty) : eventLoopGroups.udpSessionGroup();
+ 		
     	bootstrap = new ServerBootstrap()
     		// 设置并绑定Reactor线程池
     		.group(__bossGroup4Netty, __workerGroup4Netty)
-    		// 设置并绑定服务端Channel
-    		.channel(MBUDPServerChannel.class)
+    		// 设置并绑定服务端Channel（epoll可用时为MBUDPEpollServerChannel，否则为MBUDPServerChannel）
+    		.channel(NettyTransport.udpServerChannelClass())
     		// 初始化针对客户端的handler链
     		.childHandler(initChildChannelHandler(serverCoreHandler));
+    	
+    	// 服务端socket写缓冲的高低水位（UDP没有流量控制，各会话不做写出背压，详见OutboundBackpressureHandler）
+    	bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, OutboundBackpressureHandler.writeBufferWaterMark());
+    	
+    	// 多个socket以SO_REUSEPORT方式绑定到同一端口
+    	if(getSocketCount() > 1)
+    		bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+    }
+    
+    /**
+     * 实际要打开的socket个数。
+     * 
+     * @return 仅在使用原生epoll传输时才可能大于1
+     * @since 6.1
+     * @see #REUSEPORT_SOCKETS
+     */
+    protected int getSocketCount()
+    {
+    	if(!NettyTransport.isEpoll())
+    		return 1;
+    	return REUSEPORT_SOCKETS > 0 ? REUSEPORT_SOCKETS : eventLoopGroups.ioThreads();
     }
     
  	@Override
     public void bind() throws Exception
     {
-    	//-> 绑定端口，开始接收进来的连接  
-		ChannelFuture cf = bootstrap.bind("0.0.0.0", PORT).syncUninterruptibly();
-		if (cf.isSuccess()) {
-        	logger.info("[IMCORE-udp] 基于MobileIMSDK的UDP服务绑定端口"+PORT+"成功 √");
-        }
-        else{
-        	logger.info("[IMCORE-udp] 基于MobileIMSDK的UDP服务绑定端口"+PORT+"失败 ×");
-        }
-		//-> 把Netty服务的服务器Channel引用保存起来备用
-		__serverChannel4Netty = cf.channel();
-		//-> 采用非同步方法监听netty的退出，从而优雅地实现资源释放（异步不会阻塞后面代码的执行）
-		//-------------------------------------------------------------------------------
-		//  [注意]：.closeFuture().await()或.closeFuture().sync()将导致线程阻塞，这在很多
-		//         场景下是不合适的，最优雅的方式，应该是使用.closeFuture().addListener()
-		//         来实现netty的优雅退出，请参考：https://blog.csdn.net/a294634473/article/details/89709324
-		//-------------------------------------------------------------------------------
-		__serverChannel4Netty.closeFuture().addListener(new ChannelFutureListener() {
-			@Override
-			public void operationComplete(ChannelFuture future) throws Exception {
-				// 释放资源退出：优雅地退出netty的线程组
-				__bossGroup4Netty.shutdownGracefully();
-				__workerGroup4Netty.shutdownGracefully();
-			}
-		});
+    	//-> 绑定端口，开始接收进来的连接（多个socket时，每次绑定都会新建一个服务器Channel，并依次注册到不同的I/O线程上）
+    	int socketCount = getSocketCount();
+    	__serverChannels4Netty = new Channel[socketCount];
+    	for(int i = 0; i < socketCount; i++)
+    	{
+    		ChannelFuture cf = bootstrap.bind("0.0.0.0", PORT).syncUninterruptibly();
+    		if (cf.isSuccess()) {
+    			logger.info("[IMCORE-udp] 基于MobileIMSDK的UDP服务绑定端口"+PORT+"成功 √"+(socketCount > 1 ? "（SO_REUSEPORT socket "+(i+1)+"/"+socketCount+"）" : ""));
+    		}
+    		else{
+    			logger.info("[IMCORE-udp] 基于MobileIMSDK的UDP服务绑定端口"+PORT+"失败 ×");
+    		}
+    		//-> 把Netty服务的服务器Channel引用保存起来备用
+    		__serverChannels4Netty[i] = cf.channel();
+    	}
+		__serverChannel4Netty = __serverChannels4Netty[0];
+		//-> 线程池为各网关共用，将由ServerLauncher在所有网关关闭后统一退出（v6.1以前在此监听本网关的关闭并退出其自有的线程池）
 		
 		logger.info("[IMCORE-udp] .... continue ...");
 		logger.info("[IMCORE-udp] 基于MobileIMSDK的UDP服务正在端口" + PORT+"上监听中...");
@@ -170,10 +311,12 @@ public class GatewayUDP extends Gateway
  	@Override
 	public void shutdown()
 	{
-    	// 关闭netty的服务端channel（此调用将自动触发上方
-    	// __serverChannel4Netty.closeFuture().addListener(..)添加的监听器，从而实现netty的优雅退出）
-    	if (__serverChannel4Netty != null) 
-    		__serverChannel4Netty.close();
+    	// 关闭netty的服务端channel（共用的线程池由ServerLauncher负责退出）
+    	if (__serverChannels4Netty != null) 
+    	{
+    		for(Channel serverChannel : __serverChannels4Netty)
+    			serverChannel.close();
+    	}
 
 //		// 优雅地退出netty的线程组 - commnet at 20200619
 //		__bossGroup4Netty.shutdownGracefully();
@@ -187,7 +330,9 @@ public class GatewayUDP extends Gateway
 	 * 
 	 * @return handler链对象
 	 * @see net.x52im.mobileimsdk.server.network.udp.MBUDPClientInboundHandler
-	 * @see io.netty.handler.timeout.ReadTimeoutHandler.ReadTimeoutHandler
+	 * @see MBProtocalEncoder
+	 * @see net.x52im.mobileimsdk.server.network.udp.MBUDPSessionTable
+	 * @see KeepAliveFastPathHandler
 	 * @see io.netty.channel.ChannelInitializer.ChannelInitializer
 	 */
 	protected ChannelHandler initChildChannelHandler(final ServerCoreHandler serverCoreHandler)
@@ -196,13 +341,34 @@ public class GatewayUDP extends Gateway
 		return new ChannelInitializer<Channel>() {
 			@Override
 			protected void initChannel(Channel channel) throws Exception {
-				channel.pipeline()
-					// 设置会话超时处理handler
-					.addLast(new ReadTimeoutHandler(SESION_RECYCLER_EXPIRE))
-					// 设置客户端的会话逻辑handler
-					.addLast(new MBUDPClientInboundHandler(serverCoreHandler));
+				ChannelPipeline pipeline = channel.pipeline();
+				// Protocal报文编码器（发送时直接write(Protocal)即可）
+				pipeline.addLast(MBProtocalEncoder.INSTANCE);
+				// 会话超时已由服务端Channel的会话表（MBUDPSessionTable）统一检查，无需再为每个会话设置ReadTimeoutHandler
+				// 心跳包的快速处理handler（已登陆会话的心跳包不再进入业务层）
+				if(KeepAliveFastPathHandler.ENABLED)
+					pipeline.addLast(KeepAliveFastPathHandler.INSTANCE);
+				// 设置客户端的会话逻辑handler
+				pipeline.addLast(new MBUDPClientInboundHandler(serverCoreHandler));
 			}
 		};
 	}
 	
+	/**
+	 * 生成一个新的UDP会话迁移凭证（128位的随机数，以32位16进制字符串表示）。
+	 * 
+	 * @return 新的迁移凭证
+	 * @since 6.1
+	 * @see #SESSION_MIGRATION
+	 */
+	public static String genMigrationToken()
+	{
+		byte[] bytes = new byte[16];
+		migrationTokenRandom.nextBytes(bytes);
+		StringBuilder sb = new StringBuilder(32);
+		for(byte b : bytes)
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return sb.toString();
+	}
+	
 }
@@ -19,22 +19,20 @@ package net.x52im.mobileimsdk.server.network;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
-import io.netty.handler.timeout.ReadTimeoutHandler;
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.network.websocket.MBWebsocketClientInboundHandler;
+import net.x52im.mobileimsdk.server.network.websocket.MBWebsocketProtocalEncoder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,22 +78,22 @@ public class GatewayWebsocket extends Gateway
      * <font color="#ff0000">框架专用内部变量：</font>
      * bossGroup用来接收进来的连接 (EventLoopGroup是用来处理IO操作的线程池 ) .
      * <p>
-     * 作为全局变量的目的，当前仅用于关闭服务器时来释放此连接池对应的资源，别无它用。
+     * 自v6.1起，即各网关共用的acceptor线程池（由ServerLauncher统一创建和关闭）。
      * 
-     * @see net.x52im.mobileimsdk.server.ServerLauncher#startup()
+     * @see GatewayEventLoopGroups#acceptorGroup()
      */
-	protected final EventLoopGroup __bossGroup4Netty = new NioEventLoopGroup(1);
+	protected EventLoopGroup __bossGroup4Netty = null;
  	
  	/** 
  	 * <font color="#ff0000">框架专用内部变量：</font>
  	 * workerGroup用来处理已经被接收的连接   (EventLoopGroup是用来处理IO操作的线程池 ) .
  	 * 
      * <p>
-     * 作为全局变量的目的，当前仅用于关闭服务器时来释放此连接池对应的资源，别无它用。
+     * 自v6.1起，即各网关共用的I/O线程池（由ServerLauncher统一创建和关闭）。
      * 
- 	 * @see net.x52im.mobileimsdk.server.ServerLauncher#startup()
+ 	 * @see GatewayEventLoopGroups#ioGroup()
  	 */
- 	protected final EventLoopGroup __workerGroup4Netty = new NioEventLoopGroup();
+ 	protected EventLoopGroup __workerGroup4Netty = null;
  	
  	/**
  	 * <font color="#ff0000">框架专用内部变量：</font>
@@ -119,6 +117,8 @@ public class GatewayWebsocket extends Gateway
  	@Override
  	public void init(ServerCoreHandler serverCoreHandler)
     {
+ 		final GatewayEventLoopGroups eventLoopGroups = requireEventLoopGroups();
+ 		
  		// 配置SSL
         SslContext sslCtx = null;
         try{
@@ -133,14 +133,21 @@ public class GatewayWebsocket extends Gateway
 			logger.error("[IMCORE-ws] SSL证书准备失败：", e);
 		}
         
+ 		//** 使用各网关共用的线程池
+ 		__bossGroup4Netty = eventLoopGroups.acceptorGroup();
+ 		__workerGroup4Netty = eventLoopGroups.ioGroup();
+ 		
     	//** 新建启动器
         bootstrap = new ServerBootstrap()
 			// 设置并绑定Reactor线程池
 			.group(__bossGroup4Netty, __workerGroup4Netty)
 			// 设置并绑定服务端Channel
-			.channel(NioServerSocketChannel.class)
+			.channel(NettyTransport.serverSocketChannelClass())
 			// 初始化针对客户端的handler链
 			.childHandler(initChildChannelHandler(sslCtx, serverCoreHandler));
+        
+        // 写缓冲的高低水位（超过高水位时Channel变为不可写，详见OutboundBackpressureHandler）
+        bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, OutboundBackpressureHandler.writeBufferWaterMark());
     }
 	
  	@Override
@@ -157,20 +164,7 @@ public class GatewayWebsocket extends Gateway
         
 		//-> 把Netty服务的服务器Channel引用保存起来备用
 		__serverChannel4Netty = cf.channel();
-		//-> 采用非同步方法监听netty的退出，从而优雅地实现资源释放（异步不会阻塞后面代码的执行）
-		//-------------------------------------------------------------------------------
-		//  [注意]：.closeFuture().await()或.closeFuture().sync()将导致线程阻塞，这在很多
-		//         场景下是不合适的，最优雅的方式，应该是使用.closeFuture().addListener()
-		//         来实现netty的优雅退出，请参考：https://blog.csdn.net/a294634473/article/details/89709324
-		//-------------------------------------------------------------------------------
-		__serverChannel4Netty.closeFuture().addListener(new ChannelFutureListener() {
-			@Override
-			public void operationComplete(ChannelFuture future) throws Exception {
-				// 释放资源退出：优雅地退出netty的线程组
-				__bossGroup4Netty.shutdownGracefully();
-				__workerGroup4Netty.shutdownGracefully();
-			}
-		});
+		//-> 线程池为各网关共用，将由ServerLauncher在所有网关关闭后统一退出（v6.1以前在此监听本网关的关闭并退出其自有的线程池）
 		
 		logger.info("[IMCORE-ws] .... continue ...");
 		logger.info("[IMCORE-ws] 基于MobileIMSDK的WebSocket服务正在端口"+ PORT +"上监听中"+(SSL?"(已开启SSL)":"")+"...");
@@ -182,8 +176,7 @@ public class GatewayWebsocket extends Gateway
  	@Override
 	public void shutdown()
 	{
-    	// 关闭netty的服务端channel（此调用将自动触发上方
-    	// __serverChannel4Netty.closeFuture().addListener(..)添加的监听器，从而实现netty的优雅退出）
+    	// 关闭netty的服务端channel（共用的线程池由ServerLauncher负责退出）
     	if (__serverChannel4Netty != null) 
     		__serverChannel4Netty.close();
 	}
@@ -196,11 +189,15 @@ public class GatewayWebsocket extends Gateway
 	 * @return handler链对象
 	 * @see #init()
 	 * @see net.x52im.mobileimsdk.server.network.tcp.MBTCPClientInboundHandler
-	 * @see io.netty.handler.timeout.ReadTimeoutHandler.ReadTimeoutHandler
+	 * @see IdleSessionReaper
+	 * @see KeepAliveFastPathHandler
+	 * @see OutboundBackpressureHandler
 	 * @see io.netty.channel.ChannelInitializer.ChannelInitializer
 	 */
     protected ChannelHandler initChildChannelHandler(final SslContext sslCtx, final ServerCoreHandler serverCoreHandler)
 	{
+		// 会话超时由各网关共用的时间轮统一检查（v6.1以前为每个连接一个ReadTimeoutHandler）
+		final IdleSessionReaper idleSessionReaper = eventLoopGroups.idleSessionReaper();
 		// 返回Netty的Inbound Hanndler链
 		return new ChannelInitializer<Channel>() {
 			@Override
@@ -222,8 +219,15 @@ public class GatewayWebsocket extends Gateway
 		        // ====================== 以下是支持httpWebsocket ======================
 		        // WebSocket协议处理
 		        pipeline.addLast(new WebSocketServerProtocolHandler(WEBSOCKET_PATH, null, true));
+		        // Protocal报文编码器（发送时直接write(Protocal)即可，将被编码成TextWebSocketFrame帧）
+		        pipeline.addLast(MBWebsocketProtocalEncoder.INSTANCE);
+		        // 写出背压控制（接收方读取过慢时积压待发数据，持续不可写则断开）
+		        pipeline.addLast(new OutboundBackpressureHandler(serverCoreHandler));
 		        // 设置会话超时处理handler（提示：此handler不能放最后，否则读超时异常将无法被InboundHandler处理）
-				pipeline.addLast(new ReadTimeoutHandler(SESION_RECYCLER_EXPIRE));
+				pipeline.addLast(idleSessionReaper.newHandler(SESION_RECYCLER_EXPIRE));
+				// 心跳包的快速处理handler（已登陆会话的心跳包不再进入业务层）
+				if(KeepAliveFastPathHandler.ENABLED)
+					pipeline.addLast(KeepAliveFastPathHandler.INSTANCE);
 		        // 自定义的handler
 		        pipeline.addLast(new MBWebsocketClientInboundHandler(serverCoreHandler));
 			}
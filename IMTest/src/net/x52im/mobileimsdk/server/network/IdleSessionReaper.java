@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * 各网关共用的会话空闲超时检查器（用于取代每个连接一个的ReadTimeoutHandler）。
+ * <p>
+ * ReadTimeoutHandler为每个连接在其I/O线程的定时任务队列（一个优先级队列）中排定一个超时任务，
+ * 任务到期后再按最近一次读取的时间重新排定，百万级的空闲长连接就意味着I/O线程要维护百万级的定时任务。
+ * 本类改为所有连接共用一个按秒划分槽位的时间轮（即Netty的 {@link HashedWheelTimer}，由一个独立的线程
+ * 驱动）：每次读取数据时只需记下时间戳，时间轮到期时才检查该时间戳，未超时的按剩余时间重新放入时间轮，
+ * 超时的则在连接所属的I/O线程中以与ReadTimeoutHandler完全相同的方式（即触发
+ * {@link ReadTimeoutException} 后关闭连接）通知上层，因而各网关的InboundHandler无需任何改动。
+ * <p>
+ * 超时检查的精度为时间轮的槽位时长（1秒），对以秒为单位设置的会话超时来说已足够。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see GatewayEventLoopGroups#idleSessionReaper()
+ * @see GatewayTCP#SESION_RECYCLER_EXPIRE
+ * @see GatewayWebsocket#SESION_RECYCLER_EXPIRE
+ */
+public class IdleSessionReaper
+{
+	/** 时间轮的槽位时长（单位：毫秒） */
+	private final static long TICK_MILLIS = 1000;
+	/** 时间轮的槽位个数（须为2的幂，一圈即为512秒） */
+	private final static int TICKS_PER_WHEEL = 512;
+
+	private final HashedWheelTimer timer;
+
+	public IdleSessionReaper()
+	{
+		this.timer = new HashedWheelTimer(new DefaultThreadFactory("idle-session-reaper", true)
+				, TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * 为一个连接创建空闲超时检查handler（用法与ReadTimeoutHandler相同，即应放在业务InboundHandler之前）。
+	 *
+	 * @param timeoutSeconds 空闲超时时长（单位：秒）
+	 * @return 新的handler实例（每个连接一个）
+	 */
+	public ChannelHandler newHandler(int timeoutSeconds)
+	{
+		return new IdleTimeoutHandler(TimeUnit.SECONDS.toNanos(timeoutSeconds));
+	}
+
+	/**
+	 * 停止时间轮（所有未到期的检查都将被丢弃）。
+	 */
+	public void stop()
+	{
+		timer.stop();
+	}
+
+	/**
+	 * 单个连接的空闲超时检查handler。
+	 */
+	private class IdleTimeoutHandler extends ChannelInboundHandlerAdapter implements TimerTask
+	{
+		private final long timeoutNanos;
+
+		private ChannelHandlerContext ctx;
+		/** 本轮事件中是否读到了数据 */
+		private boolean reading = false;
+		/** 最近一次读到数据的时间（由时间轮线程读取） */
+		private volatile long lastReadTime;
+		/** 当前在时间轮中的检查任务 */
+		private volatile Timeout timeout;
+		/** 是否已停止检查 */
+		private volatile boolean destroyed = false;
+
+		IdleTimeoutHandler(long timeoutNanos)
+		{
+			this.timeoutNanos = timeoutNanos;
+		}
+
+		@Override
+		public void handlerAdded(ChannelHandlerContext ctx) throws Exception
+		{
+			this.ctx = ctx;
+			if(ctx.channel().isActive() && ctx.channel().isRegistered())
+				initialize();
+		}
+
+		@Override
+		public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+		{
+			destroy();
+		}
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) throws Exception
+		{
+			initialize();
+			super.channelActive(ctx);
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception
+		{
+			destroy();
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+		{
+			reading = true;
+			ctx.fireChannelRead(msg);
+		}
+
+		@Override
+		public void channelReadComplete(ChannelHandlerContext ctx) throws Exception
+		{
+			// 每批数据只记一次时间戳即可
+			if(reading)
+			{
+				lastReadTime = System.nanoTime();
+				reading = false;
+			}
+			ctx.fireChannelReadComplete();
+		}
+
+		private void initialize()
+		{
+			if(timeout != null || destroyed)
+				return;
+			lastReadTime = System.nanoTime();
+			timeout = timer.newTimeout(this, timeoutNanos, TimeUnit.NANOSECONDS);
+		}
+
+		private void destroy()
+		{
+			destroyed = true;
+			Timeout t = timeout;
+			if(t != null)
+			{
+				t.cancel();
+				timeout = null;
+			}
+		}
+
+		/**
+		 * 期间有过数据读取时，按剩余时间重新放入时间轮。
+		 *
+		 * @return true表示尚未超时（已重新放入时间轮），否则表示已超时
+		 */
+		private boolean rescheduleIfNotExpired()
+		{
+			long remaining = timeoutNanos - (System.nanoTime() - lastReadTime);
+			if(remaining <= 0)
+				return false;
+			timeout = timer.newTimeout(this, remaining, TimeUnit.NANOSECONDS);
+			return true;
+		}
+
+		/**
+		 * 时间轮到期时（在时间轮线程中）调用。
+		 */
+		@Override
+		public void run(Timeout t) throws Exception
+		{
+			if(destroyed)
+				return;
+
+			if(rescheduleIfNotExpired())
+				return;
+
+			ctx.executor().execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					readTimedOut();
+				}
+			});
+		}
+
+		/**
+		 * 在连接所属的I/O线程中通知会话已超时并关闭之（与ReadTimeoutHandler的行为一致）。
+		 */
+		private void readTimedOut()
+		{
+			// 切换到I/O线程的过程中可能又读到了数据
+			if(destroyed || rescheduleIfNotExpired())
+				return;
+			destroyed = true;
+			timeout = null;
+			ctx.fireExceptionCaught(ReadTimeoutException.INSTANCE);
+			ctx.close();
+		}
+	}
+}
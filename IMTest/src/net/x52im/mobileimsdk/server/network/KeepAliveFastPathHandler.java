@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
+import net.x52im.mobileimsdk.server.protocal.ProtocalJSONEncoder;
+import net.x52im.mobileimsdk.server.protocal.ProtocalType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 心跳包（及ECHO指令）的快速处理handler（各网关共用，应放在会话超时检查handler之后、业务InboundHandler之前）。
+ * <p>
+ * 心跳包占了服务端收到的数据包的绝大部分，以往每个心跳包都要经Gson完整解析成Protocal对象、在
+ * ServerCoreHandler中打印2行日志，再由LogicProcessor新建心跳响应对象、用Gson编码、从在线列表中
+ * 查找会话后才能发出。本handler只检查数据包头部的几个字节即可识别出已登陆会话的心跳包：
+ * <ul>
+ *   <li>1）2进制格式：首字节为 {@link ProtocalBinaryCodec#MAGIC_V1}，第3个字节即type（1字节的varint）；</li>
+ *   <li>2）JSON格式：在数据包中找到顶层的"type"字段（dataContent等字符串值中的引号必然是转义过的，不会误判）。</li>
+ * </ul>
+ * 识别出的心跳包直接以该会话预先编码好的心跳响应（首次收到心跳时按协商好的报文格式编码一次，此后
+ * 每次写出的只是它的一个池化的duplicate）应答，会话的活跃时间则已由前面的会话超时检查handler（UDP
+ * 网关为会话表）在读到数据时更新，整个过程不解码、不编码，也不进入业务层。
+ * <p>
+ * ECHO指令（目前仅用于开发人员的网络测试）同样在此处理：2进制格式的报文直接就地改写type字节后原样
+ * 发回，JSON格式的报文则在原报文的type值后补一个字符（即"5"改为"53"）后发回。
+ * <p>
+ * 未登陆会话的数据包、无法识别的数据包均原样交给后面的业务InboundHandler处理（包括以往对未登陆会话的
+ * 应答、UDP会话迁移等逻辑均不受影响）。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.processor.LogicProcessor#processKeepAlive(Channel, net.x52im.mobileimsdk.server.protocal.Protocal, String)
+ */
+@Sharable
+public class KeepAliveFastPathHandler extends ChannelInboundHandlerAdapter
+{
+	private static Logger logger = LoggerFactory.getLogger(KeepAliveFastPathHandler.class);
+
+	/**
+	 * 是否启用心跳包的快速处理，默认true。
+	 * <p>
+	 * 设为false时心跳包和ECHO指令将与v6.1以前一样由业务层（ServerCoreHandler）处理。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static boolean ENABLED = true;
+
+	/** 全局共享的实例 */
+	public final static KeepAliveFastPathHandler INSTANCE = new KeepAliveFastPathHandler();
+
+	/** 只检查不超过此长度的数据包（心跳包通常不到100字节，更长的数据包不可能是心跳包） */
+	private final static int MAX_FRAME_BYTES = 256;
+
+	/** 2进制格式中，心跳包的type字节（即ZigZag编码后的varint，type值小于64时只有1个字节） */
+	private final static byte BINARY_TYPE_KEEP$ALIVE = (byte)(ProtocalType.C.FROM_CLIENT_TYPE_OF_KEEP$ALIVE << 1);
+	/** 2进制格式中，ECHO指令的type字节 */
+	private final static byte BINARY_TYPE_ECHO = (byte)(ProtocalType.C.FROM_CLIENT_TYPE_OF_ECHO << 1);
+	/** 2进制格式中，ECHO应答的type字节 */
+	private final static byte BINARY_TYPE_RESPONSE$ECHO = (byte)(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$ECHO << 1);
+
+	/** JSON格式中，ECHO应答的type值在ECHO指令的type值之后要补上的字符（即"5"改为"53"） */
+	private final static byte JSON_TYPE_RESPONSE$ECHO_SUFFIX = (byte)'3';
+
+	/** 用于用户会话（即Netty中的“Channel”）中存放预先编码好的心跳响应的AttributeKey */
+	private final static AttributeKey<EncodedResponse> KEEP$ALIVE_RESPONSE_ATTR = AttributeKey.newInstance("__keepalive_response__");
+
+	protected KeepAliveFastPathHandler()
+	{
+		super();
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+	{
+		ByteBuf content = contentOf(msg);
+		if(content == null || content.readableBytes() > MAX_FRAME_BYTES)
+		{
+			ctx.fireChannelRead(msg);
+			return;
+		}
+		
+		// 本handler为各会话共用，每个数据包只取一次会话上下文
+		SessionContext context = SessionContext.get(ctx.channel());
+		if(!context.isLogined())
+		{
+			ctx.fireChannelRead(msg);
+			return;
+		}
+
+		boolean handled;
+		if(ProtocalBinaryCodec.isBinary(content))
+			handled = handleBinary(ctx, context, content);
+		else
+			handled = handleJSON(ctx, context, content);
+
+		if(handled)
+			ReferenceCountUtil.release(msg);
+		else
+			ctx.fireChannelRead(msg);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception
+	{
+		releaseResponse(ctx.channel());
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+	{
+		releaseResponse(ctx.channel());
+	}
+
+	/**
+	 * 取得数据包的内容（UDP、TCP网关收到的是ByteBuf，WebSocket网关收到的是数据帧）。
+	 */
+	private static ByteBuf contentOf(Object msg)
+	{
+		if(msg instanceof ByteBuf)
+			return (ByteBuf)msg;
+		if(msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)
+			return ((WebSocketFrame)msg).content();
+		return null;
+	}
+
+	private boolean handleBinary(ChannelHandlerContext ctx, SessionContext context, ByteBuf content)
+	{
+		int index = content.readerIndex();
+		if(content.readableBytes() < 3 || content.getByte(index) != ProtocalBinaryCodec.MAGIC_V1)
+			return false;
+
+		byte type = content.getByte(index + 2);
+		if(type == BINARY_TYPE_KEEP$ALIVE)
+			return writeKeepAliveResponse(ctx, context);
+		// 协商好的格式与报文格式一致时才可原样发回（否则交由业务层按协商好的格式重新编码）
+		if(type == BINARY_TYPE_ECHO && context.getProtocalFormat() == ProtocalBinaryCodec.FORMAT_BINARY_V1)
+		{
+			content.setByte(index + 2, BINARY_TYPE_RESPONSE$ECHO);
+			ctx.writeAndFlush(content.retain(), ctx.voidPromise());
+			return true;
+		}
+		return false;
+	}
+
+	private boolean handleJSON(ChannelHandlerContext ctx, SessionContext context, ByteBuf content)
+	{
+		int valueEnd = indexOfJSONTypeValueEnd(content);
+		if(valueEnd < 0)
+			return false;
+
+		// type值只有1位数字时才可能是心跳包或ECHO指令
+		int valueStart = valueEnd - 1;
+		byte prev = content.getByte(valueStart - 1);
+		if(prev >= '0' && prev <= '9')
+			return false;
+
+		byte digit = content.getByte(valueStart);
+		if(digit == '0' + ProtocalType.C.FROM_CLIENT_TYPE_OF_KEEP$ALIVE)
+			return writeKeepAliveResponse(ctx, context);
+		if(digit == '0' + ProtocalType.C.FROM_CLIENT_TYPE_OF_ECHO
+				&& context.getProtocalFormat() == ProtocalBinaryCodec.FORMAT_JSON)
+		{
+			int readerIndex = content.readerIndex();
+			ByteBuf echo = ctx.alloc().directBuffer(content.readableBytes() + 1);
+			echo.writeBytes(content, readerIndex, valueEnd - readerIndex);
+			echo.writeByte(JSON_TYPE_RESPONSE$ECHO_SUFFIX);
+			echo.writeBytes(content, valueEnd, content.writerIndex() - valueEnd);
+			ctx.writeAndFlush(echo, ctx.voidPromise());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 在JSON报文中查找顶层"type"字段的整数值。
+	 * <p>
+	 * 其后不是冒号的"type"只可能是某个字符串值的结尾（如"from":"type"），将跳过它继续查找。
+	 *
+	 * @return 值的最后一个数字之后的索引，未找到（或不是整数）时返回-1
+	 */
+	static int indexOfJSONTypeValueEnd(ByteBuf content)
+	{
+		int end = content.writerIndex();
+		int i = content.readerIndex();
+		// 最短的可能形式："type":1}
+		while(i + 8 <= end)
+		{
+			if(content.getByte(i) == '"' && content.getByte(i + 1) == 't' && content.getByte(i + 2) == 'y'
+					&& content.getByte(i + 3) == 'p' && content.getByte(i + 4) == 'e' && content.getByte(i + 5) == '"')
+			{
+				int j = skipWhitespace(content, i + 6, end);
+				if(j >= end)
+					return -1;
+				if(content.getByte(j) != ':')
+				{
+					i += 5;
+					continue;
+				}
+				j = skipWhitespace(content, j + 1, end);
+				int digitsStart = j;
+				while(j < end && content.getByte(j) >= '0' && content.getByte(j) <= '9')
+					j++;
+				if(j == digitsStart || j >= end)
+					return -1;
+				byte next = content.getByte(j);
+				return (next == ',' || next == '}' || next == ' ' || next == '\t' || next == '\r' || next == '\n') ? j : -1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	private static int skipWhitespace(ByteBuf content, int i, int end)
+	{
+		while(i < end)
+		{
+			byte b = content.getByte(i);
+			if(b != ' ' && b != '\t' && b != '\r' && b != '\n')
+				break;
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * 写出本会话预先编码好的心跳响应（首次调用、或用户ID及报文格式有变时才重新编码）。
+	 *
+	 * @return true表示已应答，false表示用户在这一瞬间已注销（心跳包仍交由业务层处理）
+	 */
+	private boolean writeKeepAliveResponse(ChannelHandlerContext ctx, SessionContext context)
+	{
+		Channel session = ctx.channel();
+		String userId = context.getUserId();
+		if(userId == null)
+			return false;
+		int format = context.getProtocalFormat();
+
+		EncodedResponse response = session.attr(KEEP$ALIVE_RESPONSE_ATTR).get();
+		if(response == null || response.format != format || !response.userId.equals(userId))
+		{
+			ByteBuf encoded = ctx.alloc().directBuffer();
+			if(format == ProtocalBinaryCodec.FORMAT_BINARY_V1)
+				ProtocalBinaryCodec.encode(ProtocalFactory.createPKeepAliveResponse(userId), encoded);
+			else
+				ProtocalJSONEncoder.encode(ProtocalFactory.createPKeepAliveResponse(userId), encoded);
+
+			EncodedResponse old = session.attr(KEEP$ALIVE_RESPONSE_ATTR).getAndSet(response = new EncodedResponse(userId, format, encoded));
+			if(old != null)
+				old.content.release();
+		}
+
+		if(logger.isDebugEnabled())
+			logger.debug("[IMCORE-{}]>> 【1收心跳{}】收到客户端{}的心跳包（已快速应答）.", context.getGatewayFlag(), userId, context.getAddressTag());
+
+		ctx.writeAndFlush(response.content.retainedDuplicate(), ctx.voidPromise());
+		return true;
+	}
+
+	private static void releaseResponse(Channel session)
+	{
+		EncodedResponse response = session.attr(KEEP$ALIVE_RESPONSE_ATTR).getAndSet(null);
+		if(response != null)
+			response.content.release();
+	}
+
+	/**
+	 * 预先编码好的心跳响应。
+	 */
+	private final static class EncodedResponse
+	{
+		final String userId;
+		final int format;
+		final ByteBuf content;
+
+		EncodedResponse(String userId, int format, ByteBuf content)
+		{
+			this.userId = userId;
+			this.format = format;
+			this.content = content;
+		}
+	}
+}
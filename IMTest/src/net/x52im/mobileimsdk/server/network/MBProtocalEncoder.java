@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.protocal.ProtocalJSONEncoder;
+
+/**
+ * TCP、UDP网关共用的{@link Protocal}报文编码器。
+ * <p>
+ * 发送方只需调用 <code>channel.write(protocal)</code>，报文的序列化将在该会话所属的I/O线程上进行，
+ * 并直接写入池化的直接内存ByteBuf：TCP连接随后再交由“frameEncoder”加上帧头，UDP会话则由
+ * {@link net.x52im.mobileimsdk.server.network.udp.MBUDPChannel} 以数据报的形式发出。
+ * <p>
+ * 写出的是 {@link FormattedProtocal} 时，按其指定的报文格式编码（否则按该会话协商好的报文格式编码）。
+ * <p>
+ * 本类无状态，所有TCP连接和UDP会话共用同一个实例 {@link #INSTANCE}（WebSocket还需包装成帧，见
+ * {@link net.x52im.mobileimsdk.server.network.websocket.MBWebsocketProtocalEncoder}）。
+ *
+ * @since 6.1
+ * @see GatewayTCP#initChildChannelHandler(net.x52im.mobileimsdk.server.ServerCoreHandler)
+ * @see GatewayUDP#initChildChannelHandler(net.x52im.mobileimsdk.server.ServerCoreHandler)
+ */
+@Sharable
+public class MBProtocalEncoder extends MessageToByteEncoder<Object>
+{
+	/** 全局共享的实例 */
+	public final static MBProtocalEncoder INSTANCE = new MBProtocalEncoder();
+
+	protected MBProtocalEncoder()
+	{
+		// 使用直接内存
+		super(true);
+	}
+
+	@Override
+	public boolean acceptOutboundMessage(Object msg) throws Exception
+	{
+		return msg instanceof Protocal || msg instanceof FormattedProtocal;
+	}
+
+	@Override
+	protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception
+	{
+		Protocal p;
+		int format;
+		if(msg instanceof FormattedProtocal)
+		{
+			p = ((FormattedProtocal)msg).getProtocal();
+			format = ((FormattedProtocal)msg).getProtocalFormat();
+		}
+		else
+		{
+			p = (Protocal)msg;
+			format = Gateway.getProtocalFormat(ctx.channel());
+		}
+		
+		// 登陆时已协商使用紧凑2进制格式的客户端
+		if(format == ProtocalBinaryCodec.FORMAT_BINARY_V1)
+			ProtocalBinaryCodec.encode(p, out);
+		else
+			ProtocalJSONEncoder.encode(p, out);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import net.x52im.mobileimsdk.server.network.udp.MBUDPEpollServerChannel;
+import net.x52im.mobileimsdk.server.network.udp.MBUDPServerChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Netty传输层实现的选择器（供各网关统一使用）。
+ * <p>
+ * Linux系统下优先使用Netty的原生epoll传输（相比JDK的NIO实现，线程唤醒延迟更低、产生的垃圾对象更少），
+ * 当前系统不支持（非Linux系统、缺少对应的native库等）或通过 {@link #EPOLL_ENABLED} 主动关闭时，
+ * 自动回退为NIO传输，对上层代码完全透明。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see GatewayTCP
+ * @see GatewayUDP
+ * @see GatewayWebsocket
+ */
+public class NettyTransport
+{
+	private static Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+
+	/**
+	 * 是否允许使用原生epoll传输，默认true（true表示在当前系统支持时使用epoll，否则一律使用NIO）。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static boolean EPOLL_ENABLED = true;
+
+	private static boolean logged = false;
+
+	/**
+	 * 当前是否使用原生epoll传输。
+	 *
+	 * @return true表示使用epoll，否则使用NIO
+	 */
+	public static boolean isEpoll()
+	{
+		boolean epoll = EPOLL_ENABLED && Epoll.isAvailable();
+		if(!logged)
+		{
+			logged = true;
+			if(epoll)
+				logger.info("[IMCORE] 网关将使用原生epoll传输。");
+			else if(EPOLL_ENABLED)
+				logger.info("[IMCORE] 当前系统不支持原生epoll传输（原因：{}），网关将使用NIO传输。", Epoll.unavailabilityCause());
+			else
+				logger.info("[IMCORE] 原生epoll传输已被关闭，网关将使用NIO传输。");
+		}
+		return epoll;
+	}
+
+	/**
+	 * 创建与当前传输实现相匹配的I/O线程池。
+	 *
+	 * @param nThreads 线程数，0表示使用Netty的默认值（CPU核数的2倍）
+	 * @return 新的EventLoopGroup实例
+	 */
+	public static EventLoopGroup newEventLoopGroup(int nThreads)
+	{
+		return isEpoll() ? new EpollEventLoopGroup(nThreads) : new NioEventLoopGroup(nThreads);
+	}
+
+	/**
+	 * 创建与当前传输实现相匹配的I/O线程池，并设置其I/O处理所占的时间比例。
+	 * <p>
+	 * 注意：I/O时间比例只对NIO传输有效。Netty的epoll传输已废弃了该设置（它并不保证生效，
+	 * 将在以后的版本中移除），因而使用epoll时本参数将被忽略。
+	 *
+	 * @param nThreads 线程数，0表示使用Netty的默认值（CPU核数的2倍）
+	 * @param ioRatio I/O处理所占的时间比例（1~100，Netty的默认值为50）
+	 * @return 新的EventLoopGroup实例
+	 * @see GatewayEventLoopGroups
+	 */
+	public static EventLoopGroup newEventLoopGroup(int nThreads, int ioRatio)
+	{
+		if(isEpoll())
+			return new EpollEventLoopGroup(nThreads);
+
+		NioEventLoopGroup group = new NioEventLoopGroup(nThreads);
+		group.setIoRatio(ioRatio);
+		return group;
+	}
+
+	/**
+	 * 与当前传输实现相匹配的TCP服务端Channel类型（供TCP和WebSocket网关使用）。
+	 *
+	 * @return 服务端Channel的类型
+	 */
+	public static Class<? extends ServerSocketChannel> serverSocketChannelClass()
+	{
+		return isEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+	}
+
+	/**
+	 * 与当前传输实现相匹配的UDP服务端Channel类型（供UDP网关使用）。
+	 *
+	 * @return 服务端Channel的类型
+	 * @see MBUDPServerChannel
+	 * @see MBUDPEpollServerChannel
+	 */
+	public static Class<? extends ServerSocketChannel> udpServerChannelClass()
+	{
+		return isEpoll() ? MBUDPEpollServerChannel.class : MBUDPServerChannel.class;
+	}
+}
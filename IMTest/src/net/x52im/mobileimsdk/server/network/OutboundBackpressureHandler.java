@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.internal.ThrowableUtil;
+
+import net.x52im.mobileimsdk.server.ServerCoreHandler;
+import net.x52im.mobileimsdk.server.event.ServerEventListener;
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.utils.ServerToolKits;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 会话的写出背压控制handler（每个连接一个，应紧挨在Protocal报文编码器之后加入pipeline）。
+ * <p>
+ * v6.1以前 {@link net.x52im.mobileimsdk.server.utils.LocalSendHelper} 不管Channel是否可写都直接
+ * writeAndFlush，接收方（通常是网络很差的手机端）读得慢时，发给它的数据就会无限制地堆积在Netty的
+ * ChannelOutboundBuffer中，群发消息的高峰期甚至会因此耗尽堆内存。现在：
+ * <ul>
+ *   <li>1）各网关按 {@link #WRITE_BUFFER_LOW_WATER_MARK}、{@link #WRITE_BUFFER_HIGH_WATER_MARK} 设置写缓冲
+ *       的高低水位，超过高水位时Channel即变为不可写；</li>
+ *   <li>2）Channel不可写期间写出的数据先放入本会话的待发队列（最多 {@link #MAX_PENDING_MESSAGES} 条），
+ *       重新可写时再按原顺序写出；</li>
+ *   <li>3）Channel持续不可写超过 {@link #SLOW_CONSUMER_TIMEOUT} 秒、或待发队列已满时，该会话即被视为
+ *       “慢消费者”并断开，队列中（以及已写入写缓冲但尚未发出）的消息均以发送失败通知发送者：有结果观察者的
+ *       消息（比如C2C消息）由观察者按原有逻辑走 {@link ServerEventListener#onTransferMessage_RealTimeSendFaild(Protocal)}
+ *       离线处理，没有观察者的QoS消息（比如服务端主动发出的消息）则由 {@link #transferOffline(Channel, Protocal)}
+ *       交由同一离线处理回调。</li>
+ * </ul>
+ * <p>
+ * UDP协议本身没有流量控制，发给各客户端的数据报都是直接交给服务端socket发出的，因而UDP网关只为其
+ * socket设置写缓冲水位，不使用本handler。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.utils.LocalSendHelper#sendData(Channel, Protocal, MBObserver)
+ */
+public class OutboundBackpressureHandler extends ChannelDuplexHandler
+{
+	private static Logger logger = LoggerFactory.getLogger(OutboundBackpressureHandler.class);
+
+	/**
+	 * 各网关写缓冲的低水位（单位：字节），默认32KB。
+	 * <p>
+	 * 不可写的Channel待写出的数据降到此值以下时重新变为可写。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+
+	/**
+	 * 各网关写缓冲的高水位（单位：字节），默认64KB。
+	 * <p>
+	 * Channel待写出的数据超过此值时即变为不可写。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+
+	/**
+	 * 每个会话在Channel不可写期间最多可积压的待发消息条数，默认1024。
+	 * <p>
+	 * 超过此值的会话将被视为“慢消费者”而断开。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int MAX_PENDING_MESSAGES = 1024;
+
+	/**
+	 * 会话持续不可写多长时间后被视为“慢消费者”而断开（单位：秒），默认15秒。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int SLOW_CONSUMER_TIMEOUT = 15;
+
+	/** 因“慢消费者”而断开时，积压的消息发送失败的原因 */
+	private final static ChannelException SLOW_CONSUMER_EXCEPTION = ThrowableUtil.unknownStackTrace(
+			new ChannelException("接收方读取过慢（慢消费者），会话已断开"), OutboundBackpressureHandler.class, "disconnect(...)");
+
+	/** 用于用户会话（即Netty中的“Channel”）中标识其已因“慢消费者”而断开的AttributeKey（值为该会话的本handler） */
+	private final static AttributeKey<OutboundBackpressureHandler> SLOW_CONSUMER_ATTR = AttributeKey.newInstance("__slow_consumer__");
+
+	private final ServerCoreHandler serverCoreHandler;
+
+	/** Channel不可写期间积压的待发数据 */
+	private final ArrayDeque<PendingWrite> pending = new ArrayDeque<PendingWrite>();
+	/** 持续不可写超时的检查任务 */
+	private ScheduledFuture<?> slowConsumerCheck = null;
+	/** 是否已因“慢消费者”而断开 */
+	private boolean disconnected = false;
+
+	public OutboundBackpressureHandler(ServerCoreHandler serverCoreHandler)
+	{
+		this.serverCoreHandler = serverCoreHandler;
+	}
+
+	/**
+	 * 各网关写缓冲的高低水位设置。
+	 *
+	 * @see io.netty.channel.ChannelOption#WRITE_BUFFER_WATER_MARK
+	 */
+	public static WriteBufferWaterMark writeBufferWaterMark()
+	{
+		return new WriteBufferWaterMark(WRITE_BUFFER_LOW_WATER_MARK, WRITE_BUFFER_HIGH_WATER_MARK);
+	}
+
+	/**
+	 * 会话因“慢消费者”而断开后，把发给它但未能发出的QoS消息交由应用层的离线处理回调。
+	 * <p>
+	 * 有结果观察者的消息由观察者自行处理（比如C2C消息），只有没有观察者的消息才需调用本方法。
+	 *
+	 * @param session 发送失败的会话
+	 * @param p 发送失败的消息
+	 * @return true表示已交由离线处理（且应用层处理成功），false表示该会话并非因“慢消费者”而断开、或离线处理未成功
+	 * @see ServerEventListener#onTransferMessage_RealTimeSendFaild(Protocal)
+	 */
+	public static boolean transferOffline(Channel session, Protocal p)
+	{
+		OutboundBackpressureHandler handler = (session == null ? null : session.attr(SLOW_CONSUMER_ATTR).get());
+		if(handler == null || p == null || !p.isQoS())
+			return false;
+
+		ServerEventListener listener = handler.serverCoreHandler.getServerEventListener();
+		return listener != null && listener.onTransferMessage_RealTimeSendFaild(p);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+	{
+		if(disconnected)
+		{
+			ReferenceCountUtil.release(msg);
+			promise.tryFailure(SLOW_CONSUMER_EXCEPTION);
+			return;
+		}
+
+		Channel channel = ctx.channel();
+		if(pending.isEmpty() && (channel.isWritable() || !channel.isActive()))
+		{
+			ctx.write(msg, promise);
+			return;
+		}
+
+		pending.add(new PendingWrite(msg, promise));
+		if(pending.size() > MAX_PENDING_MESSAGES)
+			disconnect(ctx, "待发消息已积压" + pending.size() + "条");
+		else
+			scheduleSlowConsumerCheck(ctx);
+	}
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+	{
+		if(ctx.channel().isWritable())
+		{
+			// 恢复可写即重新计时（写出积压数据后若又变为不可写，将重新安排检查）
+			cancelSlowConsumerCheck();
+			writePending(ctx);
+		}
+		else
+			scheduleSlowConsumerCheck(ctx);
+
+		ctx.fireChannelWritabilityChanged();
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception
+	{
+		cancelSlowConsumerCheck();
+		failPending(new ClosedChannelException());
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+	{
+		cancelSlowConsumerCheck();
+		failPending(new ClosedChannelException());
+	}
+
+	/**
+	 * Channel重新可写时，按原顺序写出积压的数据（直到又变为不可写为止）。
+	 */
+	private void writePending(ChannelHandlerContext ctx)
+	{
+		if(!pending.isEmpty())
+		{
+			PendingWrite w;
+			while(ctx.channel().isWritable() && (w = pending.poll()) != null)
+				ctx.write(w.msg, w.promise);
+			ctx.flush();
+		}
+
+		if(pending.isEmpty() && ctx.channel().isWritable())
+			cancelSlowConsumerCheck();
+		else
+			scheduleSlowConsumerCheck(ctx);
+	}
+
+	private void scheduleSlowConsumerCheck(final ChannelHandlerContext ctx)
+	{
+		if(slowConsumerCheck != null || disconnected)
+			return;
+
+		slowConsumerCheck = ctx.executor().schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				slowConsumerCheck = null;
+				if(!ctx.channel().isWritable() || !pending.isEmpty())
+					disconnect(ctx, "已持续" + SLOW_CONSUMER_TIMEOUT + "秒不可写");
+			}
+		}, SLOW_CONSUMER_TIMEOUT, TimeUnit.SECONDS);
+	}
+
+	private void cancelSlowConsumerCheck()
+	{
+		if(slowConsumerCheck != null)
+		{
+			slowConsumerCheck.cancel(false);
+			slowConsumerCheck = null;
+		}
+	}
+
+	/**
+	 * 断开“慢消费者”会话（积压的消息均以发送失败通知发送者）。
+	 */
+	private void disconnect(ChannelHandlerContext ctx, String reason)
+	{
+		if(disconnected)
+			return;
+		disconnected = true;
+		cancelSlowConsumerCheck();
+
+		logger.warn("[IMCORE-{}]客户端{}读取过慢（{}，距恢复可写尚需发出{}字节），将作为慢消费者断开，积压的{}条消息将作离线处理。"
+				, Gateway.$(ctx.channel()), ServerToolKits.clientInfoToString(ctx.channel()), reason
+				, ctx.channel().bytesBeforeWritable(), pending.size());
+
+		// 先打上标识，以便发送失败通知中可据此作离线处理
+		ctx.channel().attr(SLOW_CONSUMER_ATTR).set(this);
+		failPending(SLOW_CONSUMER_EXCEPTION);
+		ctx.close();
+	}
+
+	private void failPending(Throwable cause)
+	{
+		PendingWrite w;
+		while((w = pending.poll()) != null)
+		{
+			ReferenceCountUtil.release(w.msg);
+			w.promise.tryFailure(cause);
+		}
+	}
+
+	/**
+	 * 一条积压的待发数据。
+	 */
+	private final static class PendingWrite
+	{
+		final Object msg;
+		final ChannelPromise promise;
+
+		PendingWrite(Object msg, ChannelPromise promise)
+		{
+			this.msg = msg;
+			this.promise = promise;
+		}
+	}
+}
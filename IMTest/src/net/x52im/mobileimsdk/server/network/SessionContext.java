@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import net.x52im.mobileimsdk.server.processor.OnlineProcessor;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.qos.RttEstimator;
+
+/**
+ * 用户会话（即Netty中的“Channel”）的上下文信息。
+ * <p>
+ * v6.1以前，user_id、首次登陆时间、网络类型、报文格式等分别存放在Channel的各个Attribute中，处理每条
+ * 消息时都要多次查找AttributeMap（还有Integer、Long的拆箱），日志中用到的客户端信息字符串也是每次
+ * 临时拼接的。现在这些信息统一放在本类的实例中（每个Channel一个，只占用一个Attribute），各网关的
+ * InboundHandler在连接建立时取得并缓存它，此后的热点路径直接读取字段即可。
+ * <p>
+ * {@link Gateway}、{@link net.x52im.mobileimsdk.server.processor.OnlineProcessor} 中原有的各属性存取方法
+ * 均已改为读写本类的字段，对调用方来说用法不变。
+ * <p>
+ * 为兼容直接读取原有Attribute的老代码，user_id、首次登陆时间、网络类型被设置时仍会同步写入原来已标记为
+ * 过时的各Attribute（只写不读，且只在建立连接、登陆、关闭时各写一次，不影响热点路径），这些Attribute
+ * 将在以后的版本中移除。
+ * <p>
+ * <b>线程安全说明：</b>各字段均为volatile，可在任意线程中读取；消息计数只在该会话所属的I/O线程中更新。
+ *
+ * @since 6.1
+ * @see #get(Channel)
+ */
+public final class SessionContext
+{
+	/** 用于用户会话（即Netty中的“Channel”）中存放本上下文的属性key */
+	public final static String SESSION_CONTEXT_ATTRIBUTE = "__session_context__";
+
+	/** 用于用户会话（即Netty中的“Channel”）中存取属性 {@link #SESSION_CONTEXT_ATTRIBUTE} 用的AttributeKey */
+	public static final AttributeKey<SessionContext> SESSION_CONTEXT_ATTRIBUTE_ATTR = AttributeKey.newInstance(SESSION_CONTEXT_ATTRIBUTE);
+
+	private final Channel channel;
+
+	/** 网络类型标识，-1表示未设置 */
+	private volatile int socketType = -1;
+	/** 网络类型的字符串描述（日志用） */
+	private volatile String gatewayFlag = "unknow";
+	/** 登陆成功后的user_id，null表示未登陆 */
+	private volatile String userId = null;
+	/** 首次登陆时间，-1表示未设置 */
+	private volatile long firstLoginTime = -1;
+	/** 登陆时协商好的报文格式 */
+	private volatile int protocalFormat = ProtocalBinaryCodec.FORMAT_JSON;
+	/** UDP会话迁移凭证（登陆成功时下发，null表示没有） */
+	private volatile String migrationToken = null;
+	/** RTT估算器（按需创建） */
+	private volatile RttEstimator rttEstimator = null;
+	/** 客户端地址的字符串描述（按需生成，地址变化时清除） */
+	private volatile String addressTag = null;
+	/** 客户端信息的字符串描述（即"{uid:xxx}/ip:port"，按需生成，user_id或地址变化时清除） */
+	private volatile String clientInfo = null;
+
+	/** 收到的消息数 */
+	private volatile long receivedCount = 0;
+	/** 成功发出的消息数 */
+	private volatile long sentCount = 0;
+
+	private SessionContext(Channel channel)
+	{
+		this.channel = channel;
+	}
+
+	/**
+	 * 取得指定会话的上下文（首次调用时创建）。
+	 * <p>
+	 * 本方法需查找一次AttributeMap，热点路径中应缓存其返回值。
+	 *
+	 * @param c 通信会话Channel对象引用
+	 * @return 会话上下文
+	 */
+	public static SessionContext get(Channel c)
+	{
+		Attribute<SessionContext> attr = c.attr(SESSION_CONTEXT_ATTRIBUTE_ATTR);
+		SessionContext context = attr.get();
+		if(context == null)
+		{
+			SessionContext old = attr.setIfAbsent(context = new SessionContext(c));
+			if(old != null)
+				context = old;
+		}
+		return context;
+	}
+
+	/**
+	 * 本上下文所属的会话。
+	 */
+	public Channel getChannel()
+	{
+		return channel;
+	}
+
+	/**
+	 * 网络类型标识。
+	 *
+	 * @return 网络类型标识常量，未设置时返回-1
+	 * @see Gateway#SOCKET_TYPE_UDP
+	 * @see Gateway#SOCKET_TYPE_TCP
+	 * @see Gateway#SOCKET_TYPE_WEBSOCKET
+	 */
+	public int getSocketType()
+	{
+		return socketType;
+	}
+
+	/**
+	 * 设置网络类型标识（-1表示清除）。
+	 */
+	@SuppressWarnings("deprecation")
+	public void setSocketType(int socketType)
+	{
+		this.socketType = socketType;
+		channel.attr(Gateway.SOCKET_TYPE_IN_CHANNEL_ATTRIBUTE_ATTR).set(socketType >= 0 ? socketType : null);
+		switch(socketType)
+		{
+			case Gateway.SOCKET_TYPE_UDP:
+				gatewayFlag = "udp";
+				break;
+			case Gateway.SOCKET_TYPE_TCP:
+				gatewayFlag = "tcp";
+				break;
+			case Gateway.SOCKET_TYPE_WEBSOCKET:
+				gatewayFlag = "websocket";
+				break;
+			default:
+				gatewayFlag = "unknow";
+				break;
+		}
+	}
+
+	/**
+	 * 网络类型的字符串描述，主要用于Debug中。
+	 *
+	 * @see Gateway#getGatewayFlag(Channel)
+	 */
+	public String getGatewayFlag()
+	{
+		return gatewayFlag;
+	}
+
+	/**
+	 * 登陆成功后的user_id。
+	 *
+	 * @return 未登陆时返回null
+	 */
+	public String getUserId()
+	{
+		return userId;
+	}
+
+	/**
+	 * 设置user_id（null表示清除）。
+	 */
+	@SuppressWarnings("deprecation")
+	public void setUserId(String userId)
+	{
+		this.userId = userId;
+		channel.attr(OnlineProcessor.USER_ID_ATTRIBUTE_ATTR).set(userId);
+		this.clientInfo = null;
+	}
+
+	/**
+	 * 是否已登陆认证过。
+	 */
+	public boolean isLogined()
+	{
+		return userId != null;
+	}
+
+	/**
+	 * 首次登陆时间。
+	 *
+	 * @return 未设置时返回-1
+	 */
+	public long getFirstLoginTime()
+	{
+		return firstLoginTime;
+	}
+
+	/**
+	 * 设置首次登陆时间（-1表示清除）。
+	 */
+	@SuppressWarnings("deprecation")
+	public void setFirstLoginTime(long firstLoginTime)
+	{
+		this.firstLoginTime = firstLoginTime;
+		channel.attr(OnlineProcessor.FIRST_LOGIN_TIME_ATTRIBUTE_ATTR).set(firstLoginTime >= 0 ? firstLoginTime : null);
+	}
+
+	/**
+	 * 登陆时协商好的报文格式。
+	 *
+	 * @return 报文格式，尚未协商时返回 {@link ProtocalBinaryCodec#FORMAT_JSON}
+	 */
+	public int getProtocalFormat()
+	{
+		return protocalFormat;
+	}
+
+	/**
+	 * 设置登陆时协商好的报文格式。
+	 */
+	public void setProtocalFormat(int protocalFormat)
+	{
+		this.protocalFormat = protocalFormat;
+	}
+
+	/**
+	 * 登陆成功时下发给客户端的UDP会话迁移凭证。
+	 *
+	 * @return 凭证，没有时返回null
+	 * @see net.x52im.mobileimsdk.server.network.GatewayUDP#SESSION_MIGRATION
+	 */
+	public String getMigrationToken()
+	{
+		return migrationToken;
+	}
+
+	/**
+	 * 设置下发给客户端的UDP会话迁移凭证。
+	 */
+	public void setMigrationToken(String migrationToken)
+	{
+		this.migrationToken = migrationToken;
+	}
+
+	/**
+	 * RTT估算器（首次获取时创建）。
+	 */
+	public RttEstimator getRttEstimator()
+	{
+		RttEstimator estimator = rttEstimator;
+		if(estimator == null)
+		{
+			synchronized (this)
+			{
+				if((estimator = rttEstimator) == null)
+					rttEstimator = estimator = new RttEstimator();
+			}
+		}
+		return estimator;
+	}
+
+	/**
+	 * 客户端地址的字符串描述（即"/ip:port"）。
+	 */
+	public String getAddressTag()
+	{
+		String tag = addressTag;
+		if(tag == null)
+			addressTag = tag = String.valueOf(channel.remoteAddress());
+		return tag;
+	}
+
+	/**
+	 * 客户端信息的字符串描述（即"{uid:xxx}/ip:port"），主要用于日志中。
+	 *
+	 * @see net.x52im.mobileimsdk.server.utils.ServerToolKits#clientInfoToString(Channel)
+	 */
+	public String getClientInfo()
+	{
+		String info = clientInfo;
+		if(info == null)
+			clientInfo = info = "{uid:" + userId + "}" + getAddressTag();
+		return info;
+	}
+
+	/**
+	 * 客户端地址已变化（比如UDP会话迁移到了新地址上），清除缓存的地址描述。
+	 */
+	public void remoteAddressChanged()
+	{
+		addressTag = null;
+		clientInfo = null;
+	}
+
+	/**
+	 * 收到的消息数。
+	 */
+	public long getReceivedCount()
+	{
+		return receivedCount;
+	}
+
+	/**
+	 * 收到一条消息（只在该会话所属的I/O线程中调用）。
+	 */
+	public void onMessageReceived()
+	{
+		receivedCount++;
+	}
+
+	/**
+	 * 成功发出的消息数。
+	 */
+	public long getSentCount()
+	{
+		return sentCount;
+	}
+
+	/**
+	 * 成功发出一条消息（只在该会话所属的I/O线程中调用）。
+	 */
+	public void onMessageSent()
+	{
+		sentCount++;
+	}
+}
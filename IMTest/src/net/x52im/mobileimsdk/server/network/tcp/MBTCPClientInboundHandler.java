@@ -22,6 +22,7 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.ReadTimeoutException;
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.network.Gateway;
+import net.x52im.mobileimsdk.server.network.SessionContext;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
 import net.x52im.mobileimsdk.server.utils.ServerToolKits;
 
@@ -43,11 +44,19 @@ public class MBTCPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 	
 	private ServerCoreHandler serverCoreHandler = null;
 	
+	/** 本连接的会话上下文（本handler每个连接一个，加入pipeline时取得，此后直接使用） */
+	private SessionContext sessionContext = null;
+	
 	public MBTCPClientInboundHandler(ServerCoreHandler serverCoreHandler)
 	{
 		this.serverCoreHandler = serverCoreHandler;
 	}
 	
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		sessionContext = SessionContext.get(ctx.channel());
+	}
+	
 	/**
 	 * “会话”处理过程中出现异步时会调用本方法。
 	 */
@@ -56,7 +65,7 @@ public class MBTCPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 		try{
 			if(e instanceof ReadTimeoutException){
 				logger.info("[IMCORE-tcp]客户端{}的会话已超时失效，很可能是对方非正常通出或网络故障" +
-						"，即将以会话异常的方式执行关闭流程 ...", ServerToolKits.clientInfoToString(ctx.channel()));
+						"，即将以会话异常的方式执行关闭流程 ...", sessionContext.getClientInfo());
 			}
 			
 			serverCoreHandler.exceptionCaught(ctx.channel(), e);
@@ -73,7 +82,7 @@ public class MBTCPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 		super.channelActive(ctx);
 		
 		// 设置好网络类型标志（因为MobileIMSDK支持多种网络通信类型）
-		Gateway.setSocketType(ctx.channel(), Gateway.SOCKET_TYPE_TCP);
+		sessionContext.setSocketType(Gateway.SOCKET_TYPE_TCP);
 		// 业务处理
 		serverCoreHandler.sessionCreated(ctx.channel());
 	}
@@ -94,7 +103,7 @@ public class MBTCPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 		super.channelInactive(ctx);
 		
 		// 清除好网络类型标志（因为MobileIMSDK支持多种网络通信类型）
-		Gateway.removeSocketType(ctx.channel());
+		sessionContext.setSocketType(-1);
 		// 业务处理
 		serverCoreHandler.sessionClosed(ctx.channel());
 	}
@@ -109,7 +118,7 @@ public class MBTCPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
     	// 读取收到的数据
     	Protocal pFromClient = ServerToolKits.fromIOBuffer(bytebuf);
     	// 进入具体的业务逻辑处理
-		serverCoreHandler.messageReceived(ctx.channel(), pFromClient);
+		serverCoreHandler.messageReceived(sessionContext, pFromClient);
 	}
 	
 //	/**
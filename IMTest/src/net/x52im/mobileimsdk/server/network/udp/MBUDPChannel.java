@@ -29,9 +29,7 @@ import io.netty.channel.ChannelPromise;
 import io.netty.channel.DefaultChannelConfig;
 import io.netty.channel.DefaultEventLoop;
 import io.netty.channel.EventLoop;
-import io.netty.channel.socket.DatagramPacket;
-import io.netty.util.ReferenceCountUtil;
-import io.netty.util.internal.RecyclableArrayList;
+import net.x52im.mobileimsdk.server.network.SessionContext;
 
 /**
  * 仿照TCP协议的AbstractNioChannel实现的专用于UDP的客端Channel实现类。
@@ -54,13 +52,13 @@ public class MBUDPChannel extends AbstractChannel
 	protected final ChannelMetadata metadata = new ChannelMetadata(false);
 	protected final DefaultChannelConfig config = new DefaultChannelConfig(this);
 	
-	/** 接收到的数据缓存队列 */
+	/** 接收到的数据缓存队列（本Channel与父Channel在同一I/O线程上时，仅用于暂存注册完成前收到的数据） */
 	private final ConcurrentLinkedQueue<ByteBuf> buffers = new ConcurrentLinkedQueue<ByteBuf>();
 	
 	/** 对应的服务端Channel实例引用 */
-	protected final MBUDPServerChannel serverchannel;
-	/** 本Channel对应的客户端IP+端口信息 */
-	protected final InetSocketAddress remote;
+	protected final MBUDPParentChannel serverchannel;
+	/** 本Channel对应的客户端IP+端口信息（会话迁移后即为客户端的新地址） */
+	protected volatile InetSocketAddress remote;
 	
 	/** “连接”是否已打开，true表示已打开，否则未打开。默认true。 */
 	private volatile boolean open = true;
@@ -76,7 +74,7 @@ public class MBUDPChannel extends AbstractChannel
 	 * @param serverchannel 对应的服务端Channel实例引用
 	 * @param remote 本Channel对应的客户端IP+端口信息
 	 */
-	protected MBUDPChannel(MBUDPServerChannel serverchannel, InetSocketAddress remote) 
+	protected MBUDPChannel(MBUDPParentChannel serverchannel, InetSocketAddress remote) 
 	{
 		super(serverchannel);
 		this.serverchannel = serverchannel;
@@ -120,11 +118,50 @@ public class MBUDPChannel extends AbstractChannel
 		doClose();
 	}
 
+	/**
+	 * 会话迁移到新的客户端地址上（由父Channel在其I/O线程中调用），此后的数据报都将发往新地址。
+	 * 
+	 * @param newRemote 客户端的新IP+端口信息
+	 * @since 6.1
+	 * @see MBUDPParentChannel#migrateChannel(MBUDPChannel, MBUDPChannel)
+	 */
+	protected void migrateTo(InetSocketAddress newRemote)
+	{
+		// remoteAddress()直接返回本字段（不经过AbstractChannel的缓存），无需其它处理
+		this.remote = newRemote;
+		SessionContext.get(this).remoteAddressChanged();
+	}
+	
 	protected void addBuffer(ByteBuf buffer) 
 	{
 		buffers.add(buffer);
 	}
 
+	/**
+	 * 把父Channel收到的一个数据报交给本Channel处理（由父Channel在其I/O线程中调用）。
+	 * <p>
+	 * 本Channel已注册到与父Channel相同的I/O线程上时，直接在当前线程中触发读事件（不再经过缓存队列
+	 * 和线程切换），否则先放入缓存队列，再由本Channel自已的I/O线程读取。
+	 * 
+	 * @param buffer 收到的数据
+	 * @since 6.1
+	 */
+	protected void deliver(ByteBuf buffer)
+	{
+		if (isRegistered() && eventLoop().inEventLoop() && buffers.isEmpty())
+		{
+			pipeline().fireChannelRead(buffer);
+			pipeline().fireChannelReadComplete();
+		}
+		else
+		{
+			addBuffer(buffer);
+			
+			if (isRegistered()) 
+				read();
+		}
+	}
+
 	/**
 	 * 对Channel读操作的准备工作。
 	 */
@@ -152,64 +189,25 @@ public class MBUDPChannel extends AbstractChannel
 		}
 	}
 
+	/**
+	 * 把待发出的数据交由父Channel以数据报的形式写出（父Channel会把同一轮事件循环中的所有数据报合并为一次flush）。
+	 */
 	@Override
 	protected void doWrite(ChannelOutboundBuffer buffer) throws Exception 
 	{
-		// transfer all messages that are ready to be written to list
-		final RecyclableArrayList list = RecyclableArrayList.newInstance();
-		boolean freeList = true;
-		
-		try 
-		{
-			ByteBuf buf = null;
-			while ((buf = (ByteBuf) buffer.current()) != null) 
-			{
-				list.add(buf.retain());
-				buffer.remove();
-			}
-			
-			freeList = false;
-		} 
-		finally 
+		ByteBuf buf = null;
+		while ((buf = (ByteBuf) buffer.current()) != null) 
 		{
-			if (freeList)
-			{
-				for (Object obj : list) 
-				{
-					ReferenceCountUtil.safeRelease(obj);
-				}
-				
-				list.recycle();
-			}
+			serverchannel.writeDatagram(buf.retain(), remote);
+			buffer.remove();
 		}
-		
-		//schedule a task that will write those entries
-		serverchannel.eventLoop().execute(new Runnable() {
-			@Override
-			public void run() 
-			{
-				try 
-				{
-					for (Object buf : list) 
-					{
-						serverchannel.unsafe()
-							.write(new DatagramPacket((ByteBuf) buf, remote), voidPromise());
-					}
-					
-					serverchannel.unsafe().flush();
-				} 
-				finally 
-				{
-					list.recycle();
-				}
-			}
-		});
 	}
 
 	@Override
 	protected boolean isCompatible(EventLoop eventloop) 
 	{
-		return eventloop instanceof DefaultEventLoop;
+		// 父Channel所在的I/O线程也是兼容的（即GatewayUDP.SESSION_ON_IO_THREAD模式）
+		return eventloop instanceof DefaultEventLoop || eventloop == serverchannel.eventLoop();
 	}
 
 	@Override
@@ -221,7 +219,16 @@ public class MBUDPChannel extends AbstractChannel
 	@Override
 	protected SocketAddress localAddress0()
 	{
-		return serverchannel.localAddress0();
+		return serverchannel.localAddress();
+	}
+
+	/**
+	 * 客户端的IP+端口信息（不使用AbstractChannel中的缓存，会话迁移后即为新地址）。
+	 */
+	@Override
+	public InetSocketAddress remoteAddress()
+	{
+		return remote;
 	}
 
 	@Override
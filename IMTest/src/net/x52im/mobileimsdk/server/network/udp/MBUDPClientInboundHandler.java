@@ -16,14 +16,26 @@
  */
 package net.x52im.mobileimsdk.server.network.udp;
 
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.ReadTimeoutException;
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.ServerLauncher;
 import net.x52im.mobileimsdk.server.network.Gateway;
+import net.x52im.mobileimsdk.server.network.SessionContext;
+import net.x52im.mobileimsdk.server.network.GatewayUDP;
+import net.x52im.mobileimsdk.server.processor.OnlineDevices;
+import net.x52im.mobileimsdk.server.processor.OnlineProcessor;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
+import net.x52im.mobileimsdk.server.protocal.ProtocalType;
+import net.x52im.mobileimsdk.server.protocal.c.PKeepAlive;
 import net.x52im.mobileimsdk.server.utils.ServerToolKits;
 
 import org.slf4j.Logger;
@@ -54,11 +66,19 @@ public class MBUDPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 	
 	private ServerCoreHandler serverCoreHandler = null;
 	
+	/** 本连接的会话上下文（本handler每个连接一个，加入pipeline时取得，此后直接使用） */
+	private SessionContext sessionContext = null;
+	
 	public MBUDPClientInboundHandler(ServerCoreHandler serverCoreHandler)
 	{
 		this.serverCoreHandler = serverCoreHandler;
 	}
 	
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		sessionContext = SessionContext.get(ctx.channel());
+	}
+	
 	/**
 	 * UDP“会话”处理过程中出现异步时会调用本方法。
 	 * <p>
@@ -70,7 +90,7 @@ public class MBUDPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 		try{
 			if(e instanceof ReadTimeoutException){
 				logger.info("[IMCORE-udp]客户端{}的会话已超时失效，很可能是对方非正常通出或网络故障" +
-						"，即将以会话异常的方式执行关闭流程 ...", ServerToolKits.clientInfoToString(ctx.channel()));
+						"，即将以会话异常的方式执行关闭流程 ...", sessionContext.getClientInfo());
 			}
 			
 			serverCoreHandler.exceptionCaught(ctx.channel(), e);
@@ -90,7 +110,7 @@ public class MBUDPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 		super.channelActive(ctx);
 		
 		// 设置好网络类型标志（因为MobileIMSDK支持多种网络通信类型）
-		Gateway.setSocketType(ctx.channel(), Gateway.SOCKET_TYPE_UDP);
+		sessionContext.setSocketType(Gateway.SOCKET_TYPE_UDP);
 		// 业务处理
 		serverCoreHandler.sessionCreated(ctx.channel());
 	}
@@ -114,7 +134,7 @@ public class MBUDPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 		super.channelInactive(ctx);
 		
 		// 清除好网络类型标志（因为MobileIMSDK支持多种网络通信类型）
-		Gateway.removeSocketType(ctx.channel());
+		sessionContext.setSocketType(-1);
 		// 业务处理
 		serverCoreHandler.sessionClosed(ctx.channel());
 	}
@@ -128,8 +148,147 @@ public class MBUDPClientInboundHandler extends SimpleChannelInboundHandler<ByteB
 	protected void channelRead0(ChannelHandlerContext ctx, ByteBuf bytebuf) throws Exception {
 		// 读取收到的数据
     	Protocal pFromClient = ServerToolKits.fromIOBuffer(bytebuf);
+    	// 来自已登陆用户新地址、且带有正确迁移凭证的心跳包：迁移其原会话（该心跳包本身不再处理）
+    	if(GatewayUDP.SESSION_MIGRATION && tryMigrate((MBUDPChannel)ctx.channel(), pFromClient))
+    		return;
     	// 进入具体的业务逻辑处理
-		serverCoreHandler.messageReceived(ctx.channel(), pFromClient);
+		serverCoreHandler.messageReceived(sessionContext, pFromClient);
+	}
+	
+	/**
+	 * 尝试把数据发送者的已有会话迁移到本“伪连接”的地址上。
+	 * <p>
+	 * 客户端所处的NAT映射超时、切换网络等都可能导致它的IP或端口发生变化，对服务端来说，随后收到的
+	 * 就是一个来自新地址、未登陆的“伪连接”的数据（v6.1以前只能等原会话超时，客户端重新登陆）。
+	 * <p>
+	 * 数据中的user_id可被任意伪造，因此只有带着登陆时下发的迁移凭证（见 {@link SessionContext#getMigrationToken()}）
+	 * 的心跳包才能证明发送者就是原会话的客户端：此时把凭证相符的那个会话直接迁移到新地址上继续使用（原会话的
+	 * Channel对象不变，在线列表、QoS等均无需任何处理），本“伪连接”随即关闭。触发迁移的心跳包本身不会交由
+	 * 迁移后的会话处理（客户端的下一个心跳包即由迁移后的会话正常应答）。
+	 * 
+	 * @param channel 收到数据的“伪连接”
+	 * @param p 收到的数据
+	 * @return true表示已开始迁移（数据将被丢弃，迁移失败时仍由本“伪连接”处理），否则表示不满足迁移条件
+	 * @since 6.1
+	 * @see GatewayUDP#SESSION_MIGRATION
+	 */
+	protected boolean tryMigrate(final MBUDPChannel channel, final Protocal p)
+	{
+		// 只有未登陆“伪连接”上的心跳包才可能触发迁移
+		if(p == null || p.getFrom() == null || p.getType() != ProtocalType.C.FROM_CLIENT_TYPE_OF_KEEP$ALIVE
+				|| OnlineProcessor.isLogined(channel))
+			return false;
+		
+		String token = parseMigrationToken(p);
+		if(token == null)
+			return false;
+		
+		OnlineDevices devices = OnlineProcessor.getInstance().getOnlineDevices(p.getFrom());
+		if(devices == null)
+			return false;
+		
+		// 该用户可能有多个终端同时在线，凭证唯一确定了是其中哪个终端换了地址
+		InetSocketAddress newAddress = channel.remoteAddress();
+		MBUDPChannel candidate = null;
+		for(int i = 0; i < devices.size(); i++)
+		{
+			Channel online = devices.getSession(i);
+			if(!(online instanceof MBUDPChannel) || online == channel || !online.isActive())
+				continue;
+			if(isMigrationTokenMatched(SessionContext.get(online).getMigrationToken(), token))
+			{
+				candidate = (MBUDPChannel)online;
+				break;
+			}
+		}
+		if(candidate == null)
+			return false;
+		// 只有同一socket上的会话才可迁移（SO_REUSEPORT模式下，不同socket的会话表是各自独立的）
+		if(candidate.parent() != channel.parent())
+			return false;
+		if(GatewayUDP.SESSION_MIGRATION_SAME_IP_ONLY 
+				&& !newAddress.getAddress().equals(candidate.remoteAddress().getAddress()))
+			return false;
+		
+		final MBUDPChannel target = candidate;
+		final InetSocketAddress oldAddress = target.remoteAddress();
+		
+		final MBUDPParentChannel parent = channel.serverchannel;
+		Runnable migrateTask = new Runnable() {
+			@Override
+			public void run()
+			{
+				if(parent.migrateChannel(channel, target))
+				{
+					logger.info("[IMCORE-udp]用户{}的会话已由{}迁移至新地址{}。", p.getFrom(), oldAddress, target.remoteAddress());
+					channel.close();
+				}
+				else
+				{
+					messageReceived(channel, p);
+				}
+			}
+		};
+		
+		if(parent.eventLoop().inEventLoop())
+			migrateTask.run();
+		else
+			parent.eventLoop().execute(migrateTask);
+		return true;
+	}
+	
+	/**
+	 * 从心跳包中解析出迁移凭证。
+	 * 
+	 * @return 凭证，没有或解析出错时返回null
+	 */
+	private static String parseMigrationToken(Protocal p)
+	{
+		try
+		{
+			PKeepAlive keepAlive = ProtocalFactory.parsePKeepAlive(p.getDataContent());
+			return keepAlive != null ? keepAlive.getMigrationToken() : null;
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * 凭证是否相符（比较耗时与凭证内容无关，以防被逐字节猜测）。
+	 */
+	private static boolean isMigrationTokenMatched(String expected, String actual)
+	{
+		if(expected == null || actual == null)
+			return false;
+		return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), actual.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * 在指定会话所属的I/O线程中处理收到的数据。
+	 */
+	private void messageReceived(final Channel session, final Protocal p)
+	{
+		Runnable task = new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					serverCoreHandler.messageReceived(session, p);
+				}
+				catch (Exception e)
+				{
+					session.pipeline().fireExceptionCaught(e);
+				}
+			}
+		};
+		
+		if(session.eventLoop().inEventLoop())
+			task.run();
+		else
+			session.eventLoop().execute(task);
 	}
 	
 //	/**
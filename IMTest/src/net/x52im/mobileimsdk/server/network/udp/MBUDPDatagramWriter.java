@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.udp;
+
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.internal.PlatformDependent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * UDP服务端Channel的数据报批量写出器。
+ * <p>
+ * 各UDP“伪连接”写出的数据报先写入（或从其它线程提交到）真正收发数据报的Channel的发送缓冲中，
+ * 同一I/O线程在一轮事件循环内写出的所有数据报只在本轮的任务阶段统一flush一次。这样在大量客户端
+ * 的心跳应答、ACK集中发出时，不会每个数据报都单独触发一次系统调用，使用原生epoll传输时，一次flush
+ * 中的多个数据报还将由Netty以sendmmsg的方式一次性发出。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see MBUDPParentChannel#writeDatagram(ByteBuf, InetSocketAddress)
+ */
+public class MBUDPDatagramWriter
+{
+	private static Logger logger = LoggerFactory.getLogger(MBUDPDatagramWriter.class);
+
+	/** 真正收发数据报的Channel */
+	private final Channel target;
+
+	/** 其它线程提交的、待在target所属I/O线程中写出的数据报（多生产者、单消费者） */
+	private final Queue<DatagramPacket> pending = PlatformDependent.newMpscQueue();
+
+	/** 本轮事件循环中是否已安排了flush任务 */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run()
+		{
+			flush();
+		}
+	};
+
+	public MBUDPDatagramWriter(Channel target)
+	{
+		this.target = target;
+	}
+
+	/**
+	 * 写出一个数据报（可在任意线程中调用）。
+	 *
+	 * @param content 数据报内容（其所有权将转交给本对象）
+	 * @param recipient 接收方的IP+端口信息
+	 */
+	public void write(ByteBuf content, InetSocketAddress recipient)
+	{
+		DatagramPacket packet = new DatagramPacket(content, recipient);
+		if(target.eventLoop().inEventLoop())
+			target.unsafe().write(packet, target.voidPromise());
+		else
+			pending.offer(packet);
+
+		if(flushScheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				target.eventLoop().execute(flushTask);
+			}
+			catch (Exception e)
+			{
+				// I/O线程已关闭（服务正在退出），此时只需释放掉未发出的数据即可
+				flushScheduled.set(false);
+				logger.debug("[IMCORE-udp] 数据报批量写出任务提交失败（I/O线程可能已关闭）：{}", e.getMessage());
+				releasePending();
+			}
+		}
+	}
+
+	/**
+	 * 写出其它线程提交的数据报，并flush本轮事件循环中写出的所有数据报（在target所属I/O线程中调用）。
+	 */
+	protected void flush()
+	{
+		// 先清除标识再取数据：此后提交的数据报要么被本次取到，要么会安排新的flush任务
+		flushScheduled.set(false);
+
+		DatagramPacket packet;
+		while((packet = pending.poll()) != null)
+			target.unsafe().write(packet, target.voidPromise());
+
+		target.unsafe().flush();
+	}
+
+	private void releasePending()
+	{
+		DatagramPacket packet;
+		while((packet = pending.poll()) != null)
+			packet.release();
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.udp;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AbstractServerChannel;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelMetadata;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.InternetProtocolFamily;
+import io.netty.channel.socket.ServerSocketChannelConfig;
+import io.netty.util.internal.PlatformDependent;
+
+import net.x52im.mobileimsdk.server.network.GatewayUDP;
+
+/**
+ * 基于Netty原生epoll传输的UDP服务端Channel实现类（功能与 {@link MBUDPServerChannel} 完全一致）。
+ * <p>
+ * Netty的epoll实现类均为包内可见，无法像 {@link MBUDPServerChannel} 那样直接继承后改写读写逻辑，
+ * 因而本类采用组合的方式：内部持有一个真正收发数据报的 {@link EpollDatagramChannel}（与本Channel注册
+ * 在同一个I/O线程上），由它收到的数据报按来源地址分发给对应的UDP“伪连接” {@link MBUDPChannel}，
+ * 新的“伪连接”则同样交由ServerBootstrap完成初始化和注册，因此网关的其它代码无需任何改动。
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.network.NettyTransport#udpServerChannelClass()
+ */
+public class MBUDPEpollServerChannel extends AbstractServerChannel implements MBUDPParentChannel
+{
+	/** Channel属性描述对象（UDP协议时hasDisconnect设为true即可，详见 {@link MBUDPServerChannel} 中的说明） */
+	private final ChannelMetadata METADATA = new ChannelMetadata(true);
+
+	/** 真正收发数据报的epoll Channel */
+	protected final EpollDatagramChannel datagramChannel;
+
+	private final MBUDPEpollServerChannelConfig config;
+
+	/** 数据报批量写出器（一次flush中的多个数据报将以sendmmsg的方式发出） */
+	private final MBUDPDatagramWriter datagramWriter;
+
+	/** 各客户端的“伪连接”会话表 */
+	protected final MBUDPSessionTable sessions = new MBUDPSessionTable(this
+			, GatewayUDP.MAX_SESSIONS, GatewayUDP.SESION_RECYCLER_EXPIRE * 1000L);
+
+	private volatile boolean open = true;
+
+	public MBUDPEpollServerChannel()
+	{
+		super();
+		this.datagramChannel = new EpollDatagramChannel(InternetProtocolFamily.IPv4);
+		this.datagramChannel.pipeline().addLast(new DatagramDispatcher());
+		this.config = new MBUDPEpollServerChannelConfig(this, datagramChannel.config());
+		this.datagramWriter = new MBUDPDatagramWriter(datagramChannel);
+	}
+
+	@Override
+	public InetSocketAddress localAddress()
+	{
+		return (InetSocketAddress) super.localAddress();
+	}
+
+	@Override
+	protected SocketAddress localAddress0()
+	{
+		return datagramChannel.localAddress();
+	}
+
+	@Override
+	public InetSocketAddress remoteAddress()
+	{
+		return null;
+	}
+
+	@Override
+	public ChannelMetadata metadata()
+	{
+		return METADATA;
+	}
+
+	@Override
+	public ServerSocketChannelConfig config()
+	{
+		return config;
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return open;
+	}
+
+	@Override
+	public boolean isActive()
+	{
+		return open && datagramChannel.isActive();
+	}
+
+	/**
+	 * 是否可注册到指定的I/O线程上：真正能否注册取决于内部的epoll Channel，将在 {@link #doRegister()} 中检查。
+	 */
+	@Override
+	protected boolean isCompatible(EventLoop loop)
+	{
+		return true;
+	}
+
+	/**
+	 * 将内部的epoll Channel注册到与本Channel相同的I/O线程上（本方法在该I/O线程中被调用，因而注册是同步完成的）。
+	 */
+	@Override
+	protected void doRegister() throws Exception
+	{
+		ChannelFuture f = eventLoop().register(datagramChannel);
+		if(!f.isSuccess())
+			PlatformDependent.throwException(f.cause());
+		
+		// 启动各“伪连接”的空闲超时检查
+		sessions.startIdleCheck(eventLoop());
+	}
+
+	@Override
+	protected void doBind(SocketAddress localAddress) throws Exception
+	{
+		ChannelFuture f = datagramChannel.bind(localAddress);
+		if(!f.isSuccess())
+			PlatformDependent.throwException(f.cause());
+	}
+
+	/**
+	 * 数据报的读取由内部的epoll Channel自动进行，此处无需做任何事。
+	 */
+	@Override
+	protected void doBeginRead() throws Exception
+	{
+	}
+
+	@Override
+	protected void doClose() throws Exception
+	{
+		open = false;
+		sessions.stopIdleCheck();
+
+		// “关闭”所有客户端的伪连接Channel
+		for (MBUDPChannel channel : sessions.channels())
+			channel.close();
+
+		datagramChannel.close();
+	}
+
+	@Override
+	public void removeChannel(final Channel channel)
+	{
+		if (eventLoop().inEventLoop())
+		{
+			removeChannel0(channel);
+			return;
+		}
+
+		eventLoop().submit(new Runnable() {
+			@Override
+			public void run() {
+				removeChannel0(channel);
+			}
+		});
+	}
+
+	private void removeChannel0(Channel channel)
+	{
+		sessions.remove((MBUDPChannel) channel);
+	}
+	
+	@Override
+	public boolean migrateChannel(MBUDPChannel from, MBUDPChannel to)
+	{
+		return sessions.migrate(from, to);
+	}
+
+	@Override
+	public void writeDatagram(ByteBuf content, InetSocketAddress recipient)
+	{
+		datagramWriter.write(content, recipient);
+	}
+
+	/**
+	 * 把内部epoll Channel收到的数据报按来源地址分发给对应的“伪连接”（逻辑与
+	 * {@link MBUDPServerChannel#doReadMessages(java.util.List)} 一致）。
+	 */
+	private class DatagramDispatcher extends ChannelInboundHandlerAdapter
+	{
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+		{
+			DatagramPacket packet = (DatagramPacket) msg;
+			InetSocketAddress inetSocketAddress = packet.sender();
+			ByteBuf buffer = packet.content();
+
+			// allocate new channel or use existing one and push message to it
+			MBUDPChannel udpchannel = sessions.dispatch(inetSocketAddress, buffer);
+			// 交由ServerBootstrap完成新“伪连接”的初始化和注册
+			if (udpchannel != null)
+				pipeline().fireChannelRead(udpchannel);
+		}
+
+		@Override
+		public void channelReadComplete(ChannelHandlerContext ctx) throws Exception
+		{
+			pipeline().fireChannelReadComplete();
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
+		{
+			pipeline().fireExceptionCaught(cause);
+		}
+	}
+}
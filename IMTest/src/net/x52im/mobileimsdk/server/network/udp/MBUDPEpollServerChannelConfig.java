@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.udp;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.MessageSizeEstimator;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.socket.DatagramChannelConfig;
+import io.netty.channel.socket.ServerSocketChannelConfig;
+import net.x52im.mobileimsdk.server.network.GatewayUDP;
+
+/**
+ * {@link MBUDPEpollServerChannel} 的配置类（作用与 {@link MBUDPServerChannelConfig} 相同）。
+ * <p>
+ * 与socket相关的配置项（收发缓冲区、内存分配器、SO_REUSEPORT等）将直接设置到真正收发数据报的内部epoll Channel上。
+ *
+ * @since 6.1
+ */
+public class MBUDPEpollServerChannelConfig extends DefaultChannelConfig implements ServerSocketChannelConfig
+{
+	private final DatagramChannelConfig datagramConfig;
+
+	public MBUDPEpollServerChannelConfig(Channel channel, DatagramChannelConfig datagramConfig)
+	{
+		super(channel);
+		this.datagramConfig = datagramConfig;
+
+		// 与MBUDPServerChannel相同：一次读取多个数据报到同一块自适应大小的池化内存中
+		setRecvByteBufAllocator(MBUDPServerChannelConfig.newRecvByteBufAllocator());
+		// 设置了最大数据报长度后，epoll Channel会以recvmmsg的方式一次读取多个数据报（各数据报为同一内存块的切片）
+		datagramConfig.setOption(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, GatewayUDP.MAX_DATAGRAM_SIZE);
+	}
+
+	/**
+	 * 通用配置项之外的socket级配置项（比如 {@link io.netty.channel.epoll.EpollChannelOption#SO_REUSEPORT}）
+	 * 交由内部的epoll Channel处理。
+	 */
+	@Override
+	public <T> boolean setOption(ChannelOption<T> option, T value)
+	{
+		if(super.setOption(option, value))
+			return true;
+		return datagramConfig.setOption(option, value);
+	}
+
+	@Override
+	public <T> T getOption(ChannelOption<T> option)
+	{
+		T value = super.getOption(option);
+		return value != null ? value : datagramConfig.getOption(option);
+	}
+
+	/**
+	 * backlog参数对于UDP来说无意义，默认永远返回1。
+	 */
+	@Override
+	public int getBacklog()
+	{
+		return 1;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setBacklog(int backlog)
+	{
+		return this;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setConnectTimeoutMillis(int timeout)
+	{
+		return this;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setPerformancePreferences(int arg0, int arg1, int arg2)
+	{
+		return this;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setAllocator(ByteBufAllocator alloc)
+	{
+		super.setAllocator(alloc);
+		if(datagramConfig != null)
+			datagramConfig.setAllocator(alloc);
+		return this;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setRecvByteBufAllocator(RecvByteBufAllocator alloc)
+	{
+		super.setRecvByteBufAllocator(alloc);
+		// 父类构造方法中也会调用本方法，彼时datagramConfig尚未被赋值
+		if(datagramConfig != null)
+			datagramConfig.setRecvByteBufAllocator(alloc);
+		return this;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setAutoRead(boolean autoread)
+	{
+		super.setAutoRead(true);
+		return this;
+	}
+
+	@Override
+	@Deprecated
+	public ServerSocketChannelConfig setMaxMessagesPerRead(int n)
+	{
+		super.setMaxMessagesPerRead(n);
+		return this;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setMessageSizeEstimator(MessageSizeEstimator est)
+	{
+		super.setMessageSizeEstimator(est);
+		return this;
+	}
+
+	@Override
+	public ServerSocketChannelConfig setWriteSpinCount(int spincount)
+	{
+		super.setWriteSpinCount(spincount);
+		return this;
+	}
+
+	public ServerSocketChannelConfig setWriteBufferHighWaterMark(int writeBufferHighWaterMark)
+	{
+		return (ServerSocketChannelConfig) super.setWriteBufferHighWaterMark(writeBufferHighWaterMark);
+	}
+
+	public ServerSocketChannelConfig setWriteBufferLowWaterMark(int writeBufferLowWaterMark)
+	{
+		return (ServerSocketChannelConfig) super.setWriteBufferLowWaterMark(writeBufferLowWaterMark);
+	}
+
+	public ServerSocketChannelConfig setWriteBufferWaterMark(WriteBufferWaterMark writeBufferWaterMark)
+	{
+		return (ServerSocketChannelConfig) super.setWriteBufferWaterMark(writeBufferWaterMark);
+	}
+
+	@Override
+	public int getReceiveBufferSize()
+	{
+		return datagramConfig.getReceiveBufferSize();
+	}
+
+	@Override
+	public ServerSocketChannelConfig setReceiveBufferSize(int size)
+	{
+		datagramConfig.setReceiveBufferSize(size);
+		return this;
+	}
+
+	@Override
+	public boolean isReuseAddress()
+	{
+		return datagramConfig.isReuseAddress();
+	}
+
+	@Override
+	public ServerSocketChannelConfig setReuseAddress(boolean reuseaddr)
+	{
+		datagramConfig.setReuseAddress(true);
+		return this;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.udp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.ServerSocketChannel;
+
+import java.net.InetSocketAddress;
+
+/**
+ * UDP服务端Channel（即各UDP“伪连接” {@link MBUDPChannel} 的父Channel）需提供的能力。
+ * <p>
+ * 目前有基于NIO的 {@link MBUDPServerChannel} 和基于原生epoll的 {@link MBUDPEpollServerChannel}
+ * 两种实现，由 {@link net.x52im.mobileimsdk.server.network.NettyTransport} 按当前系统自动选用。
+ * <p>
+ * 除特别说明外，本接口的方法均只能在本Channel所属的I/O线程中调用。
+ *
+ * @since 6.1
+ */
+public interface MBUDPParentChannel extends ServerSocketChannel
+{
+	/**
+	 * 将一个客户端的Channel实例从服务端管理的列表中移除。
+	 *
+	 * @param channel 要移除的Channel引用
+	 */
+	public void removeChannel(Channel channel);
+	
+	/**
+	 * 把一个已有的会话迁移到另一个“伪连接”的地址上（即客户端的IP或端口发生了变化）。
+	 * 
+	 * @param from 以新地址发来数据的“伪连接”（迁移成功后它将从服务端管理的列表中移除，需由调用者关闭）
+	 * @param to 要迁移的已有会话
+	 * @return true表示迁移成功，否则表示迁移未进行
+	 * @since 6.1
+	 * @see MBUDPSessionTable#migrate(MBUDPChannel, MBUDPChannel)
+	 */
+	public boolean migrateChannel(MBUDPChannel from, MBUDPChannel to);
+
+	/**
+	 * 向指定客户端写出一个数据报（可在任意线程中调用）。
+	 * <p>
+	 * 数据报不会立即发出，同一I/O线程在一轮事件循环内写出的所有数据报将合并为一次flush。
+	 *
+	 * @param content 数据报内容（其所有权将转交给本Channel）
+	 * @param recipient 接收方的IP+端口信息
+	 * @see MBUDPDatagramWriter
+	 */
+	public void writeDatagram(ByteBuf content, InetSocketAddress recipient);
+}
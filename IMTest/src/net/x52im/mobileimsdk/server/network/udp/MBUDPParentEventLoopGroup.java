@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.udp;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.AbstractEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+
+/**
+ * 把每个UDP“伪连接” {@link MBUDPChannel} 注册到其父Channel（即收到它数据报的服务端Channel）所在
+ * 的I/O线程上的EventLoopGroup。
+ * <p>
+ * 作为ServerBootstrap的childGroup使用时，UDP会话的读取、业务处理和应答的写出均在收到数据报的那个
+ * I/O线程上完成，省去了每个数据报在I/O线程与会话线程之间的两次跨线程传递（以及相应的队列和任务对象）。
+ * <p>
+ * 本类自身并不拥有任何线程，除注册之外的所有操作均委托给父Channel所用的EventLoopGroup。
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.network.GatewayUDP#SESSION_ON_IO_THREAD
+ */
+public class MBUDPParentEventLoopGroup extends AbstractEventExecutorGroup implements EventLoopGroup
+{
+	/** 父Channel所用的EventLoopGroup */
+	private final EventLoopGroup parentGroup;
+
+	public MBUDPParentEventLoopGroup(EventLoopGroup parentGroup)
+	{
+		this.parentGroup = parentGroup;
+	}
+
+	@Override
+	public EventLoop next()
+	{
+		return parentGroup.next();
+	}
+
+	@Override
+	public Iterator<EventExecutor> iterator()
+	{
+		return parentGroup.iterator();
+	}
+
+	@Override
+	public ChannelFuture register(Channel channel)
+	{
+		return channel.parent().eventLoop().register(channel);
+	}
+
+	@Override
+	public ChannelFuture register(ChannelPromise promise)
+	{
+		return promise.channel().parent().eventLoop().register(promise);
+	}
+
+	@Deprecated
+	@Override
+	public ChannelFuture register(Channel channel, ChannelPromise promise)
+	{
+		return channel.parent().eventLoop().register(promise);
+	}
+
+	@Override
+	public boolean isShuttingDown()
+	{
+		return parentGroup.isShuttingDown();
+	}
+
+	@Override
+	public Future<?> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit)
+	{
+		return parentGroup.shutdownGracefully(quietPeriod, timeout, unit);
+	}
+
+	@Override
+	public Future<?> terminationFuture()
+	{
+		return parentGroup.terminationFuture();
+	}
+
+	@Deprecated
+	@Override
+	public void shutdown()
+	{
+		parentGroup.shutdown();
+	}
+
+	@Override
+	public boolean isShutdown()
+	{
+		return parentGroup.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated()
+	{
+		return parentGroup.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return parentGroup.awaitTermination(timeout, unit);
+	}
+}
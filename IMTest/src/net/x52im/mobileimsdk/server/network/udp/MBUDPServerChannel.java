@@ -24,7 +24,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.LinkedHashMap;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
@@ -34,10 +33,11 @@ import io.netty.channel.ChannelOutboundBuffer;
 import io.netty.channel.RecvByteBufAllocator;
 import io.netty.channel.nio.AbstractNioMessageChannel;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.ServerSocketChannelConfig;
 import io.netty.util.internal.PlatformDependent;
 
+import net.x52im.mobileimsdk.server.network.GatewayUDP;
+
 /**
  * 仿照TCP协议的NioServerSocketChannel实现的专用于UDP的服务端Channel实现类。
  * <p>
@@ -56,8 +56,9 @@ import io.netty.util.internal.PlatformDependent;
  * @author Jack Jiang(http://www.52im.net/thread-2792-1-1.html)
  * @version 1.0
  * @since 3.1
+ * @see MBUDPEpollServerChannel
  */
-public class MBUDPServerChannel extends AbstractNioMessageChannel implements ServerSocketChannel 
+public class MBUDPServerChannel extends AbstractNioMessageChannel implements MBUDPParentChannel 
 {
 	/** 
 	 * Channel属性描述对象。
@@ -70,7 +71,17 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 	
 	private final MBUDPServerChannelConfig config;
 	
-	protected final LinkedHashMap<InetSocketAddress, MBUDPChannel> channels = new LinkedHashMap<InetSocketAddress, MBUDPChannel>();
+	/** 各客户端的“伪连接”会话表 */
+	protected final MBUDPSessionTable sessions = new MBUDPSessionTable(this
+			, GatewayUDP.MAX_SESSIONS, GatewayUDP.SESION_RECYCLER_EXPIRE * 1000L);
+	
+	/** 数据报批量写出器 */
+	private final MBUDPDatagramWriter datagramWriter = new MBUDPDatagramWriter(this);
+	
+	/** 
+	 * 当前用于接收数据报的池化内存块（收到的各数据报均为它的一个切片）。
+	 * @see #doReadMessages(List) */
+	private ByteBuf readChunk = null;
 
 	public MBUDPServerChannel() throws IOException
 	{
@@ -141,6 +152,14 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 		return (DatagramChannel) super.javaChannel();
 	}
 
+	@Override
+	protected void doRegister() throws Exception
+	{
+		super.doRegister();
+		// 启动各“伪连接”的空闲超时检查
+		sessions.startIdleCheck(eventLoop());
+	}
+
 	@Override
 	protected void doBind(SocketAddress localAddress) throws Exception 
 	{
@@ -150,10 +169,18 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 	@Override
 	protected void doClose() throws Exception
 	{
-		// “关闭”所有客户端的伪连接Channel
-		for (MBUDPChannel channel : channels.values())
+		sessions.stopIdleCheck();
+		
+		// “关闭”所有客户端的伪连接Channel（伪连接关闭时会从会话表中移除自已，因而此处遍历的是它的副本）
+		for (MBUDPChannel channel : sessions.channels())
 			channel.close();
 		
+		if (readChunk != null)
+		{
+			readChunk.release();
+			readChunk = null;
+		}
+		
 		javaChannel().close();
 	}
 
@@ -162,76 +189,92 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 	 * 
 	 * @param channel 要移除的Channel引用
 	 */
+	@Override
 	public void removeChannel(final Channel channel) 
 	{
+		if (eventLoop().inEventLoop())
+		{
+			removeChannel0(channel);
+			return;
+		}
+		
 		eventLoop().submit(new Runnable() {
 			@Override
 			public void run() {
-				InetSocketAddress remote = (InetSocketAddress) channel.remoteAddress();
-				if (channels.get(remote) == channel) 
-				{
-					channels.remove(remote);
-				}
+				removeChannel0(channel);
 			}
 		});
 	}
+	
+	private void removeChannel0(Channel channel)
+	{
+		sessions.remove((MBUDPChannel) channel);
+	}
+	
+	@Override
+	public boolean migrateChannel(MBUDPChannel from, MBUDPChannel to)
+	{
+		return sessions.migrate(from, to);
+	}
 
+	@Override
+	public void writeDatagram(ByteBuf content, InetSocketAddress recipient)
+	{
+		datagramWriter.write(content, recipient);
+	}
+
+	/**
+	 * 读取一个数据报，并交给对应的“伪连接”处理。
+	 * <p>
+	 * 本方法的返回值是读到的数据报个数（而非新建的“伪连接”个数），AbstractNioMessageChannel会据此
+	 * 在一次socket可读事件中反复调用本方法，直到没有数据可读或达到 {@link GatewayUDP#MAX_DATAGRAMS_PER_READ}
+	 * 为止（v6.1以前数据报交给已有的“伪连接”时返回的是0，因而每次只能读取一个数据报）。
+	 * <p>
+	 * 各数据报依次读入同一块池化内存 {@link #readChunk} 中，交给“伪连接”的是其中的一个切片，剩余空间
+	 * 不足以容纳一个最大长度的数据报时，才按分配器的（自适应）大小申请下一块内存。
+	 */
 	@Override
 	protected int doReadMessages(List<Object> list) throws Exception
 	{
 		DatagramChannel javaChannel = javaChannel();
 		RecvByteBufAllocator.Handle allocatorHandle = unsafe().recvBufAllocHandle();
-		ByteBuf buffer = allocatorHandle.allocate(config.getAllocator());
-		allocatorHandle.attemptedBytesRead(buffer.writableBytes());
 		
-		boolean freeBuffer = true;
+		ByteBuf chunk = readChunk;
+		if (chunk == null || chunk.writableBytes() < GatewayUDP.MAX_DATAGRAM_SIZE)
+		{
+			if (chunk != null)
+				chunk.release();
+			chunk = readChunk = allocatorHandle.allocate(config.getAllocator());
+		}
+		allocatorHandle.attemptedBytesRead(chunk.writableBytes());
+		
 		try 
 		{
 			// read message
-			ByteBuffer nioBuffer = buffer.internalNioBuffer(buffer.writerIndex(), buffer.writableBytes());
+			ByteBuffer nioBuffer = chunk.internalNioBuffer(chunk.writerIndex(), chunk.writableBytes());
 			int nioPos = nioBuffer.position();
 			
 			InetSocketAddress inetSocketAddress = (InetSocketAddress) javaChannel.receive(nioBuffer);
 			if (inetSocketAddress == null) 
 				return 0;
 			
-			allocatorHandle.lastBytesRead(nioBuffer.position() - nioPos);
-			buffer.writerIndex(buffer.writerIndex() + allocatorHandle.lastBytesRead());
+			int readBytes = nioBuffer.position() - nioPos;
+			allocatorHandle.lastBytesRead(readBytes);
+			ByteBuf buffer = chunk.retainedSlice(chunk.writerIndex(), readBytes);
+			chunk.writerIndex(chunk.writerIndex() + readBytes);
 			
 			// allocate new channel or use existing one and push message to it
-			MBUDPChannel udpchannel = channels.get(inetSocketAddress);
-			if ((udpchannel == null) || !udpchannel.isOpen()) 
-			{
-				udpchannel = new MBUDPChannel(this, inetSocketAddress);
-				channels.put(inetSocketAddress, udpchannel);
+			MBUDPChannel udpchannel = sessions.dispatch(inetSocketAddress, buffer);
+			if (udpchannel != null) 
 				list.add(udpchannel);
-				
-				udpchannel.addBuffer(buffer);
-				freeBuffer = false;
-				
-				return 1;
-			} 
-			else
-			{
-				udpchannel.addBuffer(buffer);
-				freeBuffer = false;
-				
-				if (udpchannel.isRegistered()) 
-					udpchannel.read();
-				
-				return 0;
-			}
+			
+			return 1;
 		} 
 		catch (Throwable t) 
 		{
 			PlatformDependent.throwException(t);
 			return -1;
 		} 
-		finally
-		{
-			if (freeBuffer)
-				buffer.release();
-		}
 	}
 
 	@Override
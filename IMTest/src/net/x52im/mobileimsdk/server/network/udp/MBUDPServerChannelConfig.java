@@ -20,14 +20,15 @@ import java.net.SocketException;
 import java.nio.channels.DatagramChannel;
 
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelException;
 import io.netty.channel.DefaultChannelConfig;
-import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.MessageSizeEstimator;
 import io.netty.channel.RecvByteBufAllocator;
 import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.ServerSocketChannelConfig;
+import net.x52im.mobileimsdk.server.network.GatewayUDP;
 
 /**
  * 仿照TCP的“形”实现了一个UDP的服务端Channel配置类。
@@ -50,8 +51,33 @@ public class MBUDPServerChannelConfig extends DefaultChannelConfig implements Se
 		super(channel);
 		this.datagramChannel = datagramChannel;
 		
-		// 使用Netty官方DefaultDatagramChannelConfig中相同的配置值即可
-		setRecvByteBufAllocator(new FixedRecvByteBufAllocator(2048));
+		setRecvByteBufAllocator(newRecvByteBufAllocator());
+	}
+	
+	/**
+	 * 创建UDP服务端Channel所用的接收内存分配器。
+	 * <p>
+	 * 分配器分配的是用于连续接收多个数据报的内存块（而非单个数据报的缓冲），其大小按近期每次
+	 * 读取的总字节数自适应调整，但至少能容纳一个最大长度的数据报，以免数据报被截断。
+	 * <p>
+	 * v6.1以前使用的是与Netty官方DefaultDatagramChannelConfig中相同的FixedRecvByteBufAllocator(2048)，
+	 * 其每次socket可读时只读取一个数据报。
+	 * 
+	 * @return 新的分配器实例
+	 * @since 6.1
+	 * @see GatewayUDP#MAX_DATAGRAM_SIZE
+	 * @see GatewayUDP#MAX_DATAGRAMS_PER_READ
+	 */
+	static RecvByteBufAllocator newRecvByteBufAllocator()
+	{
+		int minimum = GatewayUDP.MAX_DATAGRAM_SIZE;
+		int maximum = Math.max(minimum, 65536);
+		int initial = Math.min(maximum, minimum * 8);
+		AdaptiveRecvByteBufAllocator allocator = new AdaptiveRecvByteBufAllocator(minimum, initial, maximum);
+		allocator.maxMessagesPerRead(GatewayUDP.MAX_DATAGRAMS_PER_READ);
+		// 数据报读满与否不能说明socket中是否还有数据，因而只要还有数据可读就一直读到个数上限为止
+		allocator.respectMaybeMoreData(false);
+		return allocator;
 	}
 
 	/**
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.udp;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+import io.netty.handler.timeout.ReadTimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * UDP服务端Channel的“伪连接”会话表（按客户端的IP+端口索引各 {@link MBUDPChannel}）。
+ * <p>
+ * <b>与v6.1以前的LinkedHashMap实现相比：</b>
+ * <ul>
+ *   <li>1）采用开放寻址（线性探测）的散列表，没有每个会话一个的链表节点对象；</li>
+ *   <li>2）有会话总数上限 {@link #capacity}，达到上限后来自新地址的数据报将被直接丢弃，内存占用有界；</li>
+ *   <li>3）会话的空闲超时由本表以时间轮的方式统一检查（每个数据报只需更新一下时间戳），不再需要每个
+ *       会话各自在I/O线程中排定并不断重排超时任务的ReadTimeoutHandler；</li>
+ *   <li>4）支持把一个会话迁移到新的地址上（比如客户端所在的运营商NAT重新分配了端口），详见
+ *       {@link #migrate(MBUDPChannel, MBUDPChannel)}。</li>
+ * </ul>
+ * 本类非线程安全，所有方法均只能在所属服务端Channel的I/O线程中调用。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see MBUDPServerChannel
+ * @see MBUDPEpollServerChannel
+ */
+public class MBUDPSessionTable
+{
+	private static Logger logger = LoggerFactory.getLogger(MBUDPSessionTable.class);
+
+	/** 时间轮的槽位时长（单位：毫秒） */
+	private final static long TICK_MILLIS = 1000;
+	/** 时间轮的槽位个数 */
+	private final static int WHEEL_SIZE = 64;
+	/** 散列表的初始长度 */
+	private final static int INITIAL_TABLE_SIZE = 1024;
+
+	/** 所属的服务端Channel */
+	private final MBUDPParentChannel parent;
+	/** 会话总数上限 */
+	private final int capacity;
+	/** 会话的空闲超时时长（单位：毫秒），小于等于0表示不检查空闲超时 */
+	private final long idleTimeoutMillis;
+
+	/** 开放寻址散列表（长度总是2的幂） */
+	private Entry[] table = new Entry[INITIAL_TABLE_SIZE];
+	private int size = 0;
+
+	/** 时间轮：每个槽位是一个按到期时间归入其中的会话链表 */
+	private final Entry[] wheel = new Entry[WHEEL_SIZE];
+	/** 时间轮上次检查到的时刻（单位：槽位） */
+	private long lastTick = -1;
+	private ScheduledFuture<?> tickFuture = null;
+
+	/** 本轮检查中因会话表已满而丢弃的数据报个数（用于限制日志输出的频率） */
+	private int droppedSinceLastTick = 0;
+
+	/**
+	 * 构造方法。
+	 *
+	 * @param parent 所属的服务端Channel
+	 * @param capacity 会话总数上限
+	 * @param idleTimeoutMillis 会话的空闲超时时长（单位：毫秒），小于等于0表示不检查空闲超时
+	 */
+	public MBUDPSessionTable(MBUDPParentChannel parent, int capacity, long idleTimeoutMillis)
+	{
+		this.parent = parent;
+		this.capacity = capacity;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * 把收到的数据报交给对应的“伪连接”处理，来自新地址的数据报将为之新建一个“伪连接”。
+	 *
+	 * @param sender 数据报的来源地址
+	 * @param buffer 数据报内容（其所有权将转交给本方法）
+	 * @return 新建的“伪连接”（需由调用者交由ServerBootstrap完成初始化和注册），数据报已交给已有的
+	 * “伪连接”或因会话表已满而被丢弃时返回null
+	 */
+	public MBUDPChannel dispatch(InetSocketAddress sender, ByteBuf buffer)
+	{
+		long now = System.currentTimeMillis();
+		Entry e = getEntry(sender);
+		if(e != null && e.channel.isOpen())
+		{
+			e.lastActive = now;
+			e.channel.deliver(buffer);
+			return null;
+		}
+
+		// 已关闭但尚未移除的旧会话：用新的会话替换之
+		if(e != null)
+			removeEntry(e);
+
+		if(size >= capacity)
+		{
+			buffer.release();
+			droppedSinceLastTick++;
+			return null;
+		}
+
+		MBUDPChannel udpchannel = new MBUDPChannel(parent, sender);
+		e = new Entry(sender, udpchannel);
+		e.lastActive = now;
+		putEntry(e);
+		link(e);
+
+		udpchannel.addBuffer(buffer);
+		return udpchannel;
+	}
+
+	/**
+	 * 将一个“伪连接”从本表中移除（仅当它仍是其地址对应的会话时）。
+	 *
+	 * @param channel 要移除的“伪连接”
+	 */
+	public void remove(MBUDPChannel channel)
+	{
+		Entry e = getEntry(channel.remoteAddress());
+		if(e != null && e.channel == channel)
+			removeEntry(e);
+	}
+
+	/**
+	 * 把已有的会话迁移到一个新“伪连接”的地址上（新“伪连接”随即从本表中移除，调用者应将其关闭）。
+	 * <p>
+	 * 迁移后原会话的Channel对象保持不变（在线列表、QoS队列等对它的引用均仍然有效），只是此后
+	 * 将通过新地址收发数据，客户端因此无需重新登陆。
+	 *
+	 * @param from 以新地址发来数据的“伪连接”（尚未登陆）
+	 * @param to 要迁移的已有会话
+	 * @return true表示迁移成功，否则表示两者不属于本表或已失效
+	 */
+	public boolean migrate(MBUDPChannel from, MBUDPChannel to)
+	{
+		InetSocketAddress newAddress = from.remoteAddress();
+		Entry fromEntry = getEntry(newAddress);
+		Entry toEntry = getEntry(to.remoteAddress());
+		if(fromEntry == null || fromEntry.channel != from || toEntry == null || toEntry.channel != to || !to.isOpen())
+			return false;
+
+		removeEntry(fromEntry);
+		removeFromTable(toEntry);
+		toEntry.address = newAddress;
+		toEntry.lastActive = System.currentTimeMillis();
+		putEntry(toEntry);
+		to.migrateTo(newAddress);
+		return true;
+	}
+
+	/**
+	 * 当前的会话个数。
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * 所有的“伪连接”（副本）。
+	 */
+	public List<MBUDPChannel> channels()
+	{
+		List<MBUDPChannel> list = new ArrayList<MBUDPChannel>(size);
+		for(Entry e : table)
+		{
+			if(e != null)
+				list.add(e.channel);
+		}
+		return list;
+	}
+
+	/**
+	 * 启动空闲超时检查（每 {@link #TICK_MILLIS} 毫秒检查一个时间轮槽位）。
+	 *
+	 * @param eventLoop 所属服务端Channel的I/O线程
+	 */
+	public void startIdleCheck(EventLoop eventLoop)
+	{
+		if(tickFuture != null || idleTimeoutMillis <= 0)
+			return;
+
+		lastTick = System.currentTimeMillis() / TICK_MILLIS;
+		tickFuture = eventLoop.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run()
+			{
+				expireIdle();
+			}
+		}, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 停止空闲超时检查。
+	 */
+	public void stopIdleCheck()
+	{
+		if(tickFuture != null)
+		{
+			tickFuture.cancel(false);
+			tickFuture = null;
+		}
+	}
+
+	/**
+	 * 检查自上次以来到期的所有时间轮槽位，并以会话超时的方式关闭其中已空闲超时的会话。
+	 * <p>
+	 * 槽位中的会话如果在此期间有过数据往来（即未到期），只需按新的到期时间移入对应的槽位即可，
+	 * 因而每个会话在每个超时周期内至多被检查一次。
+	 */
+	protected void expireIdle()
+	{
+		long now = System.currentTimeMillis();
+		long nowTick = now / TICK_MILLIS;
+		List<MBUDPChannel> expired = null;
+
+		// 超过一圈未检查（比如系统时间被调整）时，检查整个时间轮即可
+		long fromTick = Math.max(lastTick + 1, nowTick - WHEEL_SIZE + 1);
+		// 先更新lastTick：未到期的会话将被移入本次检查之后的槽位中
+		lastTick = nowTick;
+		for(long tick = fromTick; tick <= nowTick; tick++)
+		{
+			int slot = (int)(tick & (WHEEL_SIZE - 1));
+			Entry e = wheel[slot];
+			wheel[slot] = null;
+			while(e != null)
+			{
+				Entry next = e.wheelNext;
+				e.wheelPrev = e.wheelNext = null;
+				e.slot = -1;
+				if(e.lastActive + idleTimeoutMillis <= now)
+				{
+					removeFromTable(e);
+					if(expired == null)
+						expired = new ArrayList<MBUDPChannel>();
+					expired.add(e.channel);
+				}
+				else
+					link(e);
+				e = next;
+			}
+		}
+
+		if(expired != null)
+		{
+			for(MBUDPChannel channel : expired)
+				fireTimeout(channel);
+		}
+
+		if(droppedSinceLastTick > 0)
+		{
+			logger.warn("[IMCORE-udp] UDP会话数已达上限{}，最近{}毫秒内有{}个来自新地址的数据报被丢弃！"
+					, capacity, TICK_MILLIS, droppedSinceLastTick);
+			droppedSinceLastTick = 0;
+		}
+	}
+
+	/**
+	 * 以与ReadTimeoutHandler相同的方式通知会话已超时并关闭之。
+	 */
+	private void fireTimeout(final MBUDPChannel channel)
+	{
+		if(channel.eventLoop().inEventLoop())
+		{
+			fireTimeout0(channel);
+		}
+		else
+		{
+			channel.eventLoop().execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					fireTimeout0(channel);
+				}
+			});
+		}
+	}
+
+	private void fireTimeout0(MBUDPChannel channel)
+	{
+		if(channel.isOpen())
+		{
+			channel.pipeline().fireExceptionCaught(ReadTimeoutException.INSTANCE);
+			channel.close();
+		}
+	}
+
+	//------------------------------------------------------------------ 开放寻址散列表
+
+	private static int hash(InetSocketAddress address)
+	{
+		int h = address.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private Entry getEntry(InetSocketAddress address)
+	{
+		if(address == null)
+			return null;
+		Entry[] tab = table;
+		int mask = tab.length - 1;
+		int h = hash(address);
+		for(int i = h & mask; ; i = (i + 1) & mask)
+		{
+			Entry e = tab[i];
+			if(e == null)
+				return null;
+			if(e.hash == h && e.address.equals(address))
+				return e;
+		}
+	}
+
+	private void putEntry(Entry e)
+	{
+		// 负载因子不超过0.5
+		if((size + 1) * 2 > table.length)
+			resize(table.length * 2);
+
+		e.hash = hash(e.address);
+		insert(table, e);
+		size++;
+	}
+
+	private static void insert(Entry[] tab, Entry e)
+	{
+		int mask = tab.length - 1;
+		int i = e.hash & mask;
+		while(tab[i] != null)
+			i = (i + 1) & mask;
+		tab[i] = e;
+	}
+
+	private void resize(int newLength)
+	{
+		Entry[] newTable = new Entry[newLength];
+		for(Entry e : table)
+		{
+			if(e != null)
+				insert(newTable, e);
+		}
+		table = newTable;
+	}
+
+	/**
+	 * 从散列表和时间轮中同时移除。
+	 */
+	private void removeEntry(Entry e)
+	{
+		removeFromTable(e);
+		unlink(e);
+	}
+
+	/**
+	 * 从散列表中移除（采用后移删除法，不留墓碑标记）。
+	 */
+	private void removeFromTable(Entry e)
+	{
+		Entry[] tab = table;
+		int mask = tab.length - 1;
+		int i = e.hash & mask;
+		while(tab[i] != e)
+		{
+			if(tab[i] == null)
+				return;
+			i = (i + 1) & mask;
+		}
+
+		tab[i] = null;
+		size--;
+
+		// 把后续同一探测序列上的元素前移，以保证查找时不会提前遇到空位
+		for(int j = (i + 1) & mask; tab[j] != null; j = (j + 1) & mask)
+		{
+			Entry moved = tab[j];
+			int home = moved.hash & mask;
+			// home不在(i, j]区间内时，moved可以（且必须）前移到i处
+			if(((j - home) & mask) >= ((j - i) & mask))
+			{
+				tab[i] = moved;
+				tab[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	//------------------------------------------------------------------ 时间轮
+
+	/**
+	 * 按会话的到期时间把它放入时间轮对应的槽位中。
+	 */
+	private void link(Entry e)
+	{
+		if(idleTimeoutMillis <= 0)
+			return;
+
+		// 第N个槽位在N*TICK_MILLIS时刻之后才会被检查，因而到期时间要向上取整
+		long deadlineTick = (e.lastActive + idleTimeoutMillis + TICK_MILLIS - 1) / TICK_MILLIS;
+		// 已到期的会话放入下一个要检查的槽位，超过一圈的放入最远的槽位（届时再重新计算）
+		if(deadlineTick <= lastTick)
+			deadlineTick = lastTick + 1;
+		else if(deadlineTick > lastTick + WHEEL_SIZE)
+			deadlineTick = lastTick + WHEEL_SIZE;
+
+		int slot = (int)(deadlineTick & (WHEEL_SIZE - 1));
+		e.slot = slot;
+		e.wheelPrev = null;
+		e.wheelNext = wheel[slot];
+		if(wheel[slot] != null)
+			wheel[slot].wheelPrev = e;
+		wheel[slot] = e;
+	}
+
+	private void unlink(Entry e)
+	{
+		if(e.slot < 0)
+			return;
+
+		if(e.wheelPrev != null)
+			e.wheelPrev.wheelNext = e.wheelNext;
+		else
+			wheel[e.slot] = e.wheelNext;
+		if(e.wheelNext != null)
+			e.wheelNext.wheelPrev = e.wheelPrev;
+		e.wheelPrev = e.wheelNext = null;
+		e.slot = -1;
+	}
+
+	/**
+	 * 会话表中的一条记录。
+	 */
+	private final static class Entry
+	{
+		InetSocketAddress address;
+		int hash;
+		final MBUDPChannel channel;
+		/** 最近一次收到数据的时间 */
+		long lastActive;
+
+		/** 所在的时间轮槽位，-1表示不在时间轮上 */
+		int slot = -1;
+		Entry wheelPrev;
+		Entry wheelNext;
+
+		Entry(InetSocketAddress address, MBUDPChannel channel)
+		{
+			this.address = address;
+			this.channel = channel;
+		}
+	}
+}
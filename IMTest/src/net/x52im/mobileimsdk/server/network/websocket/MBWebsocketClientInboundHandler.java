@@ -16,13 +16,16 @@
  */
 package net.x52im.mobileimsdk.server.network.websocket;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.timeout.ReadTimeoutException;
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.network.Gateway;
+import net.x52im.mobileimsdk.server.network.SessionContext;
 import net.x52im.mobileimsdk.server.network.tcp.MBTCPClientInboundHandler;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
 import net.x52im.mobileimsdk.server.utils.ServerToolKits;
@@ -44,11 +47,19 @@ public class MBWebsocketClientInboundHandler  extends SimpleChannelInboundHandle
 	
 	private ServerCoreHandler serverCoreHandler = null;
 	
+	/** 本连接的会话上下文（本handler每个连接一个，加入pipeline时取得，此后直接使用） */
+	private SessionContext sessionContext = null;
+	
 	public MBWebsocketClientInboundHandler(ServerCoreHandler serverCoreHandler)
 	{
 		this.serverCoreHandler = serverCoreHandler;
 	}
 	
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		sessionContext = SessionContext.get(ctx.channel());
+	}
+	
 	/**
 	 * “会话”处理过程中出现异步时会调用本方法。
 	 */
@@ -57,7 +68,7 @@ public class MBWebsocketClientInboundHandler  extends SimpleChannelInboundHandle
 		try{
 			if(e instanceof ReadTimeoutException){
 				logger.info("[IMCORE-ws]客户端{}的会话已超时失效，很可能是对方非正常通出或网络故障" +
-						"，即将以会话异常的方式执行关闭流程 ...", ServerToolKits.clientInfoToString(ctx.channel()));
+						"，即将以会话异常的方式执行关闭流程 ...", sessionContext.getClientInfo());
 			}
 			
 			serverCoreHandler.exceptionCaught(ctx.channel(), e);
@@ -74,7 +85,7 @@ public class MBWebsocketClientInboundHandler  extends SimpleChannelInboundHandle
 		super.channelActive(ctx);
 		
 		// 设置好网络类型标志（因为MobileIMSDK支持多种网络通信类型）
-		Gateway.setSocketType(ctx.channel(), Gateway.SOCKET_TYPE_WEBSOCKET);
+		sessionContext.setSocketType(Gateway.SOCKET_TYPE_WEBSOCKET);
 		// 业务处理
 		serverCoreHandler.sessionCreated(ctx.channel());
 	}
@@ -95,7 +106,7 @@ public class MBWebsocketClientInboundHandler  extends SimpleChannelInboundHandle
 		super.channelInactive(ctx);
 		
 		// 清除好网络类型标志（因为MobileIMSDK支持多种网络通信类型）
-		Gateway.removeSocketType(ctx.channel());
+		sessionContext.setSocketType(-1);
 		// 业务处理
 		serverCoreHandler.sessionClosed(ctx.channel());
 	}
@@ -107,14 +118,15 @@ public class MBWebsocketClientInboundHandler  extends SimpleChannelInboundHandle
 	 */
 	@Override
 	protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
-		// TextWebSocketFrame 在netty中，是用于为websocket处理文本的对象
-        if (frame instanceof TextWebSocketFrame) {
-        	String frameContent = ((TextWebSocketFrame) frame).text();
+		// TextWebSocketFrame 在netty中，是用于为websocket处理文本的对象（BinaryWebSocketFrame
+		// 则用于登陆时已协商使用紧凑2进制格式的客户端，报文格式由fromIOBuffer()按首字节自动识别）
+        if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+        	ByteBuf frameContent = frame.content();
         	if(frameContent != null){
-        		// 读取收到的数据
-            	Protocal pFromClient = ServerToolKits.toProtocal(frameContent);
+        		// 读取收到的数据（直接从frame的ByteBuf中解析，无需先转成String）
+            	Protocal pFromClient = ServerToolKits.fromIOBuffer(frameContent);
             	// 进入具体的业务逻辑处理
-        		serverCoreHandler.messageReceived(ctx.channel(), pFromClient);
+        		serverCoreHandler.messageReceived(sessionContext, pFromClient);
         	}
         	else
         		throw new UnsupportedOperationException("不支持的 frame content (is null!!)");
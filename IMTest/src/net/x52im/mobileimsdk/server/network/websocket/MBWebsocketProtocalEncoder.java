@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import java.util.List;
+
+import net.x52im.mobileimsdk.server.network.FormattedProtocal;
+import net.x52im.mobileimsdk.server.network.Gateway;
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.protocal.ProtocalJSONEncoder;
+
+/**
+ * WebSocket网关的{@link Protocal}报文编码器。
+ * <p>
+ * 将Protocal报文的JSON直接写入池化的直接内存ByteBuf，并包装成TextWebSocketFrame帧（登陆时已协商
+ * 使用紧凑2进制格式的客户端则为BinaryWebSocketFrame帧），
+ * 发送方只需调用 <code>channel.write(protocal)</code> 即可，序列化在该Channel所属的I/O线程上进行。
+ * <p>
+ * 已按该连接的报文格式编码好的ByteBuf（比如QoS重传时缓存的报文数据）也可直接写出，本编码器将按同样
+ * 的规则把它包装成相应的WebSocket帧。
+ * <p>
+ * 写出的是 {@link FormattedProtocal} 时，按其指定的报文格式编码。
+ * <p>
+ * 本类无状态，所有WebSocket连接共用同一个实例 {@link #INSTANCE}。
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.network.GatewayWebsocket#initChildChannelHandler(io.netty.handler.ssl.SslContext, net.x52im.mobileimsdk.server.ServerCoreHandler)
+ */
+@Sharable
+public class MBWebsocketProtocalEncoder extends MessageToMessageEncoder<Object>
+{
+	/** 全局共享的实例 */
+	public final static MBWebsocketProtocalEncoder INSTANCE = new MBWebsocketProtocalEncoder();
+
+	protected MBWebsocketProtocalEncoder()
+	{
+		super();
+	}
+
+	@Override
+	public boolean acceptOutboundMessage(Object msg) throws Exception
+	{
+		// WebSocket帧本身（ByteBufHolder）不在此列，交由后续的帧编码器处理
+		return msg instanceof Protocal || msg instanceof FormattedProtocal || (msg instanceof ByteBuf && !(msg instanceof ByteBufHolder));
+	}
+
+	@Override
+	protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception
+	{
+		int format = (msg instanceof FormattedProtocal ? ((FormattedProtocal)msg).getProtocalFormat() : Gateway.getProtocalFormat(ctx.channel()));
+		boolean binary = (format == ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		
+		// 已编码好的报文数据：直接包装成帧（父类会在本方法返回后release掉msg，因而此处需retain）
+		if(msg instanceof ByteBuf)
+		{
+			ByteBuf encoded = ((ByteBuf)msg).retain();
+			out.add(binary ? new BinaryWebSocketFrame(encoded) : new TextWebSocketFrame(encoded));
+			return;
+		}
+		
+		Protocal p = (msg instanceof FormattedProtocal ? ((FormattedProtocal)msg).getProtocal() : (Protocal)msg);
+		ByteBuf buf = ctx.alloc().directBuffer();
+		try
+		{
+			// 登陆时已协商使用紧凑2进制格式的客户端，以BinaryWebSocketFrame帧发送
+			if(binary)
+			{
+				ProtocalBinaryCodec.encode(p, buf);
+				out.add(new BinaryWebSocketFrame(buf));
+			}
+			else
+			{
+				ProtocalJSONEncoder.encode(p, buf);
+				out.add(new TextWebSocketFrame(buf));
+			}
+			buf = null;
+		}
+		finally
+		{
+			if(buf != null)
+				buf.release();
+		}
+	}
+}
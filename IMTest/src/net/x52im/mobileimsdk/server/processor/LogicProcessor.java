@@ -17,13 +17,22 @@
 package net.x52im.mobileimsdk.server.processor;
 
 import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
+import net.x52im.mobileimsdk.server.ServerLauncher;
+import net.x52im.mobileimsdk.server.cluster.PresenceDirectory;
 import net.x52im.mobileimsdk.server.network.Gateway;
 import net.x52im.mobileimsdk.server.network.GatewayUDP;
 import net.x52im.mobileimsdk.server.network.MBObserver;
+import net.x52im.mobileimsdk.server.network.SessionContext;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
 import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
+import net.x52im.mobileimsdk.server.protocal.UserIdInterner;
 import net.x52im.mobileimsdk.server.protocal.c.PLoginInfo;
+import net.x52im.mobileimsdk.server.protocal.c.PRecivedBatch;
 import net.x52im.mobileimsdk.server.qos.QoS4ReciveDaemonC2S;
 import net.x52im.mobileimsdk.server.qos.QoS4SendDaemonS2C;
 import net.x52im.mobileimsdk.server.utils.GlobalSendHelper;
@@ -128,8 +137,23 @@ public class LogicProcessor
 	 * @param pFromClient
 	 * @param remoteAddress
 	 * @throws Exception
+	 * @see #processACK(Channel, Protocal, String)
 	 */
 	public void processACK(final Protocal pFromClient, final String remoteAddress) throws Exception
+	{
+		processACK(null, pFromClient, remoteAddress);
+	}
+	
+	/**
+	 * 处理来自客户端的各类ACK消息应答包（并以该消息从发出到收到应答的时长更新该会话的RTT估算）。
+	 * 
+	 * @param session 发回应答包的会话（为null时不更新RTT估算）
+	 * @param pFromClient
+	 * @param remoteAddress
+	 * @throws Exception
+	 * @since 6.1
+	 */
+	public void processACK(final Channel session, final Protocal pFromClient, final String remoteAddress) throws Exception
 	{
 		//## 自MobileIMSDK 5.0开始，所有由服务端直发（s2c模式）或转发（c2c模式）的消息，客户端发
 		//## 回来的应答包只需要由服务端接收并处理，取消了之前c2c模式下，客户端的ACK应答包需要回给
@@ -144,7 +168,39 @@ public class LogicProcessor
 			this.serverCoreHandler.getServerMessageQoSEventListener().messagesBeReceived(theFingerPrint);
 
 		// 【【S2C模式下的QoS机制4/4步：收到应答包时将包从发送QoS队列中删除】】
-		QoS4SendDaemonS2C.getInstance().remove(theFingerPrint);
+		QoS4SendDaemonS2C.getInstance().ack(theFingerPrint, session);
+	}
+	
+	/**
+	 * 处理来自客户端的批量ACK应答包（一个包应答多条消息）。
+	 * <p>
+	 * 包中的所有指纹码将一次性从发送QoS队列中删除，并只触发一次
+	 * {@link net.x52im.mobileimsdk.server.event.MessageQoSEventListenerS2C#messagesBeReceived(ArrayList)}通知。
+	 * 
+	 * @param session 发回应答包的会话
+	 * @param pFromClient
+	 * @param remoteAddress
+	 * @throws Exception
+	 * @since 6.1
+	 */
+	public void processACKBatch(final Channel session, final Protocal pFromClient, final String remoteAddress) throws Exception
+	{
+		PRecivedBatch batch = ProtocalFactory.parsePRecivedBatch(pFromClient.getDataContent());
+		if(batch == null || batch.getFps() == null || batch.getFps().isEmpty())
+		{
+			logger.warn("[IMCORE-{}]>> 收到客户端{}的批量ACK应答包，但其中没有任何指纹码，本次忽略！", Gateway.$(session), remoteAddress);
+			return;
+		}
+		
+		ArrayList<String> theFingerPrints = batch.getFps();
+		logger.debug("[IMCORE-本机QoS！]【QoS机制_S2C】收到接收者"+pFromClient.getFrom()+"回过来的"+theFingerPrints.size()+"条消息的批量应答包.");
+
+		// 将收到的应答事件通知事件处理者（一批只通知一次）
+		if(this.serverCoreHandler.getServerMessageQoSEventListener() != null)
+			this.serverCoreHandler.getServerMessageQoSEventListener().messagesBeReceived(theFingerPrints);
+
+		// 【【S2C模式下的QoS机制4/4步：收到应答包时将包从发送QoS队列中删除】】
+		QoS4SendDaemonS2C.getInstance().ack(theFingerPrints, session);
 	}
 	
 	/**
@@ -321,9 +377,27 @@ public class LogicProcessor
 	
 	private void processLoginSucessSend(final Channel session, final PLoginInfo loginInfo, final String remoteAddress) throws Exception
 	{
+		// 放入会话上下文和在线列表的user_id使用驻留实例，与此后各报文中解码出的from、to是同一个对象
+		loginInfo.setLoginUserId(UserIdInterner.intern(loginInfo.getLoginUserId()));
 		final long firstLoginTimeFromClient = loginInfo.getFirstLoginTime();
 		final boolean firstLogin = PLoginInfo.isFirstLogin(firstLoginTimeFromClient);//(firstLoginTimeFromClient <= 0);
 		final long firstLoginTimeToClient = (firstLogin? System.currentTimeMillis() : firstLoginTimeFromClient);
+		// 协商报文格式：客户端要求且服务端支持时才使用紧凑2进制格式，否则一律使用JSON格式
+		final int protocalFormat = (ServerLauncher.binaryProtocalEnabled && ProtocalBinaryCodec.isSupported(loginInfo.getProtocalFormat())
+				? loginInfo.getProtocalFormat() : ProtocalBinaryCodec.FORMAT_JSON);
+		// 登陆响应写出前即切换到新协商的报文格式：此后发给该会话的任何报文（包括与登陆响应同时发出的）
+		// 都已使用新格式，而登陆响应本身仍按切换前的格式（首次登陆时即JSON格式）编码
+		final SessionContext sessionContext = SessionContext.get(session);
+		final int previousProtocalFormat = sessionContext.getProtocalFormat();
+		sessionContext.setProtocalFormat(protocalFormat);
+		// 开启了UDP会话迁移时，向客户端下发该会话的迁移凭证（同一会话重复登陆时沿用原凭证）
+		String migrationToken = null;
+		if(GatewayUDP.SESSION_MIGRATION && GatewayUDP.isUDPChannel(session))
+		{
+			migrationToken = sessionContext.getMigrationToken();
+			if(migrationToken == null)
+				sessionContext.setMigrationToken(migrationToken = GatewayUDP.genMigrationToken());
+		}
 		
 		// Netty的数据发送结果观察者：netty的数据发送结果是通过异步通知来实现的（这就
 		// 是异步编程模型，跟Nodejs的promise、Androi里的RxJava、iOS的block道理一样）
@@ -334,7 +408,7 @@ public class LogicProcessor
 				if(__sendOK)
 				{
 					// 将用户信息放入到在线列表中（理论上：每一个存放在在线列表中的session都对应了user_id）
-					boolean putOK = OnlineProcessor.getInstance().putUser(loginInfo.getLoginUserId(), firstLoginTimeFromClient, session);
+					boolean putOK = OnlineProcessor.getInstance().putUser(loginInfo.getLoginUserId(), firstLoginTimeFromClient, session, loginInfo.getDeviceType());
 					
 					// 如果该会话已正式放入在线列表成功，则走正常的用户上线处理逻辑
 					if(putOK)
@@ -343,6 +417,9 @@ public class LogicProcessor
 						OnlineProcessor.setUserIdForChannel(session, loginInfo.getLoginUserId());
 						// 将用户登陆成功后的首次登陆时间暂存到会话对象中备用
 						OnlineProcessor.setFirstLoginTimeForChannel(session, firstLoginTimeToClient);
+						// 记录到集群在线状态目录中，其它节点即可把发给该用户的消息直接转发到本节点
+						if(PresenceDirectory.ENABLED)
+							PresenceDirectory.getInstance().userOnline(loginInfo.getLoginUserId());
 	
 						// 回调：成功登陆了
 						//-------------------------------------------------------------------------------
@@ -359,7 +436,8 @@ public class LogicProcessor
 			}
 		};
 		// 将登陆反馈信息回馈给客户端
-		LocalSendHelper.sendData(session, ProtocalFactory.createPLoginInfoResponse(0, firstLoginTimeToClient, loginInfo.getLoginUserId()), sendResultObserver);
+		LocalSendHelper.sendData(session, ProtocalFactory.createPLoginInfoResponse(0, firstLoginTimeToClient, loginInfo.getLoginUserId(), protocalFormat, migrationToken)
+				, previousProtocalFormat, sendResultObserver);
 	}
 
 	/**
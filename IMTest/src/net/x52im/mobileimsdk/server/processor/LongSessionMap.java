@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.processor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 以long为key的并发Map（开放寻址法实现），用于数字user_id模式下的在线列表。
+ * <p>
+ * 与ConcurrentHashMap&lt;String, V&gt;相比，每个条目不再需要一个Node对象和一个String对象（以及其中
+ * 的byte数组），key直接存放在long数组中，百万在线时可节省数十MB的堆内存；查找时也无需计算字符串的
+ * hashCode和逐字符比较。
+ * <p>
+ * <b>并发策略（与在线列表的CAS更新方式一致）：</b>
+ * <ul>
+ *   <li>1）读取（{@link #get(long)}）无锁（只有遇到正在扩容的分段时才需等待其扩容完成，见下文）；</li>
+ *   <li>2）已有key的替换和删除（{@link #replace(long, Object, Object)}、{@link #remove(long, Object)}）
+ *       直接对槽位做CAS，同样无锁；</li>
+ *   <li>3）只有新key的插入和扩容（{@link #putIfAbsent(long, Object)}）需对所在分段加锁，锁的范围仅为
+ *       全表的1/{@link #SEGMENTS}。</li>
+ * </ul>
+ * 删除只把槽位标记为已删除（槽位中的key在本表内不再改变，读取方因而无需加锁），已删除的槽位在扩容
+ * （或整理）时才被回收。扩容时旧表的每个槽位先复制到新表、再标记为“已迁移”（此后旧表中的该槽位不会再被
+ * 修改）。扩容期间新表中的条目尚不完整（同一条探测链上可能还有未迁移的槽位），因而读取方遇到“已迁移”
+ * 的槽位时，须先等待该分段的扩容完成（扩容在加锁时进行，且只涉及该分段），再到新表中查找。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see OnlineProcessor#NUMERIC_USER_ID
+ */
+final class LongSessionMap<V>
+{
+	/** 分段数（须为2的幂） */
+	private final static int SEGMENTS = 64;
+	/** 分段数对应的位数 */
+	private final static int SEGMENT_BITS = 6;
+	/** 每个分段的初始槽位数（须为2的幂） */
+	private final static int INITIAL_CAPACITY = 16;
+
+	/** 槽位标记：已删除 */
+	private final static Object TOMBSTONE = new Object();
+	/** 槽位标记：已迁移到新表 */
+	private final static Object MOVED = new Object();
+
+	private final Segment[] segments;
+
+	LongSessionMap()
+	{
+		segments = new Segment[SEGMENTS];
+		for(int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * 遍历用的回调接口。
+	 */
+	interface Visitor<V>
+	{
+		void visit(long key, V value);
+	}
+
+	private static long hash(long key)
+	{
+		// MurmurHash3的64位finalizer，使连续的user_id也能均匀分布
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private Segment segmentFor(long h)
+	{
+		return segments[(int)(h >>> (64 - SEGMENT_BITS))];
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key)
+	{
+		long h = hash(key);
+		Object v = segmentFor(h).find(key, (int)h);
+		return v != null ? (V)v : null;
+	}
+
+	/**
+	 * key不存在时放入value。
+	 *
+	 * @return 已存在时返回已有的value（不做任何改动），否则返回null
+	 */
+	@SuppressWarnings("unchecked")
+	V putIfAbsent(long key, V value)
+	{
+		long h = hash(key);
+		Segment segment = segmentFor(h);
+		// 已存在时无需加锁
+		Object v = segment.find(key, (int)h);
+		if(v != null)
+			return (V)v;
+		return (V)segment.putIfAbsent(key, (int)h, value);
+	}
+
+	/**
+	 * key对应的value仍为expect时，才将其替换为update（原子操作）。
+	 */
+	boolean replace(long key, V expect, V update)
+	{
+		long h = hash(key);
+		return segmentFor(h).compareAndSet(key, (int)h, expect, update);
+	}
+
+	/**
+	 * key对应的value仍为expect时，才将其删除（原子操作）。
+	 */
+	boolean remove(long key, V expect)
+	{
+		long h = hash(key);
+		return segmentFor(h).compareAndSet(key, (int)h, expect, null);
+	}
+
+	/**
+	 * 删除key。
+	 *
+	 * @return 被删除的value，不存在时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	V remove(long key)
+	{
+		long h = hash(key);
+		Segment segment = segmentFor(h);
+		for(;;)
+		{
+			Object v = segment.find(key, (int)h);
+			if(v == null)
+				return null;
+			if(segment.compareAndSet(key, (int)h, v, null))
+				return (V)v;
+		}
+	}
+
+	/**
+	 * 当前的条目数（并发修改时为近似值）。
+	 */
+	int size()
+	{
+		int size = 0;
+		for(Segment segment : segments)
+			size += segment.size.get();
+		return size;
+	}
+
+	/**
+	 * 遍历所有条目（弱一致性：遍历期间的并发修改可能被看到，也可能看不到）。
+	 */
+	@SuppressWarnings("unchecked")
+	void forEach(Visitor<V> visitor)
+	{
+		for(Segment segment : segments)
+		{
+			Table t = segment.table;
+			while(t != null)
+			{
+				Table next = null;
+				for(int i = 0; i < t.vals.length(); i++)
+				{
+					Object v = t.vals.get(i);
+					if(v == MOVED)
+					{
+						if(next == null)
+							next = segment.awaitRehash();
+					}
+					else if(v != null && v != TOMBSTONE)
+						visitor.visit(t.keys[i], (V)v);
+				}
+				// 遍历期间发生了扩容：重新遍历新表（可能会有重复的条目，仅用于调试输出等场合）
+				t = next;
+			}
+		}
+	}
+
+	/**
+	 * 一个分段的槽位表。
+	 * <p>
+	 * keys中的key在该槽位首次被使用（value由null变为非null）之前写入，此后在本表内不再改变。
+	 */
+	private final static class Table
+	{
+		final long[] keys;
+		final AtomicReferenceArray<Object> vals;
+		final int mask;
+
+		Table(int capacity)
+		{
+			keys = new long[capacity];
+			vals = new AtomicReferenceArray<Object>(capacity);
+			mask = capacity - 1;
+		}
+	}
+
+	private final static class Segment
+	{
+		volatile Table table = new Table(INITIAL_CAPACITY);
+		/** 当前表中已被占用（含已删除）的槽位数（仅在加锁时读写） */
+		int used = 0;
+		/** 条目数 */
+		final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * 查找key（无锁）。
+		 *
+		 * @return 对应的value，不存在时返回null
+		 */
+		Object find(long key, int h)
+		{
+			Table t = table;
+			outer:
+			for(;;)
+			{
+				int i = h & t.mask;
+				for(int n = 0; n <= t.mask; n++)
+				{
+					Object v = t.vals.get(i);
+					if(v == null)
+						return null;
+					if(v == MOVED)
+					{
+						t = awaitRehash();
+						continue outer;
+					}
+					if(t.keys[i] == key)
+						return v == TOMBSTONE ? null : v;
+					i = (i + 1) & t.mask;
+				}
+				return null;
+			}
+		}
+
+		/**
+		 * key对应的value仍为expect时，将其改为update（update为null表示删除）。
+		 */
+		boolean compareAndSet(long key, int h, Object expect, Object update)
+		{
+			Object newValue = (update != null ? update : TOMBSTONE);
+			Table t = table;
+			outer:
+			for(;;)
+			{
+				int i = h & t.mask;
+				for(int n = 0; n <= t.mask; )
+				{
+					Object v = t.vals.get(i);
+					if(v == null)
+						return false;
+					if(v == MOVED)
+					{
+						t = awaitRehash();
+						continue outer;
+					}
+					if(t.keys[i] != key)
+					{
+						i = (i + 1) & t.mask;
+						n++;
+						continue;
+					}
+					if(v != expect)
+						return false;
+					if(t.vals.compareAndSet(i, v, newValue))
+					{
+						if(update == null)
+							size.decrementAndGet();
+						return true;
+					}
+					// 该槽位刚被并发修改（或迁移）：重新读取同一槽位
+				}
+				return false;
+			}
+		}
+
+		/**
+		 * 遇到已迁移的槽位时调用：等待正在进行的扩容完成（扩容只在加锁时进行），返回扩容后的新表。
+		 */
+		synchronized Table awaitRehash()
+		{
+			return table;
+		}
+
+		synchronized Object putIfAbsent(long key, int h, Object value)
+		{
+			for(;;)
+			{
+				// 加锁期间table就是最新的表（扩容只在加锁时进行），其中不会有MOVED标记
+				Table t = table;
+				int i = h & t.mask;
+				for(;;)
+				{
+					Object v = t.vals.get(i);
+					if(v == null)
+						break;
+					if(t.keys[i] == key)
+					{
+						if(v != TOMBSTONE)
+							return v;
+						// 同一key已删除的槽位可直接复用
+						if(t.vals.compareAndSet(i, TOMBSTONE, value))
+						{
+							size.incrementAndGet();
+							return null;
+						}
+						continue;
+					}
+					i = (i + 1) & t.mask;
+				}
+
+				// 占用率（含已删除）不超过3/4，保证总有空槽位使查找能够终止
+				if((used + 1) * 4 > (t.mask + 1) * 3)
+				{
+					rehash(t);
+					continue;
+				}
+				t.keys[i] = key;
+				t.vals.set(i, value);
+				used++;
+				size.incrementAndGet();
+				return null;
+			}
+		}
+
+		/**
+		 * 扩容（或清理已删除的槽位），须在加锁时调用。
+		 */
+		private void rehash(Table old)
+		{
+			int live = Math.max(size.get(), 1);
+			int capacity = INITIAL_CAPACITY;
+			// 新表的占用率不超过3/8
+			while(capacity * 3 < live * 8)
+				capacity <<= 1;
+			Table t = new Table(capacity);
+
+			int used = 0;
+			for(int i = 0; i <= old.mask; i++)
+			{
+				int slot = -1;
+				for(;;)
+				{
+					Object v = old.vals.get(i);
+					if(v != null && v != TOMBSTONE)
+					{
+						// 先复制到新表、再在旧表中标记为已迁移：标记之前对该槽位的并发修改会使下面的CAS失败并重新复制
+						if(slot < 0)
+						{
+							slot = freeSlot(t, old.keys[i]);
+							t.keys[slot] = old.keys[i];
+							used++;
+						}
+						t.vals.set(slot, v);
+					}
+					else if(slot >= 0)
+					{
+						// 复制之后被并发删除了
+						t.vals.set(slot, TOMBSTONE);
+					}
+					if(old.vals.compareAndSet(i, v, MOVED))
+						break;
+				}
+			}
+			this.used = used;
+			this.table = t;
+		}
+
+		private static int freeSlot(Table t, long key)
+		{
+			int i = (int)hash(key) & t.mask;
+			while(t.vals.get(i) != null)
+				i = (i + 1) & t.mask;
+			return i;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.processor;
+
+import io.netty.channel.Channel;
+
+/**
+ * 同一用户当前在线的各终端会话（不可变的快照）。
+ * <p>
+ * 在线列表中每个user_id对应一个本类的实例，用户的某个终端上线或下线时，{@link OnlineProcessor}
+ * 会复制出一个新实例并以CAS方式替换掉老实例（即“写时复制”），因而读取方（比如消息发送时的查询）
+ * 只需一次Map查找即可拿到该用户全部的在线会话，且无需任何锁。
+ * <p>
+ * 各会话按上线的先后顺序排列，最后一个即为最近上线的会话。
+ *
+ * @since 6.1
+ * @see OnlineProcessor#getOnlineDevices(String)
+ */
+public final class OnlineDevices
+{
+	private final Channel[] sessions;
+	private final int[] deviceTypes;
+
+	private OnlineDevices(Channel[] sessions, int[] deviceTypes)
+	{
+		this.sessions = sessions;
+		this.deviceTypes = deviceTypes;
+	}
+
+	/**
+	 * 只有一个终端在线时的快照。
+	 */
+	static OnlineDevices of(Channel session, int deviceType)
+	{
+		return new OnlineDevices(new Channel[]{session}, new int[]{deviceType});
+	}
+
+	/**
+	 * 在线终端的个数（至少为1）。
+	 */
+	public int size()
+	{
+		return sessions.length;
+	}
+
+	/**
+	 * 返回第index个在线终端的会话。
+	 */
+	public Channel getSession(int index)
+	{
+		return sessions[index];
+	}
+
+	/**
+	 * 返回第index个在线终端的终端类型。
+	 *
+	 * @see net.x52im.mobileimsdk.server.protocal.c.PLoginInfo#getDeviceType()
+	 */
+	public int getDeviceType(int index)
+	{
+		return deviceTypes[index];
+	}
+
+	/**
+	 * 返回最近上线的终端会话。
+	 */
+	public Channel latest()
+	{
+		return sessions[sessions.length - 1];
+	}
+
+	/**
+	 * 返回指定终端类型中最近上线的会话。
+	 *
+	 * @param deviceType 终端类型
+	 * @return 没有该类型的终端在线时返回null
+	 */
+	public Channel getSessionByDeviceType(int deviceType)
+	{
+		for(int i = sessions.length - 1; i >= 0; i--)
+		{
+			if(deviceTypes[i] == deviceType)
+				return sessions[i];
+		}
+		return null;
+	}
+
+	/**
+	 * 返回指定会话在本快照中的位置。
+	 *
+	 * @return 不存在时返回-1
+	 */
+	public int indexOf(Channel session)
+	{
+		for(int i = 0; i < sessions.length; i++)
+		{
+			if(sessions[i] == session)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * 返回去掉remove中标记为true的会话、再在末尾加入新会话后的新快照。
+	 *
+	 * @param remove 要去掉的会话标记（与各会话的位置一一对应），可为null
+	 * @param session 新加入的会话，为null表示不加入
+	 * @param deviceType 新会话的终端类型
+	 * @return 新快照，不再有任何会话时返回null
+	 */
+	OnlineDevices copy(boolean[] remove, Channel session, int deviceType)
+	{
+		int count = (session != null ? 1 : 0);
+		for(int i = 0; i < sessions.length; i++)
+		{
+			if(remove == null || !remove[i])
+				count++;
+		}
+		if(count == 0)
+			return null;
+
+		Channel[] newSessions = new Channel[count];
+		int[] newDeviceTypes = new int[count];
+		int n = 0;
+		for(int i = 0; i < sessions.length; i++)
+		{
+			if(remove == null || !remove[i])
+			{
+				newSessions[n] = sessions[i];
+				newDeviceTypes[n] = deviceTypes[i];
+				n++;
+			}
+		}
+		if(session != null)
+		{
+			newSessions[n] = session;
+			newDeviceTypes[n] = deviceType;
+		}
+		return new OnlineDevices(newSessions, newDeviceTypes);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < sessions.length; i++)
+		{
+			if(i > 0)
+				sb.append(", ");
+			sb.append(deviceTypes[i]).append('@').append(sessions[i].remoteAddress());
+		}
+		return sb.append(']').toString();
+	}
+}
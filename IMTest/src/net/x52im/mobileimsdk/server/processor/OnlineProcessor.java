@@ -19,10 +19,15 @@ package net.x52im.mobileimsdk.server.processor;
 import io.netty.channel.Channel;
 import io.netty.util.AttributeKey;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import net.x52im.mobileimsdk.server.network.Gateway;
+import net.x52im.mobileimsdk.server.network.SessionContext;
+import net.x52im.mobileimsdk.server.protocal.c.PLoginInfo;
 import net.x52im.mobileimsdk.server.protocal.s.PKickoutInfo;
 import net.x52im.mobileimsdk.server.utils.LocalSendHelper;
 
@@ -35,6 +40,10 @@ import org.slf4j.LoggerFactory;
  * 根据全局算法约定，当user_id=0时即表示是服务器。
  * <p>
  * <b>注意：</b>由于历史原因，MobileIMSDK中的“会话”当前等同于Netty中的“Channel”，你可以认为代码中提到这两个名词时指的是同一个东西 。
+ * <p>
+ * 自v6.1起，同一账号可在多个终端（手机、平板、Web等，见 {@link PLoginInfo#getDeviceType()}）上同时在线：
+ * 在线列表中每个user_id对应该用户全部在线终端的快照 {@link OnlineDevices}，新终端登陆时踢出哪些已在线的
+ * 终端由各终端类型的互踢策略决定（详见 {@link #setKickPolicy(int, int)}）。
  * 
  * @author Jack Jiang(http://www.52im.net/thread-2792-1-1.html)
  * @version 3.1
@@ -46,18 +55,81 @@ public class OnlineProcessor
 	/** 用于用户会话（即Netty中的“Channel”）中存放首次登陆时间的属性key */
 	public final static String FIRST_LOGIN_TIME_ATTRIBUTE = "__first_login_time__";
 	
-	/** 用于用户会话（即Netty中的“Channel”）中存取属性 {@link #USER_ID_ATTRIBUTE} 用的AttributeKey */
+	/**
+	 * 用于用户会话（即Netty中的“Channel”）中存取属性 {@link #USER_ID_ATTRIBUTE} 用的AttributeKey
+	 * 
+	 * @deprecated 自v6.1起，该信息改为存放在 {@link SessionContext} 中，本属性只为兼容老代码而仍被同步设置（见 {@link SessionContext#setUserId(String)}），将在以后的版本中移除，请使用 {@link #getUserIdFromChannel(Channel)} 存取
+	 */
+	@Deprecated
 	public static final AttributeKey<String> USER_ID_ATTRIBUTE_ATTR = AttributeKey.newInstance(USER_ID_ATTRIBUTE);
-	/** 用于用户会话（即Netty中的“Channel”）中存取属性 {@link #FIRST_LOGIN_TIME_ATTRIBUTE} 用的AttributeKey */
+	/**
+	 * 用于用户会话（即Netty中的“Channel”）中存取属性 {@link #FIRST_LOGIN_TIME_ATTRIBUTE} 用的AttributeKey
+	 * 
+	 * @deprecated 自v6.1起，该信息改为存放在 {@link SessionContext} 中，本属性只为兼容老代码而仍被同步设置（见 {@link SessionContext#setFirstLoginTime(long)}），将在以后的版本中移除，请使用 {@link #getFirstLoginTimeFromChannel(Channel)} 存取
+	 */
+	@Deprecated
 	public static final AttributeKey<Long> FIRST_LOGIN_TIME_ATTRIBUTE_ATTR = AttributeKey.newInstance(FIRST_LOGIN_TIME_ATTRIBUTE);
 	
+	/** 互踢策略：不踢出任何已在线的终端（比如允许同时打开多个Web页面） */
+	public final static int KICK_POLICY_NONE = 0;
+	/** 互踢策略：踢出同一终端类型的已在线终端（即每种终端类型只允许一个在线） */
+	public final static int KICK_POLICY_SAME_DEVICE_TYPE = 1;
+	/** 互踢策略：踢出该账号所有已在线的终端（即v6.1以前的单端登陆方式） */
+	public final static int KICK_POLICY_ALL_DEVICES = 2;
+	
+	/**
+	 * 未单独设置互踢策略的终端类型所使用的互踢策略，默认为 {@link #KICK_POLICY_SAME_DEVICE_TYPE}。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 * 
+	 * @since 6.1
+	 * @see #setKickPolicy(int, int)
+	 */
+	public static int DEFAULT_KICK_POLICY = KICK_POLICY_SAME_DEVICE_TYPE;
+	
+	/**
+	 * 同一账号最多可同时在线的终端数，默认8。
+	 * <p>
+	 * 超过此值时，最早上线的终端将被踢出（互踢策略为 {@link #KICK_POLICY_NONE} 时，防止同一账号的
+	 * 会话无限增多）。
+	 * 
+	 * @since 6.1
+	 */
+	public static int MAX_DEVICES_PER_USER = 8;
+	
+	/**
+	 * 是否启用数字user_id模式，默认false。
+	 * <p>
+	 * 启用后，凡是规范的非负十进制整数形式（不超过18位、没有前导0）的user_id，都将以long为key存放在
+	 * 开放寻址法实现的在线列表中，不再为每个在线用户保存一个String key和一个Map节点，在线用户很多时
+	 * 可明显减少堆内存占用，{@link #getOnlineSession(String)} 等查找也无需计算和比较字符串；不符合该形式的
+	 * user_id仍按原方式存放，两者可以混用。
+	 * <p>
+	 * user_id须保持为字符串时，可改为开启 {@link net.x52im.mobileimsdk.server.protocal.UserIdInterner#ENABLED}。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 * 
+	 * @since 6.1
+	 */
+	public static boolean NUMERIC_USER_ID = false;
+	
 	public static boolean DEBUG = false;
 
 	private static Logger logger = LoggerFactory.getLogger(OnlineProcessor.class); 
 	private static OnlineProcessor instance = null;
 	
-	/** 用户在线列表：key=user_id、value=会话实例引用 */
-	private ConcurrentMap<String, Channel> onlineSessions = new ConcurrentHashMap<String, Channel>();
+	/** 各终端类型单独设置的互踢策略：key=终端类型、value=互踢策略 */
+	private final static ConcurrentMap<Integer, Integer> kickPolicies = new ConcurrentHashMap<Integer, Integer>();
+	static
+	{
+		// 老版本客户端不知道自已是什么终端，按v6.1以前的方式与其它所有终端互踢
+		kickPolicies.put(PLoginInfo.DEVICE_TYPE_UNKNOWN, KICK_POLICY_ALL_DEVICES);
+	}
+	
+	/** 用户在线列表：key=user_id、value=该用户全部在线终端的会话 */
+	private ConcurrentMap<String, OnlineDevices> onlineSessions = new ConcurrentHashMap<String, OnlineDevices>();
+	/** 数字user_id模式下的用户在线列表：key=数字形式的user_id（见 {@link #NUMERIC_USER_ID}），未启用时为null */
+	private final LongSessionMap<OnlineDevices> numericSessions = (NUMERIC_USER_ID ? new LongSessionMap<OnlineDevices>() : null);
 	
 	/**
 	 * 为了简化API调用，本方法将以单例的形式存活。
@@ -80,98 +152,205 @@ public class OnlineProcessor
 	{
 	}
 	
+	/**
+	 * 设置指定终端类型的互踢策略（即该类型的终端登陆时，要踢出该账号哪些已在线的终端）。
+	 * <p>
+	 * 两个终端是否互踢的判定规则：任一方的策略为 {@link #KICK_POLICY_ALL_DEVICES} 时互踢；否则终端类型相同且
+	 * 新登陆终端的策略为 {@link #KICK_POLICY_SAME_DEVICE_TYPE} 时互踢；其它情况下两者可同时在线。
+	 * <p>
+	 * 默认情况下，{@link PLoginInfo#DEVICE_TYPE_UNKNOWN}（即老版本客户端）为 {@link #KICK_POLICY_ALL_DEVICES}，
+	 * 其它终端类型为 {@link #DEFAULT_KICK_POLICY}。
+	 * 
+	 * @param deviceType 终端类型，见 {@link PLoginInfo#getDeviceType()}
+	 * @param kickPolicy 互踢策略，见 {@link #KICK_POLICY_NONE}、{@link #KICK_POLICY_SAME_DEVICE_TYPE}、{@link #KICK_POLICY_ALL_DEVICES}
+	 * @since 6.1
+	 */
+	public static void setKickPolicy(int deviceType, int kickPolicy)
+	{
+		kickPolicies.put(deviceType, kickPolicy);
+	}
+	
+	/**
+	 * 返回指定终端类型的互踢策略。
+	 * 
+	 * @param deviceType 终端类型
+	 * @return 互踢策略
+	 * @since 6.1
+	 * @see #setKickPolicy(int, int)
+	 */
+	public static int getKickPolicy(int deviceType)
+	{
+		Integer kickPolicy = kickPolicies.get(deviceType);
+		return kickPolicy != null ? kickPolicy : DEFAULT_KICK_POLICY;
+	}
+	
+	/**
+	 * 新登陆的终端与已在线的终端是否互踢。
+	 * 
+	 * @see #setKickPolicy(int, int)
+	 */
+	private static boolean isConflict(int newDeviceType, int oldDeviceType)
+	{
+		int newPolicy = getKickPolicy(newDeviceType);
+		if(newPolicy == KICK_POLICY_ALL_DEVICES || getKickPolicy(oldDeviceType) == KICK_POLICY_ALL_DEVICES)
+			return true;
+		return newDeviceType == oldDeviceType && newPolicy == KICK_POLICY_SAME_DEVICE_TYPE;
+	}
+	
+	/**
+	 * 将用户放入在线列表（终端类型未知，即与该用户的其它所有终端互踢）。
+	 * <p>
+     * <b><font color="#ff0000">本方法由MobileIMSDK内部决定如何调用，不建议开发者调用此方法！</font></b>
+	 * 
+	 * @param user_id 用户的user_id
+	 * @param firstLoginTime 用户的首次登陆时间（如果是首次登陆则此值是<=0，否则为标准java时间戳）
+	 * @param newSession 该用户对应的 Netty Channel 对象
+	 * @return true表示该会话正常加入在线列表，否则未被加入在线列表
+	 * @see #putUser(String, long, Channel, int)
+	 */
+	public boolean putUser(String user_id, long firstLoginTime, Channel newSession)
+	{
+		return putUser(user_id, firstLoginTime, newSession, PLoginInfo.DEVICE_TYPE_UNKNOWN);
+	}
+	
 	/**
 	 * 将用户放入在线列表。
 	 * <p>
 	 * 从 v6.0开始，本方法增加了同一账号多端登陆互踢的逻辑，且互踢逻辑考虑了复杂网络变动下的多端互踢判定方法，防止误判误踢）。
 	 * 本次互踢思路，请见我在此帖中的回复：<a href="http://www.52im.net/thread-2879-1-1.html">http://www.52im.net/thread-2879-1-1.html</a>
 	 * <p>
+	 * 从 v6.1开始，同一账号的多个终端可同时在线，互踢逻辑只在按互踢策略（见 {@link #setKickPolicy(int, int)}）
+	 * 判定为互踢的终端之间进行，与其它终端无关。
+	 * <p>
      * <b><font color="#ff0000">本方法由MobileIMSDK内部决定如何调用，不建议开发者调用此方法！</font></b>
 	 * 
 	 * @param user_id 用户的user_id
 	 * @param firstLoginTime 用户的首次登陆时间（如果是首次登陆则此值是<=0，否则为标准java时间戳）
 	 * @param newSession 该用户对应的 Netty Channel 对象
-	 * @param loginName 用户登陆账号
+	 * @param deviceType 该会话的终端类型，见 {@link PLoginInfo#getDeviceType()}
 	 * @return true表示该会话正常加入在线列表，否则未被加入在线列表（这种情况下的会话应该是已被踢出的会话(此次是重连时过来的)，具体原因请见本方法中的代码逻辑实现）
+	 * @since 6.1
 	 */
-	public boolean putUser(String user_id, long firstLoginTime, Channel newSession)
+	public boolean putUser(String user_id, long firstLoginTime, Channel newSession, int deviceType)
 	{
 		boolean putOk = true;
-		final Channel oldSession = onlineSessions.get(user_id);
+		// 需被踢出的会话（被踢指令在在线列表更新完成之后再发出）
+		List<Channel> sessionsBeKick = null;
 		
-		// 在线列表中已经存在“会话”了，进入会话踢出判定逻辑
-		if(oldSession != null)
+		// 自v6.1起，在线列表的更新采用“读取-判定-CAS提交”的无锁方式：踢出判定所依据的“老会话”在提交时
+		// 若已被其它线程（比如并发的重复登陆、老会话的关闭）改变，则按最新的在线列表重新判定，从而保证
+		// 互踢判定与在线列表的更新是一个原子步骤（此前的get-then-put在并发登陆时可能两个会话都被放入或都被踢出）
+		for(;;)
 		{
+			final OnlineDevices oldDevices = lookup(user_id);
+			
+			// 在线列表是空的，正常加入此会话（如您无需多端互踢逻辑，请仅保留本分支代码即可！）
+			if(oldDevices == null)
+			{
+				// 将用户加入到在线列表中
+				if(putIfAbsent(user_id, OnlineDevices.of(newSession, deviceType)) == null)
+					break;
+				continue;
+			}
+			
+			// 在线列表中已经存在“会话”了，进入会话踢出判定逻辑
 			
-			// 将要加入的新会话对象跟已存在于列表中的会话对象是同一个
-			boolean isTheSame = (oldSession.compareTo(newSession) == 0);
+			// 将要加入的新会话对象已存在于列表中
+			boolean isTheSame = (oldDevices.indexOf(newSession) >= 0);
 
 			logger.debug("[IMCORE-{}]【注意】用户id={}已经在在线列表中了，session也是同一个吗？{}", Gateway.$(newSession), user_id, isTheSame);
 
 			/************* 以下将展开同一账号重复登陆情况的处理逻辑 *************/
-
-			// 不是同一个会话
-			if(!isTheSame)
+			
+			// 是同一个会话：已在列表中，无需任何处理
+			if(isTheSame)
+				break;
+			
+			// 找出按互踢策略需与新会话互踢的“老会话”
+			final int oldCount = oldDevices.size();
+			boolean[] conflicts = new boolean[oldCount];
+			int conflictCount = 0;
+			boolean isStale = false;
+			for(int i = 0; i < oldCount; i++)
 			{
+				if(!isConflict(deviceType, oldDevices.getDeviceType(i)))
+					continue;
+				
+				conflicts[i] = true;
+				conflictCount++;
+				
 				//** 新会话的“首次登陆时间”字段没有被设置（应该是真的首次登陆），无条件踢出“老会话”
 				//  【场景模拟】：此种情况，是“新会话”正常登陆时，发现此前已在别的端登陆过，此种情况属于最典型的互踢场景
 				if(firstLoginTime <= 0)
+					continue;
+				
+				// 新会话的“首次登陆时间”字段已被设置，则进入登陆时间判定逻辑，用于区分出新会话是否是掉线重连这种情况
+				long firstLoginTimeForOld = OnlineProcessor.getFirstLoginTimeFromChannel(oldDevices.getSession(i));
+				
+				//** 新的“首次登陆时间”早于列表中的“老的”（这是不正常的掉线重连），强行常踢出所谓的“新”的会话
+				//  【场景模拟】：此种情况相对来说不罕见，即这个“新会话”实际上是之前已登陆的端但恰好因网络原因掉线，后来登陆的“老会话”
+				//               就正常登陆并被服务端放入在线列表，等于之前这个会话因网络恢复而重连时，就发生了本次逻辑中出现的情况了！
+				//** 否则新的“首次登陆时间”晚于列表中的“老的”（这是正常登陆），踢出老的即可
+				//  【场景模拟】：此种情况比较罕见，即“老会话”因客户端断线时“新会话”恰好登陆，而“新会话”恰好又掉线时“老会话”的客户
+				//               端网络恢复被服务端正常放入在线列表，稍后“新会话”的网络又恢复，此时就发生了本次逻辑中出现的情况了！
+				if(firstLoginTime < firstLoginTimeForOld)
 				{
-					logger.debug("[IMCORE-{}]【注意】用户id={}提交过来的firstLoginTime未设置(值={}, 应该是真的首次登陆？！)，将无条件踢出前面的会话！"
-							, Gateway.$(newSession), user_id, firstLoginTime);
-
-					// 向"老"会话发出被踢指令
-					sendKickoutDuplicateLogin(oldSession, user_id);	
-					// 将"新"用户加入到在线列表中
-					onlineSessions.put(user_id, newSession);
+					logger.debug("[IMCORE-{}]【注意】用户id={}提交过来的firstLoginTime为{}、firstLoginTimeForOld为{}，新的“首次登陆时间”【早于】列表中的“老的”，表示“新”的会话应该是未被正常通知的“已踢”会话，应再次向“新”会话发出被踢通知！！"
+							, Gateway.$(newSession), user_id, firstLoginTime, firstLoginTimeForOld);
+					isStale = true;
+					break;
 				}
-				// 新会话的“首次登陆时间”字段已被设置，则进入登陆时间判定逻辑，用于区分出新会话是否是掉线重连这种情况
-				else
+			}
+			
+			//*** "老会话"已在列表中，在线列表无需任何改动，向"新"会话发出被踢指令即可
+			if(isStale)
+			{
+				sessionsBeKick = new ArrayList<Channel>(1);
+				sessionsBeKick.add(newSession);
+				// 该会话已被踢出，所以不会被加入在线列表
+				putOk = false;
+				break;
+			}
+			
+			// 同时在线的终端数超限时，依次踢出最早上线的终端
+			int remaining = oldCount - conflictCount;
+			for(int i = 0; i < oldCount && remaining >= Math.max(MAX_DEVICES_PER_USER, 1); i++)
+			{
+				if(!conflicts[i])
 				{
-					long firstLoginTimeForOld = OnlineProcessor.getFirstLoginTimeFromChannel(oldSession);
-
-					//** 新的“首次登陆时间”晚于列表中的“老的”（这是正常登陆），踢出老的即可
-					//  【场景模拟】：此种情况比较罕见，即“老会话”因客户端断线时“新会话”恰好登陆，而“新会话”恰好又掉线时“老会话”的客户
-					//               端网络恢复被服务端正常放入在线列表，稍后“新会话”的网络又恢复，此时就发生了本次逻辑中出现的情况了！
-					if(firstLoginTime >= firstLoginTimeForOld)
-					{
-						logger.debug("[IMCORE-{}]【提示】用户id={}提交过来的firstLoginTime为{}、firstLoginTimeForOld为{}，新的“首次登陆时间”【晚于】列表中的“老的”、正常踢出老的即可！"
-								, Gateway.$(newSession), user_id, firstLoginTime, firstLoginTimeForOld);
-
-						// 向"老"会话发出被踢指令
-						sendKickoutDuplicateLogin(oldSession, user_id);		
-						// 将"新"用户加入到在线列表中
-						onlineSessions.put(user_id, newSession);
-					}
-					//** 新的“首次登陆时间”早于列表中的“老的”（这是不正常的掉线重连），强行常踢出所谓的“新”的会话
-					//  【场景模拟】：此种情况相对来说不罕见，即这个“新会话”实际上是之前已登陆的端但恰好因网络原因掉线，后来登陆的“老会话”
-					//               就正常登陆并被服务端放入在线列表，等于之前这个会话因网络恢复而重连时，就发生了本次逻辑中出现的情况了！
-					else
-					{
-						logger.debug("[IMCORE-{}]【注意】用户id={}提交过来的firstLoginTime为{}、firstLoginTimeForOld为{}，新的“首次登陆时间”【早于】列表中的“老的”，表示“新”的会话应该是未被正常通知的“已踢”会话，应再次向“新”会话发出被踢通知！！"
-								, Gateway.$(newSession), user_id, firstLoginTime, firstLoginTimeForOld);
-
-						// 向"新"会话发出被踢指令
-						sendKickoutDuplicateLogin(newSession, user_id);	
-						
-						//*** "老会话"已在列表中，啥也不用干了。。
-						
-						// 该会话已被踢出，所以不会被加入在线列表
-						putOk = false;
-					}
+					conflicts[i] = true;
+					conflictCount++;
+					remaining--;
 				}
 			}
-			else
+			
+			if(conflictCount > 0)
 			{
-				// 将用户加入到在线列表中（覆盖已在列表中的会话）
-				onlineSessions.put(user_id, newSession);
+				logger.debug("[IMCORE-{}]【提示】用户id={}（终端类型{}）提交过来的firstLoginTime为{}，将踢出前面的{}个会话！"
+						, Gateway.$(newSession), user_id, deviceType, firstLoginTime, conflictCount);
+			}
+			
+			// 将"新"会话加入到在线列表中（同时去掉要踢出的"老"会话），随后向"老"会话发出被踢指令
+			if(replace(user_id, oldDevices, oldDevices.copy(conflicts, newSession, deviceType)))
+			{
+				if(conflictCount > 0)
+				{
+					sessionsBeKick = new ArrayList<Channel>(conflictCount);
+					for(int i = 0; i < oldCount; i++)
+					{
+						if(conflicts[i])
+							sessionsBeKick.add(oldDevices.getSession(i));
+					}
+				}
+				break;
 			}
 		}
-		// 在线列表是空的，正常加入此会话（如您无需多端互踢逻辑，请仅保留本else分支持代码即可！）
-		else
+		
+		// 向被踢会话发出被踢指令
+		if(sessionsBeKick != null)
 		{
-			// 将用户加入到在线列表中
-			onlineSessions.put(user_id, newSession);
+			for(Channel sessionBeKick : sessionsBeKick)
+				sendKickoutDuplicateLogin(sessionBeKick, user_id);
 		}
 
 		__printOnline();// just for debug
@@ -203,45 +382,113 @@ public class OnlineProcessor
 	 */
 	public void __printOnline()
 	{
-		logger.debug("【@】当前在线用户共("+onlineSessions.size()+")人------------------->");
+		if(!logger.isDebugEnabled())
+			return;
+		
+		int count = onlineSessions.size() + (numericSessions != null ? numericSessions.size() : 0);
+		logger.debug("【@】当前在线用户共("+count+")人------------------->");
 		if(DEBUG)
 		{
-			for(String key : onlineSessions.keySet())
-				logger.debug("      > user_id="+key+",session="+onlineSessions.get(key).remoteAddress());
+			for(Map.Entry<String, OnlineDevices> entry : getOnlineDevicesMap().entrySet())
+				logger.debug("      > user_id="+entry.getKey()+",sessions="+entry.getValue());
 		}
 	}
 	
 	/**
-	 * 将用户从在线列表中移除.
+	 * 将用户（包括其全部在线终端）从在线列表中移除.
 	 * <p>
      * <b><font color="#ff0000">本方法由MobileIMSDK内部决定如
      * 何调用，不建议开发者调用此方法！</font></b>
      * 
 	 * @param user_id 用户的user_id
 	 * @return true表示已成功remove，否则表示没有此user_id对应的在线信息
+	 * @see #removeUser(String, Channel)
 	 */
 	public boolean removeUser(String user_id)
 	{
-		synchronized(onlineSessions)
+		if(remove(user_id) == null)
 		{
-			if(!onlineSessions.containsKey(user_id))
-			{
-				logger.warn("[IMCORE]！用户id={}不存在在线列表中，本次removeUser没有继续.", user_id);
-				__printOnline();// just for debug
-				return false;
-			}
-			else
-				return (onlineSessions.remove(user_id) != null);
+			logger.warn("[IMCORE]！用户id={}不存在在线列表中，本次removeUser没有继续.", user_id);
+			__printOnline();// just for debug
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 当在线列表中该用户的在线终端中仍有指定会话时，才将其从在线列表中移除（原子操作，该用户的其它终端不受影响）.
+	 * <p>
+	 * 会话关闭时应使用本方法：该用户可能已用新会话重新登陆（老会话被踢出或被客户端弃用），此时老会话的
+	 * 关闭不应影响到在线列表中的新会话。
+	 * <p>
+     * <b><font color="#ff0000">本方法由MobileIMSDK内部决定如
+     * 何调用，不建议开发者调用此方法！</font></b>
+     * 
+	 * @param user_id 用户的user_id
+	 * @param session 要移除的会话
+	 * @return true表示已成功remove，否则表示在线列表中没有该用户、或该用户的在线终端中已没有此会话
+	 * @since 6.1
+	 */
+	public boolean removeUser(String user_id, Channel session)
+	{
+		return removeDevice(user_id, session) >= 0;
+	}
+	
+	/**
+	 * 与 {@link #removeUser(String, Channel)} 相同，但返回移除后该用户仍在线的终端数（用于判定移除的是否是
+	 * 该用户最后一个在线终端，比如只在用户彻底下线时才回调 {@link net.x52im.mobileimsdk.server.event.ServerEventListener#onUserLogout(String, Object, Channel)}）。
+	 * <p>
+     * <b><font color="#ff0000">本方法由MobileIMSDK内部决定如
+     * 何调用，不建议开发者调用此方法！</font></b>
+     * 
+	 * @param user_id 用户的user_id
+	 * @param session 要移除的会话
+	 * @return 已成功移除时返回该用户剩余的在线终端数（0表示该用户已下线），没有移除时返回-1
+	 * @since 6.1
+	 */
+	public int removeDevice(String user_id, Channel session)
+	{
+		if(user_id == null || session == null)
+			return -1;
+		
+		for(;;)
+		{
+			final OnlineDevices oldDevices = lookup(user_id);
+			int index = (oldDevices == null ? -1 : oldDevices.indexOf(session));
+			if(index < 0)
+				return -1;
+			
+			boolean[] remove = new boolean[oldDevices.size()];
+			remove[index] = true;
+			OnlineDevices newDevices = oldDevices.copy(remove, null, PLoginInfo.DEVICE_TYPE_UNKNOWN);
+			// 该用户已没有其它在线终端时，整个移除
+			if(newDevices == null ? remove(user_id, oldDevices) : replace(user_id, oldDevices, newDevices))
+				return newDevices == null ? 0 : newDevices.size();
 		}
 	}
 	
 	/**
 	 * 根据user_id获得该在线用户对应的 Netty UDP Channel 会话实例句柄。
+	 * <p>
+	 * 该用户有多个终端同时在线时，返回最近上线的终端会话（要发给该用户的全部终端，请使用 {@link #getOnlineDevices(String)}）。
 	 * 
 	 * @param user_id 用户的user_id
 	 * @return 存在该在线用户则成功返回，否则返回null
 	 */
 	public Channel getOnlineSession(String user_id)
+	{
+		OnlineDevices devices = getOnlineDevices(user_id);
+		return devices != null ? devices.latest() : null;
+	}
+	
+	/**
+	 * 根据user_id获得该在线用户全部在线终端的会话（一次查找即可拿到，可用于向该用户的各终端群发）。
+	 * 
+	 * @param user_id 用户的user_id
+	 * @return 存在该在线用户则成功返回（至少有一个会话），否则返回null
+	 * @since 6.1
+	 */
+	public OnlineDevices getOnlineDevices(String user_id)
 	{
 //		logger.debug("======>user_id="+user_id+"在列表中吗？"+usersBySession.containsKey(user_id));
 //		__printOnline();
@@ -252,17 +499,116 @@ public class OnlineProcessor
 			return null;
 		}
 		
-		return onlineSessions.get(user_id);
+		return lookup(user_id);
 	}
 	
 	/**
 	 * 返回用户在线列表：key=user_id、value=会话实例引用。
+	 * <p>
+	 * 自v6.1起同一账号可多端同时在线，本方法中每个user_id只对应其最近上线的终端会话（与 {@link #getOnlineSession(String)}
+	 * 一致），返回的是当前在线列表的一个快照（每次调用都需遍历整个在线列表，且对它的修改不会影响在线列表），
+	 * 请勿在热点路径中调用。要取得各用户的全部在线终端，请使用 {@link #getOnlineDevicesMap()}。
 	 * 
-	 * @return 在线列表实例引用
+	 * @return 在线列表的快照
 	 */
 	public ConcurrentMap<String, Channel> getOnlineSessions()
 	{
-		return onlineSessions;
+		Map<String, OnlineDevices> devicesMap = getOnlineDevicesMap();
+		ConcurrentMap<String, Channel> snapshot = new ConcurrentHashMap<String, Channel>(Math.max(16, devicesMap.size() * 4 / 3 + 1));
+		for(Map.Entry<String, OnlineDevices> entry : devicesMap.entrySet())
+			snapshot.put(entry.getKey(), entry.getValue().latest());
+		return snapshot;
+	}
+	
+	/**
+	 * 返回用户在线列表：key=user_id、value=该用户全部在线终端的会话。
+	 * <p>
+	 * 启用了数字user_id模式（见 {@link #NUMERIC_USER_ID}）时，返回的是当前在线列表的一个快照（每次调用都需
+	 * 遍历整个在线列表，且对它的修改不会影响在线列表），请勿在热点路径中调用。
+	 * 
+	 * @return 在线列表实例引用
+	 * @since 6.1
+	 */
+	public ConcurrentMap<String, OnlineDevices> getOnlineDevicesMap()
+	{
+		if(numericSessions == null)
+			return onlineSessions;
+		
+		final ConcurrentMap<String, OnlineDevices> snapshot = new ConcurrentHashMap<String, OnlineDevices>(onlineSessions);
+		numericSessions.forEach(new LongSessionMap.Visitor<OnlineDevices>(){
+			@Override
+			public void visit(long key, OnlineDevices value){
+				snapshot.put(String.valueOf(key), value);
+			}
+		});
+		return snapshot;
+	}
+	
+	//------------------------------------------------------------------ 在线列表的存取（兼顾数字user_id模式）
+	/**
+	 * 数字user_id模式下，将user_id转为在线列表的long型key。
+	 * 
+	 * @return 未启用数字user_id模式、或user_id不是规范的数字形式时返回-1
+	 */
+	private long numericKey(String user_id)
+	{
+		return numericSessions != null ? parseNumericUserId(user_id) : -1;
+	}
+	
+	/**
+	 * 将规范的非负十进制整数形式（不超过18位、没有前导0）的user_id转为long，本方法不会创建任何对象。
+	 * <p>
+	 * 只有这种形式的字符串与long值是一一对应的（比如"007"、"+7"都不是），以保证转换后不会把两个不同的
+	 * user_id当成同一个。
+	 * 
+	 * @param user_id 用户的user_id
+	 * @return 不是规范的数字形式时返回-1
+	 */
+	static long parseNumericUserId(String user_id)
+	{
+		int len = (user_id != null ? user_id.length() : 0);
+		if(len == 0 || len > 18 || (len > 1 && user_id.charAt(0) == '0'))
+			return -1;
+		
+		long v = 0;
+		for(int i = 0; i < len; i++)
+		{
+			char c = user_id.charAt(i);
+			if(c < '0' || c > '9')
+				return -1;
+			v = v * 10 + (c - '0');
+		}
+		return v;
+	}
+	
+	private OnlineDevices lookup(String user_id)
+	{
+		long key = numericKey(user_id);
+		return key >= 0 ? numericSessions.get(key) : onlineSessions.get(user_id);
+	}
+	
+	private OnlineDevices putIfAbsent(String user_id, OnlineDevices devices)
+	{
+		long key = numericKey(user_id);
+		return key >= 0 ? numericSessions.putIfAbsent(key, devices) : onlineSessions.putIfAbsent(user_id, devices);
+	}
+	
+	private boolean replace(String user_id, OnlineDevices expect, OnlineDevices update)
+	{
+		long key = numericKey(user_id);
+		return key >= 0 ? numericSessions.replace(key, expect, update) : onlineSessions.replace(user_id, expect, update);
+	}
+	
+	private boolean remove(String user_id, OnlineDevices expect)
+	{
+		long key = numericKey(user_id);
+		return key >= 0 ? numericSessions.remove(key, expect) : onlineSessions.remove(user_id, expect);
+	}
+	
+	private OnlineDevices remove(String user_id)
+	{
+		long key = numericKey(user_id);
+		return key >= 0 ? numericSessions.remove(key) : onlineSessions.remove(user_id);
 	}
 
 	//------------------------------------------------------------------ 实用方法
@@ -279,7 +625,7 @@ public class OnlineProcessor
 	 */
 	public static boolean isLogined(Channel session)
 	{
-		return session != null && getUserIdFromChannel(session) != null;
+		return session != null && SessionContext.get(session).isLogined();
 	}
 	
 	/**
@@ -303,7 +649,7 @@ public class OnlineProcessor
 	 */
 	public static void setUserIdForChannel(Channel session, String userId)
 	{
-		session.attr(OnlineProcessor.USER_ID_ATTRIBUTE_ATTR).set(userId);
+		SessionContext.get(session).setUserId(userId);
 	}
 	
 	/**
@@ -315,7 +661,7 @@ public class OnlineProcessor
 	 */
 	public static void setFirstLoginTimeForChannel(Channel session, long firstLoginTime)
 	{
-		session.attr(OnlineProcessor.FIRST_LOGIN_TIME_ATTRIBUTE_ATTR).set(firstLoginTime);
+		SessionContext.get(session).setFirstLoginTime(firstLoginTime);
 	}
 	
 	/**
@@ -328,7 +674,7 @@ public class OnlineProcessor
 	 */
 	public static String getUserIdFromChannel(Channel session)
 	{
-		return (session != null ? session.attr(USER_ID_ATTRIBUTE_ATTR).get() : null);
+		return (session != null ? SessionContext.get(session).getUserId() : null);
 	}
 	
 	/**
@@ -339,11 +685,7 @@ public class OnlineProcessor
 	 */
 	public static long getFirstLoginTimeFromChannel(Channel session)
 	{
-		if(session != null){
-			Long attr = session.attr(FIRST_LOGIN_TIME_ATTRIBUTE_ATTR).get();
-			return attr != null ? attr : -1;
-		}
-		return -1;
+		return (session != null ? SessionContext.get(session).getFirstLoginTime() : -1);
 	}
 	
 	/**
@@ -354,7 +696,8 @@ public class OnlineProcessor
 	
 	public static void removeAttributesForChannel(Channel session)
 	{
-		session.attr(OnlineProcessor.USER_ID_ATTRIBUTE_ATTR).set(null);
-		session.attr(OnlineProcessor.FIRST_LOGIN_TIME_ATTRIBUTE_ATTR).set(null);
+		SessionContext context = SessionContext.get(session);
+		context.setUserId(null);
+		context.setFirstLoginTime(-1);
 	}
 }
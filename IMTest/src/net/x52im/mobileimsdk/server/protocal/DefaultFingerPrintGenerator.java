@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 默认的指纹特征码生成器：无锁、按时间有序、集群内全局唯一。
+ * <p>
+ * v6.1以前的指纹码由 <code>UUID.randomUUID()</code> 生成，它内部使用全局共享的SecureRandom，
+ * 高并发下各线程会在其上排队。本实现只在每个线程首次使用时分配一次“线程槽位”，此后完全基于
+ * 线程内的计数器生成，没有任何共享状态的竞争。
+ * <p>
+ * <b>指纹码的组成（共128位，与UUID的v7版本布局兼容）：</b>
+ * <pre>
+ *   48位毫秒时间戳 | 4位版本号(7) | 12位计数器高位 | 2位变体(10) | 14位节点id | 24位线程槽位 | 24位计数器低位
+ * </pre>
+ * 其中36位的线程内计数器单调递增，同一线程内的“时间戳+计数器”不会重复；线程槽位保证同一节点内各线程
+ * 互不重复；节点id则保证集群内各服务器互不重复（请通过 {@link #NODE_ID} 为每台服务器设置不同的值）。
+ * <p>
+ * 未设置 {@link #NODE_ID} 时，节点id、线程槽位的起始值、以及各线程计数器的初始值都取自随机数，
+ * 以尽量降低集群内不同服务器生成相同指纹码的概率（但不能保证绝对不重复，集群部署时请务必设置）。
+ * <p>
+ * 输出形式仍为形如“xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx”的36位小写UUID字符串，因而与老版本
+ * 客户端完全兼容，在紧凑2进制报文格式下也仍可按16字节传输。
+ *
+ * @since 6.1
+ * @see FingerPrintGenerator
+ */
+public class DefaultFingerPrintGenerator implements FingerPrintGenerator
+{
+	/**
+	 * 本服务器的节点id（取值范围：0~16383），集群部署时请为每台服务器设置不同的值，以保证指纹码全局唯一。
+	 * <p>
+	 * 默认值为-1，表示未设置：此时将使用启动时随机生成的节点id（仅适用于单机部署或对唯一性要求不严格的场景），
+	 * {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()} 时也会输出一条警告日志。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int NODE_ID = -1;
+
+	/** 未设置 {@link #NODE_ID} 时使用的随机节点id */
+	private final static int RANDOM_NODE_ID;
+
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** 线程槽位分配器（仅在线程首次生成指纹码时使用一次），起始值随机 */
+	private final static AtomicInteger threadSlotAllocator;
+
+	static
+	{
+		SecureRandom random = new SecureRandom();
+		RANDOM_NODE_ID = random.nextInt(1 << 14);
+		threadSlotAllocator = new AtomicInteger(random.nextInt(1 << 24));
+	}
+
+	/** 线程内的生成状态 */
+	private final static ThreadLocal<State> stateHolder = new ThreadLocal<State>(){
+		@Override
+		protected State initialValue(){
+			// 计数器的初始值随机取在低24位内，余下的计数空间（2^36-2^24）足够任何线程使用
+			return new State(threadSlotAllocator.getAndIncrement() & 0xFFFFFF
+					, ThreadLocalRandom.current().nextInt(1 << 24));
+		}
+	};
+
+	/**
+	 * {@link #NODE_ID} 是否已被设置。
+	 */
+	public static boolean isNodeIdConfigured()
+	{
+		return NODE_ID >= 0;
+	}
+
+	@Override
+	public String gen()
+	{
+		State s = stateHolder.get();
+		long seq = s.seq++;
+		int nodeId = NODE_ID >= 0 ? NODE_ID : RANDOM_NODE_ID;
+
+		long msb = (System.currentTimeMillis() << 16)
+				| 0x7000L
+				| ((seq >>> 24) & 0xFFFL);
+		long lsb = 0x8000000000000000L
+				| ((long)(nodeId & 0x3FFF) << 48)
+				| ((long)s.slot << 24)
+				| (seq & 0xFFFFFFL);
+
+		char[] c = s.chars;
+		toHex(c, 0, msb >>> 32, 8);
+		c[8] = '-';
+		toHex(c, 9, msb >>> 16, 4);
+		c[13] = '-';
+		toHex(c, 14, msb, 4);
+		c[18] = '-';
+		toHex(c, 19, lsb >>> 48, 4);
+		c[23] = '-';
+		toHex(c, 24, lsb, 12);
+		return new String(c);
+	}
+
+	private static void toHex(char[] c, int offset, long v, int digits)
+	{
+		for(int i = offset + digits - 1; i >= offset; i--)
+		{
+			c[i] = HEX[(int)(v & 0xF)];
+			v >>>= 4;
+		}
+	}
+
+	private final static class State
+	{
+		/** 本线程的槽位（24位） */
+		final int slot;
+		/** 本线程的计数器（仅用低36位） */
+		long seq;
+		/** 格式化输出时复用的字符数组 */
+		final char[] chars = new char[36];
+
+		State(int slot, long seq)
+		{
+			this.slot = slot;
+			this.seq = seq;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+/**
+ * QoS消息包的指纹特征码生成器。
+ * <p>
+ * 指纹码用于QoS消息的送达保证和去重，理论上需全局唯一。默认实现为 {@link DefaultFingerPrintGenerator}，
+ * 如有需要（比如希望与已有的消息id体系保持一致），开发者可实现本接口并通过
+ * {@link Protocal#setFingerPrintGenerator(FingerPrintGenerator)} 替换之，比如恢复成v6.1以前的UUID方式：
+ * <pre>
+ * Protocal.setFingerPrintGenerator(new FingerPrintGenerator(){
+ *     public String gen(){
+ *         return UUID.randomUUID().toString();
+ *     }
+ * });
+ * </pre>
+ * <b>注意：</b>实现类的 {@link #gen()} 方法会被多个线程高频并发调用，必须是线程安全的且应尽量避免锁竞争。
+ *
+ * @since 6.1
+ * @see Protocal#genFingerPrint()
+ */
+public interface FingerPrintGenerator
+{
+	/**
+	 * 生成一个新的指纹特征码。
+	 *
+	 * @return 指纹特征码
+	 */
+	public String gen();
+}
@@ -16,12 +16,8 @@
  */
 package net.x52im.mobileimsdk.server.protocal;
 
-import java.util.UUID;
-
 import net.x52im.mobileimsdk.server.ServerLauncher;
 
-import com.google.gson.Gson;
-
 /**
  * 协议报文对象.
  * 
@@ -111,6 +107,12 @@ public class Protocal
 	 * @since 6.0 */
 	protected long sm = -1;
 	
+	/** 
+	 * 指纹特征码生成器（全局共享）。
+	 * 
+	 * @since 6.1 */
+	private static volatile FingerPrintGenerator fingerPrintGenerator = new DefaultFingerPrintGenerator();
+	
 	/**
 	 * 构造方法（QoS标记默认为false、typeu字段默认为-1）。
 	 * 
@@ -376,7 +378,7 @@ public class Protocal
 	 */
 	public String toGsonString()
 	{
-		return new Gson().toJson(this);
+		return ProtocalFactory.getGson().toJson(this);
 	}
 	
 	/**
@@ -430,14 +432,42 @@ public class Protocal
 	 * </ul>
 	 * 
 	 * <p>
-	 * 目前使用的UUID能保证全局唯一，但它有36位长（加上分隔符32+4），在流量敏
-	 * 感的场景下，建议可考虑适当优化此生成算法。
+	 * 自v6.1起，指纹码由可替换的 {@link FingerPrintGenerator} 生成，默认实现 {@link DefaultFingerPrintGenerator}
+	 * 按“时间戳+节点id+线程槽位+线程内计数器”生成UUID形式的指纹码，无锁且集群内全局唯一（此前使用的
+	 * UUID.randomUUID()内部基于全局共享的SecureRandom，高并发下会严重竞争）。
 	 * 
-	 * @return 指纹特征码实际上就是系统的当时时间戳
-	 * @see UUID.randomUUID().toString()
+	 * @return 指纹特征码
+	 * @see #setFingerPrintGenerator(FingerPrintGenerator)
 	 */
 	public static String genFingerPrint()
 	{
-		return UUID.randomUUID().toString();//System.currentTimeMillis();
+		return fingerPrintGenerator.gen();
+	}
+	
+	/**
+	 * 设置指纹特征码生成器。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则可能导致
+	 * 新老指纹码混用（虽然并不影响正确性）。
+	 * 
+	 * @param generator 指纹特征码生成器，不可为null
+	 * @since 6.1
+	 */
+	public static void setFingerPrintGenerator(FingerPrintGenerator generator)
+	{
+		if(generator == null)
+			throw new IllegalArgumentException("generator can not be null!");
+		fingerPrintGenerator = generator;
+	}
+	
+	/**
+	 * 返回当前使用的指纹特征码生成器。
+	 * 
+	 * @return 指纹特征码生成器
+	 * @since 6.1
+	 */
+	public static FingerPrintGenerator getFingerPrintGenerator()
+	{
+		return fingerPrintGenerator;
 	}
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.CharsetUtil;
+
+/**
+ * {@link Protocal}报文的紧凑2进制编解码实现（与JSON格式并存，由客户端登陆时协商选用）。
+ * <p>
+ * JSON格式下每个报文都要重复携带"type"、"dataContent"、"fp"、"QoS"、"typeu"、"sm"、"bridge"
+ * 等字段名，像心跳、ACK应答这类报文的大部分字节其实都是字段名。2进制格式去掉了字段名，整数采用
+ * varint编码，字符串采用“长度前缀 + UTF-8”形式，UUID形式的指纹码则直接以16字节存放。
+ * <p>
+ * <b>2进制格式（第1版）的组织形式：</b>
+ * <pre>
+ *   magic(1字节) | flags(1字节) | type(varint) | typeu(varint) | sm(varint)
+ *   | [from(str)] | [to(str)] | [fp(16字节或str)] | [dataContent(str)]
+ *
+ *   magic ：固定为 {@link #MAGIC_V1}（即0xB1，高4位0xB为2进制格式标识，低4位为版本号）；
+ *   flags ：各bit依次为 bridge、QoS、有from、有to、有fp(字符串)、有fp(16字节UUID)、有dataContent；
+ *   整数 ：type、typeu和sm均为ZigZag编码后的varint（-1这样的默认值只占1个字节）；
+ *   str  ：varint形式的UTF-8字节长度 + UTF-8内容，为null的字符串不出现在报文中（由flags标识）。
+ * </pre>
+ * 合法的JSON文本不可能以0xB?这样的字节开头，因而服务端对收到的每个数据包均可通过首字节自动识别
+ * 其格式，协商切换过程中的新旧报文混杂也不会造成问题。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.protocal.c.PLoginInfo#getProtocalFormat()
+ */
+public final class ProtocalBinaryCodec
+{
+	/** 报文格式常量：JSON（默认格式，所有版本的客户端均支持） */
+	public final static int FORMAT_JSON = 0;
+	/** 报文格式常量：紧凑2进制格式（第1版） */
+	public final static int FORMAT_BINARY_V1 = 1;
+
+	/** 2进制格式（第1版）的首字节 */
+	public final static byte MAGIC_V1 = (byte)0xB1;
+
+	private final static int FLAG_BRIDGE       = 0x01;
+	private final static int FLAG_QOS          = 0x02;
+	private final static int FLAG_FROM         = 0x04;
+	private final static int FLAG_TO           = 0x08;
+	private final static int FLAG_FP_STRING    = 0x10;
+	private final static int FLAG_FP_UUID      = 0x20;
+	private final static int FLAG_DATA_CONTENT = 0x40;
+
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	private ProtocalBinaryCodec()
+	{
+	}
+
+	/**
+	 * 服务端是否支持指定的报文格式。
+	 *
+	 * @param format 客户端登陆时提交的报文格式
+	 * @return true表示支持，否则不支持
+	 */
+	public static boolean isSupported(int format)
+	{
+		return format == FORMAT_JSON || format == FORMAT_BINARY_V1;
+	}
+
+	/**
+	 * 判断ByteBuf的可读区域是否是2进制格式的报文（仅检查首字节，不移动读索引）。
+	 *
+	 * @param buffer Netty的数据缓冲对象
+	 * @return true表示是2进制格式，否则应按JSON格式处理
+	 */
+	public static boolean isBinary(ByteBuf buffer)
+	{
+		return buffer.isReadable() && (buffer.getByte(buffer.readerIndex()) & 0xF0) == (MAGIC_V1 & 0xF0);
+	}
+
+	/**
+	 * 将Protocal对象按2进制格式写入目标ByteBuf。
+	 *
+	 * @param p 要编码的报文对象
+	 * @param out 目标ByteBuf（容量不足时将自动扩容）
+	 */
+	public static void encode(Protocal p, ByteBuf out)
+	{
+		boolean fpUUID = isCanonicalUUID(p.fp);
+		int flags = (p.bridge ? FLAG_BRIDGE : 0)
+				| (p.QoS ? FLAG_QOS : 0)
+				| (p.from != null ? FLAG_FROM : 0)
+				| (p.to != null ? FLAG_TO : 0)
+				| (p.fp != null ? (fpUUID ? FLAG_FP_UUID : FLAG_FP_STRING) : 0)
+				| (p.dataContent != null ? FLAG_DATA_CONTENT : 0);
+
+		out.writeByte(MAGIC_V1);
+		out.writeByte(flags);
+		writeVarLong(out, zigZag(p.type));
+		writeVarLong(out, zigZag(p.typeu));
+		writeVarLong(out, zigZag(p.sm));
+		if(p.from != null)
+			writeString(out, p.from);
+		if(p.to != null)
+			writeString(out, p.to);
+		if(fpUUID)
+			writeUUID(out, p.fp);
+		else if(p.fp != null)
+			writeString(out, p.fp);
+		if(p.dataContent != null)
+			writeString(out, p.dataContent);
+	}
+
+	/**
+	 * 从ByteBuf的可读区域中解码出2进制格式的Protocal对象。
+	 *
+	 * @param buffer Netty的数据缓冲对象
+	 * @return 解码完成的{@link Protocal}报文对象
+	 * @throws Exception 版本不支持或数据不完整时抛出本异常
+	 */
+	public static Protocal decode(ByteBuf buffer) throws Exception
+	{
+		byte magic = buffer.readByte();
+		if(magic != MAGIC_V1)
+			throw new IllegalArgumentException("不支持的2进制报文版本：0x"+Integer.toHexString(magic & 0xFF));
+
+		int flags = buffer.readUnsignedByte();
+
+		// 直接给各字段赋值（与JSON解码保持一致）：经构造方法创建时，QoS为true而fp为null的报文会被凭空生成指纹码
+		Protocal p = new Protocal(0, null, null, null, false, null, 0);
+		p.type = (int)unZigZag(readVarLong(buffer));
+		p.typeu = (int)unZigZag(readVarLong(buffer));
+		p.sm = unZigZag(readVarLong(buffer));
+		p.from = (flags & FLAG_FROM) != 0 ? readUserId(buffer) : null;
+		p.to = (flags & FLAG_TO) != 0 ? readUserId(buffer) : null;
+		if((flags & FLAG_FP_UUID) != 0)
+			p.fp = readUUID(buffer);
+		else if((flags & FLAG_FP_STRING) != 0)
+			p.fp = readString(buffer);
+		p.dataContent = (flags & FLAG_DATA_CONTENT) != 0 ? readString(buffer) : null;
+		p.QoS = (flags & FLAG_QOS) != 0;
+		p.bridge = (flags & FLAG_BRIDGE) != 0;
+		return p;
+	}
+
+	private static long zigZag(long v)
+	{
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unZigZag(long v)
+	{
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void writeVarLong(ByteBuf out, long v)
+	{
+		while((v & ~0x7FL) != 0)
+		{
+			out.writeByte((int)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int)v);
+	}
+
+	private static long readVarLong(ByteBuf in)
+	{
+		long v = 0;
+		for(int shift = 0; shift < 64; shift += 7)
+		{
+			byte b = in.readByte();
+			v |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return v;
+		}
+		throw new IllegalArgumentException("varint格式错误");
+	}
+
+	private static void writeString(ByteBuf out, String s)
+	{
+		writeVarLong(out, ByteBufUtil.utf8Bytes(s));
+		ByteBufUtil.writeUtf8(out, s);
+	}
+
+	private static String readString(ByteBuf in)
+	{
+		long len = readVarLong(in);
+		if(len < 0 || len > in.readableBytes())
+			throw new IllegalArgumentException("字符串长度错误："+len);
+		String s = in.toString(in.readerIndex(), (int)len, CharsetUtil.UTF_8);
+		in.skipBytes((int)len);
+		return s;
+	}
+
+	private static String readUserId(ByteBuf in)
+	{
+		long len = readVarLong(in);
+		if(len < 0 || len > in.readableBytes())
+			throw new IllegalArgumentException("字符串长度错误："+len);
+		String s = UserIdInterner.intern(in, in.readerIndex(), (int)len);
+		in.skipBytes((int)len);
+		return s;
+	}
+
+	/**
+	 * 是否是形如“xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx”的小写UUID（只有这种形式才能以16字节
+	 * 存放且解码后原样还原）。
+	 */
+	private static boolean isCanonicalUUID(String s)
+	{
+		if(s == null || s.length() != 36)
+			return false;
+		for(int i = 0; i < 36; i++)
+		{
+			char c = s.charAt(i);
+			if(i == 8 || i == 13 || i == 18 || i == 23)
+			{
+				if(c != '-')
+					return false;
+			}
+			else if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))
+				return false;
+		}
+		return true;
+	}
+
+	private static void writeUUID(ByteBuf out, String s)
+	{
+		for(int i = 0; i < 36; )
+		{
+			if(s.charAt(i) == '-')
+			{
+				i++;
+				continue;
+			}
+			out.writeByte((Character.digit(s.charAt(i), 16) << 4) | Character.digit(s.charAt(i + 1), 16));
+			i += 2;
+		}
+	}
+
+	private static String readUUID(ByteBuf in)
+	{
+		char[] c = new char[36];
+		int pos = 0;
+		for(int i = 0; i < 16; i++)
+		{
+			if(i == 4 || i == 6 || i == 8 || i == 10)
+				c[pos++] = '-';
+			int b = in.readUnsignedByte();
+			c[pos++] = HEX[b >>> 4];
+			c[pos++] = HEX[b & 0x0F];
+		}
+		return new String(c);
+	}
+}
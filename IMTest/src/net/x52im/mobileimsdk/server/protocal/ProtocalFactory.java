@@ -18,11 +18,18 @@ package net.x52im.mobileimsdk.server.protocal;
 
 import net.x52im.mobileimsdk.server.protocal.c.PKeepAlive;
 import net.x52im.mobileimsdk.server.protocal.c.PLoginInfo;
+import net.x52im.mobileimsdk.server.protocal.c.PRecivedBatch;
 import net.x52im.mobileimsdk.server.protocal.s.PErrorResponse;
 import net.x52im.mobileimsdk.server.protocal.s.PKeepAliveResponse;
 import net.x52im.mobileimsdk.server.protocal.s.PKickoutInfo;
 import net.x52im.mobileimsdk.server.protocal.s.PLoginInfoResponse;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.ArrayList;
+
 import com.google.gson.Gson;
 
 /**
@@ -35,9 +42,29 @@ import com.google.gson.Gson;
  */
 public class ProtocalFactory
 {
+	/** 
+	 * 全局共享的Gson对象（Gson是线程安全的，且内部缓存了各类型的TypeAdapter，
+	 * 复用它可避免每次编解码都重新构建Gson和反射类型信息）。
+	 * 
+	 * @since 6.1 */
+	private final static Gson gson = new Gson();
+	
+	/**
+	 * 返回全局共享的Gson对象。
+	 * <p>
+	 * <b>本方法主要由MobileIMSDK框架内部使用。</b>
+	 * 
+	 * @return Gson对象
+	 * @since 6.1
+	 */
+	public static Gson getGson()
+	{
+		return gson;
+	}
+	
 	private static String create(Object c)
 	{
-		return new Gson().toJson(c);
+		return gson.toJson(c);
 	}
 	
 	/**
@@ -68,7 +95,57 @@ public class ProtocalFactory
 	 */
 	public static <T> T parse(String dataContentOfProtocal, Class<T> clazz)
 	{
-		return new Gson().fromJson(dataContentOfProtocal, clazz);
+		return gson.fromJson(dataContentOfProtocal, clazz);
+	}
+	
+	/**
+	 * 直接从Netty的ByteBuf中流式解析出{@link Protocal}对象（不产生中间的byte数组和JSON字符串）。
+	 * <p>
+	 * 报文格式（JSON或紧凑2进制格式）将根据首字节自动识别。
+	 * <p>
+	 * <b>本方法主要由MobileIMSDK框架内部使用。</b>
+	 * 
+	 * @param buffer Netty的数据缓冲对象，其可读区域为一个完整的Protocal报文
+	 * @return 反射完成的{@link Protocal}报文对象
+	 * @throws Exception 解析出错则抛出本异常
+	 * @see ProtocalJSONDecoder#decode(ByteBuf)
+	 * @see ProtocalBinaryCodec#decode(ByteBuf)
+	 * @since 6.1
+	 */
+	public static Protocal parse(ByteBuf buffer) throws Exception
+	{
+		if(ProtocalBinaryCodec.isBinary(buffer))
+			return ProtocalBinaryCodec.decode(buffer);
+		return ProtocalJSONDecoder.decode(buffer);
+	}
+	
+	/**
+	 * 将{@link Protocal}对象按指定的报文格式编码成byte数组（与各网关编码器写到网络上的内容完全一致）。
+	 * <p>
+	 * <b>本方法主要由MobileIMSDK框架内部使用。</b>
+	 * 
+	 * @param p 要编码的报文对象
+	 * @param protocalFormat 报文格式，见 {@link ProtocalBinaryCodec#FORMAT_JSON}、{@link ProtocalBinaryCodec#FORMAT_BINARY_V1}
+	 * @return 编码后的byte数组
+	 * @see ProtocalJSONEncoder#encode(Protocal, ByteBuf)
+	 * @see ProtocalBinaryCodec#encode(Protocal, ByteBuf)
+	 * @since 6.1
+	 */
+	public static byte[] toBytes(Protocal p, int protocalFormat)
+	{
+		ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer();
+		try
+		{
+			if(protocalFormat == ProtocalBinaryCodec.FORMAT_BINARY_V1)
+				ProtocalBinaryCodec.encode(p, buf);
+			else
+				ProtocalJSONEncoder.encode(p, buf);
+			return ByteBufUtil.getBytes(buf);
+		}
+		finally
+		{
+			buf.release();
+		}
 	}
 	
 	/**
@@ -213,8 +290,45 @@ public class ProtocalFactory
 	 */
 	public static Protocal createPLoginInfoResponse(int code, long firstLoginTime, String user_id)
 	{
+		return createPLoginInfoResponse(code, firstLoginTime, user_id, ProtocalBinaryCodec.FORMAT_JSON);
+	}
+	
+	/**
+	 * 创建用户登陆响应消息报文对象（该对象由服务端发出）.
+	 * <p>
+	 * <b>本方法主要由MobileIMSDK框架内部使用。</b>
+	 * 
+	 * @param code 服务端返回的错误码
+	 * @param firstLoginTime 客户端首次登陆时间（此时间由服务端在客户端首次登陆时返回的登陆信息中提供，客户端后绪在掉重连时带上本字段，以便服务端用于多端互踢判定逻辑中使用）。此值不设置则默认应置为0。
+     * @param user_id 服务端返因的错误信息
+     * @param protocalFormat 服务端同意使用的报文格式，see {@link ProtocalBinaryCodec#FORMAT_JSON}、{@link ProtocalBinaryCodec#FORMAT_BINARY_V1}
+	 * @return 新建的{@link Protocal}报文对象
+	 * @since 6.1
+	 */
+	public static Protocal createPLoginInfoResponse(int code, long firstLoginTime, String user_id, int protocalFormat)
+	{
+		return createPLoginInfoResponse(code, firstLoginTime, user_id, protocalFormat, null);
+	}
+	
+	/**
+	 * 创建用户登陆响应消息报文对象（该对象由服务端发出）.
+	 * <p>
+	 * <b>本方法主要由MobileIMSDK框架内部使用。</b>
+	 * 
+	 * @param code 服务端返回的错误码
+	 * @param firstLoginTime 客户端首次登陆时间（此时间由服务端在客户端首次登陆时返回的登陆信息中提供，客户端后绪在掉重连时带上本字段，以便服务端用于多端互踢判定逻辑中使用）。此值不设置则默认应置为0。
+     * @param user_id 服务端返因的错误信息
+     * @param protocalFormat 服务端同意使用的报文格式，see {@link ProtocalBinaryCodec#FORMAT_JSON}、{@link ProtocalBinaryCodec#FORMAT_BINARY_V1}
+     * @param migrationToken UDP会话迁移凭证，不需要时为null
+	 * @return 新建的{@link Protocal}报文对象
+	 * @since 6.1
+	 */
+	public static Protocal createPLoginInfoResponse(int code, long firstLoginTime, String user_id, int protocalFormat, String migrationToken)
+	{
+		PLoginInfoResponse response = new PLoginInfoResponse(code, firstLoginTime, protocalFormat);
+		response.setMigrationToken(migrationToken);
 		return new Protocal(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$LOGIN
-				, create(new PLoginInfoResponse(code, firstLoginTime))
+				, create(response)
 				, "0"
 				, user_id // changed -1 to user_id: modified by Jack Jiang 20150911 -> 目的是让登陆响应包能正常支持QoS机制
 				
@@ -316,6 +430,36 @@ public class ProtocalFactory
 		return p;
 	}
 	
+	/**
+	 * 客户端from_user_id向to_user_id发送一个QoS机制中需要的“批量收到消息应答包”（一次应答多条消息）.
+	 * <p>
+	 * <b>本方法主要由MobileIMSDK框架内部使用。</b>
+	 * 
+	 * @param from_user_id 发起方
+	 * @param to_user_id 接收方
+	 * @param recievedMessageFingerPrints 已收到的各消息包指纹码
+	 * @return 新建的{@link Protocal}报文对象
+	 * @since 6.1
+	 */
+	public static Protocal createRecivedBatchBack(String from_user_id, String to_user_id, ArrayList<String> recievedMessageFingerPrints)
+	{
+		return new Protocal(ProtocalType.C.FROM_CLIENT_TYPE_OF_RECIVED$BATCH, create(new PRecivedBatch(recievedMessageFingerPrints)), from_user_id, to_user_id);// 该包当然不需要QoS支持！
+	}
+	
+	/**
+	 * 解析客户端发过来的“批量收到消息应答包”.
+	 * <p>
+	 * <b>本方法主要由MobileIMSDK框架内部使用。</b>
+	 * 
+	 * @param dataContentOfProtocal
+	 * @return
+	 * @since 6.1
+	 */
+	public static PRecivedBatch parsePRecivedBatch(String dataContentOfProtocal)
+	{
+		return parse(dataContentOfProtocal, PRecivedBatch.class);
+	}
+	
 	/**
 	 * 创建用户被踢包报文对象（该对象由服务端发出）.
 	 * <p>
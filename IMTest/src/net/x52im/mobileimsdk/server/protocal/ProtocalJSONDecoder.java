@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+import io.netty.util.CharsetUtil;
+
+/**
+ * 直接基于Netty的ByteBuf进行流式解析的{@link Protocal}报文JSON解码器。
+ * <p>
+ * 与以往“ByteBuf → byte[] → String → Gson反射”的方式不同，本解码器直接在ByteBuf上逐字节扫描
+ * JSON文本，并按字段名把值写入Protocal对象，中间不产生临时的byte数组和完整的JSON字符串，也不需要
+ * 每次都new一个Gson对象，从而大幅减少了worker线程上的短命对象。
+ * <p>
+ * <b>解码结果与Gson反射的结果保持一致：</b>报文中未出现的字段取Java的默认值（null、0、false），
+ * 未知字段将被跳过。对于本解码器无法处理的非标准JSON（比如单引号、浮点数、转义的字段名等），将自动
+ * 退回到Gson方式解析，以保证兼容性。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see ProtocalFactory#parse(ByteBuf)
+ */
+public final class ProtocalJSONDecoder
+{
+	private final static byte[] FIELD_BRIDGE       = ascii("bridge");
+	private final static byte[] FIELD_TYPE         = ascii("type");
+	private final static byte[] FIELD_DATA_CONTENT = ascii("dataContent");
+	private final static byte[] FIELD_FROM         = ascii("from");
+	private final static byte[] FIELD_TO           = ascii("to");
+	private final static byte[] FIELD_FP           = ascii("fp");
+	private final static byte[] FIELD_QOS          = ascii("QoS");
+	private final static byte[] FIELD_TYPEU        = ascii("typeu");
+	private final static byte[] FIELD_SM           = ascii("sm");
+
+	/** 查找字符串的结束引号或转义符 */
+	private final static ByteProcessor FIND_QUOTE_OR_BACKSLASH = new ByteProcessor(){
+		@Override
+		public boolean process(byte b){
+			return b != '"' && b != '\\';
+		}
+	};
+	
+	/** 查找数字、true/false/null等字面量的结束位置 */
+	private final static ByteProcessor FIND_VALUE_END = new ByteProcessor(){
+		@Override
+		public boolean process(byte b){
+			return b != ',' && b != '}' && b != ']' && b != ' ' && b != '\n' && b != '\r' && b != '\t';
+		}
+	};
+
+	/** 解析含转义字符的字符串时复用的StringBuilder（每个线程一个） */
+	private final static ThreadLocal<StringBuilder> stringBuilderHolder = new ThreadLocal<StringBuilder>(){
+		@Override
+		protected StringBuilder initialValue(){
+			return new StringBuilder(256);
+		}
+	};
+
+	private final ByteBuf buf;
+	private final int end;
+	private int pos;
+
+	private ProtocalJSONDecoder(ByteBuf buf, int start, int end)
+	{
+		this.buf = buf;
+		this.pos = start;
+		this.end = end;
+	}
+
+	/**
+	 * 从ByteBuf的可读区域中解码出Protocal对象，解码成功后ByteBuf的可读区域将被全部消费掉。
+	 *
+	 * @param buffer Netty的数据缓冲对象
+	 * @return 解析完成的{@link Protocal}报文对象，内容为空（比如JSON文本是null）时返回null
+	 * @throws Exception 数据不是合法的JSON时抛出本异常
+	 */
+	public static Protocal decode(ByteBuf buffer) throws Exception
+	{
+		int start = buffer.readerIndex();
+		int end = buffer.writerIndex();
+		Protocal p;
+		try
+		{
+			p = new ProtocalJSONDecoder(buffer, start, end).readProtocal();
+		}
+		catch (UnsupportedJSONException e)
+		{
+			// 非标准JSON：退回到Gson的宽松模式解析
+			p = ProtocalFactory.parse(buffer.toString(start, end - start, CharsetUtil.UTF_8), Protocal.class);
+		}
+		buffer.readerIndex(end);
+		return p;
+	}
+
+	private Protocal readProtocal() throws UnsupportedJSONException
+	{
+		byte c = nextToken();
+		if(c == 'n')
+		{
+			expectLiteral("null");
+			return null;
+		}
+		if(c != '{')
+			throw new UnsupportedJSONException();
+		pos++;
+
+		// 与Gson的反射结果保持一致：未出现的字段取Java默认值
+		Protocal p = new Protocal(0, null, null, null, false, null, 0);
+		p.sm = 0;
+
+		if(nextToken() == '}')
+		{
+			pos++;
+			return finish(p);
+		}
+
+		while(true)
+		{
+			if(nextToken() != '"')
+				throw new UnsupportedJSONException();
+			int nameStart = ++pos;
+			int nameEnd = buf.forEachByte(nameStart, end - nameStart, FIND_QUOTE_OR_BACKSLASH);
+			if(nameEnd == -1 || buf.getByte(nameEnd) == '\\')
+				throw new UnsupportedJSONException();
+			pos = nameEnd + 1;
+
+			if(nextToken() != ':')
+				throw new UnsupportedJSONException();
+			pos++;
+
+			int nameLen = nameEnd - nameStart;
+			if(nameEquals(nameStart, nameLen, FIELD_TYPE))
+				p.type = readInt();
+			else if(nameEquals(nameStart, nameLen, FIELD_DATA_CONTENT))
+				p.dataContent = readString();
+			else if(nameEquals(nameStart, nameLen, FIELD_FROM))
+				p.from = readString(true);
+			else if(nameEquals(nameStart, nameLen, FIELD_TO))
+				p.to = readString(true);
+			else if(nameEquals(nameStart, nameLen, FIELD_FP))
+				p.fp = readString();
+			else if(nameEquals(nameStart, nameLen, FIELD_QOS))
+				p.QoS = readBoolean();
+			else if(nameEquals(nameStart, nameLen, FIELD_BRIDGE))
+				p.bridge = readBoolean();
+			else if(nameEquals(nameStart, nameLen, FIELD_TYPEU))
+				p.typeu = readInt();
+			else if(nameEquals(nameStart, nameLen, FIELD_SM))
+				p.sm = readLong();
+			else
+				skipValue();
+
+			byte c2 = nextToken();
+			pos++;
+			if(c2 == ',')
+				continue;
+			if(c2 == '}')
+				return finish(p);
+			throw new UnsupportedJSONException();
+		}
+	}
+
+	private Protocal finish(Protocal p) throws UnsupportedJSONException
+	{
+		// 对象之后只允许有空白字符
+		if(pos < end && nextToken() != 0)
+			throw new UnsupportedJSONException();
+		return p;
+	}
+
+	/**
+	 * 跳过空白字符并返回下一个有效字节（不消费它），已到末尾时返回0。
+	 */
+	private byte nextToken()
+	{
+		while(pos < end)
+		{
+			byte c = buf.getByte(pos);
+			if(c != ' ' && c != '\n' && c != '\r' && c != '\t')
+				return c;
+			pos++;
+		}
+		return 0;
+	}
+
+	private boolean nameEquals(int start, int len, byte[] name)
+	{
+		if(len != name.length)
+			return false;
+		for(int i = 0; i < len; i++)
+		{
+			if(buf.getByte(start + i) != name[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void expectLiteral(String literal) throws UnsupportedJSONException
+	{
+		int len = literal.length();
+		if(pos + len > end)
+			throw new UnsupportedJSONException();
+		for(int i = 0; i < len; i++)
+		{
+			if(buf.getByte(pos + i) != literal.charAt(i))
+				throw new UnsupportedJSONException();
+		}
+		pos += len;
+	}
+
+	private boolean readBoolean() throws UnsupportedJSONException
+	{
+		byte c = nextToken();
+		if(c == 't')
+		{
+			expectLiteral("true");
+			return true;
+		}
+		if(c == 'f')
+		{
+			expectLiteral("false");
+			return false;
+		}
+		throw new UnsupportedJSONException();
+	}
+
+	private int readInt() throws UnsupportedJSONException
+	{
+		long v = readLong();
+		if(v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+			throw new UnsupportedJSONException();
+		return (int)v;
+	}
+
+	private long readLong() throws UnsupportedJSONException
+	{
+		nextToken();
+		boolean negative = false;
+		if(pos < end && buf.getByte(pos) == '-')
+		{
+			negative = true;
+			pos++;
+		}
+
+		long v = 0;
+		int digits = 0;
+		while(pos < end)
+		{
+			byte c = buf.getByte(pos);
+			if(c < '0' || c > '9')
+				break;
+			// 溢出（19位以上）交由Gson处理
+			if(++digits > 18)
+				throw new UnsupportedJSONException();
+			v = v * 10 + (c - '0');
+			pos++;
+		}
+
+		// 浮点数、科学计数法等同样交由Gson处理
+		if(digits == 0 || (pos < end && (buf.getByte(pos) == '.' || buf.getByte(pos) == 'e' || buf.getByte(pos) == 'E')))
+			throw new UnsupportedJSONException();
+		return negative ? -v : v;
+	}
+
+	private String readString() throws UnsupportedJSONException
+	{
+		return readString(false);
+	}
+
+	/**
+	 * 读取字符串值。
+	 *
+	 * @param userId true表示该值是user_id（from、to字段），将返回其驻留实例（见 {@link UserIdInterner}）
+	 */
+	private String readString(boolean userId) throws UnsupportedJSONException
+	{
+		byte c = nextToken();
+		if(c == 'n')
+		{
+			expectLiteral("null");
+			return null;
+		}
+		if(c != '"')
+			throw new UnsupportedJSONException();
+
+		int start = ++pos;
+		int stop = buf.forEachByte(start, end - start, FIND_QUOTE_OR_BACKSLASH);
+		if(stop == -1)
+			throw new UnsupportedJSONException();
+
+		// 最常见的情况：没有转义字符，直接由Netty从ByteBuf解码出字符串
+		if(buf.getByte(stop) == '"')
+		{
+			pos = stop + 1;
+			return userId ? UserIdInterner.intern(buf, start, stop - start) : buf.toString(start, stop - start, CharsetUtil.UTF_8);
+		}
+
+		// 含有转义字符（比如dataContent中嵌套的JSON文本）
+		StringBuilder sb = stringBuilderHolder.get();
+		sb.setLength(0);
+		while(true)
+		{
+			if(pos >= end)
+				throw new UnsupportedJSONException();
+			int b = buf.getByte(pos) & 0xFF;
+			if(b == '"')
+			{
+				pos++;
+				break;
+			}
+			else if(b == '\\')
+			{
+				readEscape(sb);
+			}
+			else if(b < 0x80)
+			{
+				sb.append((char)b);
+				pos++;
+			}
+			else
+			{
+				readUTF8(sb, b);
+			}
+		}
+
+		String s = sb.toString();
+		// 避免偶发的超大报文长期占用线程内的缓存
+		if(sb.capacity() > 8192)
+			stringBuilderHolder.remove();
+		return userId ? UserIdInterner.intern(s) : s;
+	}
+
+	private void readEscape(StringBuilder sb) throws UnsupportedJSONException
+	{
+		if(pos + 1 >= end)
+			throw new UnsupportedJSONException();
+		byte e = buf.getByte(pos + 1);
+		pos += 2;
+		switch(e)
+		{
+			case '"':
+			case '\\':
+			case '/':
+				sb.append((char)e);
+				break;
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if(pos + 4 > end)
+					throw new UnsupportedJSONException();
+				int ch = 0;
+				for(int i = 0; i < 4; i++)
+				{
+					int d = Character.digit(buf.getByte(pos + i), 16);
+					if(d < 0)
+						throw new UnsupportedJSONException();
+					ch = (ch << 4) | d;
+				}
+				pos += 4;
+				sb.append((char)ch);
+				break;
+			default:
+				throw new UnsupportedJSONException();
+		}
+	}
+
+	private void readUTF8(StringBuilder sb, int b) throws UnsupportedJSONException
+	{
+		int n;
+		int cp;
+		if((b & 0xE0) == 0xC0)
+		{
+			n = 1;
+			cp = b & 0x1F;
+		}
+		else if((b & 0xF0) == 0xE0)
+		{
+			n = 2;
+			cp = b & 0x0F;
+		}
+		else if((b & 0xF8) == 0xF0)
+		{
+			n = 3;
+			cp = b & 0x07;
+		}
+		else
+			throw new UnsupportedJSONException();
+
+		if(pos + n >= end)
+			throw new UnsupportedJSONException();
+		for(int i = 1; i <= n; i++)
+		{
+			int cb = buf.getByte(pos + i) & 0xFF;
+			if((cb & 0xC0) != 0x80)
+				throw new UnsupportedJSONException();
+			cp = (cp << 6) | (cb & 0x3F);
+		}
+		pos += n + 1;
+
+		if(!Character.isValidCodePoint(cp))
+			throw new UnsupportedJSONException();
+		sb.appendCodePoint(cp);
+	}
+
+	/**
+	 * 跳过一个任意类型的值（用于未知字段）。
+	 */
+	private void skipValue() throws UnsupportedJSONException
+	{
+		int depth = 0;
+		do
+		{
+			byte c = nextToken();
+			if(c == '"')
+			{
+				pos++;
+				while(true)
+				{
+					int stop = buf.forEachByte(pos, end - pos, FIND_QUOTE_OR_BACKSLASH);
+					if(stop == -1)
+						throw new UnsupportedJSONException();
+					pos = stop + (buf.getByte(stop) == '\\' ? 2 : 1);
+					if(buf.getByte(stop) == '"')
+						break;
+				}
+			}
+			else if(c == '{' || c == '[')
+			{
+				depth++;
+				pos++;
+			}
+			else if(c == '}' || c == ']')
+			{
+				if(depth == 0)
+					throw new UnsupportedJSONException();
+				depth--;
+				pos++;
+			}
+			else if(c == ',' || c == ':')
+			{
+				if(depth == 0)
+					throw new UnsupportedJSONException();
+				pos++;
+			}
+			else if(c == 0)
+			{
+				throw new UnsupportedJSONException();
+			}
+			else
+			{
+				// 数字、true、false、null
+				int stop = buf.forEachByte(pos, end - pos, FIND_VALUE_END);
+				pos = (stop == -1 ? end : stop);
+			}
+		}
+		while(depth > 0);
+	}
+
+	private static byte[] ascii(String s)
+	{
+		return s.getBytes(CharsetUtil.US_ASCII);
+	}
+
+	/**
+	 * 本解码器不能处理的JSON格式（将退回到Gson进行解析）。
+	 */
+	private static class UnsupportedJSONException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedJSONException()
+		{
+			// 用于控制流程，不需要填充调用栈
+			super(null, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+/**
+ * 直接把{@link Protocal}报文的JSON写入Netty的ByteBuf的编码器。
+ * <p>
+ * 以往的发送流程是“{@link Protocal#toGsonString()} → byte数组 → Unpooled.copiedBuffer”，
+ * 一次发送会产生String、byte[]和一个堆内存ByteBuf三份数据拷贝。本编码器借助线程内复用的
+ * StringBuilder接收Gson的输出，然后由Netty直接按UTF-8写入目标ByteBuf（通常是池化的直接内存），
+ * 省去了中间的String和byte数组。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see ProtocalJSONDecoder
+ */
+public final class ProtocalJSONEncoder
+{
+	/** 接收Gson输出时复用的StringBuilder（每个线程一个，实际就是各Netty的I/O线程） */
+	private final static ThreadLocal<StringBuilder> stringBuilderHolder = new ThreadLocal<StringBuilder>(){
+		@Override
+		protected StringBuilder initialValue(){
+			return new StringBuilder(512);
+		}
+	};
+
+	private ProtocalJSONEncoder()
+	{
+	}
+
+	/**
+	 * 将Protocal对象编码成JSON并按UTF-8写入目标ByteBuf。
+	 *
+	 * @param p 要编码的报文对象
+	 * @param out 目标ByteBuf（容量不足时将自动扩容）
+	 */
+	public static void encode(Protocal p, ByteBuf out)
+	{
+		StringBuilder sb = stringBuilderHolder.get();
+		sb.setLength(0);
+		ProtocalFactory.getGson().toJson(p, sb);
+		ByteBufUtil.writeUtf8(out, sb);
+
+		// 避免偶发的超大报文长期占用线程内的缓存
+		if(sb.capacity() > 8192)
+			stringBuilderHolder.remove();
+	}
+}
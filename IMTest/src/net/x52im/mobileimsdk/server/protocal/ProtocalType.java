@@ -44,6 +44,9 @@ public interface ProtocalType
 		
 		/** 由客户端发出 - 协议类型：C2S时的回显指令（此指令目前仅用于测试时） */
 		int FROM_CLIENT_TYPE_OF_ECHO = 5;
+		
+		/** 由客户端发出 - 协议类型：QoS保证机制中的批量消息应答包（一个包应答多条消息，since 6.1） */
+		int FROM_CLIENT_TYPE_OF_RECIVED$BATCH = 6;
 	}
 	
 	//------------------------------------------------------- from server
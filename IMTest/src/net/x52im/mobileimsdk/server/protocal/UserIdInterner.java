@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * user_id字符串的驻留表（即“intern”）。
+ * <p>
+ * 同一个用户的user_id会出现在他收发的每一条消息的from、to字段中，以往每解码一条报文都会为它们
+ * 创建新的String对象（这些对象还会被QoS队列、离线消息等长时间持有）。开启本功能后，解码器将直接
+ * 拿ByteBuf中的字节与表中已有的字符串比较，命中时返回已有的实例，不再创建任何对象；登陆时放入会话
+ * 上下文的user_id也来自本表，因而百万在线时同一个user_id在堆中通常只有一份。
+ * <p>
+ * 本表是一个固定大小、直接映射的缓存（类似CPU的L1缓存）：每个位置只存放一个字符串，哈希冲突时后来
+ * 者直接覆盖，因此不需要任何锁、不会无限增长（被覆盖掉的字符串照常可被回收）；未命中只是退化为普通的
+ * 解码，结果的正确性不受任何影响。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see net.x52im.mobileimsdk.server.processor.OnlineProcessor#NUMERIC_USER_ID
+ */
+public final class UserIdInterner
+{
+	/**
+	 * 是否开启user_id驻留，默认false。
+	 * <p>
+	 * 在线用户数很多、且user_id须保持为字符串（比如UUID、账号名）时建议开启。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static boolean ENABLED = false;
+
+	/**
+	 * 驻留表的大小（会被调整为2的幂），默认1048576（表本身约占4～8MB内存），一般设置为在线用户数的1～2倍即可。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static int CACHE_SIZE = 1 << 20;
+
+	/** 超过此长度的字符串不参与驻留（不太可能是user_id） */
+	private final static int MAX_LENGTH = 64;
+
+	private static volatile String[] table = null;
+
+	private UserIdInterner()
+	{
+	}
+
+	private static String[] table()
+	{
+		String[] t = table;
+		if(t == null)
+		{
+			synchronized (UserIdInterner.class)
+			{
+				if((t = table) == null)
+				{
+					int size = 1;
+					while(size < CACHE_SIZE && size < (1 << 30))
+						size <<= 1;
+					table = t = new String[size];
+				}
+			}
+		}
+		return t;
+	}
+
+	private static int slot(int hash, int mask)
+	{
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * 返回与s内容相同的驻留实例。
+	 *
+	 * @param s 原字符串，可为null
+	 * @return 未开启本功能时原样返回s
+	 */
+	public static String intern(String s)
+	{
+		if(!ENABLED || s == null || s.length() > MAX_LENGTH)
+			return s;
+
+		String[] t = table();
+		int i = slot(s.hashCode(), t.length - 1);
+		String cached = t[i];
+		if(cached != null && cached.equals(s))
+			return cached;
+		t[i] = s;
+		return s;
+	}
+
+	/**
+	 * 从ByteBuf中读出UTF-8编码的字符串（不改变readerIndex），并返回其驻留实例。
+	 * <p>
+	 * 全部为ASCII字符时（user_id的绝大多数情况），命中即直接返回已有实例，不会创建任何对象。
+	 *
+	 * @param buf 数据
+	 * @param index 起始位置
+	 * @param length 字节数
+	 * @return 未开启本功能时等同于buf.toString(index, length, UTF_8)
+	 */
+	public static String intern(ByteBuf buf, int index, int length)
+	{
+		if(!ENABLED || length > MAX_LENGTH)
+			return buf.toString(index, length, CharsetUtil.UTF_8);
+
+		// 与String.hashCode()相同的算法（对ASCII字符而言），以便与intern(String)共用同一张表
+		int hash = 0;
+		for(int n = 0; n < length; n++)
+		{
+			byte b = buf.getByte(index + n);
+			if(b < 0)
+				return intern(buf.toString(index, length, CharsetUtil.UTF_8));
+			hash = 31 * hash + b;
+		}
+
+		String[] t = table();
+		int i = slot(hash, t.length - 1);
+		String cached = t[i];
+		if(cached != null && cached.length() == length && equalsAscii(cached, buf, index))
+			return cached;
+		String s = buf.toString(index, length, CharsetUtil.US_ASCII);
+		t[i] = s;
+		return s;
+	}
+
+	private static boolean equalsAscii(String s, ByteBuf buf, int index)
+	{
+		for(int n = 0; n < s.length(); n++)
+		{
+			if(s.charAt(n) != buf.getByte(index + n))
+				return false;
+		}
+		return true;
+	}
+}
@@ -24,5 +24,25 @@ package net.x52im.mobileimsdk.server.protocal.c;
  */
 public class PKeepAlive
 {
+	/**
+	 * UDP会话迁移凭证（即登陆响应中服务端下发的 
+	 * {@link net.x52im.mobileimsdk.server.protocal.s.PLoginInfoResponse#getMigrationToken()}），
+	 * 没有时为null。
+	 * <p>
+	 * 客户端的地址变化后，服务端收到带有正确凭证的心跳包，才会把该客户端原有的会话迁移到新地址上。
+	 * 
+	 * @since 6.1
+	 * @see net.x52im.mobileimsdk.server.network.GatewayUDP#SESSION_MIGRATION
+	 */
+	protected String migrationToken = null;
 
+	public String getMigrationToken()
+	{
+		return migrationToken;
+	}
+
+	public void setMigrationToken(String migrationToken)
+	{
+		this.migrationToken = migrationToken;
+	}
 }
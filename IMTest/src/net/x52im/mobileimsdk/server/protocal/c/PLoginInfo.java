@@ -25,6 +25,17 @@ package net.x52im.mobileimsdk.server.protocal.c;
  */
 public class PLoginInfo
 {
+	/** 终端类型：未知（老版本客户端没有终端类型字段，即为此值） */
+	public final static int DEVICE_TYPE_UNKNOWN = 0;
+	/** 终端类型：手机 */
+	public final static int DEVICE_TYPE_MOBILE = 1;
+	/** 终端类型：平板 */
+	public final static int DEVICE_TYPE_PAD = 2;
+	/** 终端类型：PC桌面端 */
+	public final static int DEVICE_TYPE_PC = 3;
+	/** 终端类型：Web端 */
+	public final static int DEVICE_TYPE_WEB = 4;
+	
 	/** 登陆时提交到服务端的准一身份id，可能是登陆用户名、任意不重复的id等，具体意义由业务层决定。*/
 	protected String loginUserId = null;
 	
@@ -50,6 +61,29 @@ public class PLoginInfo
 	 */
 	protected long firstLoginTime = 0;
 	
+	/**
+	 * 客户端希望使用的报文格式（默认为0，即JSON格式）。
+	 * <p>
+	 * 客户端如支持紧凑2进制格式，可在登陆时设置本字段为 {@link net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec#FORMAT_BINARY_V1}，
+	 * 服务端同意后将在登陆响应 {@link net.x52im.mobileimsdk.server.protocal.s.PLoginInfoResponse#getProtocalFormat()}
+	 * 中返回该值，此后服务端发给该客户端的报文均采用2进制格式。老版本客户端没有本字段，将继续使用JSON格式。
+	 * 
+	 * @since 6.1
+	 */
+	protected int protocalFormat = 0;
+	
+	/**
+	 * 客户端的终端类型（默认为 {@link #DEVICE_TYPE_UNKNOWN}）。
+	 * <p>
+	 * 同一账号可在多个终端上同时在线，服务端按终端类型决定新登陆的终端要踢出哪些已在线的终端（详见
+	 * {@link net.x52im.mobileimsdk.server.processor.OnlineProcessor#setKickPolicy(int, int)}）。除本类中
+	 * 预定义的几种外，应用层也可自行定义其它取值（比如区分手表、车机等）。老版本客户端没有本字段，将按
+	 * v6.1以前的方式与该账号的其它所有终端互踢。
+	 * 
+	 * @since 6.1
+	 */
+	protected int deviceType = DEVICE_TYPE_UNKNOWN;
+	
 	/**
 	 * 构造方法。
 	 * 
@@ -153,6 +187,50 @@ public class PLoginInfo
 		this.firstLoginTime = firstLoginTime;
 	}
 	
+	/**
+	 * 返回客户端希望使用的报文格式。
+	 * 
+	 * @return 报文格式，0表示JSON格式
+	 * @since 6.1
+	 */
+	public int getProtocalFormat()
+	{
+		return protocalFormat;
+	}
+
+	/**
+	 * 设置客户端希望使用的报文格式。
+	 * 
+	 * @param protocalFormat 报文格式，0表示JSON格式
+	 * @since 6.1
+	 */
+	public void setProtocalFormat(int protocalFormat)
+	{
+		this.protocalFormat = protocalFormat;
+	}
+	
+	/**
+	 * 返回客户端的终端类型。
+	 * 
+	 * @return 终端类型，0表示未知
+	 * @since 6.1
+	 */
+	public int getDeviceType()
+	{
+		return deviceType;
+	}
+
+	/**
+	 * 设置客户端的终端类型。
+	 * 
+	 * @param deviceType 终端类型，0表示未知
+	 * @since 6.1
+	 */
+	public void setDeviceType(int deviceType)
+	{
+		this.deviceType = deviceType;
+	}
+	
 	public static boolean isFirstLogin(long firstLoginTime)
 	{
 		return firstLoginTime <= 0;
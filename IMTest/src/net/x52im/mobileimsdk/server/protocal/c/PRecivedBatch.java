@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal.c;
+
+import java.util.ArrayList;
+
+/**
+ * 批量ACK应答包的DTO类（即一次应答多条已收到的QoS消息）。
+ * <p>
+ * 客户端在短时间内收到大量消息时（比如群聊消息突发），可将这些消息的指纹码合并到一个
+ * {@link net.x52im.mobileimsdk.server.protocal.ProtocalType.C#FROM_CLIENT_TYPE_OF_RECIVED$BATCH}
+ * 包中一次性应答，而不必每条消息都回一个ACK应答包。
+ * 
+ * @since 6.1
+ */
+public class PRecivedBatch
+{
+	/** 已收到的各消息的指纹码 */
+	protected ArrayList<String> fps = null;
+	
+	public PRecivedBatch()
+	{
+	}
+	
+	public PRecivedBatch(ArrayList<String> fps)
+	{
+		this.fps = fps;
+	}
+
+	public ArrayList<String> getFps()
+	{
+		return fps;
+	}
+
+	public void setFps(ArrayList<String> fps)
+	{
+		this.fps = fps;
+	}
+}
@@ -42,10 +42,38 @@ public class PLoginInfoResponse
 	 */
 	protected long firstLoginTime = 0;
 	
+	/**
+	 * 服务端同意使用的报文格式（默认为0，即JSON格式）。
+	 * <p>
+	 * 客户端收到本响应后，应按此格式解析服务端后续发来的报文（服务端对客户端发来的报文
+	 * 则会按首字节自动识别格式）。
+	 * 
+	 * @since 6.1
+	 */
+	protected int protocalFormat = 0;
+	
+	/**
+	 * UDP会话迁移凭证（仅当服务端开启了UDP会话迁移时才会下发，否则为null）。
+	 * <p>
+	 * 客户端的地址（比如NAT映射）变化后，在其发往服务端的心跳包中带上此凭证（见
+	 * {@link net.x52im.mobileimsdk.server.protocal.c.PKeepAlive#getMigrationToken()}），服务端即可
+	 * 把它原有的会话迁移到新地址上，而无需重新登陆。此凭证请勿泄露给任何第三方。
+	 * 
+	 * @since 6.1
+	 * @see net.x52im.mobileimsdk.server.network.GatewayUDP#SESSION_MIGRATION
+	 */
+	protected String migrationToken = null;
+	
 	public PLoginInfoResponse(int code, long firstLoginTime)
+	{
+		this(code, firstLoginTime, 0);
+	}
+	
+	public PLoginInfoResponse(int code, long firstLoginTime, int protocalFormat)
 	{
 		this.code = code;
 		this.firstLoginTime = firstLoginTime;
+		this.protocalFormat = protocalFormat;
 	}
 
 	public int getCode()
@@ -66,4 +94,24 @@ public class PLoginInfoResponse
 	{
 		this.firstLoginTime = firstLoginTime;
 	}
+
+	public int getProtocalFormat()
+	{
+		return protocalFormat;
+	}
+
+	public void setProtocalFormat(int protocalFormat)
+	{
+		this.protocalFormat = protocalFormat;
+	}
+
+	public String getMigrationToken()
+	{
+		return migrationToken;
+	}
+
+	public void setMigrationToken(String migrationToken)
+	{
+		this.migrationToken = migrationToken;
+	}
 }
@@ -1,307 +1,444 @@
-/*
- * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
- * The MobileIMSDK v6.x Project. 
- * All rights reserved.
- * 
- * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
- * > 文档地址：  http://www.52im.net/forum-89-1.html
- * > 技术社区：  http://www.52im.net/
- * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
- * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
- * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
- *  
- * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
- * 
- * QoS4ReciveDaemonRoot.java at 2021-6-29 10:24:09, code by Jack Jiang.
- */
-package net.x52im.mobileimsdk.server.qos;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
-import net.x52im.mobileimsdk.server.protocal.Protocal;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-/**
- * 用于服务端的S2C模式下的QoS机制中提供对已收到包进行有限生命周期存储并提供
- * 重复性判断的守护线程。
- * <p>
- * <b>当前QoS机制支持全部的C2C、C2S、S2C共3种消息交互场景下的消息送达质量保证：</b>
- * <ul>
- * <li>1) Client to Server(C2S)：即由某客户端主动发起，消息最终接收者是服务端，此模式下：重发由C保证、ACK应答由S发回；</li>
- * <li>2) Server to Client(S2C)：即由服务端主动发起，消息最终接收者是某客户端，此模式下：重发由S保证、ACK应答由C发回；</li>
- * <li>2) Client to Client(C2C)：即由客户端主动发起，消息最终接收者是另一客户端。此模式对于QoS机制来说，相当于C2S+S2C两程路径。</li>
- * </ul>
- * <p>
- * <b>原理是：</b>当收到需QoS机制支持消息包时，会把它的唯一特征码（即指纹id）
- * 存放于本类的“已收到”消息队列中，寿命约为 {@link #MESSAGES_VALID_TIME}指明
- * 的时间，每当{@link #CHECH_INTERVAL}定时检查间隔到来时会对其存活期进行检查
- * ，超期将被移除，否则允许其继续存活。理论情况下，一个包的最大寿命不可能超过2
- * 倍的 {@link #CHECH_INTERVAL}时长。
- * <br>
- * <b><u>补充说明</u>：</b>“超期”即意味着对方要么已收到应答包（这是QoS机制正
- * 常情况下的表现）而无需再次重传、要么是已经达到QoS机制的重试极限而无可能再收
- * 到重复包（那么在本类列表中该表也就没有必要再记录了）。总之，“超期”是队列中
- * 这些消息包的正常生命周期的终止，无需过多解读。
- * <p>
- * <b>本类存在的意义在于：</b>极端情况下QoS机制中存在因网络丢包导致应答包的
- * 丢失而触发重传机制从而导致消息重复，而本类将维护一个有限时间段内收到的所有
- * 需要QoS支持的消息的指纹列表且提供“重复性”判断机制，从而保证应用层绝不会因为
- * QoS的重传机制而导致重复收到消息的情况。
- * <p>
- * 当前MobileIMSDK的QoS机制支持全部的C2C、C2S、S2C共3种消息交互场景下的
- * 消息送达质量保证.
- * <p>
- * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
- * 
- * @author Jack Jiang(http://www.52im.net/thread-2792-1-1.html)
- * @version 1.0
- * @since 2.1
- */
-public class QoS4ReciveDaemonRoot
-{
-	private static Logger logger = LoggerFactory.getLogger(QoS4ReciveDaemonRoot.class);  
-	
-	private boolean DEBUG = false;
-	
-	/** 检查线程执行间隔（单位：毫秒），默认5分钟 */
-	private int CHECH_INTERVAL = 5 * 60 * 1000; // 5分钟
-	
-	/** 一个消息放到在列表中（用于判定重复时使用）的生存时长（单位：毫秒），默认10分钟 */
-	private int MESSAGES_VALID_TIME = 10 * 60 * 1000; // 10分钟
-	
-	/** 
-	 * 时间间隔内接收到的需要QoS质量保证的消息指纹特征列表.
-	 * key=消息包指纹码，value=最近1次收到该包的时间戳（时间戳用于判定该包是否已失效时有
-	 * 用，收到重复包时用最近一次收到时间更新时间戳从而最大限度保证不重复） */
-	private ConcurrentMap<String, Long> recievedMessages = new ConcurrentHashMap<String, Long>();
-	
-	private Timer timer = null;
-	private Runnable runnable = null;
-	
-	private boolean _excuting = false;
-	
-	/** 仅用于子类继承后输出log时能以此tag为标识进行区分，方便调试，仅此而已 */
-	private String debugTag = "";
-	
-	public QoS4ReciveDaemonRoot(int CHECH_INTERVAL, int MESSAGES_VALID_TIME
-			, boolean DEBUG, String debugTag)
-	{
-		if(CHECH_INTERVAL > 0)
-			this.CHECH_INTERVAL = CHECH_INTERVAL;
-		if(MESSAGES_VALID_TIME > 0)
-			this.MESSAGES_VALID_TIME = MESSAGES_VALID_TIME;
-		this.DEBUG = DEBUG;
-		this.debugTag = debugTag;
-	}
-	
-	private void doTaskOnece()
-	{
-		// 极端情况下本次循环内可能执行时间超过了时间间隔，此处是防止在前一
-		// 次还没有运行完的情况下又重复过劲行，从而出现无法预知的错误
-		if(!_excuting)
-		{
-			_excuting = true;
-			
-			if(DEBUG)
-				logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】+++++ START 暂存处理线程正在运行中，当前长度"+recievedMessages.size()+".");
-			
-			//** 遍历HashMap方法一
-//			for(String key : recievedMessages.keySet())
-//			{
-//				long delta = System.currentTimeMillis() - recievedMessages.get(key);
-//				// 该消息包超过了生命时长，去掉之
-//				if(delta >= MESSAGES_VALID_TIME)
-//				{
-//					if(DEBUG)
-//						logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】指纹为"+key+"的包已生存"+delta
-//							+"ms(最大允许"+MESSAGES_VALID_TIME+"ms), 马上将删除之.");
-//					recievedMessages.remove(key);
-//				}
-//			}
-			
-			//** 遍历HashMap方法二（在大数据量情况下，方法二的性能要5倍优于方法一）
-			Iterator<Entry<String, Long>> entryIt = recievedMessages.entrySet().iterator();  
-		    while(entryIt.hasNext())
-		    {  
-		        Entry<String, Long> entry = entryIt.next();  
-		        String key = entry.getKey();  
-		        long value = entry.getValue();
-		        
-		        long delta = System.currentTimeMillis() - value;
-				// 该消息包超过了生命时长，去掉之
-				if(delta >= MESSAGES_VALID_TIME)
-				{
-					if(DEBUG)
-						logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】指纹为"+key+"的包已生存"+delta
-							+"ms(最大允许"+MESSAGES_VALID_TIME+"ms), 马上将删除之.");
-					recievedMessages.remove(key);
-				}
-		    }  
-		}
-
-		if(DEBUG)
-			logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】+++++ END 暂存处理线程正在运行中，当前长度"+recievedMessages.size()+".");
-	
-		//
-		_excuting = false;
-	}
-	
-	/**
-	 * 启动线程。
-	 * <p>
-	 * 无论本方法调用前线程是否已经在运行中，都会尝试首先调用 {@link #stop()}方法，
-	 * 以便确保线程被启动前是真正处于停止状态，这也意味着可无害调用本方法。
-	 * <p>
-	 * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
-	 */
-	public void startup()
-	{
-		// ** 先确保之前定时任务被停止
-		stop();
-		
-		// ** 如果列表不为空则尝试重置生成起始时间
-		// 当重启时列表可能是不为空的（此场景也许是出现暂停此类的定时器后又重新启动时），
-		// 那么为了防止在此情况下，客户端可能存在的重传，此时机下也能一定程度避免消息重复的可能
-		// ，因为客户端在网络不好时会暂停重传直到网络恢复又继续（不可此情况下服务端的防重复机制也
-		// 确实很难绝对的起作用，因为客户端恢复重传时可能已过去很久了，不过此种几率应该非常小）
-		if(recievedMessages != null && recievedMessages.size() > 0)
-		{
-			for(String key : recievedMessages.keySet())
-			{
-				// 重置列表中的生存起始时间
-				putImpl(key);
-			}
-		}
-		
-		// ** 启动定时任务
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() 
-		{
-			@Override
-			public void run()
-			{
-				doTaskOnece();
-			}
-		}
-		// 首次执行时的延迟
-		, CHECH_INTERVAL
-		// 之后每次执行时的固定间隔时间（使用scheduleAtFixedRate而不
-		// 是schedule目的是希望以真正的固定间隔、而非固定延迟）
-		, CHECH_INTERVAL);
-	}
-	
-	/**
-	 * 无条件中断本线程的运行。
-	 * <p>
-	 * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
-	 */
-	public void stop()
-	{
-		if(timer != null)
-		{
-			try{
-				timer.cancel();
-			}
-			finally{
-				timer = null;
-			}
-		}
-	}
-	
-	/**
-	 * 线程是否正在运行中。
-	 * 
-	 * @return true表示是，否则线路处于停止状态
-	 */
-	public boolean isRunning()
-	{
-		return timer != null;
-	}
-	
-	/**
-	 * 向列表中加入一个包的特征指纹。
-	 * <br>注意：本方法只会将指纹码推入，而不是将整个Protocal对象放入列表中。
-	 * <p>
-	 * <b>本方法的调用，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
-	 * 
-	 * @param p
-	 * @see #addRecieved(String)
-	 */
-	public void addRecieved(Protocal p)
-	{
-		if(p != null && p.isQoS())
-			addRecieved(p.getFp());
-	}
-	/**
-	 * 向列表中加入一个包的特征指纹。
-	 * <p>
-	 * <b>本方法的调用，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
-	 * 
-	 * @param fingerPrintOfProtocal 消息包的特纹特征码（理论上是唯一的）
-	 * @see #putImpl(String)
-	 */
-	public void addRecieved(String fingerPrintOfProtocal)
-	{
-		if(fingerPrintOfProtocal == null)
-		{
-			logger.debug("【IMCORE"+this.debugTag+"】无效的 fingerPrintOfProtocal==null!");
-			return;
-		}
-		
-		if(recievedMessages.containsKey(fingerPrintOfProtocal))
-			logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】指纹为"+fingerPrintOfProtocal
-					+"的消息已经存在于接收列表中，该消息重复了（原理可能是对方因未收到应答包而错误重传导致），更新收到时间戳哦.");
-		
-		// 无条件放入已收到列表（如果已存在则覆盖之，已在存则意味着消息重复被接收，那么就用最新的时间戳更新之）
-		putImpl(fingerPrintOfProtocal);
-	}
-	
-	private void putImpl(String fingerPrintOfProtocal)
-	{
-		if(fingerPrintOfProtocal != null)
-			recievedMessages.put(fingerPrintOfProtocal, System.currentTimeMillis());
-	}
-	
-	/**
-	 * 指定指纹码的Protocal是否已经收到过.
-	 * <p>
-	 * 此方法用于QoS机制中在防止因网络丢包导致对方未收到应答时而再次发送消息从而导致消息重复时的判断依赖.
-	 * 
-	 * @param fingerPrintOfProtocal 消息包的特纹特征码（理论上是唯一的）
-	 * @return
-	 */
-	public boolean hasRecieved(String fingerPrintOfProtocal)
-	{
-		return recievedMessages.containsKey(fingerPrintOfProtocal);
-	}
-	
-	/**
-	 * 当前“已收到消息”队列列表的大小.
-	 * 
-	 * @return
-	 * @see ArrayList#size()
-	 */
-	public int size()
-	{
-		return recievedMessages.size();
-	}
-	
-	public QoS4ReciveDaemonRoot setDebugable(boolean debugable)
-	{
-		this.DEBUG = debugable;
-		return this;
-	}
-	
-	public boolean isDebugable()
-	{
-		return this.DEBUG;
-	}
-}
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * QoS4ReciveDaemonRoot.java at 2021-6-29 10:24:09, code by Jack Jiang.
+ */
+package net.x52im.mobileimsdk.server.qos;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 用于服务端的S2C模式下的QoS机制中提供对已收到包进行有限生命周期存储并提供
+ * 重复性判断的守护线程。
+ * <p>
+ * <b>当前QoS机制支持全部的C2C、C2S、S2C共3种消息交互场景下的消息送达质量保证：</b>
+ * <ul>
+ * <li>1) Client to Server(C2S)：即由某客户端主动发起，消息最终接收者是服务端，此模式下：重发由C保证、ACK应答由S发回；</li>
+ * <li>2) Server to Client(S2C)：即由服务端主动发起，消息最终接收者是某客户端，此模式下：重发由S保证、ACK应答由C发回；</li>
+ * <li>2) Client to Client(C2C)：即由客户端主动发起，消息最终接收者是另一客户端。此模式对于QoS机制来说，相当于C2S+S2C两程路径。</li>
+ * </ul>
+ * <p>
+ * <b>原理是：</b>当收到需QoS机制支持消息包时，会把它的唯一特征码（即指纹id）
+ * 存放于本类的“已收到”消息队列中，寿命约为 {@link #MESSAGES_VALID_TIME}指明
+ * 的时间，超期将被移除。理论情况下，一个包的最大寿命不可能超过 {@link #MESSAGES_VALID_TIME}
+ * 与 {@link #CHECH_INTERVAL}之和。
+ * <p>
+ * <b>关于存储结构（v6.1起）：</b><br>
+ * v6.1以前所有指纹码存放在同一个Hash表中（value为收到时间戳），每隔 {@link #CHECH_INTERVAL}
+ * 要遍历全表逐个检查是否超期，繁忙时段表中有数百万条记录，每次遍历都会造成明显的停顿。现在指纹码
+ * 按收到时间分别存放在若干个“时间桶”中（每个桶覆盖 {@link #CHECH_INTERVAL}时长），每个间隔到来时
+ * 只需新建一个桶并整体丢弃最老的那个桶，超期清理的开销与记录数无关。{@link #hasRecieved(String)}
+ * 和 {@link #addRecieved(String)} 均不加锁。
+ * <p>
+ * 另外，还可通过 {@link #setProbabilistic(int, double)} 启用以布隆过滤器（Bloom filter）作为时间桶的
+ * 概率模式，内存占用将与指纹码的长度无关且有固定上限，代价是存在可配置的误判率（误判时一条新消息会被
+ * 当作重复消息而不通知业务层，请根据业务的容忍度谨慎启用）。
+ * <br>
+ * <b><u>补充说明</u>：</b>“超期”即意味着对方要么已收到应答包（这是QoS机制正
+ * 常情况下的表现）而无需再次重传、要么是已经达到QoS机制的重试极限而无可能再收
+ * 到重复包（那么在本类列表中该表也就没有必要再记录了）。总之，“超期”是队列中
+ * 这些消息包的正常生命周期的终止，无需过多解读。
+ * <p>
+ * <b>本类存在的意义在于：</b>极端情况下QoS机制中存在因网络丢包导致应答包的
+ * 丢失而触发重传机制从而导致消息重复，而本类将维护一个有限时间段内收到的所有
+ * 需要QoS支持的消息的指纹列表且提供“重复性”判断机制，从而保证应用层绝不会因为
+ * QoS的重传机制而导致重复收到消息的情况。
+ * <p>
+ * 当前MobileIMSDK的QoS机制支持全部的C2C、C2S、S2C共3种消息交互场景下的
+ * 消息送达质量保证.
+ * <p>
+ * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
+ * 
+ * @author Jack Jiang(http://www.52im.net/thread-2792-1-1.html)
+ * @version 1.0
+ * @since 2.1
+ */
+public class QoS4ReciveDaemonRoot
+{
+	private static Logger logger = LoggerFactory.getLogger(QoS4ReciveDaemonRoot.class);  
+	
+	private boolean DEBUG = false;
+	
+	/** 检查线程执行间隔（单位：毫秒），默认5分钟（v6.1起即每个时间桶覆盖的时长） */
+	private int CHECH_INTERVAL = 5 * 60 * 1000; // 5分钟
+	
+	/** 一个消息放到在列表中（用于判定重复时使用）的生存时长（单位：毫秒），默认10分钟 */
+	private int MESSAGES_VALID_TIME = 10 * 60 * 1000; // 10分钟
+	
+	/** 
+	 * 时间间隔内接收到的需要QoS质量保证的消息指纹特征列表（按收到时间分桶存放）.
+	 * <p>
+	 * 下标0为当前正在写入的桶，下标越大越老。轮转时整体替换为新的数组（写时复制），因而读写
+	 * 均无需加锁：轮转瞬间仍写入到老桶中的指纹码也只是提前一个间隔过期而已。
+	 * 收到重复包时会再放入当前桶，从而以最近一次收到的时间延续其生存期，最大限度保证不重复。
+	 */
+	private volatile FingerPrintBucket[] recievedMessages;
+	
+	/** 概率模式下每个时间桶预计容纳的指纹码数量，小于等于0表示不使用概率模式 */
+	private int probabilisticExpectedInsertions = 0;
+	
+	/** 概率模式下的误判率 */
+	private double probabilisticFpp = 0.0001;
+	
+	private Timer timer = null;
+	
+	/** 仅用于子类继承后输出log时能以此tag为标识进行区分，方便调试，仅此而已 */
+	private String debugTag = "";
+	
+	public QoS4ReciveDaemonRoot(int CHECH_INTERVAL, int MESSAGES_VALID_TIME
+			, boolean DEBUG, String debugTag)
+	{
+		if(CHECH_INTERVAL > 0)
+			this.CHECH_INTERVAL = CHECH_INTERVAL;
+		if(MESSAGES_VALID_TIME > 0)
+			this.MESSAGES_VALID_TIME = MESSAGES_VALID_TIME;
+		this.DEBUG = DEBUG;
+		this.debugTag = debugTag;
+		this.recievedMessages = newBuckets();
+	}
+	
+	/**
+	 * 时间桶的个数：保证一个指纹码在最后一次被放入后至少存活 {@link #MESSAGES_VALID_TIME}。
+	 */
+	private int getBucketCount()
+	{
+		return (MESSAGES_VALID_TIME + CHECH_INTERVAL - 1) / CHECH_INTERVAL + 1;
+	}
+	
+	private FingerPrintBucket newBucket()
+	{
+		if(probabilisticExpectedInsertions > 0)
+			return new BloomBucket(probabilisticExpectedInsertions, probabilisticFpp);
+		return new SetBucket();
+	}
+	
+	private FingerPrintBucket[] newBuckets()
+	{
+		FingerPrintBucket[] buckets = new FingerPrintBucket[getBucketCount()];
+		for(int i = 0; i < buckets.length; i++)
+			buckets[i] = newBucket();
+		return buckets;
+	}
+	
+	private void doTaskOnece()
+	{
+		FingerPrintBucket[] old = recievedMessages;
+		
+		// 新建一个桶作为当前桶，最老的桶整体丢弃
+		FingerPrintBucket[] buckets = new FingerPrintBucket[old.length];
+		buckets[0] = newBucket();
+		System.arraycopy(old, 0, buckets, 1, old.length - 1);
+		recievedMessages = buckets;
+		
+		if(DEBUG)
+			logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】+++++ 暂存处理线程已轮转时间桶，丢弃了"
+					+old[old.length - 1].size()+"条超期记录，当前长度"+size()+".");
+	}
+	
+	/**
+	 * 启动线程。
+	 * <p>
+	 * 无论本方法调用前线程是否已经在运行中，都会尝试首先调用 {@link #stop()}方法，
+	 * 以便确保线程被启动前是真正处于停止状态，这也意味着可无害调用本方法。
+	 * <p>
+	 * 重启时（比如暂停此类的定时器后又重新启动）列表中已有的记录将被保留，并从重启时起继续计算
+	 * 其生存期，以便一定程度上避免客户端在此期间的重传所导致的消息重复。
+	 * <p>
+	 * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
+	 */
+	public void startup()
+	{
+		// ** 先确保之前定时任务被停止
+		stop();
+		
+		// ** 启动定时任务
+		timer = new Timer();
+		timer.scheduleAtFixedRate(new TimerTask() 
+		{
+			@Override
+			public void run()
+			{
+				doTaskOnece();
+			}
+		}
+		// 首次执行时的延迟
+		, CHECH_INTERVAL
+		// 之后每次执行时的固定间隔时间（使用scheduleAtFixedRate而不
+		// 是schedule目的是希望以真正的固定间隔、而非固定延迟）
+		, CHECH_INTERVAL);
+	}
+	
+	/**
+	 * 无条件中断本线程的运行。
+	 * <p>
+	 * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
+	 */
+	public void stop()
+	{
+		if(timer != null)
+		{
+			try{
+				timer.cancel();
+			}
+			finally{
+				timer = null;
+			}
+		}
+	}
+	
+	/**
+	 * 线程是否正在运行中。
+	 * 
+	 * @return true表示是，否则线路处于停止状态
+	 */
+	public boolean isRunning()
+	{
+		return timer != null;
+	}
+	
+	/**
+	 * 向列表中加入一个包的特征指纹。
+	 * <br>注意：本方法只会将指纹码推入，而不是将整个Protocal对象放入列表中。
+	 * <p>
+	 * <b>本方法的调用，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
+	 * 
+	 * @param p
+	 * @see #addRecieved(String)
+	 */
+	public void addRecieved(Protocal p)
+	{
+		if(p != null && p.isQoS())
+			addRecieved(p.getFp());
+	}
+	/**
+	 * 向列表中加入一个包的特征指纹。
+	 * <p>
+	 * <b>本方法的调用，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
+	 * 
+	 * @param fingerPrintOfProtocal 消息包的特纹特征码（理论上是唯一的）
+	 */
+	public void addRecieved(String fingerPrintOfProtocal)
+	{
+		if(fingerPrintOfProtocal == null)
+		{
+			logger.debug("【IMCORE"+this.debugTag+"】无效的 fingerPrintOfProtocal==null!");
+			return;
+		}
+		
+		if(DEBUG && hasRecieved(fingerPrintOfProtocal))
+			logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】指纹为"+fingerPrintOfProtocal
+					+"的消息已经存在于接收列表中，该消息重复了（原理可能是对方因未收到应答包而错误重传导致），更新收到时间戳哦.");
+		
+		// 无条件放入当前桶（如果已存在于老的桶中，就意味着消息重复被接收，那么就以当前桶延续其生存期）
+		recievedMessages[0].add(fingerPrintOfProtocal);
+	}
+	
+	/**
+	 * 指定指纹码的Protocal是否已经收到过.
+	 * <p>
+	 * 此方法用于QoS机制中在防止因网络丢包导致对方未收到应答时而再次发送消息从而导致消息重复时的判断依赖.
+	 * 
+	 * @param fingerPrintOfProtocal 消息包的特纹特征码（理论上是唯一的）
+	 * @return
+	 */
+	public boolean hasRecieved(String fingerPrintOfProtocal)
+	{
+		if(fingerPrintOfProtocal == null)
+			return false;
+		
+		for(FingerPrintBucket bucket : recievedMessages)
+		{
+			if(bucket.contains(fingerPrintOfProtocal))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * 当前“已收到消息”队列列表的大小（各时间桶的记录数之和，概率模式下为放入次数之和）.
+	 * 
+	 * @return
+	 * @see ArrayList#size()
+	 */
+	public int size()
+	{
+		int size = 0;
+		for(FingerPrintBucket bucket : recievedMessages)
+			size += bucket.size();
+		return size;
+	}
+	
+	/**
+	 * 启用概率模式：以布隆过滤器作为时间桶，内存占用有固定上限且与指纹码的长度无关。
+	 * <p>
+	 * 每个时间桶的内存约为 <code>-expectedInsertions * ln(fpp) / (ln2)^2</code> 位，比如每桶100万条、
+	 * 误判率万分之一时约为2.3MB。桶内实际放入数超出预计值时误判率会随之升高；另外每次判断需查询全部
+	 * 时间桶，整体的误判率约为fpp的桶数倍（默认参数下为3个桶）。
+	 * <p>
+	 * <b>注意：</b>误判意味着一条新消息会被当作重复消息（仍会回复ACK，但不会通知业务层），
+	 * 请根据业务的容忍度谨慎启用。请在 {@link #startup()} 被调用前设置，已有的记录将被清空。
+	 * 
+	 * @param expectedInsertions 每个时间桶（即每 {@link #CHECH_INTERVAL}时长内）预计收到的QoS消息数，小于等于0表示关闭概率模式
+	 * @param fpp 允许的误判率（0~1之间，比如0.0001）
+	 * @since 6.1
+	 */
+	public QoS4ReciveDaemonRoot setProbabilistic(int expectedInsertions, double fpp)
+	{
+		if(expectedInsertions > 0 && (fpp <= 0 || fpp >= 1))
+			throw new IllegalArgumentException("fpp必须在0~1之间："+fpp);
+		
+		this.probabilisticExpectedInsertions = expectedInsertions;
+		this.probabilisticFpp = fpp;
+		this.recievedMessages = newBuckets();
+		return this;
+	}
+	
+	public boolean isProbabilistic()
+	{
+		return this.probabilisticExpectedInsertions > 0;
+	}
+	
+	public QoS4ReciveDaemonRoot setDebugable(boolean debugable)
+	{
+		this.DEBUG = debugable;
+		return this;
+	}
+	
+	public boolean isDebugable()
+	{
+		return this.DEBUG;
+	}
+	
+	/**
+	 * 一个时间桶（线程安全且不加锁）。
+	 */
+	private static abstract class FingerPrintBucket
+	{
+		abstract void add(String fp);
+		abstract boolean contains(String fp);
+		abstract int size();
+	}
+	
+	/**
+	 * 精确模式的时间桶：基于ConcurrentHashMap的Set。
+	 */
+	private final static class SetBucket extends FingerPrintBucket
+	{
+		private final Set<String> set = ConcurrentHashMap.newKeySet();
+		
+		@Override
+		void add(String fp)
+		{
+			set.add(fp);
+		}
+		
+		@Override
+		boolean contains(String fp)
+		{
+			return set.contains(fp);
+		}
+		
+		@Override
+		int size()
+		{
+			return set.size();
+		}
+	}
+	
+	/**
+	 * 概率模式的时间桶：基于CAS置位的布隆过滤器。
+	 */
+	private final static class BloomBucket extends FingerPrintBucket
+	{
+		private final AtomicLongArray bits;
+		private final long bitSize;
+		private final int hashCount;
+		private final AtomicInteger count = new AtomicInteger();
+		
+		BloomBucket(int expectedInsertions, double fpp)
+		{
+			long m = (long)Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+			int words = (int)Math.max(1, Math.min(Integer.MAX_VALUE - 8, (m + 63) >>> 6));
+			this.bits = new AtomicLongArray(words);
+			this.bitSize = (long)words << 6;
+			this.hashCount = Math.max(1, (int)Math.round((double)bitSize / expectedInsertions * Math.log(2)));
+		}
+		
+		@Override
+		void add(String fp)
+		{
+			long h = hash64(fp);
+			int h1 = (int)h, h2 = (int)(h >>> 32);
+			for(int i = 1; i <= hashCount; i++)
+			{
+				long index = ((h1 + (long)i * h2) & Long.MAX_VALUE) % bitSize;
+				int word = (int)(index >>> 6);
+				long mask = 1L << index;
+				long old;
+				while(((old = bits.get(word)) & mask) == 0)
+				{
+					if(bits.compareAndSet(word, old, old | mask))
+						break;
+				}
+			}
+			count.incrementAndGet();
+		}
+		
+		@Override
+		boolean contains(String fp)
+		{
+			long h = hash64(fp);
+			int h1 = (int)h, h2 = (int)(h >>> 32);
+			for(int i = 1; i <= hashCount; i++)
+			{
+				long index = ((h1 + (long)i * h2) & Long.MAX_VALUE) % bitSize;
+				if((bits.get((int)(index >>> 6)) & (1L << index)) == 0)
+					return false;
+			}
+			return true;
+		}
+		
+		@Override
+		int size()
+		{
+			return count.get();
+		}
+		
+		/** 64位的FNV-1a哈希（再经一次混淆以打散低位） */
+		private static long hash64(String s)
+		{
+			long h = 0xcbf29ce484222325L;
+			for(int i = 0; i < s.length(); i++)
+			{
+				h ^= s.charAt(i);
+				h *= 0x100000001b3L;
+			}
+			h ^= (h >>> 33);
+			h *= 0xff51afd7ed558ccdL;
+			h ^= (h >>> 33);
+			return h;
+		}
+	}
+}
@@ -16,21 +16,27 @@
  */
 package net.x52im.mobileimsdk.server.qos;
 
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.ServerLauncher;
 import net.x52im.mobileimsdk.server.event.MessageQoSEventListenerS2C;
+import net.x52im.mobileimsdk.server.network.Gateway;
 import net.x52im.mobileimsdk.server.network.MBObserver;
+import net.x52im.mobileimsdk.server.processor.OnlineProcessor;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
 import net.x52im.mobileimsdk.server.utils.LocalSendHelper;
 
 import org.slf4j.Logger;
@@ -69,6 +75,21 @@ import org.slf4j.LoggerFactory;
  * <p>
  * 当前MobileIMSDK的QoS机制支持全部的C2C、C2S、S2C共3种消息交互场景下的消息送达质量保证.
  * <p>
+ * <b>关于重传的调度（v6.1起）：</b><br>
+ * v6.1以前本类每隔 {@link #CHECH_INTERVAL} 毫秒就要遍历一次全部的待确认消息，待确认消息达数十万条时
+ * 每次遍历的CPU开销很大，且重传时机受遍历间隔影响抖动明显。现在每条消息在 {@link #put(Protocal)}
+ * 时即在哈希时间轮（{@link HashedWheelTimer}）上登记自已的超时时刻，时间轮的每个tick只处理真正到期的
+ * 消息，收到ACK应答时的 {@link #remove(String)} 则只需从哈希表中移除并取消其超时任务，均为O(1)操作。
+ * <p>
+ * 队列中的每条消息只对应一个 {@link InFlightEntry} 对象，其中直接存放已编码好的报文数据、发送时间戳、
+ * 重传次数和接收方id，不再持有Protocal对象及其各字段，重传时也无需再次编码。
+ * <p>
+ * <b>关于重传的超时时长（v6.1起）：</b><br>
+ * 默认情况下，每条消息的超时时长不再使用全局固定的 {@link #CHECH_INTERVAL}，而是取接收方连接的
+ * {@link RttEstimator}估算出的RTO（由 {@link #ack(String, Channel)} 以实测的“发出-应答”时长不断修正），
+ * 每重传一次超时时长翻倍（指数退避）并附加随机抖动。这样网络好的连接能更快地重传或判定丢包，网络差的
+ * 连接则不会因超时时长过短而产生大量无谓的重传。如需恢复固定间隔的方式，请调用 {@link #setRtoAdaptive(boolean)}。
+ * <p>
  * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
  * 
  * @author Jack Jiang(http://www.52im.net/thread-2792-1-1.html)
@@ -80,6 +101,12 @@ public class QoS4SendDaemonRoot
 {
 	private static Logger logger = LoggerFactory.getLogger(QoS4SendDaemonRoot.class);  
 	
+	/** 时间轮每个tick的时长（单位：毫秒），即重传时刻的调度精度 */
+	private final static long WHEEL_TICK_DURATION = 100;
+	
+	/** 时间轮的槽数（一圈为 512 * 100ms = 51.2秒，超时时长小于一圈的任务无需跨圈计数） */
+	private final static int WHEEL_TICKS_PER_WHEEL = 512;
+	
 	private boolean DEBUG = false;
 	
 	/**
@@ -96,25 +123,19 @@ public class QoS4SendDaemonRoot
 	private ServerLauncher serverLauncher = null;
 	
 	/**
-	 * 已发送的需QoS支持的消息列表，同步Hash实现（因为本类中可能存在不同的线程同时remove或遍历之）.
-	 * 
-	 * 说明：从MobileIMSDK开始，本集合由 ConcurrentHashMap 改为 ConcurrentSkipListMap，目的是确保高并发时线程安全的情况下实现有序。
+	 * 已发送的需QoS支持的消息列表（key为消息指纹码，value为该消息的待确认条目）.
+	 * <p>
+	 * 说明：v6.1起由 ConcurrentSkipListMap 改回 ConcurrentHashMap，重传时机已由时间轮保证，
+	 * 不再依赖遍历顺序，收到ACK应答时的移除也由O(log n)降为O(1)。v6.1以前用于判断“刚刚”发出的
+	 * 时间戳Hash表也已合并到条目中。
 	 */
-//	private ConcurrentMap<String, Protocal> sentMessages = new ConcurrentHashMap<String, Protocal>();
-	private ConcurrentSkipListMap<String, Protocal> sentMessages = new ConcurrentSkipListMap<String, Protocal>();
+	private ConcurrentHashMap<String, InFlightEntry> sentMessages = new ConcurrentHashMap<String, InFlightEntry>();
 	
-	// 同步Hash，因为本类中可能存在不同的线程同时remove或遍历之
 	/** 
-	 * 本Hash表目前仅用于QoS重传判断是否是“刚刚”发出的消息之用，别无它用。
-	 * 
-	 * @author Jack Jiang, 2015-11-04 16:47
-	 * @see MESSAGES_JUST$NOW_TIME
-	 * @since 2.1.1
-	 */
-	private ConcurrentMap<String, Long> sendMessagesTimestamp = new ConcurrentHashMap<String, Long>();
-
-	/** 
-	 * QoS质量保证线程心跳间隔（单位：毫秒），默认5000ms.
+	 * QoS质量保证的重传检查间隔（单位：毫秒），默认5000ms.
+	 * <p>
+	 * v6.1起本值表示每条消息从发出（或上次重传）到下一次检查（重传或判定丢包）之间的时长，
+	 * 且仅在关闭了自适应RTO（见 {@link #setRtoAdaptive(boolean)}）时使用。
 	 * <p>
 	 * 间隔越短则为用户重发越即时，但将使得重复发送的可能性增大（因为可能在应答
 	 * 包尚在途中时就判定丢包了的错误情况），当然，即使真存在重复发送的可能也是无害的
@@ -131,15 +152,9 @@ public class QoS4SendDaemonRoot
 	 * 在接收方的应答包还未被发出方收到时（已经发出但因为存在数十毫秒的网络延迟，应答包正在路上）
 	 * ，恰好遇到本次QoS质量保证心跳间隔的到来，因为之前的QoS队列罗辑是只要存在本队列中还未被去掉
 	 * 的包，就意味着是要重传的——那么此逻辑在我们本次讨论的情况下就存在漏洞而导致没有必要的重传了。
-	 * 如果有本阀值存在，则即使刚刚发出的消息刚放到QoS队列就遇到QoS心跳到来，则只要当前放入队列的时间
-	 * 小于或等于本值，就可以被认为是刚刚放入，那么也就避免被误重传了。
 	 * <p>
-	 * 基于以上考虑，本值的定义，只要设定这大于一条消息的发出起到收到它应答包为止这样一个时间间隔即可
-	 * （其实就相于一个客户端到服务端的网络延迟时间4倍多一点点即可）。
-	 * 此处定为2秒其实是为了保守望起见哦。
-	 * <p>
-	 * 本参数将决定重传的即时性问题，即MobileIMSDK的QoS首次重传的
-	 * 响应时间为大于 {@link #MESSAGES_JUST$NOW_TIME} 而 小于等于 {@link #CHECH_INTERVAL}。
+	 * v6.1起每条消息都有自已独立的超时时刻，上述问题已不复存在，本值仅作为重传检查间隔的下限使用，
+	 * 即每条消息至少要在发出本值毫秒后才会被重传。
 	 * 
 	 * @author Jack Jiang, 2015-11-04 16:47
 	 * @since 2.1.1
@@ -155,9 +170,28 @@ public class QoS4SendDaemonRoot
 	 */
 	private int QOS_TRY_COUNT = 1;
 	
-	private boolean _excuting = false;
+	/** 
+	 * 是否按各连接的RTT估算结果自适应地决定重传超时时长，默认true。
+	 * 
+	 * @see RttEstimator
+	 * @since 6.1
+	 */
+	private boolean RTO_ADAPTIVE = true;
+	
+	/** 重传调度用的哈希时间轮 */
+	private volatile HashedWheelTimer timer = null;
+	
+	/** 
+	 * 本tick内被判定为丢包、尚未通知出去的消息（由 {@link #lostMessagesLock} 保护）。
+	 * 同一tick内到期的丢包将合并为一次 {@link #notifyMessageLost(ArrayList)} 回调。
+	 */
+	private ArrayList<Protocal> pendingLostMessages = new ArrayList<Protocal>();
 	
-	private Timer timer = null;
+	/** 是否已登记了尚未执行的丢包通知任务（由 {@link #lostMessagesLock} 保护） */
+	private boolean lostFlushScheduled = false;
+	
+	/** {@link #pendingLostMessages}、{@link #lostFlushScheduled} 的锁 */
+	private final Object lostMessagesLock = new Object();
 	
 	/** 仅用于子类继承后输出log时能以此tag为标识进行区分，方便调试，仅此而已 */
 	private String debugTag = "";
@@ -177,128 +211,149 @@ public class QoS4SendDaemonRoot
 		this.debugTag = debugTag;
 	}
 	
-	private void doTaskOnece()
+	/**
+	 * 处理一条到期的消息：达到重传上限的判定为丢包，否则进行重传并登记下一次的超时时刻。
+	 * <p>
+	 * 本方法在时间轮的工作线程中被调用。
+	 * 
+	 * @param entry 到期的待确认条目
+	 */
+	private void onTimeout(final InFlightEntry entry)
 	{
-		// 极端情况下本次循环内可能执行时间超过了时间间隔，此处是防止在前一
-		// 次还没有运行完的情况下又重复执行，从而出现无法预知的错误
-		if(!_excuting)
+		final String key = entry.fp;
+		
+		// 期间已被移除（收到了ACK应答）或已被同一指纹码的新消息替换，什么也不用做
+		if(sentMessages.get(key) != entry)
+			return;
+		
+		try
 		{
-			// 丢包列表
-			ArrayList<Protocal> lostMessages = new ArrayList<Protocal>();
-			_excuting = true;
-			try
+			// 达到或超过了最大重试次数（判定丢包）
+			if(entry.retryCount >= QOS_TRY_COUNT)
 			{
-				if(DEBUG && sentMessages.size() > 0)
-					logger.debug("【IMCORE"+this.debugTag+"】【QoS发送方】====== 消息发送质量保证线程运行中, 当前需要处理的列表长度为"+sentMessages.size()+"...");
+				if(DEBUG)
+					logger.debug("【IMCORE"+this.debugTag+"】【QoS发送方】指纹为"+key
+							+"的消息包重传次数已达"+entry.retryCount+"(最多"+QOS_TRY_COUNT+"次)上限，将判定为丢包！");
 
-				// 开始处理中 ************************************************
-				//** 遍历HashMap方法一
-//				for(String key : sentMessages.keySet())
-//				{
-//					final Protocal p = sentMessages.get(key);
-				//** 遍历HashMap方法二（在大数据量情况下，方法二的性能要5倍优于方法一）
-				Iterator<Entry<String, Protocal>> entryIt = sentMessages.entrySet().iterator();  
-			    while(entryIt.hasNext())
-			    {  
-			        Entry<String, Protocal> entry = entryIt.next();  
-			        String key = entry.getKey();  
-			        final Protocal p = entry.getValue();
-			        
-					if(p != null && p.isQoS())
+				// 将这个包加入到丢包列表（由缓存的报文数据还原出的全新Protocal对象）
+				addLostMessage(entry.toProtocal());
+
+				// 从列表中称除之
+				if(sentMessages.remove(key, entry) && DEBUG)
+					logger.warn("【IMCORE"+this.debugTag+"】【QoS发送方】指纹为"+key+"的消息已达重传上限，已从发送质量保证队列中移除.");
+			}
+			// 没有达到重传上限则开始进行重传
+			else
+			{
+				// Netty的数据发送结果观察者：netty的数据发送结果是通过异步通知来实现的（这就
+				// 是异步编程模型，跟Nodejs的promise、Androi里的RxJava、iOS的block道理一样）
+				MBObserver sendResultObserver = new MBObserver(){
+					@Override
+					public void update(boolean sendOK, Object extraObj)
 					{
-						// 达到或超过了最大重试次数（判定丢包）
-						if(p.getRetryCount() >= QOS_TRY_COUNT)
+						// 已成功重传
+						if(sendOK)
 						{
 							if(DEBUG)
-								logger.debug("【IMCORE"+this.debugTag+"】【QoS发送方】指纹为"+p.getFp()
-										+"的消息包重传次数已达"+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次)上限，将判定为丢包！");
-
-							// 将这个包加入到丢包列表（该Protocal对象将是一个clone的全新对象而非原来的引用哦！）
-							lostMessages.add((Protocal)p.clone());
-
-							// 从列表中称除之
-							remove(p.getFp());
+							{
+								logger.debug("【IMCORE"+debugTag+"】【QoS发送方】指纹为"+key
+										+"的消息包已成功进行重传，此次之后重传次数已达"
+										+entry.retryCount+"(最多"+QOS_TRY_COUNT+"次).");
+							}
 						}
-						// 没有达到重传上限则开始进行重传
 						else
 						{
-							//### 2015104 Bug Fix: 解决了无线网络延较大时，刚刚发出的消息在其应答包还在途中时被错误地进行重传
-							Long sendMessageTimestamp = sendMessagesTimestamp.get(key);
-							long delta = System.currentTimeMillis() - (sendMessageTimestamp == null?0 : sendMessageTimestamp);
-							// 该消息包是“刚刚”发出的，本次不需要重传它哦
-							if(delta <= MESSAGES_JUST$NOW_TIME)
-							{
-								if(DEBUG)
-									logger.warn("【IMCORE"+this.debugTag+"】【QoS发送方】指纹为"+key+"的包距\"刚刚\"发出才"+delta
-										+"ms(<="+MESSAGES_JUST$NOW_TIME+"ms将被认定是\"刚刚\"), 本次不需要重传哦.");
-							}
-							//### 2015103 Bug Fix END
-							else
+							if(DEBUG)
 							{
-								// Netty的数据发送结果观察者：netty的数据发送结果是通过异步通知来实现的（这就
-								// 是异步编程模型，跟Nodejs的promise、Androi里的RxJava、iOS的block道理一样）
-								MBObserver sendResultObserver = new MBObserver(){
-									@Override
-									public void update(boolean sendOK, Object extraObj)
-									{
-										// 已成功重传
-										if(sendOK)
-										{
-											if(DEBUG)
-											{
-												logger.debug("【IMCORE"+debugTag+"】【QoS发送方】指纹为"+p.getFp()
-														+"的消息包已成功进行重传，此次之后重传次数已达"
-														+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次).");
-											}
-										}
-										else
-										{
-											if(DEBUG)
-											{
-												logger.warn("【IMCORE"+debugTag+"】【QoS发送方】指纹为"+p.getFp()
-														+"的消息包重传失败，它的重传次数之前已累计为"
-														+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次).");
-											}
-										}
-									}
-								};
-								
-								// 发送数据
-								LocalSendHelper.sendData(p, sendResultObserver);
-
-								//** 【服务端的QoS重传机制与客户端的实现在算法上存在差异】
-								//** 服务端为了性能和负载压力能尽快得到释放，只负责尝试重传，无论成功与否，
-								//** 重传次数都会+1，这也就意味着，极端情况下可能重传一次都没有成功发出过，
-								//** 但这并不影响QoS机制的设计初衷：虽没有实时发出，但将会因重传最大次数
-								//** 的到来而抛给离线机制作离线处理，同样也达到了质量保证的目的（并没有丢
-								//** 失消息的发送，只是做为离线处理了呢）。尽快完成重传将避免可能存在的因
-								//** 重传消息积压而发生雪崩效应的风险，这是服务端编程必须要考虑到的。
-								// 重传次数+1
-								p.increaseRetryCount();
+								logger.warn("【IMCORE"+debugTag+"】【QoS发送方】指纹为"+key
+										+"的消息包重传失败，它的重传次数之前已累计为"
+										+entry.retryCount+"(最多"+QOS_TRY_COUNT+"次).");
 							}
 						}
 					}
-					// value值为null，从列表中去掉吧
-					else
+				};
+				
+				//** 【服务端的QoS重传机制与客户端的实现在算法上存在差异】
+				//** 服务端为了性能和负载压力能尽快得到释放，只负责尝试重传，无论成功与否，
+				//** 重传次数都会+1，这也就意味着，极端情况下可能重传一次都没有成功发出过，
+				//** 但这并不影响QoS机制的设计初衷：虽没有实时发出，但将会因重传最大次数
+				//** 的到来而抛给离线机制作离线处理，同样也达到了质量保证的目的（并没有丢
+				//** 失消息的发送，只是做为离线处理了呢）。尽快完成重传将避免可能存在的因
+				//** 重传消息积压而发生雪崩效应的风险，这是服务端编程必须要考虑到的。
+				// 重传次数+1
+				entry.retryCount++;
+				entry.sentTime = System.currentTimeMillis();
+				
+				// 登记下一次的超时时刻（到时要么再次重传、要么判定丢包）
+				Channel session = OnlineProcessor.getInstance().getOnlineSession(entry.to);
+				schedule(entry, getCheckDelay(session, entry.retryCount));
+				
+				// 发送数据（直接发送缓存的已编码数据）
+				LocalSendHelper.sendData(session, entry.payload, entry.protocalFormat, sendResultObserver);
+			}
+		}
+		catch (Exception eee)
+		{
+			if(DEBUG)
+				logger.warn("【IMCORE"+this.debugTag+"】【QoS发送方】指纹为"+key+"的消息重传处理时发生异常,"+eee.getMessage(), eee);
+		}
+	}
+	
+	/**
+	 * 将丢包消息暂存起来，并在下一个tick统一通知（同一tick内到期的丢包消息将合并为一次回调）。
+	 * <p>
+	 * 本方法在时间轮的工作线程中被调用。
+	 */
+	private void addLostMessage(Protocal lost)
+	{
+		synchronized (lostMessagesLock)
+		{
+			pendingLostMessages.add(lost);
+			// 已登记了通知任务（它执行时将一并通知本条消息）
+			if(lostFlushScheduled)
+				return;
+			lostFlushScheduled = true;
+		}
+		
+		// 本tick内的第一条丢包消息：登记一个立即到期的任务，它将在本tick的所有到期任务处理完后执行
+		HashedWheelTimer t = timer;
+		if(t != null)
+		{
+			try
+			{
+				t.newTimeout(new TimerTask(){
+					@Override
+					public void run(Timeout timeout)
 					{
-//						sentMessages.remove(key);
-						remove(key);
+						flushLostMessages();
 					}
-				}
+				}, 0, TimeUnit.MILLISECONDS);
+				return;
 			}
-			catch (Exception eee)
+			catch (IllegalStateException e)
 			{
-				if(DEBUG)
-					logger.warn("【IMCORE"+this.debugTag+"】【QoS发送方】消息发送质量保证线程运行时发生异常,"+eee.getMessage(), eee);
+				// 时间轮已停止，直接通知
 			}
-
-			if(lostMessages != null && lostMessages.size() > 0)
-				// 通知观察者这些包丢包了（目标接收者没有收到）
-				notifyMessageLost(lostMessages);
-
-			//
-			_excuting = false;
 		}
+		flushLostMessages();
+	}
+	
+	/**
+	 * 通知暂存的全部丢包消息（通知任务被执行、或时间轮被停止时调用）。
+	 */
+	private void flushLostMessages()
+	{
+		ArrayList<Protocal> lostMessages;
+		synchronized (lostMessagesLock)
+		{
+			lostFlushScheduled = false;
+			if(pendingLostMessages.isEmpty())
+				return;
+			lostMessages = pendingLostMessages;
+			pendingLostMessages = new ArrayList<Protocal>();
+		}
+		// 通知观察者这些包丢包了（目标接收者没有收到）
+		notifyMessageLost(lostMessages);
 	}
 	
 	/**
@@ -313,6 +368,45 @@ public class QoS4SendDaemonRoot
 			serverLauncher.getServerMessageQoSEventListener().messagesLost(lostMessages);
 	}
 	
+	/**
+	 * 每条消息从发出（或上次重传）到下一次检查之间的时长（单位：毫秒）。
+	 * 
+	 * @param session 接收方的会话（为null时按尚无RTT样本处理）
+	 * @param retryCount 该消息已重传的次数
+	 */
+	private long getCheckDelay(Channel session, int retryCount)
+	{
+		if(!RTO_ADAPTIVE)
+			return Math.max(CHECH_INTERVAL, MESSAGES_JUST$NOW_TIME);
+		
+		long rto = (session != null ? Gateway.getRttEstimator(session).getRto() : RttEstimator.INITIAL_RTO);
+		return RttEstimator.backoff(rto, retryCount);
+	}
+	
+	private long getCheckDelay(InFlightEntry entry)
+	{
+		return getCheckDelay(RTO_ADAPTIVE ? OnlineProcessor.getInstance().getOnlineSession(entry.to) : null, entry.retryCount);
+	}
+	
+	/**
+	 * 在时间轮上登记重传任务的超时时刻（时间轮未启动时不登记，待 {@link #startup(boolean)} 时统一登记）。
+	 */
+	private void schedule(InFlightEntry entry, long delay)
+	{
+		HashedWheelTimer t = timer;
+		if(t != null)
+		{
+			try
+			{
+				entry.timeout = t.newTimeout(entry, delay, TimeUnit.MILLISECONDS);
+			}
+			catch (IllegalStateException e)
+			{
+				// 时间轮已被停止（stop()与本方法并发），待下次startup()时统一登记
+			}
+		}
+	}
+	
 	/**
 	 * 启动线程。
 	 * <p>
@@ -321,32 +415,24 @@ public class QoS4SendDaemonRoot
 	 * <p>
 	 * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
 	 * 
-	 * @param immediately true表示立即执行线程作业，否则直到 {@link #CHECH_INTERVAL}
-	 * 执行间隔的到来才进行首次作业的执行
+	 * @param immediately true表示对启动前已在队列中的消息立即执行一次检查，否则直到
+	 * {@link #CHECH_INTERVAL} 间隔的到来才进行首次检查
 	 */
 	public QoS4SendDaemonRoot startup(boolean immediately)
 	{
 		// ** 先确保之前定时任务被停止
 		stop();
 		
-		// ** 启动定时任务
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() 
-		{
-			@Override
-			public void run()
-			{
-				doTaskOnece();
-			}
-		}
-		// 首次执行时的延迟
-		, immediately ? 0 : CHECH_INTERVAL
-		// 之后每次执行时的固定间隔时间（使用scheduleAtFixedRate而不
-		// 是schedule目的是希望以真正的固定间隔、而非固定延迟）
-		, CHECH_INTERVAL);
+		// ** 启动时间轮
+		HashedWheelTimer t = new HashedWheelTimer(new DefaultThreadFactory("qos-send-daemon")
+				, WHEEL_TICK_DURATION, TimeUnit.MILLISECONDS, WHEEL_TICKS_PER_WHEEL);
+		t.start();
+		timer = t;
+		
+		// ** 为启动前（或上次停止后）遗留在队列中的消息登记超时时刻
+		for(InFlightEntry entry : sentMessages.values())
+			schedule(entry, immediately ? 0 : getCheckDelay(entry));
 		
-		//
-//		running = true;
 		logger.debug("【IMCORE"+this.debugTag+"】【QoS发送方】====== 消息发送质量保证线程已成功启动");
 		
 		return this;
@@ -355,19 +441,24 @@ public class QoS4SendDaemonRoot
 	/**
 	 * 无条件中断本线程的运行。
 	 * <p>
+	 * 已在队列中的消息将被保留，并在下次 {@link #startup(boolean)} 时重新登记超时时刻；已被判定为丢包、
+	 * 但尚未通知出去的消息（其通知任务将随时间轮一起被丢弃）则在此立即通知。
+	 * <p>
 	 * <b>本线程的启停，目前属于MobileIMSDK算法的一部分，暂时无需也不建议由应用层自行调用。</b>
 	 */
 	public void stop()
 	{
-		if(timer != null)
+		HashedWheelTimer t = timer;
+		if(t != null)
 		{
 			try{
-				timer.cancel();
+				t.stop();
 			}
 			finally{
 				timer = null;
 			}
 		}
+		flushLostMessages();
 	}
 	
 	/**
@@ -392,12 +483,40 @@ public class QoS4SendDaemonRoot
 	}
 	
 	/**
-	 * 推入一个消息包的指纹特征码.
-	 * <br>注意：本方法只会将指纹码推入，而不是将整个Protocal对象放入列表中。
+	 * 推入一个消息包（按JSON格式缓存其报文数据），并在时间轮上登记它的超时时刻.
 	 * 
 	 * @param p
+	 * @see #put(Protocal, int)
 	 */
 	public void put(Protocal p)
+	{
+		put(p, ProtocalBinaryCodec.FORMAT_JSON);
+	}
+	
+	/**
+	 * 推入一个消息包，并在时间轮上登记它的超时时刻.
+	 * <br>注意：队列中只缓存该消息按接收方的报文格式编码好的数据，而不是整个Protocal对象。
+	 * 
+	 * @param p
+	 * @param protocalFormat 接收方连接当前协商的报文格式（重传时将直接发送按此格式编码好的数据）
+	 * @since 6.1
+	 */
+	public void put(Protocal p, int protocalFormat)
+	{
+		put(p, null, protocalFormat);
+	}
+	
+	/**
+	 * 推入一个已按接收方的报文格式编码好的消息包，并在时间轮上登记它的超时时刻.
+	 * <br>队列中将直接缓存传入的报文数据（即发送时写出的那一份），不再重复编码；调用方此后不能再修改该数组。
+	 * 
+	 * @param p
+	 * @param encoded 该消息按protocalFormat编码好的报文数据，为null时将由本方法编码
+	 * @param protocalFormat 报文数据的编码格式
+	 * @since 6.1
+	 * @see LocalSendHelper#sendData(Channel, Protocal, MBObserver)
+	 */
+	public void put(Protocal p, byte[] encoded, int protocalFormat)
 	{
 		if(p == null)
 		{
@@ -419,21 +538,24 @@ public class QoS4SendDaemonRoot
 			return;
 		}
 		
-		// 如果列表中已经存则仅提示（用于debug）
-		if(sentMessages.get(p.getFp()) != null)
+		// save it
+		InFlightEntry entry = new InFlightEntry(p.getFp(), p.getTo()
+				, encoded != null ? encoded : ProtocalFactory.toBytes(p, protocalFormat), (byte)protocalFormat, p.getRetryCount());
+		InFlightEntry old = sentMessages.put(p.getFp(), entry);
+		// 如果列表中已经存则仅提示（用于debug），并取消旧的超时任务
+		if(old != null)
 		{
+			old.cancel();
 			if(DEBUG)
 				logger.warn("【IMCORE"+this.debugTag+"】【QoS发送方】指纹为"+p.getFp()+"的消息已经放入了发送质量保证队列，该消息为何会重复？（生成的指纹码重复？还是重复put？）");
 		}
 		
-		// save it
-		sentMessages.put(p.getFp(), p);
-		// 同时保存时间戳
-		sendMessagesTimestamp.put(p.getFp(), System.currentTimeMillis());
+		// 登记超时时刻
+		schedule(entry, getCheckDelay(entry));
 	}
 	
 	/**
-	 * 移除一个消息包.
+	 * 移除一个消息包（并取消它在时间轮上的超时任务）.
 	 * 
 	 * @param fingerPrint 消息包的特纹特征码（理论上是唯一的）
 	 * @return
@@ -445,11 +567,10 @@ public class QoS4SendDaemonRoot
 		try
 		{
 			// remove it
-			sendMessagesTimestamp.remove(fingerPrint);
-			Object result = sentMessages.remove(fingerPrint);
+			InFlightEntry result = removeImpl(fingerPrint);
 			if(DEBUG)
 				logger.warn("【IMCORE"+this.debugTag+"】【QoS发送方】指纹为"+fingerPrint+"的消息已成功从发送质量保证队列中移除(可能是收到接收方的应答也可能是达到了重传的次数上限)，重试次数="
-						+(result != null?((Protocal)result).getRetryCount():"none呵呵."));
+						+(result != null?result.retryCount:"none呵呵."));
 		}
 		catch (Exception e)
 		{
@@ -459,6 +580,85 @@ public class QoS4SendDaemonRoot
 		//### 20151129 Bug Fix END 
 	}
 	
+	/**
+	 * 收到了接收方的ACK应答：移除该消息包，并以它从发出到收到应答的时长更新接收方会话的RTT估算.
+	 * <p>
+	 * 按Karn算法，经过重传的消息无法确定应答对应的是哪一次发送，因而不作为RTT样本。
+	 * 
+	 * @param fingerPrint 消息包的特纹特征码（理论上是唯一的）
+	 * @param session 发回应答包的会话（为null时不更新RTT估算）
+	 * @since 6.1
+	 */
+	public void ack(final String fingerPrint, Channel session)
+	{
+		InFlightEntry result = sentMessages.get(fingerPrint);
+		remove(fingerPrint);
+		
+		if(result != null && result.retryCount == 0)
+			updateRtt(session, System.currentTimeMillis() - result.sentTime);
+	}
+	
+	/**
+	 * 收到了接收方的批量ACK应答：一次性移除这些消息包，并更新接收方会话的RTT估算.
+	 * <p>
+	 * 一批应答只取其中未经重传的消息里最大的“发出-应答”时长作为一个RTT样本（批量应答本身存在攒批的延迟，
+	 * 取最大值可使RTO涵盖这部分延迟，从而避免不必要的重传）。
+	 * 
+	 * @param fingerPrints 各消息包的特纹特征码
+	 * @param session 发回应答包的会话（为null时不更新RTT估算）
+	 * @since 6.1
+	 */
+	public void ack(ArrayList<String> fingerPrints, Channel session)
+	{
+		long now = System.currentTimeMillis();
+		long maxRtt = -1;
+		int removed = 0;
+		for(String fingerPrint : fingerPrints)
+		{
+			InFlightEntry result = removeImpl(fingerPrint);
+			if(result != null)
+			{
+				removed++;
+				if(result.retryCount == 0)
+					maxRtt = Math.max(maxRtt, now - result.sentTime);
+			}
+		}
+		
+		if(DEBUG)
+			logger.debug("【IMCORE"+this.debugTag+"】【QoS发送方】批量应答的"+fingerPrints.size()+"条消息中，有"
+					+removed+"条已从发送质量保证队列中移除.");
+		
+		if(maxRtt >= 0)
+			updateRtt(session, maxRtt);
+	}
+	
+	private void updateRtt(Channel session, long rtt)
+	{
+		if(session != null)
+		{
+			RttEstimator estimator = Gateway.getRttEstimator(session);
+			estimator.update(rtt);
+			if(DEBUG)
+				logger.debug("【IMCORE"+this.debugTag+"】【QoS发送方】收到应答后，接收方连接的RTT估算为："+estimator);
+		}
+	}
+	
+	/**
+	 * 从队列中移除一个消息包并取消它在时间轮上的超时任务.
+	 * 
+	 * @return 被移除的条目，不存在时返回null
+	 */
+	private InFlightEntry removeImpl(String fingerPrint)
+	{
+		if(fingerPrint == null)
+			return null;
+		
+		InFlightEntry result = sentMessages.remove(fingerPrint);
+		if(result != null)
+			result.cancel();
+		return result;
+	}
+	
 	/**
 	 * 队列大小.
 	 * 
@@ -496,4 +696,77 @@ public class QoS4SendDaemonRoot
 	{
 		return this.DEBUG;
 	}
+	
+	/**
+	 * 设置是否按各连接的RTT估算结果自适应地决定重传超时时长（默认true）。
+	 * 设为false时将使用固定的重传检查间隔（即v6.1以前的行为）。
+	 * 
+	 * @param rtoAdaptive true表示自适应，否则使用固定间隔
+	 * @since 6.1
+	 */
+	public QoS4SendDaemonRoot setRtoAdaptive(boolean rtoAdaptive)
+	{
+		this.RTO_ADAPTIVE = rtoAdaptive;
+		return this;
+	}
+	
+	public boolean isRtoAdaptive()
+	{
+		return this.RTO_ADAPTIVE;
+	}
+	
+	/**
+	 * 一条待确认消息的条目（同时也是它在时间轮上的重传任务）。
+	 * <p>
+	 * 为尽量节省内存，条目中只存放重传和丢包通知所必需的数据：已编码好的报文数据、接收方id、
+	 * 发送时间戳和重传次数（均为基本类型），丢包时再由报文数据还原出Protocal对象。
+	 */
+	private final class InFlightEntry implements TimerTask
+	{
+		/** 消息指纹码（与sentMessages中的key为同一对象） */
+		final String fp;
+		/** 接收方的user_id */
+		final String to;
+		/** 已编码好的报文数据 */
+		final byte[] payload;
+		/** 报文数据的编码格式 */
+		final byte protocalFormat;
+		/** 最近一次发出（或重传）的时间戳（仅在put时和时间轮的工作线程中写入） */
+		volatile long sentTime;
+		/** 已重传次数（仅在时间轮的工作线程中修改） */
+		volatile int retryCount;
+		/** 当前登记在时间轮上的超时任务（每次重传后都会重新登记） */
+		volatile Timeout timeout;
+		
+		InFlightEntry(String fp, String to, byte[] payload, byte protocalFormat, int retryCount)
+		{
+			this.fp = fp;
+			this.to = to;
+			this.payload = payload;
+			this.protocalFormat = protocalFormat;
+			this.retryCount = retryCount;
+			this.sentTime = System.currentTimeMillis();
+		}
+		
+		/**
+		 * 由缓存的报文数据还原出Protocal对象（仅在判定丢包时使用）。
+		 */
+		Protocal toProtocal() throws Exception
+		{
+			return ProtocalFactory.parse(Unpooled.wrappedBuffer(payload));
+		}
+		
+		@Override
+		public void run(Timeout timeout)
+		{
+			onTimeout(this);
+		}
+		
+		void cancel()
+		{
+			Timeout t = timeout;
+			if(t != null)
+				t.cancel();
+		}
+	}
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.qos;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 单个连接的RTT（往返时延）估算器，用于计算QoS重传的超时时长（RTO）。
+ * <p>
+ * 算法与TCP的RTO计算方法（RFC 6298）一致：以服务端发出QoS消息到收到该消息ACK应答的时长作为RTT样本，
+ * 维护平滑后的RTT（SRTT）及其偏差（RTTVAR），RTO = SRTT + 4 * RTTVAR，并限定在
+ * [{@link #MIN_RTO}, {@link #MAX_RTO}]之间。尚无样本时RTO为 {@link #INITIAL_RTO}。
+ * <p>
+ * 为避免重传歧义（无法区分ACK应答的是原始消息还是重传消息），只有未经重传就被应答的消息才会
+ * 作为RTT样本（即Karn算法）。
+ * <p>
+ * <font color="red">本类将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+ *
+ * @since 6.1
+ * @see QoS4SendDaemonRoot
+ * @see net.x52im.mobileimsdk.server.network.Gateway#getRttEstimator(io.netty.channel.Channel)
+ */
+public class RttEstimator
+{
+	/**
+	 * 尚无RTT样本时使用的RTO（单位：毫秒），默认3000毫秒。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static long INITIAL_RTO = 3000;
+
+	/**
+	 * RTO的下限（单位：毫秒），默认1000毫秒。
+	 * <p>
+	 * 客户端的ACK应答并非由协议栈立即发回，其中还包含了客户端的处理耗时，下限过小容易引起不必要的重传。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static long MIN_RTO = 1000;
+
+	/**
+	 * RTO的上限（单位：毫秒，退避后的重传间隔也不会超过此值），默认30000毫秒。
+	 * <p>
+	 * 请在 {@link net.x52im.mobileimsdk.server.ServerLauncher#startup()}方法被调用前被设置，否则将不起效.
+	 */
+	public static long MAX_RTO = 30000;
+
+	/** 计算RTO时偏差项的最小值（单位：毫秒），取重传时间轮的调度精度 */
+	private final static long GRANULARITY = 100;
+
+	/** 平滑后的RTT（单位：毫秒），小于0表示尚无样本 */
+	private long srtt = -1;
+	/** RTT偏差（单位：毫秒） */
+	private long rttvar = 0;
+	/** 当前的RTO（单位：毫秒） */
+	private volatile long rto = INITIAL_RTO;
+
+	/**
+	 * 加入一个RTT样本。
+	 *
+	 * @param rtt 从发出消息到收到其ACK应答的时长（单位：毫秒）
+	 */
+	public synchronized void update(long rtt)
+	{
+		if(rtt < 0)
+			return;
+
+		if(srtt < 0)
+		{
+			srtt = rtt;
+			rttvar = rtt / 2;
+		}
+		else
+		{
+			rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+			srtt = (7 * srtt + rtt) / 8;
+		}
+		rto = Math.min(MAX_RTO, Math.max(MIN_RTO, srtt + Math.max(GRANULARITY, 4 * rttvar)));
+	}
+
+	/**
+	 * 当前的RTO（单位：毫秒）。
+	 *
+	 * @return RTO
+	 */
+	public long getRto()
+	{
+		return rto;
+	}
+
+	/**
+	 * 当前平滑后的RTT（单位：毫秒）。
+	 *
+	 * @return SRTT，尚无样本时返回-1
+	 */
+	public synchronized long getSrtt()
+	{
+		return srtt;
+	}
+
+	/**
+	 * 按指数退避计算第retryCount次重传（0表示首次发出）后的超时时长，并加上不超过其1/4的随机抖动，
+	 * 以免同一时刻发出的大量消息在同一时刻集中重传。
+	 *
+	 * @param rto 基准RTO（单位：毫秒）
+	 * @param retryCount 已重传次数
+	 * @return 超时时长（单位：毫秒）
+	 */
+	public static long backoff(long rto, int retryCount)
+	{
+		long delay = rto << Math.min(retryCount, 16);
+		if(delay > MAX_RTO || delay <= 0)
+			delay = Math.max(MAX_RTO, rto);
+		return delay + ThreadLocalRandom.current().nextLong(delay / 4 + 1);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "srtt="+getSrtt()+"ms, rto="+rto+"ms";
+	}
+}
@@ -17,8 +17,16 @@
 package net.x52im.mobileimsdk.server.utils;
 
 import io.netty.channel.Channel;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.ServerLauncher;
+import net.x52im.mobileimsdk.server.bridge.MQAsyncPublisher;
+import net.x52im.mobileimsdk.server.cluster.ClusterForwarder;
+import net.x52im.mobileimsdk.server.cluster.PresenceDirectory;
 import net.x52im.mobileimsdk.server.network.Gateway;
 import net.x52im.mobileimsdk.server.network.MBObserver;
 import net.x52im.mobileimsdk.server.processor.BridgeProcessor;
@@ -57,7 +65,7 @@ public class GlobalSendHelper
 	 * @param remoteAddress
 	 * @param serverCoreHandler
 	 * @throws Exception
-	 * @see BridgeProcessor#publish(String)
+	 * @see BridgeProcessor#publishAsync(String, MQAsyncPublisher.PublishCallback)
 	 * @see LocalSendHelper#sendData(Channel, Protocal)
 	 */
 	public static void sendDataC2C(final BridgeProcessor bridgeProcessor
@@ -72,10 +80,15 @@ public class GlobalSendHelper
 		// 已被妥善送达（离线或桥接发送也同样是”送达“，只是非实时而已）
 		boolean needDelegateACK = false;
 
-		// ** 【已启用与Web端的互通 且 本机不在线的情况下 就尝试转为桥接发送】
-		// TODO 第二阶段集群实现时要修改以下在线状态判断为全局所有用户在线列表中的结果（而不只是本机）
+		// 查询接收方所在的其它集群节点（通常只需查一次本节点的近端缓存），若在其它节点上在线、且已设置了
+		// 节点间转发通道，则直接转发给这些节点（同一用户的多个终端可能分别在本机和多个节点上，将一并发出），
+		// 不再经由MQ桥接（since 6.1）
+		final boolean onlineHere = OnlineProcessor.isOnline(pFromClient.getTo());
+		final List<String> remoteNodes = lookupRemoteNodes(pFromClient.getTo());
+
+		// ** 【已启用与Web端的互通 且 本机不在线（集群中其它节点上也不在线）的情况下 就尝试转为桥接发送】
 		// 接收方不在本地MessageServer在线列表上（按照第一阶段的异构通信算法，直接发往Web服务端）
-		if(ServerLauncher.bridgeEnabled && !OnlineProcessor.isOnline(pFromClient.getTo()))
+		if(ServerLauncher.bridgeEnabled && !onlineHere && remoteNodes.isEmpty())
 		{
 			logger.debug("[IMCORE-{}<C2C>-桥接↑]>> 客户端{}不在线，数据[from:{},fp:{},to:{},content:{}] 将通过MQ直发Web服务端" +
 					"（彼时在线则通过web实时发送、否则通过Web端进行离线存储）【第一阶段APP+WEB跨机通信算法】！"
@@ -92,73 +105,25 @@ public class GlobalSendHelper
 			else
 			{
 				// 直发MQ队列（将会由队列那端的Web服务器进行接管和处理）
-				boolean toMQ = bridgeProcessor.publish(pFromClient.toGsonString());
-
-				// 消息已成功桥接发送
-				if(toMQ)
-				{
-					logger.debug("[IMCORE-{}<C2C>-桥接↑]>> 客户端{}的数据已跨机器送出成功【OK】。(数据[from:{}"+
-							",fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
-							, Gateway.$(session), remoteAddress, pFromClient.getFrom(), pFromClient.getFp()
-							, pFromClient.getTo(), pFromClient.getDataContent());
-
-					// 注：此回调不需要吧，在MQ那端的服务器会在发送成功后进行C2C成功回调的（此处再搞就重复了）
-					// // 通知回调
-					// serverEventListener.onTransBuffer_C2C_CallBack(
-					//     pFromClient.getTo(), pFromClient.getFrom(), pFromClient.getDataContent());
-
-					// 【如果该消息包有QoS机制】则将由则服务端代为发送一条伪应答包，因已桥接发送成功
-					if(pFromClient.isQoS())
-						needDelegateACK = true;
-				}
-				// 未成功桥接发送
-				else
-				{
-					logger.debug("[IMCORE-{}<C2C>-桥接↑]>> 客户端{}的数据已跨机器送出失败，将作离线处理了【NO】。(数据[from:{},fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
-							, Gateway.$(session), remoteAddress, pFromClient.getFrom(), pFromClient.getFp()
-							, pFromClient.getTo(), pFromClient.getDataContent());
-
-					//** MQ也发送失败：那就意味着接收发不在本机也不能成功发往MQ，直接离线处理吧
-					//*********************** 代码段20160914【1】：与【2】处是一样的，未重用代码的目的是简化代码逻辑
-					// 提交回调，由上层应用进行离线处理
-					boolean offlineProcessedOK = serverCoreHandler.getServerEventListener().onTransferMessage_RealTimeSendFaild(pFromClient);
-					
-					// 【如果该消息包有QoS机制 且 上层应用成功进行了离线处理】则将由则服务端代为发送一条伪应
-					// 答包（伪应答仅意味着不是接收方的实时应答，而只是存储到离线DB中，但在发送方看来也算
-					// 是被对方收到，只是延迟收到而已（离线消息嘛））），在有QoS机制但应用层没有处理的情况
-					// 下发送方客户端在QoS重传机制超时后将报出消息发送失败的提示
-					if(pFromClient.isQoS() && offlineProcessedOK)
-					{
-						// 离线处理成功，也当然发给发送方一个ACK了，对于
-						// 发送方而言，离线处理也是成功送达
-						needDelegateACK = true;
-					}
-					else
+				//## 自v6.1起改为异步发布：发布操作不再阻塞当前的Netty I/O线程，MQ服务器的确认结果
+				//## 到达后再切换回该会话的I/O线程，继续原有的处理逻辑（发送伪应答或离线处理）
+				bridgeProcessor.publishAsync(pFromClient.toGsonString(), new MQAsyncPublisher.PublishCallback(){
+					@Override
+					public void onResult(final boolean toMQ, byte[] message)
 					{
-						logger.warn("[IMCORE-{}<C2C>-桥接↑]>> 客户端{}的通用数据传输消息尝试实时发送没有成功，但上层应用层没有成" +
-								"功(或者完全没有)进行离线存储，此消息将被服务端丢弃【第一阶段APP+WEB跨机通信算法】！"
-								, Gateway.$(session), remoteAddress);
+						session.eventLoop().execute(new Runnable(){
+							@Override
+							public void run()
+							{
+								onBridgePublishResultC2C(toMQ, session, pFromClient, remoteAddress, serverCoreHandler);
+							}
+						});
 					}
-				}
+				});
 			}
 
 			if(needDelegateACK)
-			{
-				// Netty的数据发送结果观察者：netty的数据发送结果是通过异步通知来实现的（这就
-				// 是异步编程模型，跟Nodejs的promise、Androi里的RxJava、iOS的block道理一样）
-				MBObserver resultObserver = new MBObserver(){
-					@Override
-					public void update(boolean receivedBackSendSucess, Object extraObj)
-					{
-						if(receivedBackSendSucess)
-							logger.debug("[IMCORE-{}<C2C>-桥接↑]【QoS_伪应答_C2S】向{}发送{}的伪应答包成功,伪装from自：{}【第一阶段APP+WEB跨机通信算法】."
-									, Gateway.$(session), pFromClient.getFrom(), pFromClient.getFp(), pFromClient.getTo());
-					}
-				};
-				
-				// 发送伪应答包，以便发送消息者（它自已其实不知道这条消息是被桥接处理的）知道已经送达
-				LocalSendHelper.replyRecievedBack(session, pFromClient, resultObserver);
-			}
+				replyDelegateRecievedBack(session, pFromClient);
 
 			// 【【C2S[桥接]模式下的QoS机制2/4步：将收到的中转代发包存入QoS接收方暂存队列中（用于防QoS消息重复）】】
 			// @see 客户端LocalUDPDataReciever中的第1/4和第4/4步相关处理
@@ -166,7 +131,7 @@ public class GlobalSendHelper
 			QoS4ReciveDaemonC2S.getInstance().addRecieved(pFromClient);
 		}
 		// ** 【本机在线或其它情况下则直接在本机范围内发送和处理】
-		// 接收方在本MessageServer的在线列表中
+		// 接收方在本MessageServer的在线列表中（或在集群中其它节点上在线，直接转发给这些节点）
 		else
 		{
 			// Netty的数据发送结果观察者：netty的数据发送结果是通过异步通知来实现的（这就
@@ -263,7 +228,189 @@ public class GlobalSendHelper
 			};
 			
 			// 发送数据
+			if(!remoteNodes.isEmpty())
+				forwardToNodes(onlineHere, remoteNodes, session, pFromClient, resultObserver);
+			else
+				LocalSendHelper.sendData(pFromClient, resultObserver);
+		}
+	}
+	
+	/**
+	 * 查询接收方所在的其它集群节点（需已开启集群在线状态目录，且已设置了节点间转发通道）。
+	 * 
+	 * @param userId 接收方的user_id
+	 * @return 不在其它节点上在线（或不能直接转发）时返回空列表
+	 * @see PresenceDirectory#lookupRemoteNodes(String)
+	 * @since 6.1
+	 */
+	private static List<String> lookupRemoteNodes(String userId)
+	{
+		if(!PresenceDirectory.ENABLED)
+			return Collections.<String>emptyList();
+		
+		PresenceDirectory directory = PresenceDirectory.getInstance();
+		if(directory.getForwarder() == null)
+			return Collections.<String>emptyList();
+		return directory.lookupRemoteNodes(userId);
+	}
+	
+	/**
+	 * 将C2C消息直接转发给接收方所在的各集群节点（接收方同时在本机在线时，也一并发给本机的终端），
+	 * 全部发送完成后在该会话的I/O线程中通知resultObserver一次：任一节点（或本机）发送成功即为成功。
+	 * 
+	 * @since 6.1
+	 */
+	private static void forwardToNodes(boolean onlineHere, List<String> remoteNodes, final Channel session
+			, final Protocal pFromClient, final MBObserver resultObserver) throws Exception
+	{
+		ClusterForwarder forwarder = PresenceDirectory.getInstance().getForwarder();
+		// 转发通道刚被取消了：按本机发送处理（接收方不在本机时，将走离线处理）
+		if(forwarder == null)
+		{
 			LocalSendHelper.sendData(pFromClient, resultObserver);
+			return;
+		}
+		
+		// 只需发往一个节点（最常见的情况）
+		if(!onlineHere && remoteNodes.size() == 1)
+		{
+			forwardToNode(forwarder, remoteNodes.get(0), session, pFromClient, resultObserver);
+			return;
+		}
+		
+		MBObserver fanOutObserver = new ClusterFanOutObserver(session, remoteNodes.size() + (onlineHere ? 1 : 0), resultObserver);
+		if(onlineHere)
+			LocalSendHelper.sendData(pFromClient, fanOutObserver);
+		for(String nodeId : remoteNodes)
+			forwardToNode(forwarder, nodeId, session, pFromClient, fanOutObserver);
+	}
+	
+	/**
+	 * 将C2C消息直接转发给接收方所在的一个集群节点，转发结果在该会话的I/O线程中通知resultObserver。
+	 * 
+	 * @since 6.1
+	 */
+	private static void forwardToNode(ClusterForwarder forwarder, final String nodeId, final Channel session
+			, final Protocal pFromClient, final MBObserver resultObserver)
+	{
+		logger.debug("[IMCORE-{}<C2C>-集群]>> 客户端{}在节点{}上在线，数据[from:{},fp:{}]将直接转发给该节点."
+				, Gateway.$(session), pFromClient.getTo(), nodeId, pFromClient.getFrom(), pFromClient.getFp());
+		
+		MBObserver observer = new MBObserver(){
+			@Override
+			public void update(final boolean sendOK, final Object extraObj)
+			{
+				session.eventLoop().execute(new Runnable(){
+					@Override
+					public void run()
+					{
+						resultObserver.update(sendOK, extraObj);
+					}
+				});
+			}
+		};
+		
+		try
+		{
+			forwarder.forward(nodeId, pFromClient, observer);
+		}
+		catch (Exception e)
+		{
+			logger.warn("[IMCORE-"+Gateway.$(session)+"<C2C>-集群]向节点"+nodeId+"转发"+pFromClient.getFp()+"时出错了：", e);
+			observer.update(false, null);
+		}
+	}
+	
+	/**
+	 * C2C消息桥接发布到MQ后的结果处理（在该会话的I/O线程中执行）。
+	 * 
+	 * @param toMQ true表示消息已被MQ服务器确认接收，否则表示桥接发送失败
+	 * @see #sendDataC2C(BridgeProcessor, Channel, Protocal, String, ServerCoreHandler)
+	 * @since 6.1
+	 */
+	private static void onBridgePublishResultC2C(boolean toMQ, final Channel session, final Protocal pFromClient
+			, final String remoteAddress, final ServerCoreHandler serverCoreHandler)
+	{
+		boolean needDelegateACK = false;
+		
+		// 消息已成功桥接发送
+		if(toMQ)
+		{
+			logger.debug("[IMCORE-{}<C2C>-桥接↑]>> 客户端{}的数据已跨机器送出成功【OK】。(数据[from:{}"+
+					",fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
+					, Gateway.$(session), remoteAddress, pFromClient.getFrom(), pFromClient.getFp()
+					, pFromClient.getTo(), pFromClient.getDataContent());
+
+			// 注：此回调不需要吧，在MQ那端的服务器会在发送成功后进行C2C成功回调的（此处再搞就重复了）
+			// // 通知回调
+			// serverEventListener.onTransBuffer_C2C_CallBack(
+			//     pFromClient.getTo(), pFromClient.getFrom(), pFromClient.getDataContent());
+
+			// 【如果该消息包有QoS机制】则将由则服务端代为发送一条伪应答包，因已桥接发送成功
+			if(pFromClient.isQoS())
+				needDelegateACK = true;
+		}
+		// 未成功桥接发送
+		else
+		{
+			logger.debug("[IMCORE-{}<C2C>-桥接↑]>> 客户端{}的数据已跨机器送出失败，将作离线处理了【NO】。(数据[from:{},fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
+					, Gateway.$(session), remoteAddress, pFromClient.getFrom(), pFromClient.getFp()
+					, pFromClient.getTo(), pFromClient.getDataContent());
+
+			//** MQ也发送失败：那就意味着接收发不在本机也不能成功发往MQ，直接离线处理吧
+			//*********************** 代码段20160914【1】：与【2】处是一样的，未重用代码的目的是简化代码逻辑
+			// 提交回调，由上层应用进行离线处理
+			boolean offlineProcessedOK = serverCoreHandler.getServerEventListener().onTransferMessage_RealTimeSendFaild(pFromClient);
+			
+			// 【如果该消息包有QoS机制 且 上层应用成功进行了离线处理】则将由则服务端代为发送一条伪应
+			// 答包（伪应答仅意味着不是接收方的实时应答，而只是存储到离线DB中，但在发送方看来也算
+			// 是被对方收到，只是延迟收到而已（离线消息嘛））），在有QoS机制但应用层没有处理的情况
+			// 下发送方客户端在QoS重传机制超时后将报出消息发送失败的提示
+			if(pFromClient.isQoS() && offlineProcessedOK)
+			{
+				// 离线处理成功，也当然发给发送方一个ACK了，对于
+				// 发送方而言，离线处理也是成功送达
+				needDelegateACK = true;
+			}
+			else
+			{
+				logger.warn("[IMCORE-{}<C2C>-桥接↑]>> 客户端{}的通用数据传输消息尝试实时发送没有成功，但上层应用层没有成" +
+						"功(或者完全没有)进行离线存储，此消息将被服务端丢弃【第一阶段APP+WEB跨机通信算法】！"
+						, Gateway.$(session), remoteAddress);
+			}
+		}
+		
+		if(needDelegateACK)
+			replyDelegateRecievedBack(session, pFromClient);
+	}
+	
+	/**
+	 * 向C2C消息的发送者回复伪应答包（消息已被桥接发送或离线处理，对发送者而言也算已送达）。
+	 * 
+	 * @since 6.1
+	 */
+	private static void replyDelegateRecievedBack(final Channel session, final Protocal pFromClient)
+	{
+		try
+		{
+			// Netty的数据发送结果观察者：netty的数据发送结果是通过异步通知来实现的（这就
+			// 是异步编程模型，跟Nodejs的promise、Androi里的RxJava、iOS的block道理一样）
+			MBObserver resultObserver = new MBObserver(){
+				@Override
+				public void update(boolean receivedBackSendSucess, Object extraObj)
+				{
+					if(receivedBackSendSucess)
+						logger.debug("[IMCORE-{}<C2C>-桥接↑]【QoS_伪应答_C2S】向{}发送{}的伪应答包成功,伪装from自：{}【第一阶段APP+WEB跨机通信算法】."
+								, Gateway.$(session), pFromClient.getFrom(), pFromClient.getFp(), pFromClient.getTo());
+				}
+			};
+			
+			// 发送伪应答包，以便发送消息者（它自已其实不知道这条消息是被桥接处理的）知道已经送达
+			LocalSendHelper.replyRecievedBack(session, pFromClient, resultObserver);
+		}
+		catch (Exception e)
+		{
+			logger.warn("[IMCORE-"+Gateway.$(session)+"<C2C>-桥接↑]向"+pFromClient.getFrom()+"发送"+pFromClient.getFp()+"的伪应答包时出错了：", e);
 		}
 	}
 	
@@ -287,19 +434,21 @@ public class GlobalSendHelper
      * 用于获得数据发送的结果通知（这是与MINA的区别之一）。服务端为了获得高并发、高性
      * 能，失去传统网络编程同步调用时编码的便利也是在所难免(再也不是直接的函数返回值了
      * )，开发者需适应之。<font color="#0000aa">参数sucess：false表示发送一定没有成功，true表示消息已成功送
-     * 成但因异步发送且是UDP的原因能否成功收到还得看服务端QoS的情况</font>
+     * 成但因异步发送且是UDP的原因能否成功收到还得看服务端QoS的情况</font>。
+     * <font color="#ff0000"><b>线程说明：</b>自v6.1起，经由MQ桥接发送时，本回调将在MQ异步发布器的发布线程
+     * 或RabbitMQ客户端的线程中被调用（发布器已停止时则在调用本方法的线程中）；接收方在本机在线时，则在
+     * 接收方会话的Netty I/O线程中被调用。请勿在其中执行耗时操作，必要时请切换到自已的线程中处理</font>
 	 * @throws Exception 发生任何异常时都会抛出
 	 * @see OnlineProcessor#isOnline(String)
-	 * @see BridgeProcessor#publish(String)
+	 * @see BridgeProcessor#publishAsync(String, MQAsyncPublisher.PublishCallback)
+	 * @see MQAsyncPublisher.PublishCallback
 	 * @see LocalSendHelper#sendData(Protocal)
 	 */
-	public static void sendDataS2C(BridgeProcessor bridgeProcessor, Protocal pFromClient, final MBObserver resultObserver) throws Exception
+	public static void sendDataS2C(BridgeProcessor bridgeProcessor, final Protocal pFromClient, final MBObserver resultObserver) throws Exception
 	{
 		// TODO just for DEBUG
 		OnlineProcessor.getInstance().__printOnline();
 		
-		boolean sucess = false;
-
 		// ** 【已启用与Web端的互通 且 本机不在线就尝试转为桥接发送】
 		// TODO 第二阶段集群实现时要修改以下在线状态判断为全局所有用户在线列表中的结果（而不只是本机）
 		// 接收方不在本地MessageServer在线列表上（按照第一阶段的异构通信算法，直接发往Web服务端）
@@ -308,24 +457,33 @@ public class GlobalSendHelper
 			logger.debug("[IMCORE<S2C>-桥接↑]>> 客户端{}不在线，数据[from:{},fp:{},to:{},content:{}] 将通过MQ直发Web服务端（彼时在线则通过web实时发送、否则通过Web端进行离线存储）【第一阶段APP+WEB跨机通信算法】！"
 					,pFromClient.getTo(), pFromClient.getFrom(), pFromClient.getFp(), pFromClient.getTo(), pFromClient.getDataContent());
 
-				// 直发MQ队列（将会由队列那端的Web服务器进行接管和处理）
-				boolean toMQ = bridgeProcessor.publish(pFromClient.toGsonString());
-				// 消息已成功桥接发送
-				if(toMQ)
-				{
-					logger.debug("[IMCORE<S2C>-桥接↑]>> 服务端的数据已跨机器送出成功【OK】。(数据[from:{},fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
-							, pFromClient.getFrom(), pFromClient.getFp(), pFromClient.getTo(), pFromClient.getDataContent());
-					sucess = true;
-				}
-				// 未成功桥接发送
-				else
+			// 直发MQ队列（将会由队列那端的Web服务器进行接管和处理）
+			//## 自v6.1起改为异步发布：发布结果（即MQ服务器的确认结果）将通过resultObserver异步通知调用者
+			bridgeProcessor.publishAsync(pFromClient.toGsonString(), new MQAsyncPublisher.PublishCallback(){
+				@Override
+				public void onResult(boolean toMQ, byte[] message)
 				{
-					logger.error("[IMCORE<S2C>-桥接↑]>> 服务端的数据已跨机器送出失败，请通知管理员检查MQ中间件是否正常工作【NO】。(数据[from:"+pFromClient.getFrom()
-							+",fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
-							, pFromClient.getFp(), pFromClient.getTo(), pFromClient.getDataContent());
+					// 消息已成功桥接发送
+					if(toMQ)
+					{
+						logger.debug("[IMCORE<S2C>-桥接↑]>> 服务端的数据已跨机器送出成功【OK】。(数据[from:{},fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
+								, pFromClient.getFrom(), pFromClient.getFp(), pFromClient.getTo(), pFromClient.getDataContent());
+					}
+					// 未成功桥接发送
+					else
+					{
+						logger.error("[IMCORE<S2C>-桥接↑]>> 服务端的数据已跨机器送出失败，请通知管理员检查MQ中间件是否正常工作【NO】。(数据[from:"+pFromClient.getFrom()
+								+",fp:{},to:{},content:{}]【第一阶段APP+WEB跨机通信算法】)"
+								, pFromClient.getFp(), pFromClient.getTo(), pFromClient.getDataContent());
 
-					//** MQ发送失败：那就意味着接收发不在本机也不能成功发往MQ，本次发送送结果直接就是false了
+						//** MQ发送失败：那就意味着接收发不在本机也不能成功发往MQ，本次发送送结果直接就是false了
+					}
+					
+					// 通知sendDataS2C方法调用者数据发送的处理结果
+					if(resultObserver != null)
+						resultObserver.update(toMQ, null);
 				}
+			});
 		}
 		// ** 【本机在线则直接发送】
 		// 接收方在本MessageServer的在线列表中
@@ -353,11 +511,51 @@ public class GlobalSendHelper
 			// 的数据发送结果回调通知了观察者，无需再进入到下方的代码再执行了，否则将重复通知
 			return;
 		}
+	}
+	
+	/**
+	 * 同一消息发往多个集群节点（及本机）时的结果汇总观察者：全部发送完成后才在该会话的I/O线程中通知
+	 * 原观察者一次，任一节点发送成功即为成功。
+	 * 
+	 * @since 6.1
+	 * @see GlobalSendHelper#forwardToNodes(boolean, List, Channel, Protocal, MBObserver)
+	 */
+	private static class ClusterFanOutObserver implements MBObserver
+	{
+		private final Channel session;
+		private final MBObserver resultObserver;
+		/** 尚未完成发送的节点数 */
+		private final AtomicInteger remaining;
+		/** 是否至少有一个节点发送成功 */
+		private volatile boolean anySucess = false;
 		
-//		return sucess;
-		// 通知sendDataS2C方法调用者数据发送的处理结果
-		if(resultObserver != null)
-			resultObserver.update(sucess, null);
+		ClusterFanOutObserver(Channel session, int count, MBObserver resultObserver)
+		{
+			this.session = session;
+			this.resultObserver = resultObserver;
+			this.remaining = new AtomicInteger(count);
+		}
 		
+		@Override
+		public void update(boolean sucess, Object extraObj)
+		{
+			if(sucess)
+				anySucess = true;
+			if(remaining.decrementAndGet() != 0)
+				return;
+			
+			if(session.eventLoop().inEventLoop())
+			{
+				resultObserver.update(anySucess, null);
+				return;
+			}
+			session.eventLoop().execute(new Runnable(){
+				@Override
+				public void run()
+				{
+					resultObserver.update(anySucess, null);
+				}
+			});
+		}
 	}
 }
@@ -20,12 +20,18 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.x52im.mobileimsdk.server.ServerCoreHandler;
 import net.x52im.mobileimsdk.server.ServerLauncher;
+import net.x52im.mobileimsdk.server.network.FormattedProtocal;
 import net.x52im.mobileimsdk.server.network.Gateway;
 import net.x52im.mobileimsdk.server.network.GatewayUDP;
 import net.x52im.mobileimsdk.server.network.MBObserver;
+import net.x52im.mobileimsdk.server.network.OutboundBackpressureHandler;
+import net.x52im.mobileimsdk.server.network.SessionContext;
+import net.x52im.mobileimsdk.server.processor.OnlineDevices;
 import net.x52im.mobileimsdk.server.processor.OnlineProcessor;
 import net.x52im.mobileimsdk.server.protocal.ErrorCode;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
@@ -176,6 +182,8 @@ public class LocalSendHelper
 	 * <p>
      * <b>注：</b>用户id为"0"是MobileIMSDK框架中的保留值，表示是服务端。
      * <p>
+     * 自v6.1起，接收方有多个终端同时在线时，将发给其全部在线终端（详见 {@link #sendData(OnlineDevices, Protocal, MBObserver)}）。
+     * <p>
      * 典型的消息发送代码示例，请见： {@link #sendData(Channel, Protocal, MBObserver)} 方法中的详细说明。
 	 * 
 	 * @param p 要发送的内容（此对象封装了发送方user_id、接收方user_id、消息内容等）
@@ -191,7 +199,14 @@ public class LocalSendHelper
     	if(p != null)
     	{
     		if(!"0".equals(p.getTo()))
-    			sendData(OnlineProcessor.getInstance().getOnlineSession(p.getTo()), p, resultObserver);
+    		{
+    			// 一次查找即拿到接收方全部在线终端的会话
+    			OnlineDevices devices = OnlineProcessor.getInstance().getOnlineDevices(p.getTo());
+    			if(devices != null && devices.size() > 1)
+    				sendData(devices, p, resultObserver);
+    			else
+    				sendData(devices != null ? devices.latest() : null, p, resultObserver);
+    		}
     		else
     		{
     			logger.warn("[IMCORE]【注意】此Protocal对象中的接收方是服务器(user_id==0)（而此方法本来就是由Server调用，自已发自已不可能！），数据发送没有继续！"+p.toGsonString());
@@ -259,6 +274,65 @@ public class LocalSendHelper
      * @see MBObserver
      */
     public static void sendData(final Channel session, final Protocal p, final MBObserver resultObserver) throws Exception 
+    {
+    	sendData(session, p, resultObserver, true, -1);
+    }
+    
+    /**
+     * 以指定的报文格式向目标发送一条数据（不论该会话当前协商的是何种报文格式）。
+     * <p>
+     * 目前用于登陆响应：会话的报文格式在登陆响应写出前即已切换为新协商的格式，而登陆响应本身
+     * 仍须以切换前的格式发出。
+     * <p>
+     * <font color="red">本方法将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+     * 
+     * @param session 接收者的会话对象引用
+     * @param p 要发送的内容
+     * @param protocalFormat 编码时使用的报文格式
+     * @param resultObserver 数据发送结果的通知
+     * @throws Exception 发送过程中出现错误则抛出本异常
+     * @see #sendData(Channel, Protocal, MBObserver)
+     * @see FormattedProtocal
+     * @since 6.1
+     */
+    public static void sendData(final Channel session, final Protocal p, int protocalFormat, final MBObserver resultObserver) throws Exception 
+    {
+    	sendData(session, p, resultObserver, true, protocalFormat);
+    }
+    
+    /**
+     * 向同一用户的多个在线终端发送同一条数据。
+     * <p>
+     * 各终端的发送互不影响，全部发送完成后只通知一次结果观察者：至少有一个终端发送成功即视为成功
+     * （QoS消息由收到的终端应答，服务端只对最近上线的终端进行重传）；全部失败时视为失败，与发给单个
+     * 终端时一样由观察者（或离线处理回调）走离线处理。
+     * 
+     * @param devices 接收者全部在线终端的会话，见 {@link OnlineProcessor#getOnlineDevices(String)}
+     * @param p 要发送的内容（此对象封装了发送方user_id、接收方user_id、消息内容等）
+     * @param resultObserver 全部终端发送完成后的结果通知，可为null
+     * @throws Exception 发送过程中出现错误则抛出本异常
+     * @since 6.1
+     * @see #sendData(Channel, Protocal, MBObserver)
+     */
+    public static void sendData(OnlineDevices devices, final Protocal p, final MBObserver resultObserver) throws Exception 
+    {
+    	if(devices == null)
+    	{
+    		sendData((Channel)null, p, resultObserver);
+    		return;
+    	}
+    	
+    	// 同一报文对象会在各终端的I/O线程上并发编码，服务端时间戳须在写出前统一打上
+    	if(p != null && ServerLauncher.serverTimestamp)
+    		p.setSm(Protocal.genServerTimestamp());
+    	
+    	MBObserver fanOutObserver = new FanOutObserver(devices, p, resultObserver);
+    	for(int i = 0; i < devices.size(); i++)
+    		sendData(devices.getSession(i), p, fanOutObserver, false, -1);
+    }
+    
+    private static void sendData(final Channel session, final Protocal p, final MBObserver resultObserver
+    		, boolean stampServerTime, final int protocalFormat) throws Exception 
     {
     	// 要发送的目标用户的session已经不存在了(也就是他不在线，因为只有在线的用户才有这个会话引用)
 		if(session == null)
@@ -273,24 +347,25 @@ public class LocalSendHelper
 			{
 		    	if(p != null)
 		    	{
+		    		// 发送结果回调中用到的会话信息均从会话上下文中读取（只需查找一次）
+		    		final SessionContext sessionContext = SessionContext.get(session);
+		    		
 		    		// 为消息报文打上服务端的发送时间戳（此时间戳可以辅助用于应用层的消息顺序处理逻辑中）
-		    		if(ServerLauncher.serverTimestamp)
+		    		if(stampServerTime && ServerLauncher.serverTimestamp)
 		    			p.setSm(Protocal.genServerTimestamp());
 		    		
-		    		Object to = null;
-		    		
-		    		// WebSocket通信时，收发的是TextWebSocketFrame帧
-		    		if(Gateway.isWebSocketChannel(session)){
-		    			final String res = p.toGsonString();
-		    			to = new TextWebSocketFrame(res);
-		    		}
-		    		// 其它协议时，直接2进制发送
-		    		else{
-		    			final byte[] res = p.toBytes();
-		    			to = Unpooled.copiedBuffer(res);
-		    		}
-		    		
-		    		ChannelFuture cf = session.writeAndFlush(to);//.sync();
+		    		// 自v6.1起，报文的编码统一由各网关pipeline中的Protocal编码器在该Channel的I/O线程上
+		    		// 完成（WebSocket会被编码成TextWebSocketFrame帧，其它协议则直接编码成2进制数据），
+		    		// 此处直接写出Protocal对象即可（接收方不可写时将先进入该会话的待发队列，详见OutboundBackpressureHandler）
+		    		// 指定了报文格式时（protocalFormat>=0），由编码器按指定的格式编码
+		    		// QoS消息例外：在此按接收方的报文格式编码一次，写出的与QoS发送队列中缓存的是同一份报文数据
+		    		// （各网关的编码器均会原样发出已编码好的ByteBuf），免去发送成功后为缓存而再次编码
+		    		final int sessionFormat = sessionContext.getProtocalFormat();
+		    		final byte[] encoded = (p.isQoS() && (protocalFormat < 0 || protocalFormat == sessionFormat)) 
+		    				? ProtocalFactory.toBytes(p, sessionFormat) : null;
+		    		Object msg = (encoded != null ? Unpooled.wrappedBuffer(encoded) 
+		    				: (protocalFormat >= 0 ? new FormattedProtocal(p, protocalFormat) : p));
+		    		ChannelFuture cf = session.writeAndFlush(msg);//.sync();
 		    		
 		    		// 通过异步监听来实现结果的判定：使用ChannelFutureListener是
 		    		// netty的最优化方法，因为await()虽简单但它是一个阻塞的操作而且可能会发生死锁，
@@ -313,13 +388,25 @@ public class LocalSendHelper
 		 		    			// 如果需要进行QoS质量保证，则把它放入质量保证队列中供处理(已在存在于列
 		 		    			// 表中就不用再加了，已经存在则意味当前发送的这个是重传包哦)
 		 		    			if(p.isQoS() && !QoS4SendDaemonS2C.getInstance().exist(p.getFp()))
-		 		    				QoS4SendDaemonS2C.getInstance().put(p);
+		 		    			{
+		 		    				if(encoded != null)
+		 		    					QoS4SendDaemonS2C.getInstance().put(p, encoded, sessionFormat);
+		 		    				else
+		 		    					QoS4SendDaemonS2C.getInstance().put(p, protocalFormat);
+		 		    			}
+		 		    			
+		 		    			sessionContext.onMessageSent();
 		 		    		}
 		 		    		// The messsage couldn't be written out completely for some reason. (e.g. Connection is closed)
 		 		    		else
 		 		    		{
 		 		    			logger.warn("[IMCORE-{}]给客户端：{}的数据->{},发送失败！(此消息应考虑作离线处理哦)."
-		 		    					, Gateway.$(session), ServerToolKits.clientInfoToString(session), p.toGsonString());
+		 		    					, sessionContext.getGatewayFlag(), sessionContext.getClientInfo(), p.toGsonString());
+		 		    			
+		 		    			// 接收方因读取过慢而被断开时，没有结果观察者的QoS消息（比如服务端主动发出的
+		 		    			// 消息）交由应用层的离线处理回调（有观察者的消息由观察者自行处理）
+		 		    			if(resultObserver == null)
+		 		    				OutboundBackpressureHandler.transferOffline(session, p);
 		 		    		}
 		 		    		
 		 		    		// 通知观察者，数据发送结果
@@ -347,6 +434,52 @@ public class LocalSendHelper
 			resultObserver.update(false, null);
     }
     
+    /**
+     * 向目标发送一条已编码好的报文数据（目前用于QoS重传时直接发送缓存的报文数据，免去再次编码）。
+     * <p>
+     * 若该会话当前协商的报文格式与数据的编码格式不一致（比如接收方已用不同的客户端重新登陆），
+     * 将先把数据解码成{@link Protocal}对象，再按常规方式发送。
+     * <p>
+     * <font color="red">本方法将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
+     * 
+     * @param session 接收者的会话对象引用
+     * @param encoded 已编码好的报文数据
+     * @param protocalFormat 报文数据的编码格式
+     * @param resultObserver 数据发送结果的通知
+     * @throws Exception 发送过程中出现错误则抛出本异常
+     * @see #sendData(Channel, Protocal, MBObserver)
+     * @since 6.1
+     */
+    public static void sendData(final Channel session, final byte[] encoded, int protocalFormat, final MBObserver resultObserver) throws Exception 
+    {
+    	if(session != null && session.isActive())
+    	{
+    		if(Gateway.getProtocalFormat(session) != protocalFormat)
+    		{
+    			sendData(session, ProtocalFactory.parse(Unpooled.wrappedBuffer(encoded)), resultObserver);
+    			return;
+    		}
+    		
+    		session.writeAndFlush(Unpooled.wrappedBuffer(encoded)).addListener(new ChannelFutureListener() {
+    			public void operationComplete(ChannelFuture future) 
+    			{
+    				if(!future.isSuccess())
+    					logger.warn("[IMCORE-{}]给客户端：{}的数据(已编码{}字节),发送失败！(此消息应考虑作离线处理哦)."
+    							, Gateway.$(session), ServerToolKits.clientInfoToString(session), encoded.length);
+    				
+    				// 通知观察者，数据发送结果
+    				if(resultObserver != null)
+    					resultObserver.update(future.isSuccess(), null);
+    			}
+    		});
+    		return;
+    	}
+    	
+    	// 通知观察者，数据发送失败
+    	if(resultObserver != null)
+    		resultObserver.update(false, null);
+    }
+    
 	/**
 	 * 当服务端检测到用户尚未登陆（或登陆会话已失效时）由服务端回复给
 	 * 客户端的消息。
@@ -451,4 +584,50 @@ public class LocalSendHelper
 		// 给用户发出“重复登陆被踢出”指令
 		LocalSendHelper.sendData(sessionBeKick, ProtocalFactory.createPKickout(to_user_id, code, reason), sendResultObserver);
 	}
+	
+	/**
+	 * 同一数据发给多个终端时的结果汇总观察者：全部终端发送完成后才通知原观察者一次。
+	 * 
+	 * @since 6.1
+	 * @see LocalSendHelper#sendData(OnlineDevices, Protocal, MBObserver)
+	 */
+	private static class FanOutObserver implements MBObserver
+	{
+		private final OnlineDevices devices;
+		private final Protocal p;
+		private final MBObserver resultObserver;
+		/** 尚未完成发送的终端数 */
+		private final AtomicInteger remaining;
+		/** 是否至少有一个终端发送成功 */
+		private volatile boolean anySucess = false;
+		
+		FanOutObserver(OnlineDevices devices, Protocal p, MBObserver resultObserver)
+		{
+			this.devices = devices;
+			this.p = p;
+			this.resultObserver = resultObserver;
+			this.remaining = new AtomicInteger(devices.size());
+		}
+		
+		@Override
+		public void update(boolean sucess, Object extraObj)
+		{
+			if(sucess)
+				anySucess = true;
+			if(remaining.decrementAndGet() != 0)
+				return;
+			
+			if(resultObserver != null)
+				resultObserver.update(anySucess, null);
+			// 没有结果观察者的QoS消息全部发送失败时，交由应用层的离线处理回调（只需交一次）
+			else if(!anySucess && p != null)
+			{
+				for(int i = 0; i < devices.size(); i++)
+				{
+					if(OutboundBackpressureHandler.transferOffline(devices.getSession(i), p))
+						break;
+				}
+			}
+		}
+	}
 }
@@ -19,12 +19,10 @@ package net.x52im.mobileimsdk.server.utils;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 
-import java.net.SocketAddress;
-
 import net.x52im.mobileimsdk.server.network.GatewayTCP;
 import net.x52im.mobileimsdk.server.network.GatewayUDP;
 import net.x52im.mobileimsdk.server.network.GatewayWebsocket;
-import net.x52im.mobileimsdk.server.processor.OnlineProcessor;
+import net.x52im.mobileimsdk.server.network.SessionContext;
 import net.x52im.mobileimsdk.server.protocal.CharsetHelper;
 import net.x52im.mobileimsdk.server.protocal.Protocal;
 import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
@@ -195,14 +193,8 @@ public class ServerToolKits
      */
 	public static String clientInfoToString(Channel session)
 	{
-		SocketAddress remoteAddress = session.remoteAddress();
-		String s1 = remoteAddress.toString();
-		StringBuilder sb = new StringBuilder()
-		.append("{uid:")
-		.append(OnlineProcessor.getUserIdFromChannel(session))
-		.append("}")
-		.append(s1);
-		return sb.toString();
+		// 自v6.1起，该字符串由会话上下文按需生成并缓存，无需每次拼接
+		return SessionContext.get(session).getClientInfo();
 	}
 	
 	/**
@@ -231,16 +223,19 @@ public class ServerToolKits
 	/**
 	 * 从Netty的原始数据对象中解析出MobileIMSDK的完整协议内容（Protocal对象）。
 	 * <p>
+	 * 自v6.1起，本方法直接在ByteBuf上流式解析JSON，不再经过 {@link #fromIOBuffer_JSON(ByteBuf)}
+	 * 产生中间的byte数组和字符串。
+	 * <p>
 	 * <font color="red">本方法将由MobileIMSDK框架内部算法按需调用，目前不建议也不需要开发者调用。</font>
 	 * 
 	 * @param buffer Netty的数据缓冲对象
 	 * @return 解析后的MobileIMSDK的完整协议内容（Protocal对象）
 	 * @throws Exception 解析出错则抛出本异常
-	 * @see #fromIOBuffer_JSON(ByteBuf)
+	 * @see ProtocalFactory#parse(ByteBuf)
 	 */
 	public static Protocal fromIOBuffer(ByteBuf buffer) throws Exception 
 	{
-		return toProtocal(fromIOBuffer_JSON(buffer));
+		return ProtocalFactory.parse(buffer);
 	}
 	
 	/**
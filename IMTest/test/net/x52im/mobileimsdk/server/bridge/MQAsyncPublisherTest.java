@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.bridge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.rabbitmq.client.MessageProperties;
+
+/**
+ * {@link MQAsyncPublisher} 基于MQ服务器替身（{@link StandInBroker}）的单元测试。
+ *
+ * @since 6.1
+ */
+public class MQAsyncPublisherTest
+{
+	private final static String QUEUE = "q_test";
+
+	private MQAsyncPublisher publisher;
+
+	@After
+	public void tearDown()
+	{
+		if(publisher != null)
+			publisher.stop();
+	}
+
+	@Test
+	public void ackAndNackAreReportedThroughCallback() throws Exception
+	{
+		StandInBroker broker = new StandInBroker(1);
+		broker.nack("m-3");
+		publisher = newPublisher(broker, 1024);
+
+		Results results = new Results(10);
+		for(int i = 0; i < 10; i++)
+			assertTrue(publisher.publish("", QUEUE, ("m-" + i).getBytes("UTF-8"), results));
+
+		assertTrue(results.await(5000));
+		assertEquals(10, broker.received.size());
+		for(int i = 0; i < 10; i++)
+			assertEquals("m-" + i, i != 3, results.get("m-" + i));
+		assertEquals(0, publisher.getUnconfirmedSize());
+	}
+
+	@Test
+	public void fullQueueFailsImmediately() throws Exception
+	{
+		StandInBroker broker = new StandInBroker(1);
+		publisher = new MQAsyncPublisher("test", 1, 1);
+		publisher.setChannel(broker.getChannel());
+		// 发布线程未启动，队列中的第一条消息不会被取走
+
+		Results results = new Results(1);
+		assertFalse(publisher.publish("", QUEUE, "m-0".getBytes("UTF-8"), results));
+		assertTrue(results.await(0));
+		assertFalse(results.get("m-0"));
+	}
+
+	@Test
+	public void channelShutdownFailsUnconfirmed() throws Exception
+	{
+		// 替身在1分钟内都不会确认
+		StandInBroker broker = new StandInBroker(60 * 1000);
+		publisher = newPublisher(broker, 1024);
+
+		Results results = new Results(5);
+		for(int i = 0; i < 5; i++)
+			publisher.publish("", QUEUE, ("m-" + i).getBytes("UTF-8"), results);
+		waitForReceived(broker, 5, 5000);
+
+		broker.shutdown();
+		assertTrue(results.await(5000));
+		for(int i = 0; i < 5; i++)
+			assertFalse(results.get("m-" + i));
+	}
+
+	@Test
+	public void stopFailsQueuedAndUnconfirmed() throws Exception
+	{
+		StandInBroker broker = new StandInBroker(60 * 1000);
+		publisher = newPublisher(broker, 1024);
+
+		Results results = new Results(5);
+		for(int i = 0; i < 5; i++)
+			publisher.publish("", QUEUE, ("m-" + i).getBytes("UTF-8"), results);
+		waitForReceived(broker, 5, 5000);
+
+		publisher.stop();
+		assertTrue(results.await(0));
+		assertEquals(0, publisher.getUnconfirmedSize());
+
+		// 已停止的发布器不再接受新消息
+		Results late = new Results(1);
+		assertFalse(publisher.publish("", QUEUE, "late".getBytes("UTF-8"), late));
+		assertFalse(late.get("late"));
+	}
+
+	@Test
+	public void asyncPublishOutperformsSyncConfirm() throws Exception
+	{
+		final int count = 200;
+		// 每条消息2毫秒后才得到确认
+		StandInBroker syncBroker = new StandInBroker(2);
+		long start = System.nanoTime();
+		for(int i = 0; i < count; i++)
+		{
+			// v6.1以前的同步方式：每发布一条都要等到它被确认
+			syncBroker.getChannel().basicPublish("", QUEUE, MessageProperties.PERSISTENT_TEXT_PLAIN, ("m-" + i).getBytes("UTF-8"));
+			syncBroker.getChannel().waitForConfirms();
+		}
+		long syncNanos = System.nanoTime() - start;
+
+		StandInBroker asyncBroker = new StandInBroker(2);
+		publisher = newPublisher(asyncBroker, count);
+		Results results = new Results(count);
+		start = System.nanoTime();
+		for(int i = 0; i < count; i++)
+			publisher.publish("", QUEUE, ("m-" + i).getBytes("UTF-8"), results);
+		assertTrue(results.await(5000));
+		long asyncNanos = System.nanoTime() - start;
+
+		assertEquals(count, asyncBroker.received.size());
+		assertTrue("async=" + asyncNanos + "ns, sync=" + syncNanos + "ns", asyncNanos * 2 < syncNanos);
+	}
+
+	private static MQAsyncPublisher newPublisher(StandInBroker broker, int queueCapacity) throws Exception
+	{
+		MQAsyncPublisher publisher = new MQAsyncPublisher("test", queueCapacity, 64);
+		publisher.setChannel(broker.getChannel());
+		publisher.start();
+		return publisher;
+	}
+
+	private static void waitForReceived(StandInBroker broker, int count, long timeout) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		while(broker.received.size() < count && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+	}
+
+	/**
+	 * 收集各消息的发布结果。
+	 */
+	private static class Results implements MQAsyncPublisher.PublishCallback
+	{
+		private final Map<String, Boolean> results = new ConcurrentHashMap<String, Boolean>();
+		private final CountDownLatch latch;
+
+		Results(int count)
+		{
+			latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void onResult(boolean confirmed, byte[] message)
+		{
+			try
+			{
+				results.put(new String(message, "UTF-8"), confirmed);
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException(e);
+			}
+			latch.countDown();
+		}
+
+		boolean await(long timeout) throws InterruptedException
+		{
+			return latch.await(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		Boolean get(String message)
+		{
+			return results.get(message);
+		}
+	}
+}
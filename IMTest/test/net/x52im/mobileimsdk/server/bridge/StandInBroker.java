@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.bridge;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+
+/**
+ * 测试用的MQ服务器替身：提供一个开启了confirm模式的 {@link Channel}，每条发布的消息在指定的延迟后
+ * 由替身自己的线程确认（ack），或按需拒绝（nack）。
+ *
+ * @since 6.1
+ */
+class StandInBroker
+{
+	/** 每条消息从发布到被确认的延迟（单位：毫秒） */
+	private final long confirmDelay;
+	/** 确认用的线程 */
+	private final ScheduledExecutorService confirmer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "stand-in-broker");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/** 要拒绝（nack）的消息内容 */
+	private final Set<String> nackBodies = ConcurrentHashMap.newKeySet();
+	/** 已收到的消息 */
+	final List<String> received = new CopyOnWriteArrayList<String>();
+
+	private final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<ConfirmListener>();
+	private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<ShutdownListener>();
+	private final Channel channel;
+	private volatile boolean open = true;
+	private long nextSeqNo = 1;
+	private long confirmedSeqNo = 0;
+
+	StandInBroker(long confirmDelay)
+	{
+		this.confirmDelay = confirmDelay;
+		this.channel = (Channel)Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class}
+				, new InvocationHandler(){
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+					{
+						return StandInBroker.this.invoke(proxy, method, args);
+					}
+				});
+	}
+
+	Channel getChannel()
+	{
+		return channel;
+	}
+
+	/**
+	 * 内容为body的消息将被拒绝。
+	 */
+	void nack(String body)
+	{
+		nackBodies.add(body);
+	}
+
+	/**
+	 * 模拟Channel断开：不再确认任何消息，并通知各ShutdownListener。
+	 */
+	void shutdown()
+	{
+		open = false;
+		confirmer.shutdownNow();
+		for(ShutdownListener l : shutdownListeners)
+			l.shutdownCompleted(null);
+	}
+
+	private synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+	{
+		String name = method.getName();
+		if("basicPublish".equals(name))
+		{
+			publish(new String((byte[])args[args.length - 1], "UTF-8"));
+			return null;
+		}
+		if("getNextPublishSeqNo".equals(name))
+			return nextSeqNo;
+		if("isOpen".equals(name))
+			return open;
+		if("addConfirmListener".equals(name))
+		{
+			confirmListeners.add((ConfirmListener)args[0]);
+			return null;
+		}
+		if("addShutdownListener".equals(name))
+		{
+			shutdownListeners.add((ShutdownListener)args[0]);
+			return null;
+		}
+		if("waitForConfirms".equals(name))
+		{
+			// 同步发布的对照：等待此前发布的全部消息得到确认
+			while(confirmedSeqNo < nextSeqNo - 1)
+				wait();
+			return true;
+		}
+		if("hashCode".equals(name))
+			return System.identityHashCode(proxy);
+		if("equals".equals(name))
+			return proxy == args[0];
+		if("toString".equals(name))
+			return "StandInBroker.Channel";
+
+		// confirmSelect、close等：什么也不用做
+		return null;
+	}
+
+	private void publish(final String body)
+	{
+		if(!open)
+			throw new IllegalStateException("channel is closed");
+
+		final long seqNo = nextSeqNo++;
+		received.add(body);
+		confirmer.schedule(new Runnable(){
+			@Override
+			public void run()
+			{
+				confirm(seqNo, !nackBodies.contains(body));
+			}
+		}, confirmDelay, TimeUnit.MILLISECONDS);
+	}
+
+	private void confirm(long seqNo, boolean ack)
+	{
+		try
+		{
+			for(ConfirmListener l : confirmListeners)
+			{
+				if(ack)
+					l.handleAck(seqNo, false);
+				else
+					l.handleNack(seqNo, false);
+			}
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+		synchronized(this)
+		{
+			confirmedSeqNo = Math.max(confirmedSeqNo, seqNo);
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link PresenceDirectory} 的测试：两个目录实例（即模拟的两个节点）共用同一个 {@link InProcessPresenceBackend}。
+ *
+ * @since 6.1
+ */
+public class PresenceDirectoryTest
+{
+	private final static String USER_ID = "presence-test-user";
+
+	private long savedTtl;
+	private InProcessPresenceBackend backend;
+	private PresenceDirectory nodeA;
+	private PresenceDirectory nodeB;
+
+	@Before
+	public void setUp()
+	{
+		savedTtl = PresenceDirectory.NEAR_CACHE_TTL;
+		backend = new InProcessPresenceBackend();
+		nodeA = new PresenceDirectory("A", backend);
+		nodeB = new PresenceDirectory("B", backend);
+	}
+
+	@After
+	public void tearDown()
+	{
+		PresenceDirectory.NEAR_CACHE_TTL = savedTtl;
+	}
+
+	@Test
+	public void onlineOnOneNodeIsSeenByTheOther()
+	{
+		assertTrue(nodeB.lookup(USER_ID).isEmpty());
+
+		nodeA.userOnline(USER_ID);
+		assertEquals(nodes("A"), nodeB.lookup(USER_ID));
+		assertEquals(Arrays.asList("A"), nodeB.lookupRemoteNodes(USER_ID));
+		// 本节点不算“其它节点”
+		assertTrue(nodeA.lookupRemoteNodes(USER_ID).isEmpty());
+
+		nodeA.userOffline(USER_ID);
+		assertTrue(nodeB.lookup(USER_ID).isEmpty());
+		assertTrue(nodeB.lookupRemoteNodes(USER_ID).isEmpty());
+		assertEquals(0, backend.size());
+	}
+
+	@Test
+	public void userOnSeveralNodesKeepsOtherNodesOnOffline()
+	{
+		nodeA.userOnline(USER_ID);
+		nodeB.userOnline(USER_ID);
+		assertEquals(nodes("A", "B"), nodeA.lookup(USER_ID));
+		assertEquals(nodes("A", "B"), nodeB.lookup(USER_ID));
+		assertEquals(Arrays.asList("B"), nodeA.lookupRemoteNodes(USER_ID));
+		assertEquals(Arrays.asList("A"), nodeB.lookupRemoteNodes(USER_ID));
+
+		// B下线不影响该用户在A上的记录
+		nodeB.userOffline(USER_ID);
+		assertEquals(nodes("A"), nodeA.lookup(USER_ID));
+		assertEquals(nodes("A"), nodeB.lookup(USER_ID));
+
+		// 重复下线不做任何改动
+		nodeB.userOffline(USER_ID);
+		assertEquals(nodes("A"), nodeB.lookup(USER_ID));
+	}
+
+	@Test
+	public void clearLocalNodeOnlyRemovesThatNode()
+	{
+		nodeA.userOnline(USER_ID);
+		nodeB.userOnline(USER_ID);
+		nodeB.userOnline("presence-test-user-2");
+
+		nodeB.clearLocalNode();
+		assertEquals(nodes("A"), nodeA.lookup(USER_ID));
+		assertTrue(nodeA.lookup("presence-test-user-2").isEmpty());
+		assertEquals(1, backend.size());
+	}
+
+	@Test
+	public void changesInvalidateTheOtherNodesCache()
+	{
+		// 缓存“不在线”的结果，随后的上线须使其失效（而不是等到过期）
+		PresenceDirectory.NEAR_CACHE_TTL = 60 * 60 * 1000;
+		assertTrue(nodeB.lookup(USER_ID).isEmpty());
+
+		nodeA.userOnline(USER_ID);
+		assertEquals(nodes("A"), nodeB.lookup(USER_ID));
+
+		nodeA.userOffline(USER_ID);
+		assertTrue(nodeB.lookup(USER_ID).isEmpty());
+	}
+
+	@Test
+	public void staleEntryExpiresWhenInvalidationIsLost() throws Exception
+	{
+		PresenceDirectory.NEAR_CACHE_TTL = 200;
+		// 该节点收不到任何失效通知
+		PresenceDirectory deaf = new PresenceDirectory("C", new DeafBackend(backend));
+		assertTrue(deaf.lookup(USER_ID).isEmpty());
+
+		nodeA.userOnline(USER_ID);
+		assertTrue(deaf.lookup(USER_ID).isEmpty());
+
+		Thread.sleep(PresenceDirectory.NEAR_CACHE_TTL + 100);
+		assertEquals(nodes("A"), deaf.lookup(USER_ID));
+	}
+
+	private static Set<String> nodes(String... nodeIds)
+	{
+		return new HashSet<String>(Arrays.asList(nodeIds));
+	}
+
+	/**
+	 * 共用同一后端、但收不到失效通知的后端（模拟失效通知丢失）。
+	 */
+	private final static class DeafBackend implements PresenceBackend
+	{
+		private final PresenceBackend target;
+
+		DeafBackend(PresenceBackend target)
+		{
+			this.target = target;
+		}
+
+		@Override
+		public void online(String userId, String nodeId)
+		{
+			target.online(userId, nodeId);
+		}
+
+		@Override
+		public void offline(String userId, String nodeId)
+		{
+			target.offline(userId, nodeId);
+		}
+
+		@Override
+		public void offlineAll(String nodeId)
+		{
+			target.offlineAll(nodeId);
+		}
+
+		@Override
+		public Set<String> lookup(String userId)
+		{
+			return target.lookup(userId);
+		}
+
+		@Override
+		public void addInvalidationListener(InvalidationListener listener)
+		{
+		}
+
+		@Override
+		public void removeInvalidationListener(InvalidationListener listener)
+		{
+		}
+	}
+}
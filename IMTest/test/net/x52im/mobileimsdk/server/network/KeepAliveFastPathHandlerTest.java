@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.CharsetUtil;
+
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
+import net.x52im.mobileimsdk.server.protocal.ProtocalType;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link KeepAliveFastPathHandler} 的单元测试：JSON及2进制格式的心跳包、ECHO指令的识别与快速应答，
+ * 以及各种不应被快速处理的数据包。
+ *
+ * @since 6.1
+ */
+public class KeepAliveFastPathHandlerTest
+{
+	private final static String USER_ID = "400069";
+
+	private EmbeddedChannel session;
+
+	@After
+	public void tearDown()
+	{
+		if(session != null)
+			session.finishAndReleaseAll();
+	}
+
+	@Test
+	public void jsonTypeValueIsFoundAtTopLevel()
+	{
+		assertTypeValue("{\"type\":1,\"from\":\"u\"}", "1");
+		assertTypeValue("{\"from\":\"u\",\"type\":51}", "51");
+		assertTypeValue("{\"type\" : 15 ,\"from\":\"u\"}", "15");
+		assertTypeValue("{\"type\"\r\n:\t1\n}", "1");
+		// 字符串值中（已转义）的"type"不会被误认
+		assertTypeValue("{\"dataContent\":\"{\\\"type\\\":1}\",\"type\":2}", "2");
+		assertTypeValue("{\"dataContent\":\"x\\\"type\\\" : 5\",\"type\":2}", "2");
+		// 以type结尾的字符串值将被跳过
+		assertTypeValue("{\"from\":\"type\",\"type\":1}", "1");
+		assertTypeValue("{\"dataContent\":\"\\\"type\",\"type\":5}", "5");
+
+		assertEquals(-1, indexOf("{\"type\":\"1\"}"));
+		assertEquals(-1, indexOf("{\"type\":-1}"));
+		assertEquals(-1, indexOf("{\"type\":1.5}"));
+		assertEquals(-1, indexOf("{\"type\":1"));
+		assertEquals(-1, indexOf("{\"typeu\":1}"));
+		assertEquals(-1, indexOf("{\"from\":\"type\"}"));
+		assertEquals(-1, indexOf("{\"from\":\"u\"}"));
+		assertEquals(-1, indexOf(""));
+	}
+
+	@Test
+	public void jsonKeepAliveOfLoggedInSessionIsAnswered() throws Exception
+	{
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_JSON);
+		ByteBuf keepAlive = json(ProtocalFactory.createPKeepAlive(USER_ID));
+		assertHandled(keepAlive);
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_JSON, USER_ID);
+
+		// 空白字符、字段顺序不影响识别
+		assertHandled(buffer("{\"from\":\"" + USER_ID + "\",\"type\" :\n 1 ,\"dataContent\":\"{}\"}"));
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_JSON, USER_ID);
+		// 值以type结尾的字符串不影响识别
+		assertHandled(buffer("{\"dataContent\":\"type\",\"type\":1}"));
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_JSON, USER_ID);
+
+		// WebSocket网关的数据帧
+		TextWebSocketFrame frame = new TextWebSocketFrame(json(ProtocalFactory.createPKeepAlive(USER_ID)));
+		assertFalse(session.writeInbound(frame));
+		assertEquals(0, frame.refCnt());
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_JSON, USER_ID);
+	}
+
+	@Test
+	public void binaryKeepAliveOfLoggedInSessionIsAnswered() throws Exception
+	{
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		assertHandled(binary(ProtocalFactory.createPKeepAlive(USER_ID)));
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_BINARY_V1, USER_ID);
+
+		// 报文格式与协商好的不一致时，按协商好的格式应答
+		assertHandled(json(ProtocalFactory.createPKeepAlive(USER_ID)));
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_BINARY_V1, USER_ID);
+	}
+
+	@Test
+	public void packetsOfNotLoggedInSessionArePassedOn() throws Exception
+	{
+		session = newSession(null, ProtocalBinaryCodec.FORMAT_JSON);
+		assertPassedOn(json(ProtocalFactory.createPKeepAlive(USER_ID)));
+		assertPassedOn(binary(ProtocalFactory.createPKeepAlive(USER_ID)));
+		assertPassedOn(json(newEcho()));
+		assertPassedOn(binary(newEcho()));
+	}
+
+	@Test
+	public void otherPacketsArePassedOn() throws Exception
+	{
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_JSON);
+		// 多位数的type
+		assertPassedOn(buffer("{\"type\":51,\"from\":\"u\"}"));
+		assertPassedOn(buffer("{\"type\":15,\"from\":\"u\"}"));
+		assertPassedOn(buffer("{\"type\":11}"));
+		assertPassedOn(buffer("{\"type\":55}"));
+		// dataContent中的"type"
+		assertPassedOn(buffer("{\"dataContent\":\"{\\\"type\\\":1}\",\"type\":2}"));
+		assertPassedOn(json(ProtocalFactory.createCommonData("{\"type\":1}", USER_ID, "0", true, null, -1)));
+		assertPassedOn(binary(ProtocalFactory.createCommonData("{\"type\":1}", USER_ID, "0", true, null, -1)));
+		// 无法识别的数据包
+		assertPassedOn(buffer("{\"type\":\"1\"}"));
+		assertPassedOn(buffer("not json"));
+		// 超长的数据包（不可能是心跳包）
+		StringBuilder longContent = new StringBuilder();
+		for(int i = 0; i < 300; i++)
+			longContent.append('x');
+		assertPassedOn(buffer("{\"type\":1,\"dataContent\":\"" + longContent + "\"}"));
+	}
+
+	/**
+	 * JSON格式的ECHO指令：type值"5"改写为"53"后原样发回。
+	 */
+	@Test
+	public void jsonEchoIsRewrittenInPlace() throws Exception
+	{
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_JSON);
+		assertHandled(buffer("{\"dataContent\":\"\\\"type\\\":5\",\"type\" : 5 ,\"from\":\"u\"}"));
+		assertEquals("{\"dataContent\":\"\\\"type\\\":5\",\"type\" : 53 ,\"from\":\"u\"}", readOutboundText());
+
+		Protocal echo = newEcho();
+		assertHandled(json(echo));
+		Protocal response = ProtocalFactory.parse(readOutbound());
+		assertEquals(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$ECHO, response.getType());
+		assertEquals(echo.getDataContent(), response.getDataContent());
+		assertEquals(echo.getFp(), response.getFp());
+
+		// 协商好的是2进制格式时，交由业务层按协商好的格式应答
+		session.finishAndReleaseAll();
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		assertPassedOn(json(echo));
+	}
+
+	/**
+	 * 2进制格式的ECHO指令：只改写type字节后原样发回。
+	 */
+	@Test
+	public void binaryEchoRewritesTypeByte() throws Exception
+	{
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		Protocal echo = newEcho();
+		byte[] request = ProtocalFactory.toBytes(echo, ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		ByteBuf in = Unpooled.copiedBuffer(request);
+		assertFalse(session.writeInbound(in));
+
+		// 就地改写后发回的就是收到的数据包本身
+		ByteBuf out = readOutbound();
+		assertSame(in, out);
+		byte[] reply = ByteBufUtil.getBytes(out);
+		out.release();
+		assertEquals(0, in.refCnt());
+		Protocal response = ProtocalFactory.parse(Unpooled.wrappedBuffer(reply));
+		assertEquals(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$ECHO, response.getType());
+		assertEquals(echo.getDataContent(), response.getDataContent());
+		assertEquals(echo.getFp(), response.getFp());
+		// 除type字节外与ECHO指令完全相同
+		assertEquals((byte)(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$ECHO << 1), reply[2]);
+		reply[2] = request[2];
+		assertArrayEquals(request, reply);
+
+		// 协商好的是JSON格式时，交由业务层按协商好的格式应答
+		session.finishAndReleaseAll();
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_JSON);
+		assertPassedOn(binary(echo));
+	}
+
+	/**
+	 * 会话缓存的心跳响应在用户ID或报文格式变化后重新编码。
+	 */
+	@Test
+	public void cachedResponseIsReEncodedWhenUserIdOrFormatChanges() throws Exception
+	{
+		session = newSession(USER_ID, ProtocalBinaryCodec.FORMAT_JSON);
+		assertHandled(json(ProtocalFactory.createPKeepAlive(USER_ID)));
+		String first = readOutboundText();
+		assertHandled(json(ProtocalFactory.createPKeepAlive(USER_ID)));
+		assertEquals(first, readOutboundText());
+
+		SessionContext context = SessionContext.get(session);
+		context.setUserId("400070");
+		assertHandled(json(ProtocalFactory.createPKeepAlive("400070")));
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_JSON, "400070");
+
+		context.setProtocalFormat(ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		assertHandled(json(ProtocalFactory.createPKeepAlive("400070")));
+		assertKeepAliveResponse(readOutbound(), ProtocalBinaryCodec.FORMAT_BINARY_V1, "400070");
+
+		context.setProtocalFormat(ProtocalBinaryCodec.FORMAT_JSON);
+		context.setUserId(USER_ID);
+		assertHandled(json(ProtocalFactory.createPKeepAlive(USER_ID)));
+		assertEquals(first, readOutboundText());
+
+		// 已注销的会话不再快速应答
+		context.setUserId(null);
+		assertPassedOn(json(ProtocalFactory.createPKeepAlive(USER_ID)));
+	}
+
+	private static EmbeddedChannel newSession(String userId, int protocalFormat)
+	{
+		EmbeddedChannel session = new EmbeddedChannel(DefaultChannelId.newInstance(), KeepAliveFastPathHandler.INSTANCE);
+		SessionContext context = SessionContext.get(session);
+		context.setUserId(userId);
+		context.setProtocalFormat(protocalFormat);
+		return session;
+	}
+
+	private static Protocal newEcho()
+	{
+		return new Protocal(ProtocalType.C.FROM_CLIENT_TYPE_OF_ECHO, "{\"type\":5,\"t\":1624933449000}", USER_ID, "0", true, "fp-echo");
+	}
+
+	private void assertHandled(ByteBuf in)
+	{
+		assertFalse(session.writeInbound(in));
+		assertEquals(0, in.refCnt());
+	}
+
+	private void assertPassedOn(ByteBuf in)
+	{
+		int before = in.readableBytes();
+		assertTrue(session.writeInbound(in));
+		ByteBuf passed = session.readInbound();
+		assertSame(in, passed);
+		assertEquals(before, passed.readableBytes());
+		passed.release();
+		assertNull(session.readOutbound());
+	}
+
+	private ByteBuf readOutbound()
+	{
+		ByteBuf out = session.readOutbound();
+		assertTrue(out != null);
+		assertNull(session.readOutbound());
+		return out;
+	}
+
+	private String readOutboundText()
+	{
+		ByteBuf out = readOutbound();
+		try
+		{
+			return out.toString(CharsetUtil.UTF_8);
+		}
+		finally
+		{
+			out.release();
+		}
+	}
+
+	private static void assertKeepAliveResponse(ByteBuf out, int protocalFormat, String userId) throws Exception
+	{
+		try
+		{
+			assertEquals(protocalFormat == ProtocalBinaryCodec.FORMAT_BINARY_V1, ProtocalBinaryCodec.isBinary(out));
+			Protocal response = ProtocalFactory.parse(out);
+			assertEquals(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$KEEP$ALIVE, response.getType());
+			assertEquals("0", response.getFrom());
+			assertEquals(userId, response.getTo());
+		}
+		finally
+		{
+			out.release();
+		}
+	}
+
+	private static void assertTypeValue(String json, String expectedValue)
+	{
+		int end = indexOf(json);
+		assertTrue(json, end > 0);
+		assertEquals(json, expectedValue, json.substring(end - expectedValue.length(), end));
+		assertFalse(json, Character.isDigit(json.charAt(end - expectedValue.length() - 1)));
+	}
+
+	private static int indexOf(String json)
+	{
+		return KeepAliveFastPathHandler.indexOfJSONTypeValueEnd(buffer(json));
+	}
+
+	private static ByteBuf buffer(String text)
+	{
+		return Unpooled.copiedBuffer(text, CharsetUtil.UTF_8);
+	}
+
+	private static ByteBuf json(Protocal p)
+	{
+		return Unpooled.wrappedBuffer(ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_JSON));
+	}
+
+	private static ByteBuf binary(Protocal p)
+	{
+		return Unpooled.wrappedBuffer(ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_BINARY_V1));
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.FixedLengthFrameDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 网关传输层的JMH基准测试：按 {@link NettyTransport} 选出的原生epoll传输与NIO传输，在本机回环地址上的
+ * 建连速率和回显时延对比。
+ * <p>
+ * <code>connect</code>为每秒可完成的“建连 + 关闭”次数（即connections/sec）；<code>echo</code>为各线程在各自的
+ * 连接上发出8字节数据、直至收到服务端回显的往返时延（SampleTime模式，结果中含p99）。
+ * <p>
+ * 运行方法：<code>java -cp ... org.openjdk.jmh.Main NettyTransportBenchmark</code>
+ * （当前系统不支持epoll时，transport=epoll的各项将以失败结束）
+ *
+ * @since 6.1
+ */
+@State(Scope.Benchmark)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NettyTransportBenchmark
+{
+	private final static int MESSAGE_SIZE = 8;
+
+	@Param({"epoll", "nio"})
+	public String transport;
+
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup workerGroup;
+	private EventLoopGroup clientGroup;
+	private Channel serverChannel;
+	private Bootstrap client;
+	private InetSocketAddress address;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		NettyTransport.EPOLL_ENABLED = "epoll".equals(transport);
+		if(NettyTransport.EPOLL_ENABLED && !Epoll.isAvailable())
+			throw new IllegalStateException("当前系统不支持原生epoll传输：" + Epoll.unavailabilityCause());
+
+		bossGroup = NettyTransport.newEventLoopGroup(1);
+		workerGroup = NettyTransport.newEventLoopGroup(4);
+		clientGroup = NettyTransport.newEventLoopGroup(4);
+
+		serverChannel = new ServerBootstrap()
+				.group(bossGroup, workerGroup)
+				.channel(NettyTransport.serverSocketChannelClass())
+				.option(ChannelOption.SO_BACKLOG, 4096)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childHandler(EchoHandler.INSTANCE)
+				.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+		address = (InetSocketAddress)serverChannel.localAddress();
+
+		client = new Bootstrap()
+				.group(clientGroup)
+				.channel(NettyTransport.isEpoll() ? EpollSocketChannel.class : NioSocketChannel.class)
+				.option(ChannelOption.TCP_NODELAY, true)
+				// 关闭时直接RST，以免大量TIME_WAIT耗尽本机端口
+				.option(ChannelOption.SO_LINGER, 0)
+				.handler(new ChannelInitializer<SocketChannel>(){
+					@Override
+					protected void initChannel(SocketChannel ch)
+					{
+						ch.pipeline().addLast(new FixedLengthFrameDecoder(MESSAGE_SIZE), new ReplyCollector());
+					}
+				});
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		serverChannel.close().sync();
+		clientGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).sync();
+		workerGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).sync();
+		bossGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).sync();
+		NettyTransport.EPOLL_ENABLED = true;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void connect() throws Exception
+	{
+		Channel ch = client.connect(address).sync().channel();
+		ch.close().sync();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long echo(Connection connection) throws Exception
+	{
+		return connection.roundTrip();
+	}
+
+	/**
+	 * 各线程独占的一条连接（用于回显时延测试）。
+	 */
+	@State(Scope.Thread)
+	public static class Connection
+	{
+		private Channel ch;
+		private BlockingQueue<ByteBuf> replies;
+		private long seq = 0;
+
+		@Setup(Level.Trial)
+		public void setUp(NettyTransportBenchmark benchmark) throws Exception
+		{
+			ch = benchmark.client.connect(benchmark.address).sync().channel();
+			replies = ch.pipeline().get(ReplyCollector.class).replies;
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception
+		{
+			ch.close().sync();
+		}
+
+		long roundTrip() throws Exception
+		{
+			ch.writeAndFlush(ch.alloc().buffer(MESSAGE_SIZE).writeLong(++seq));
+			ByteBuf reply = replies.take();
+			try
+			{
+				long echoed = reply.readLong();
+				if(echoed != seq)
+					throw new IllegalStateException("回显数据有误：" + echoed + "，应为" + seq);
+				return echoed;
+			}
+			finally
+			{
+				reply.release();
+			}
+		}
+	}
+
+	/**
+	 * 服务端：收到什么就原样发回什么。
+	 */
+	@Sharable
+	private final static class EchoHandler extends ChannelInboundHandlerAdapter
+	{
+		final static EchoHandler INSTANCE = new EchoHandler();
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg)
+		{
+			ctx.writeAndFlush(msg);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			// 客户端以RST关闭连接时的“Connection reset by peer”，直接关闭即可
+			ctx.close();
+		}
+	}
+
+	/**
+	 * 客户端：把收到的回显数据交给等待中的测试线程。
+	 */
+	private final static class ReplyCollector extends ChannelInboundHandlerAdapter
+	{
+		final BlockingQueue<ByteBuf> replies = new LinkedBlockingQueue<ByteBuf>();
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg)
+		{
+			replies.add((ByteBuf)msg);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import net.x52im.mobileimsdk.server.network.udp.MBUDPEpollServerChannel;
+import net.x52im.mobileimsdk.server.network.udp.MBUDPServerChannel;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link NettyTransport} 传输层实现选择（epoll优先、NIO回退）的单元测试。
+ *
+ * @since 6.1
+ */
+public class NettyTransportTest
+{
+	@After
+	public void resetEpollEnabled()
+	{
+		NettyTransport.EPOLL_ENABLED = true;
+	}
+
+	@Test
+	public void fallsBackToNioWhenEpollDisabled()
+	{
+		NettyTransport.EPOLL_ENABLED = false;
+
+		assertFalse(NettyTransport.isEpoll());
+		assertEquals(NioServerSocketChannel.class, NettyTransport.serverSocketChannelClass());
+		assertEquals(MBUDPServerChannel.class, NettyTransport.udpServerChannelClass());
+		assertGroupType(NioEventLoopGroup.class, NettyTransport.newEventLoopGroup(1));
+		assertGroupType(NioEventLoopGroup.class, NettyTransport.newEventLoopGroup(1, 70));
+	}
+
+	@Test
+	public void followsEpollAvailabilityWhenEnabled()
+	{
+		NettyTransport.EPOLL_ENABLED = true;
+
+		boolean available = Epoll.isAvailable();
+		assertEquals(available, NettyTransport.isEpoll());
+		assertEquals(available ? EpollServerSocketChannel.class : NioServerSocketChannel.class
+				, NettyTransport.serverSocketChannelClass());
+		assertEquals(available ? MBUDPEpollServerChannel.class : MBUDPServerChannel.class
+				, NettyTransport.udpServerChannelClass());
+		assertGroupType(available ? EpollEventLoopGroup.class : NioEventLoopGroup.class, NettyTransport.newEventLoopGroup(1));
+		assertGroupType(available ? EpollEventLoopGroup.class : NioEventLoopGroup.class, NettyTransport.newEventLoopGroup(1, 70));
+	}
+
+	private static void assertGroupType(Class<? extends EventLoopGroup> expected, EventLoopGroup group)
+	{
+		try
+		{
+			assertTrue(expected.getName() + " expected but was " + group.getClass().getName(), expected.isInstance(group));
+		}
+		finally
+		{
+			group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import net.x52im.mobileimsdk.server.ServerCoreHandler;
+import net.x52im.mobileimsdk.server.event.ServerEventListener;
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
+import net.x52im.mobileimsdk.server.utils.LocalSendHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link OutboundBackpressureHandler} 的单元测试（写缓冲水位设得很小，由一个暂不发出数据的“接收方”让Channel变为不可写）：
+ * 待发队列的顺序、队列超限及持续不可写超时的断开，以及断开后没有观察者的QoS消息的离线处理。
+ *
+ * @since 6.1
+ */
+public class OutboundBackpressureHandlerTest
+{
+	private final static int LOW_WATER_MARK = 8;
+	private final static int HIGH_WATER_MARK = 16;
+
+	private int savedMaxPendingMessages;
+	private int savedSlowConsumerTimeout;
+
+	/** 应用层离线处理回调收到的消息 */
+	private final List<Protocal> offlineMessages = new ArrayList<Protocal>();
+	private StalledPeer peer;
+	private EmbeddedChannel session;
+
+	@Before
+	public void setUp()
+	{
+		savedMaxPendingMessages = OutboundBackpressureHandler.MAX_PENDING_MESSAGES;
+		savedSlowConsumerTimeout = OutboundBackpressureHandler.SLOW_CONSUMER_TIMEOUT;
+		OutboundBackpressureHandler.MAX_PENDING_MESSAGES = 4;
+		OutboundBackpressureHandler.SLOW_CONSUMER_TIMEOUT = 1;
+
+		final ServerEventListener listener = (ServerEventListener)Proxy.newProxyInstance(getClass().getClassLoader()
+				, new Class<?>[]{ServerEventListener.class}, new InvocationHandler(){
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if("onTransferMessage_RealTimeSendFaild".equals(method.getName()))
+				{
+					offlineMessages.add((Protocal)args[0]);
+					return Boolean.TRUE;
+				}
+				Class<?> type = method.getReturnType();
+				return type == boolean.class ? Boolean.FALSE : (type == int.class ? Integer.valueOf(0) : null);
+			}
+		});
+		ServerCoreHandler serverCoreHandler = new ServerCoreHandler(){
+			@Override
+			public ServerEventListener getServerEventListener()
+			{
+				return listener;
+			}
+		};
+
+		peer = new StalledPeer();
+		session = new EmbeddedChannel(DefaultChannelId.newInstance(), peer, new OutboundBackpressureHandler(serverCoreHandler));
+		session.config().setWriteBufferWaterMark(new WriteBufferWaterMark(LOW_WATER_MARK, HIGH_WATER_MARK));
+	}
+
+	@After
+	public void tearDown()
+	{
+		session.finishAndReleaseAll();
+		OutboundBackpressureHandler.MAX_PENDING_MESSAGES = savedMaxPendingMessages;
+		OutboundBackpressureHandler.SLOW_CONSUMER_TIMEOUT = savedSlowConsumerTimeout;
+	}
+
+	@Test
+	public void writableSessionWritesThrough()
+	{
+		ChannelFuture f = session.writeAndFlush(bytes(1, HIGH_WATER_MARK / 2));
+		assertTrue(f.isSuccess());
+		assertTrue(session.isWritable());
+		assertOutbound(1);
+		assertNull(session.readOutbound());
+	}
+
+	/**
+	 * 不可写期间写出的消息（包括其间恢复可写前再写出的）按原顺序发出。
+	 */
+	@Test
+	public void pendingWritesKeepTheirOrder()
+	{
+		stall();
+		List<ChannelFuture> futures = new ArrayList<ChannelFuture>();
+		for(int i = 1; i <= 4; i++)
+			futures.add(session.writeAndFlush(bytes(i, 1)));
+		for(ChannelFuture f : futures)
+			assertFalse(f.isDone());
+
+		peer.resume();
+		assertTrue(session.isWritable());
+		assertOutbound(0);
+		for(int i = 1; i <= 4; i++)
+			assertOutbound(i);
+		assertNull(session.readOutbound());
+		for(ChannelFuture f : futures)
+			assertTrue(f.isSuccess());
+		assertTrue(session.isActive());
+
+		// 恢复可写后不再断开
+		sleepPastSlowConsumerTimeout();
+		session.runScheduledPendingTasks();
+		assertTrue(session.isActive());
+	}
+
+	@Test
+	public void tooManyPendingWritesDisconnect()
+	{
+		stall();
+		List<ChannelFuture> futures = new ArrayList<ChannelFuture>();
+		List<ByteBuf> messages = new ArrayList<ByteBuf>();
+		for(int i = 1; i <= OutboundBackpressureHandler.MAX_PENDING_MESSAGES + 1; i++)
+		{
+			ByteBuf msg = bytes(i, 1);
+			messages.add(msg);
+			futures.add(session.writeAndFlush(msg));
+		}
+
+		assertFalse(session.isActive());
+		for(ChannelFuture f : futures)
+			assertTrue(f.cause() instanceof ChannelException);
+		for(ByteBuf msg : messages)
+			assertEquals(0, msg.refCnt());
+
+		// 断开后写出的消息直接失败
+		ByteBuf late = bytes(9, 1);
+		assertFalse(session.writeAndFlush(late).isSuccess());
+		assertEquals(0, late.refCnt());
+	}
+
+	@Test
+	public void slowConsumerTimeoutDisconnects()
+	{
+		stall();
+		ChannelFuture f = session.writeAndFlush(bytes(1, 1));
+
+		session.runScheduledPendingTasks();
+		assertTrue(session.isActive());
+		sleepPastSlowConsumerTimeout();
+		session.runScheduledPendingTasks();
+
+		assertFalse(session.isActive());
+		assertTrue(f.cause() instanceof ChannelException);
+		// 已写入写缓冲但尚未发出的数据随连接关闭而失败
+		assertTrue(peer.stalledWrite.cause() instanceof ClosedChannelException);
+	}
+
+	/**
+	 * 经 {@link LocalSendHelper} 发给“慢消费者”的QoS消息：没有观察者的交由离线处理回调，有观察者的由观察者处理。
+	 */
+	@Test
+	public void qosMessagesWithoutObserverGoOffline() throws Exception
+	{
+		stall();
+		List<Protocal> noObserver = new ArrayList<Protocal>();
+		final List<Boolean> observed = new ArrayList<Boolean>();
+		MBObserver observer = new MBObserver(){
+			@Override
+			public void update(boolean success, Object extraObj)
+			{
+				observed.add(success);
+			}
+		};
+
+		Protocal withObserver = ProtocalFactory.createCommonData("with-observer", "0", "400069", true, null, -1);
+		LocalSendHelper.sendData(session, withObserver, observer);
+		Protocal notQoS = ProtocalFactory.createCommonData("not-qos", "0", "400069", false, null, -1);
+		LocalSendHelper.sendData(session, notQoS, null);
+		for(int i = 0; i < OutboundBackpressureHandler.MAX_PENDING_MESSAGES - 1; i++)
+		{
+			Protocal p = ProtocalFactory.createCommonData("qos-" + i, "0", "400069", true, null, -1);
+			noObserver.add(p);
+			LocalSendHelper.sendData(session, p, null);
+		}
+
+		assertFalse(session.isActive());
+		assertEquals(noObserver, offlineMessages);
+		assertEquals(1, observed.size());
+		assertFalse(observed.get(0));
+
+		// 并非因“慢消费者”而断开的会话不作此处理
+		EmbeddedChannel closed = new EmbeddedChannel(DefaultChannelId.newInstance());
+		closed.close();
+		assertFalse(OutboundBackpressureHandler.transferOffline(closed, noObserver.get(0)));
+		assertFalse(OutboundBackpressureHandler.transferOffline(session, notQoS));
+		assertTrue(OutboundBackpressureHandler.transferOffline(session, noObserver.get(0)));
+	}
+
+	/**
+	 * 让“接收方”暂停读取，并写入超过高水位的数据，使Channel变为不可写。
+	 */
+	private void stall()
+	{
+		peer.stalled = true;
+		peer.stalledWrite = session.writeAndFlush(bytes(0, HIGH_WATER_MARK + 1));
+		assertFalse(session.isWritable());
+	}
+
+	private void assertOutbound(int expectedFirstByte)
+	{
+		ByteBuf out = session.readOutbound();
+		assertTrue(out != null);
+		assertEquals(expectedFirstByte, out.getByte(out.readerIndex()));
+		out.release();
+	}
+
+	private static ByteBuf bytes(int value, int length)
+	{
+		ByteBuf buf = Unpooled.buffer(length);
+		for(int i = 0; i < length; i++)
+			buf.writeByte(value);
+		return buf;
+	}
+
+	private static void sleepPastSlowConsumerTimeout()
+	{
+		try
+		{
+			Thread.sleep(OutboundBackpressureHandler.SLOW_CONSUMER_TIMEOUT * 1000L + 100);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 模拟读取过慢的接收方：暂停期间不发出（flush）任何数据，数据都积压在写缓冲中。
+	 */
+	private final static class StalledPeer extends ChannelOutboundHandlerAdapter
+	{
+		boolean stalled = false;
+		ChannelFuture stalledWrite;
+		private ChannelHandlerContext ctx;
+
+		@Override
+		public void handlerAdded(ChannelHandlerContext ctx)
+		{
+			this.ctx = ctx;
+		}
+
+		@Override
+		public void flush(ChannelHandlerContext ctx)
+		{
+			if(!stalled)
+				ctx.flush();
+		}
+
+		void resume()
+		{
+			stalled = false;
+			ctx.flush();
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.network.udp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.handler.timeout.ReadTimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link MBUDPSessionTable} 的单元测试：散列冲突下的查找与后移删除、会话数上限、空闲超时和会话迁移。
+ *
+ * @since 6.1
+ */
+public class MBUDPSessionTableTest
+{
+	/** 与MBUDPSessionTable的散列表初始长度一致（测试中的会话数均远小于其一半，不会扩容） */
+	private final static int TABLE_SIZE = 1024;
+
+	/** 各“伪连接”被关闭时从父Channel中移除的记录 */
+	private final List<Channel> removed = new ArrayList<Channel>();
+	private MBUDPParentChannel parent;
+	private DefaultEventLoop eventLoop;
+
+	@Before
+	public void setUp()
+	{
+		parent = (MBUDPParentChannel)java.lang.reflect.Proxy.newProxyInstance(getClass().getClassLoader()
+				, new Class<?>[]{MBUDPParentChannel.class}, new InvocationHandler(){
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if("removeChannel".equals(method.getName()))
+					removed.add((Channel)args[0]);
+				else if("hashCode".equals(method.getName()))
+					return System.identityHashCode(proxy);
+				else if("equals".equals(method.getName()))
+					return proxy == args[0];
+				else if("toString".equals(method.getName()))
+					return "parent";
+				return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+			}
+		});
+		eventLoop = new DefaultEventLoop();
+	}
+
+	@After
+	public void tearDown()
+	{
+		eventLoop.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 删除同一探测序列中间的会话后，其后的会话（包括从表尾绕回表头的）仍都能查到。
+	 */
+	@Test
+	public void removeInTheMiddleOfProbeChainKeepsLaterEntriesReachable() throws Exception
+	{
+		MBUDPSessionTable table = new MBUDPSessionTable(parent, 100, 0);
+		// 5个落在表尾同一槽位上的地址（探测序列绕回表头），再加1个落在表头0号槽位上的地址
+		List<InetSocketAddress> addresses = collidingAddresses(TABLE_SIZE - 1, 5);
+		addresses.addAll(collidingAddresses(0, 1));
+		List<MBUDPChannel> channels = new ArrayList<MBUDPChannel>();
+		for(InetSocketAddress address : addresses)
+			channels.add(assertNewSession(table, address));
+		assertEquals(6, table.size());
+
+		// 依次删除探测序列中间、开头的会话
+		table.remove(channels.get(2));
+		assertEquals(5, table.size());
+		assertSessionsFound(table, addresses, channels, 2);
+		table.remove(channels.get(0));
+		assertEquals(4, table.size());
+		assertSessionsFound(table, addresses, channels, 0, 2);
+
+		// 已删除的地址再发来数据时建立新会话
+		MBUDPChannel again = assertNewSession(table, addresses.get(2));
+		assertTrue(again != channels.get(2));
+		assertEquals(5, table.size());
+
+		// 重复删除、删除已被替换的会话都不会影响表中的其它会话
+		table.remove(channels.get(0));
+		table.remove(channels.get(2));
+		assertEquals(5, table.size());
+		assertEquals(new HashSet<MBUDPChannel>(table.channels()).size(), 5);
+	}
+
+	@Test
+	public void fullTableDropsNewAddresses() throws Exception
+	{
+		MBUDPSessionTable table = new MBUDPSessionTable(parent, 3, 0);
+		List<InetSocketAddress> addresses = collidingAddresses(7, 4);
+		MBUDPChannel first = assertNewSession(table, addresses.get(0));
+		assertNewSession(table, addresses.get(1));
+		assertNewSession(table, addresses.get(2));
+
+		// 已满：来自新地址的数据报被丢弃（并被释放），已有会话不受影响
+		ByteBuf dropped = Unpooled.buffer(1).writeByte(1);
+		assertNull(table.dispatch(addresses.get(3), dropped));
+		assertEquals(0, dropped.refCnt());
+		assertEquals(3, table.size());
+		assertNull(table.dispatch(addresses.get(1), datagram()));
+
+		// 有会话移除后即可接受新地址
+		table.remove(first);
+		assertNewSession(table, addresses.get(3));
+		assertEquals(3, table.size());
+	}
+
+	/**
+	 * 空闲超时的会话恰好被超时关闭一次，期间有数据往来的会话不受影响。
+	 */
+	@Test
+	public void idleSessionExpiresExactlyOnce() throws Exception
+	{
+		MBUDPSessionTable table = new MBUDPSessionTable(parent, 100, 100);
+		List<InetSocketAddress> addresses = collidingAddresses(11, 2);
+		final AtomicInteger timeouts = new AtomicInteger();
+		MBUDPChannel idle = assertNewSession(table, addresses.get(0));
+		MBUDPChannel active = assertNewSession(table, addresses.get(1));
+		register(idle, timeouts);
+		register(active, timeouts);
+
+		Thread.sleep(150);
+		assertNull(table.dispatch(addresses.get(1), datagram()));
+		table.expireIdle();
+		waitForEventLoop();
+
+		assertEquals(1, timeouts.get());
+		assertFalse(idle.isOpen());
+		assertTrue(active.isOpen());
+		assertEquals(1, table.size());
+		assertEquals(1, removed.size());
+
+		// 下一个槽位周期再检查时，已超时的会话不会再被处理（活跃的会话此时也已超时）
+		Thread.sleep(1100);
+		table.expireIdle();
+		waitForEventLoop();
+		assertEquals(2, timeouts.get());
+		assertFalse(active.isOpen());
+		assertEquals(0, table.size());
+		assertEquals(2, removed.size());
+
+		Thread.sleep(1100);
+		table.expireIdle();
+		waitForEventLoop();
+		assertEquals(2, timeouts.get());
+	}
+
+	/**
+	 * 迁移后会话以新地址为key（且不留下旧地址的记录），其它冲突的会话不受影响。
+	 */
+	@Test
+	public void migrateRekeysSessionWithoutStaleEntry() throws Exception
+	{
+		MBUDPSessionTable table = new MBUDPSessionTable(parent, 100, 0);
+		List<InetSocketAddress> addresses = collidingAddresses(42, 3);
+		InetSocketAddress oldAddress = addresses.get(0);
+		InetSocketAddress other = addresses.get(1);
+		InetSocketAddress newAddress = addresses.get(2);
+		MBUDPChannel session = assertNewSession(table, oldAddress);
+		MBUDPChannel neighbour = assertNewSession(table, other);
+		MBUDPChannel probe = assertNewSession(table, newAddress);
+
+		assertTrue(table.migrate(probe, session));
+		assertEquals(newAddress, session.remoteAddress());
+		assertEquals(2, table.size());
+
+		// 新地址的数据归已有会话，旧地址上没有残留的记录
+		assertNull(table.dispatch(newAddress, datagram()));
+		assertNull(table.dispatch(other, datagram()));
+		assertEquals(2, table.size());
+		MBUDPChannel fresh = assertNewSession(table, oldAddress);
+		assertTrue(fresh != session);
+		assertEquals(3, table.size());
+
+		// 被迁移掉的“伪连接”已不在表中，移除它不会误删迁移后的会话
+		table.remove(probe);
+		assertEquals(3, table.size());
+		assertNull(table.dispatch(newAddress, datagram()));
+
+		// 已不在表中的“伪连接”无法再参与迁移
+		assertFalse(table.migrate(probe, neighbour));
+		table.remove(session);
+		assertEquals(2, table.size());
+		assertNotNull(table.dispatch(newAddress, datagram()));
+	}
+
+	private static MBUDPChannel assertNewSession(MBUDPSessionTable table, InetSocketAddress address)
+	{
+		MBUDPChannel channel = table.dispatch(address, datagram());
+		assertNotNull(channel);
+		assertEquals(address, channel.remoteAddress());
+		return channel;
+	}
+
+	private static void assertSessionsFound(MBUDPSessionTable table, List<InetSocketAddress> addresses
+			, List<MBUDPChannel> channels, int... removedIndexes)
+	{
+		HashSet<MBUDPChannel> present = new HashSet<MBUDPChannel>(table.channels());
+		outer:
+		for(int i = 0; i < addresses.size(); i++)
+		{
+			for(int r : removedIndexes)
+			{
+				if(r == i)
+				{
+					assertFalse(present.contains(channels.get(i)));
+					continue outer;
+				}
+			}
+			assertTrue(present.contains(channels.get(i)));
+			// 查到的是已有会话（不会新建）
+			assertNull("第" + i + "个会话查不到", table.dispatch(addresses.get(i), datagram()));
+		}
+	}
+
+	private void register(MBUDPChannel channel, final AtomicInteger timeouts) throws Exception
+	{
+		channel.pipeline().addLast(new ChannelInboundHandlerAdapter(){
+			@Override
+			public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+			{
+				if(cause == ReadTimeoutException.INSTANCE)
+					timeouts.incrementAndGet();
+			}
+		});
+		eventLoop.register(channel).sync();
+	}
+
+	private void waitForEventLoop() throws Exception
+	{
+		eventLoop.submit(new Runnable(){
+			@Override
+			public void run()
+			{
+			}
+		}).sync();
+	}
+
+	private static ByteBuf datagram()
+	{
+		return Unpooled.buffer(1).writeByte(0);
+	}
+
+	/**
+	 * 找出在初始长度的散列表中都落在指定槽位上的若干个地址。
+	 */
+	private static List<InetSocketAddress> collidingAddresses(int slot, int count) throws Exception
+	{
+		Method hash = MBUDPSessionTable.class.getDeclaredMethod("hash", InetSocketAddress.class);
+		hash.setAccessible(true);
+		List<InetSocketAddress> result = new ArrayList<InetSocketAddress>();
+		for(int host = 1; result.size() < count; host++)
+		{
+			for(int port = 1024; port < 65536 && result.size() < count; port++)
+			{
+				InetSocketAddress address = new InetSocketAddress("10.0." + (host >> 8) + "." + (host & 0xFF), port);
+				if(((Integer)hash.invoke(null, address) & (TABLE_SIZE - 1)) == slot)
+					result.add(address);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * {@link LongSessionMap} 在并发插入、删除及扩容时的正确性测试。
+ *
+ * @since 6.1
+ */
+public class LongSessionMapTest
+{
+	@Test
+	public void basicOperations()
+	{
+		LongSessionMap<String> map = new LongSessionMap<String>();
+		assertNull(map.putIfAbsent(1, "a"));
+		assertEquals("a", map.putIfAbsent(1, "b"));
+		assertEquals("a", map.get(1));
+
+		assertFalse(map.replace(1, "b", "c"));
+		assertTrue(map.replace(1, "a", "c"));
+		assertFalse(map.remove(1, "a"));
+		assertTrue(map.remove(1, "c"));
+		assertNull(map.get(1));
+		assertEquals(0, map.size());
+
+		// 已删除的key可重新放入
+		assertNull(map.putIfAbsent(1, "d"));
+		assertEquals("d", map.remove(1));
+		assertNull(map.remove(1));
+	}
+
+	/**
+	 * 多个线程并发地插入、替换、删除各自的key（期间各分段反复扩容），同时另有线程不断查找一批
+	 * 始终存在的key：任何时刻都不能查不到它们，各写线程的条件操作也不能因扩容而失败。
+	 */
+	@Test
+	public void concurrentInsertRemoveAndRehash() throws Exception
+	{
+		final LongSessionMap<Long> map = new LongSessionMap<Long>();
+		final int stableKeys = 4096;
+		for(long k = 0; k < stableKeys; k++)
+			assertNull(map.putIfAbsent(k, k));
+
+		final int writers = 8;
+		final int readers = 4;
+		final int rounds = 20;
+		final int keysPerRound = 4096;
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch writersDone = new CountDownLatch(writers);
+		Thread[] threads = new Thread[writers + readers];
+
+		for(int w = 0; w < writers; w++)
+		{
+			final long base = (w + 1) * 1000000000L;
+			threads[w] = newThread(new Body(){
+				@Override
+				public void run() throws Exception
+				{
+					try
+					{
+						for(int r = 0; r < rounds; r++)
+						{
+							for(long k = base; k < base + keysPerRound; k++)
+								assertNull(map.putIfAbsent(k, k));
+							for(long k = base; k < base + keysPerRound; k++)
+							{
+								Long v = map.get(k);
+								assertEquals(Long.valueOf(k), v);
+								assertTrue(map.replace(k, v, Long.valueOf(-k)));
+							}
+							for(long k = base; k < base + keysPerRound; k++)
+								assertTrue(map.remove(k, map.get(k)));
+						}
+					}
+					finally
+					{
+						writersDone.countDown();
+					}
+				}
+			}, start, failure);
+		}
+		for(int i = 0; i < readers; i++)
+		{
+			threads[writers + i] = newThread(new Body(){
+				@Override
+				public void run() throws Exception
+				{
+					while(writing.get())
+					{
+						for(long k = 0; k < stableKeys; k++)
+							assertEquals(Long.valueOf(k), map.get(k));
+					}
+				}
+			}, start, failure);
+		}
+
+		for(Thread t : threads)
+			t.start();
+		start.countDown();
+		writersDone.await();
+		writing.set(false);
+		for(Thread t : threads)
+			t.join(30 * 1000);
+
+		if(failure.get() instanceof Error)
+			throw (Error)failure.get();
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		// 最终只剩下始终存在的那批key
+		assertEquals(stableKeys, map.size());
+		final Map<Long, Long> visited = new HashMap<Long, Long>();
+		map.forEach(new LongSessionMap.Visitor<Long>(){
+			@Override
+			public void visit(long key, Long value)
+			{
+				visited.put(key, value);
+			}
+		});
+		assertEquals(stableKeys, visited.size());
+		for(long k = 0; k < stableKeys; k++)
+			assertEquals(Long.valueOf(k), visited.get(k));
+	}
+
+	private static Thread newThread(final Body body, final CountDownLatch start, final AtomicReference<Throwable> failure)
+	{
+		Thread t = new Thread(){
+			@Override
+			public void run()
+			{
+				try
+				{
+					start.await();
+					body.run();
+				}
+				catch (Throwable e)
+				{
+					failure.compareAndSet(null, e);
+				}
+			}
+		};
+		t.setDaemon(true);
+		return t;
+	}
+
+	private interface Body
+	{
+		void run() throws Exception;
+	}
+}
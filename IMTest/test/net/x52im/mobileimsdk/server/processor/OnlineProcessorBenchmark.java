@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.processor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import net.x52im.mobileimsdk.server.protocal.s.PKickoutInfo;
+import net.x52im.mobileimsdk.server.utils.LocalSendHelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 在线列表并发更新的JMH基准测试：64个线程反复“登陆（putUser）+ 下线（removeDevice）”随机选取的用户时，
+ * v6.1以前的在线列表（get-then-put，下线时在全局锁内比较后移除）与现在 {@link OnlineProcessor} 的
+ * CAS方式的吞吐量对比。
+ * <p>
+ * 用户数（<code>users</code>）越少，各线程同时更新同一用户的机会越多（同时也会发生互踢）；各线程的会话均为
+ * 已关闭的会话，被踢指令不会真正写出。
+ * <p>
+ * 运行方法：<code>java -cp ... org.openjdk.jmh.Main OnlineProcessorBenchmark</code>
+ *
+ * @since 6.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(64)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OnlineProcessorBenchmark
+{
+	@Param({"64", "4096"})
+	public int users;
+
+	private String[] userIds;
+	private LegacyOnlineSessions legacy;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		userIds = new String[users];
+		for(int i = 0; i < users; i++)
+			userIds[i] = "benchmark-" + i;
+		legacy = new LegacyOnlineSessions();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		for(String userId : userIds)
+			OnlineProcessor.getInstance().removeUser(userId);
+	}
+
+	@Benchmark
+	public int legacyGetThenPut(Session session)
+	{
+		String userId = randomUserId();
+		legacy.putUser(userId, session.channel);
+		return legacy.removeUser(userId, session.channel) ? 1 : 0;
+	}
+
+	@Benchmark
+	public int casOnlineProcessor(Session session)
+	{
+		String userId = randomUserId();
+		OnlineProcessor.getInstance().putUser(userId, 0, session.channel);
+		return OnlineProcessor.getInstance().removeDevice(userId, session.channel);
+	}
+
+	private String randomUserId()
+	{
+		return userIds[ThreadLocalRandom.current().nextInt(userIds.length)];
+	}
+
+	/**
+	 * 各线程独占的一个（已关闭的）会话。
+	 */
+	@State(Scope.Thread)
+	public static class Session
+	{
+		Channel channel;
+
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			channel = new EmbeddedChannel(DefaultChannelId.newInstance());
+			channel.close();
+		}
+	}
+
+	/**
+	 * v6.1以前的在线列表更新方式（只保留与并发相关的部分）：登陆时先get、判定互踢后再put，
+	 * 会话关闭时在全局锁内比较后移除。
+	 */
+	private final static class LegacyOnlineSessions
+	{
+		private final ConcurrentHashMap<String, Channel> onlineSessions = new ConcurrentHashMap<String, Channel>();
+
+		void putUser(String userId, Channel newSession)
+		{
+			Channel oldSession = onlineSessions.get(userId);
+			if(oldSession != null && oldSession.compareTo(newSession) != 0)
+				sendKickout(oldSession, userId);
+			onlineSessions.put(userId, newSession);
+		}
+
+		boolean removeUser(String userId, Channel session)
+		{
+			synchronized(onlineSessions)
+			{
+				if(onlineSessions.get(userId) != session)
+					return false;
+				return onlineSessions.remove(userId) != null;
+			}
+		}
+
+		private static void sendKickout(Channel session, String userId)
+		{
+			try
+			{
+				LocalSendHelper.sendKickout(session, userId, PKickoutInfo.KICKOUT_FOR_DUPLICATE_LOGIN, null);
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.x52im.mobileimsdk.server.protocal.c.PLoginInfo;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link OnlineProcessor} 在线列表在并发登陆、下线时的原子性测试。
+ *
+ * @since 6.1
+ */
+public class OnlineProcessorTest
+{
+	private final static String USER_ID = "online-test-user";
+	/** 测试用的终端类型（与其它终端均不互踢） */
+	private final static int DEVICE_TYPE_NO_KICK = 9001;
+
+	private final List<EmbeddedChannel> sessions = new ArrayList<EmbeddedChannel>();
+
+	@After
+	public void tearDown()
+	{
+		OnlineProcessor.getInstance().removeUser(USER_ID);
+		for(EmbeddedChannel session : sessions)
+			session.close();
+	}
+
+	/**
+	 * 同一账号的多个会话同时登陆且互踢时，最终恰好只有一个会话在线，其余会话都恰好被踢出了一次。
+	 */
+	@Test
+	public void concurrentDuplicateLoginsLeaveExactlyOneSession() throws Exception
+	{
+		final int threads = 32;
+		final EmbeddedChannel[] logins = new EmbeddedChannel[threads];
+		for(int i = 0; i < threads; i++)
+			logins[i] = newSession();
+
+		runConcurrently(threads, new Task(){
+			@Override
+			public void run(int index)
+			{
+				assertTrue(OnlineProcessor.getInstance().putUser(USER_ID, 0, logins[index], PLoginInfo.DEVICE_TYPE_UNKNOWN));
+			}
+		});
+
+		OnlineDevices devices = OnlineProcessor.getInstance().getOnlineDevices(USER_ID);
+		assertEquals(1, devices.size());
+
+		// 被踢出的会话均已被关闭，在线的那个则没有
+		int open = 0;
+		for(EmbeddedChannel session : logins)
+		{
+			if(session.isOpen())
+			{
+				open++;
+				assertTrue(session == devices.latest());
+			}
+		}
+		assertEquals(1, open);
+	}
+
+	/**
+	 * 同一账号的多个不互踢的终端反复并发登陆、下线时，任一终端的上线或下线都不会覆盖或移除其它终端。
+	 */
+	@Test
+	public void concurrentPutAndRemoveNeverLoseOtherDevices() throws Exception
+	{
+		OnlineProcessor.setKickPolicy(DEVICE_TYPE_NO_KICK, OnlineProcessor.KICK_POLICY_NONE);
+
+		final int threads = Math.min(8, OnlineProcessor.MAX_DEVICES_PER_USER);
+		final int rounds = 2000;
+		final EmbeddedChannel[] devices = new EmbeddedChannel[threads];
+		for(int i = 0; i < threads; i++)
+			devices[i] = newSession();
+
+		runConcurrently(threads, new Task(){
+			@Override
+			public void run(int index)
+			{
+				OnlineProcessor processor = OnlineProcessor.getInstance();
+				for(int r = 0; r < rounds; r++)
+				{
+					assertTrue(processor.putUser(USER_ID, 0, devices[index], DEVICE_TYPE_NO_KICK));
+					OnlineDevices online = processor.getOnlineDevices(USER_ID);
+					assertTrue(online != null && online.indexOf(devices[index]) >= 0);
+
+					assertTrue(processor.removeUser(USER_ID, devices[index]));
+					online = processor.getOnlineDevices(USER_ID);
+					assertTrue(online == null || online.indexOf(devices[index]) < 0);
+				}
+			}
+		});
+
+		assertNull(OnlineProcessor.getInstance().getOnlineDevices(USER_ID));
+		for(EmbeddedChannel session : devices)
+			assertTrue(session.isOpen());
+	}
+
+	/**
+	 * 老会话的关闭（条件移除）不会移除该用户已登陆的新会话。
+	 */
+	@Test
+	public void removingStaleSessionKeepsNewSession()
+	{
+		EmbeddedChannel oldSession = newSession();
+		EmbeddedChannel newSession = newSession();
+		OnlineProcessor processor = OnlineProcessor.getInstance();
+
+		assertTrue(processor.putUser(USER_ID, 0, oldSession));
+		assertTrue(processor.putUser(USER_ID, 0, newSession));
+		assertFalse(processor.removeUser(USER_ID, oldSession));
+		assertTrue(processor.getOnlineSession(USER_ID) == newSession);
+
+		assertTrue(processor.removeUser(USER_ID, newSession));
+		assertNull(processor.getOnlineSession(USER_ID));
+	}
+
+	/**
+	 * 多端在线时，removeDevice返回剩余的在线终端数，getOnlineSessions只给出最近上线的终端，
+	 * getOnlineDevicesMap则给出全部终端。
+	 */
+	@Test
+	public void multiDeviceViewsAndRemainingCount()
+	{
+		OnlineProcessor.setKickPolicy(DEVICE_TYPE_NO_KICK, OnlineProcessor.KICK_POLICY_NONE);
+		EmbeddedChannel phone = newSession();
+		EmbeddedChannel web = newSession();
+		OnlineProcessor processor = OnlineProcessor.getInstance();
+
+		assertTrue(processor.putUser(USER_ID, 0, phone, DEVICE_TYPE_NO_KICK));
+		assertTrue(processor.putUser(USER_ID, 0, web, DEVICE_TYPE_NO_KICK));
+		assertTrue(processor.getOnlineSessions().get(USER_ID) == web);
+		assertEquals(2, processor.getOnlineDevicesMap().get(USER_ID).size());
+
+		assertEquals(1, processor.removeDevice(USER_ID, web));
+		assertEquals(-1, processor.removeDevice(USER_ID, web));
+		assertTrue(processor.getOnlineSessions().get(USER_ID) == phone);
+
+		assertEquals(0, processor.removeDevice(USER_ID, phone));
+		assertFalse(processor.getOnlineSessions().containsKey(USER_ID));
+		assertFalse(processor.getOnlineDevicesMap().containsKey(USER_ID));
+	}
+
+	private EmbeddedChannel newSession()
+	{
+		EmbeddedChannel session = new EmbeddedChannel(DefaultChannelId.newInstance());
+		sessions.add(session);
+		return session;
+	}
+
+	/**
+	 * 用指定个数的线程同时开始执行任务，并等待全部完成（任一线程的断言失败都会在此抛出）。
+	 */
+	private static void runConcurrently(int threads, final Task task) throws Exception
+	{
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++)
+		{
+			final int index = i;
+			workers[i] = new Thread("online-test-"+i){
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						task.run(index);
+					}
+					catch (Throwable e)
+					{
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		start.countDown();
+		for(Thread worker : workers)
+			worker.join(30 * 1000);
+
+		if(failure.get() instanceof Error)
+			throw (Error)failure.get();
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+	}
+
+	private interface Task
+	{
+		void run(int index) throws Exception;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link DefaultFingerPrintGenerator} 的单元测试。
+ *
+ * @since 6.1
+ */
+public class DefaultFingerPrintGeneratorTest
+{
+	private final DefaultFingerPrintGenerator generator = new DefaultFingerPrintGenerator();
+
+	@After
+	public void resetNodeId()
+	{
+		DefaultFingerPrintGenerator.NODE_ID = -1;
+	}
+
+	@Test
+	public void genIsUuidV7Compatible()
+	{
+		UUID uuid = UUID.fromString(generator.gen());
+		assertEquals(7, uuid.version());
+		assertEquals(2, uuid.variant());
+	}
+
+	@Test
+	public void configuredNodeIdIsEncoded()
+	{
+		DefaultFingerPrintGenerator.NODE_ID = 1234;
+		assertTrue(DefaultFingerPrintGenerator.isNodeIdConfigured());
+
+		UUID uuid = UUID.fromString(generator.gen());
+		assertEquals(1234, (int)((uuid.getLeastSignificantBits() >>> 48) & 0x3FFF));
+	}
+
+	@Test
+	public void unconfiguredNodeIdIsStable()
+	{
+		assertTrue(!DefaultFingerPrintGenerator.isNodeIdConfigured());
+
+		long a = UUID.fromString(generator.gen()).getLeastSignificantBits() >>> 48;
+		long b = UUID.fromString(generator.gen()).getLeastSignificantBits() >>> 48;
+		assertEquals(a, b);
+	}
+
+	@Test
+	public void concurrentGenIsUnique() throws Exception
+	{
+		final int threads = 8, perThread = 50000;
+		final Set<String> all = ConcurrentHashMap.newKeySet();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int i = 0; i < threads; i++)
+		{
+			new Thread(){
+				@Override
+				public void run()
+				{
+					for(int j = 0; j < perThread; j++)
+						all.add(generator.gen());
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		assertEquals(threads * perThread, all.size());
+	}
+}
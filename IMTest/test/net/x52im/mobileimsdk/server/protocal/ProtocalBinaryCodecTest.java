@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+
+/**
+ * {@link ProtocalBinaryCodec} 的编解码往返测试：经 {@link ProtocalFactory#parse(ByteBuf)} 解出的结果须与
+ * 原报文及JSON格式的往返结果完全一致。
+ *
+ * @since 6.1
+ */
+public class ProtocalBinaryCodecTest
+{
+	private final static String FP_UUID = "0f8e7d6c-5b4a-3921-8a7b-6c5d4e3f2a10";
+	private final static String[] FPS = {null, FP_UUID, "fp-not-a-uuid", "0F8E7D6C-5B4A-3921-8A7B-6C5D4E3F2A10", ""};
+	private final static String[] USER_IDS = {null, "400069", "", "用户-😀"};
+	private final static String[] CONTENTS = {null, "hello", "", "中文 ✓ 😀 \"q\" \\ \n"};
+	private final static long[] NUMBERS = {0, -1, 1, 63, -64, 64, -65, 127, 128, 300, -300,
+			Integer.MAX_VALUE, Integer.MIN_VALUE, 1624933449000L, Long.MAX_VALUE, Long.MIN_VALUE};
+
+	/**
+	 * bridge、QoS、from、to、fp（无、UUID、字符串）、dataContent各种取值的全部组合。
+	 */
+	@Test
+	public void everyFlagCombinationRoundTrips() throws Exception
+	{
+		int count = 0;
+		for(int bits = 0; bits < 64; bits++)
+		{
+			for(String fp : FPS)
+			{
+				if((bits & 0x10) != 0 && fp == null)
+					continue;
+				Protocal p = newProtocal(2, 0, 0);
+				p.bridge = (bits & 0x01) != 0;
+				p.QoS = (bits & 0x02) != 0;
+				p.from = (bits & 0x04) != 0 ? "400069" : null;
+				p.to = (bits & 0x08) != 0 ? "0" : null;
+				p.fp = (bits & 0x10) != 0 ? fp : null;
+				p.dataContent = (bits & 0x20) != 0 ? "{\"k\":1}" : null;
+				assertRoundTrip(p);
+				count++;
+			}
+		}
+		assertTrue(count > 64);
+	}
+
+	@Test
+	public void stringsRoundTrip() throws Exception
+	{
+		for(String from : USER_IDS)
+		{
+			for(String content : CONTENTS)
+			{
+				Protocal p = newProtocal(2, -1, 0);
+				p.from = from;
+				p.to = from;
+				p.dataContent = content;
+				p.fp = content;
+				assertRoundTrip(p);
+			}
+		}
+	}
+
+	@Test
+	public void zigZagNumbersRoundTrip() throws Exception
+	{
+		for(long n : NUMBERS)
+		{
+			assertRoundTrip(newProtocal((int)n, (int)n, n));
+			assertRoundTrip(newProtocal(51, -1, n));
+		}
+		// -1这样的默认值只占1个字节：magic + flags + 3个varint
+		assertEquals(5, ProtocalFactory.toBytes(newProtocal(-1, -1, -1), ProtocalBinaryCodec.FORMAT_BINARY_V1).length);
+	}
+
+	@Test
+	public void uuidFingerPrintIsPacked() throws Exception
+	{
+		Protocal p = newProtocal(2, -1, 0);
+		p.fp = FP_UUID;
+		int uuidLen = ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_BINARY_V1).length;
+		// 大写的UUID无法原样还原，只能按字符串存放
+		p.fp = FP_UUID.toUpperCase();
+		int stringLen = ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_BINARY_V1).length;
+		assertEquals(16, uuidLen - 5);
+		assertEquals(1 + 36, stringLen - 5);
+	}
+
+	/**
+	 * QoS为true而fp为null的报文，解码后fp仍应为null（不能凭空生成指纹码）。
+	 */
+	@Test
+	public void qosWithoutFingerPrintStaysWithoutFingerPrint() throws Exception
+	{
+		Protocal p = newProtocal(2, -1, 0);
+		p.QoS = true;
+		Protocal decoded = decode(p, ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		assertTrue(decoded.isQoS());
+		assertNull(decoded.getFp());
+		assertNull(decode(p, ProtocalBinaryCodec.FORMAT_JSON).getFp());
+	}
+
+	@Test
+	public void formatIsDetectedByFirstByte() throws Exception
+	{
+		Protocal p = newProtocal(2, -1, 0);
+		assertTrue(ProtocalBinaryCodec.isBinary(Unpooled.wrappedBuffer(ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_BINARY_V1))));
+		assertFalse(ProtocalBinaryCodec.isBinary(Unpooled.wrappedBuffer(ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_JSON))));
+		assertFalse(ProtocalBinaryCodec.isBinary(Unpooled.EMPTY_BUFFER));
+	}
+
+	private static Protocal newProtocal(int type, int typeu, long sm)
+	{
+		Protocal p = new Protocal(type, null, null, null, false, null, typeu);
+		p.sm = sm;
+		return p;
+	}
+
+	private static void assertRoundTrip(Protocal p) throws Exception
+	{
+		Protocal binary = decode(p, ProtocalBinaryCodec.FORMAT_BINARY_V1);
+		Protocal json = decode(p, ProtocalBinaryCodec.FORMAT_JSON);
+		assertSame(p, binary);
+		assertSame(json, binary);
+	}
+
+	private static Protocal decode(Protocal p, int protocalFormat) throws Exception
+	{
+		ByteBuf buf = Unpooled.wrappedBuffer(ProtocalFactory.toBytes(p, protocalFormat));
+		Protocal decoded = ProtocalFactory.parse(buf);
+		assertFalse(buf.isReadable());
+		return decoded;
+	}
+
+	private static void assertSame(Protocal expected, Protocal actual)
+	{
+		String msg = expected.toGsonString();
+		assertEquals(msg, expected.getType(), actual.getType());
+		assertEquals(msg, expected.getDataContent(), actual.getDataContent());
+		assertEquals(msg, expected.getFrom(), actual.getFrom());
+		assertEquals(msg, expected.getTo(), actual.getTo());
+		assertEquals(msg, expected.getFp(), actual.getFp());
+		assertEquals(msg, expected.isQoS(), actual.isQoS());
+		assertEquals(msg, expected.isBridge(), actual.isBridge());
+		assertEquals(msg, expected.getTypeu(), actual.getTypeu());
+		assertEquals(msg, expected.getSm(), actual.getSm());
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.protocal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import org.junit.Test;
+
+/**
+ * {@link ProtocalJSONDecoder} 与Gson反射（{@link ProtocalFactory#getGson()}）解码结果的一致性测试。
+ *
+ * @since 6.1
+ */
+public class ProtocalJSONDecoderTest
+{
+	@Test
+	public void plainPacket() throws Exception
+	{
+		Protocal p = assertSameAsGson("{\"bridge\":true,\"type\":2,\"dataContent\":\"hello\",\"from\":\"400069\","
+				+ "\"to\":\"0\",\"fp\":\"fc3c52e8-5b7c-4e3d-a5b0-0a4c1d6b3b1e\",\"QoS\":true,\"typeu\":7,\"sm\":1624933449000}");
+		assertTrue(p.isBridge());
+		assertEquals(2, p.getType());
+		assertEquals("400069", p.getFrom());
+		assertEquals(1624933449000L, p.getSm());
+	}
+
+	@Test
+	public void escapedStrings() throws Exception
+	{
+		// 转义的引号、反斜杠及控制字符
+		assertSameAsGson("{\"type\":2,\"dataContent\":\"say \\\"hi\\\" \\\\ \\/ \\b\\f\\n\\r\\t end\"}");
+		// \\uXXXX转义（含代理对组成的emoji）
+		Protocal p = assertSameAsGson("{\"type\":2,\"dataContent\":\"\\u4f60\\u597D \\ud83d\\ude00\",\"from\":\"\\u0041b\"}");
+		assertEquals("你好 \ud83d\ude00", p.getDataContent());
+		assertEquals("Ab", p.getFrom());
+		// 未转义的多字节UTF-8字符（含4字节的emoji）
+		p = assertSameAsGson("{\"type\":2,\"dataContent\":\"中文 ✓ \ud83d\ude00 \\\"q\\\"\"}");
+		assertEquals("中文 ✓ \ud83d\ude00 \"q\"", p.getDataContent());
+	}
+
+	@Test
+	public void nullValuesAndMissingFields() throws Exception
+	{
+		Protocal p = assertSameAsGson("{\"type\":0,\"dataContent\":null,\"from\":null,\"to\":null,\"fp\":null}");
+		assertNull(p.getDataContent());
+		assertNull(p.getFrom());
+		assertNull(p.getFp());
+
+		// 未出现的字段取Java默认值（而不是Protocal构造方法中的默认值）
+		p = assertSameAsGson("{}");
+		assertNull(p.getFrom());
+		assertEquals(0, p.getTypeu());
+		assertEquals(0, p.getSm());
+		assertFalse(p.isQoS());
+		// QoS为true但没有fp时，不应凭空生成指纹码
+		p = assertSameAsGson("{\"type\":2,\"QoS\":true}");
+		assertNull(p.getFp());
+
+		assertNull(decode("null"));
+		assertNull(gson("null"));
+	}
+
+	@Test
+	public void unknownFieldsAreSkipped() throws Exception
+	{
+		assertSameAsGson("{\"x\":1,\"type\":2,\"obj\":{\"type\":99,\"a\":[1,{\"b\":\"}\"}],\"s\":\"\\\"}\"},"
+				+ "\"arr\":[\"to\",null,true,false,-1],\"dataContent\":\"d\",\"n\":null,\"f\":1.5e3,\"to\":\"2\"}");
+		// 与已知字段同名前缀的未知字段
+		assertSameAsGson("{\"types\":5,\"fromX\":\"a\",\"t\":\"b\",\"to\":\"c\"}");
+	}
+
+	@Test
+	public void fieldOrderAndWhitespace() throws Exception
+	{
+		assertSameAsGson("{\"sm\":-5,\"typeu\":-1,\"QoS\":false,\"fp\":\"f\",\"to\":\"t\",\"from\":\"f\",\"dataContent\":\"c\",\"type\":3,\"bridge\":false}");
+		assertSameAsGson(" \r\n\t{ \"type\" :\t51 ,\n\"dataContent\"\r\n:  \"a b\" , \"QoS\" : true , \"fp\" : \"x\" }\n ");
+		// 同一字段出现多次时后者生效
+		assertSameAsGson("{\"type\":1,\"type\":2}");
+	}
+
+	@Test
+	public void numericEdges() throws Exception
+	{
+		assertSameAsGson("{\"type\":-2147483648,\"typeu\":2147483647,\"sm\":9223372036854775807}");
+		assertSameAsGson("{\"type\":-0,\"sm\":-922337203685477580}");
+	}
+
+	/**
+	 * 本解码器不支持的非标准JSON，须退回到Gson方式并得到与其相同的结果。
+	 */
+	@Test
+	public void unsupportedInputFallsBackToGson() throws Exception
+	{
+		// 浮点数及指数形式的数字
+		assertSameAsGson("{\"type\":2.0,\"dataContent\":\"x\"}");
+		assertSameAsGson("{\"type\":2,\"sm\":1.624933449E12}");
+		// 超过18位的数字
+		assertSameAsGson("{\"type\":2,\"sm\":-9223372036854775808}");
+		// 转义的字段名
+		assertSameAsGson("{\"\\u0074ype\":4,\"dataContent\":\"x\"}");
+		// 单引号及未加引号的字符串
+		assertSameAsGson("{'type':2,'dataContent':'single'}");
+		assertSameAsGson("{\"type\":2,\"from\":abc}");
+		// 字符串形式的布尔值和数字
+		assertSameAsGson("{\"type\":\"2\",\"QoS\":\"true\",\"bridge\":\"false\"}");
+	}
+
+	@Test
+	public void readerIndexIsConsumed() throws Exception
+	{
+		ByteBuf buf = Unpooled.copiedBuffer("{\"type\":2,\"dataContent\":\"x\"}", CharsetUtil.UTF_8);
+		ProtocalJSONDecoder.decode(buf);
+		assertFalse(buf.isReadable());
+
+		buf = Unpooled.copiedBuffer("{'type':2}", CharsetUtil.UTF_8);
+		ProtocalJSONDecoder.decode(buf);
+		assertFalse(buf.isReadable());
+	}
+
+	private static Protocal assertSameAsGson(String json) throws Exception
+	{
+		Protocal expected = gson(json);
+		Protocal actual = decode(json);
+		assertEquals(json, expected.getType(), actual.getType());
+		assertEquals(json, expected.getDataContent(), actual.getDataContent());
+		assertEquals(json, expected.getFrom(), actual.getFrom());
+		assertEquals(json, expected.getTo(), actual.getTo());
+		assertEquals(json, expected.getFp(), actual.getFp());
+		assertEquals(json, expected.isQoS(), actual.isQoS());
+		assertEquals(json, expected.isBridge(), actual.isBridge());
+		assertEquals(json, expected.getTypeu(), actual.getTypeu());
+		assertEquals(json, expected.getSm(), actual.getSm());
+		return actual;
+	}
+
+	private static Protocal decode(String json) throws Exception
+	{
+		return ProtocalJSONDecoder.decode(Unpooled.copiedBuffer(json, CharsetUtil.UTF_8));
+	}
+
+	private static Protocal gson(String json)
+	{
+		return ProtocalFactory.getGson().fromJson(json, Protocal.class);
+	}
+}
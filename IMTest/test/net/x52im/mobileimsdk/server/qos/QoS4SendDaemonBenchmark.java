@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.qos;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
+import net.x52im.mobileimsdk.server.protocal.ProtocalJSONEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * S2C模式下QoS消息发送路径的基准测试。
+ * <p>
+ * <b>1. 发送吞吐量（JMH）：</b>发出一条QoS消息并放入发送质量保证队列（随即应答移除）的开销——
+ * <code>encodeTwice</code>为写出时由编码器编码一次、放入队列时再编码一次（即此前的做法），
+ * <code>encodeOnce</code>为写出与缓存共用同一份编码好的报文数据（见 {@link QoS4SendDaemonRoot#put(Protocal, byte[], int)}）。
+ * <br>运行方法：<code>java -cp ... org.openjdk.jmh.Main QoS4SendDaemonBenchmark</code>
+ * <p>
+ * <b>2. 每条待确认消息的内存占用：</b>分别以v6.1以前的队列结构（Protocal对象 + 时间戳两个Map）和现在的
+ * {@link QoS4SendDaemonRoot}（已登记在时间轮上）放入100万条消息，对比GC后的堆内存增量。
+ * <br>运行方法：<code>java -Xmx2g -cp ... net.x52im.mobileimsdk.server.qos.QoS4SendDaemonBenchmark [条数]</code>
+ *
+ * @since 6.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QoS4SendDaemonBenchmark
+{
+	private final static String DATA_CONTENT_PREFIX = "{\"msg\":\"你好，这是一条用于测试的聊天消息。\",\"seq\":";
+
+	private final AtomicLong seq = new AtomicLong();
+	private QoS4SendDaemonRoot daemon;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		// 不启动时间轮：只测编码和入队本身的开销
+		daemon = new QoS4SendDaemonRoot(0, 0, -1, false, "-benchmark");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		daemon.stop();
+	}
+
+	@Benchmark
+	public int encodeTwice()
+	{
+		Protocal p = newMessage("benchmark-user", seq.incrementAndGet());
+		// 编码器在I/O线程上写出时的编码
+		ByteBuf out = PooledByteBufAllocator.DEFAULT.directBuffer();
+		ProtocalJSONEncoder.encode(p, out);
+		int len = out.readableBytes();
+		out.release();
+		// 放入队列时再编码一次
+		daemon.put(p, ProtocalBinaryCodec.FORMAT_JSON);
+		daemon.remove(p.getFp());
+		return len;
+	}
+
+	@Benchmark
+	public int encodeOnce()
+	{
+		Protocal p = newMessage("benchmark-user", seq.incrementAndGet());
+		byte[] encoded = ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_JSON);
+		daemon.put(p, encoded, ProtocalBinaryCodec.FORMAT_JSON);
+		daemon.remove(p.getFp());
+		return encoded.length;
+	}
+
+	private static Protocal newMessage(String to, long seq)
+	{
+		// 每条消息的内容各不相同（与实际情况一样，不共用同一个String对象）
+		Protocal p = ProtocalFactory.createCommonData(DATA_CONTENT_PREFIX + seq + "}", "0", to, true, null, -1);
+		p.setSm(1624933449000L + seq);
+		return p;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int count = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+
+		// v6.1以前：ConcurrentSkipListMap<指纹码, Protocal> + ConcurrentHashMap<指纹码, 时间戳>
+		long base = usedHeap();
+		ConcurrentSkipListMap<String, Protocal> sentMessages = new ConcurrentSkipListMap<String, Protocal>();
+		ConcurrentHashMap<String, Long> sendMessagesTimestamp = new ConcurrentHashMap<String, Long>();
+		for(int i = 0; i < count; i++)
+		{
+			Protocal p = newMessage("user-" + i, i);
+			sentMessages.put(p.getFp(), p);
+			sendMessagesTimestamp.put(p.getFp(), System.currentTimeMillis());
+		}
+		long legacy = usedHeap() - base;
+		System.out.println("v6.1以前的队列结构：" + sentMessages.size() + "条，每条约" + (legacy / count) + "字节");
+		sentMessages = null;
+		sendMessagesTimestamp = null;
+
+		// 现在：每条消息一个InFlightEntry（缓存按接收方报文格式编码好的数据），并登记在时间轮上
+		measureInFlightEntries(count, ProtocalBinaryCodec.FORMAT_JSON, "JSON格式");
+		measureInFlightEntries(count, ProtocalBinaryCodec.FORMAT_BINARY_V1, "2进制格式");
+	}
+
+	private static void measureInFlightEntries(int count, int protocalFormat, String formatName) throws Exception
+	{
+		long base = usedHeap();
+		// 检查间隔足够长，测量期间不会触发重传
+		QoS4SendDaemonRoot daemon = new QoS4SendDaemonRoot(60 * 60 * 1000, 0, -1, false, "-benchmark");
+		daemon.setRtoAdaptive(false).startup(false);
+		for(int i = 0; i < count; i++)
+		{
+			Protocal p = newMessage("user-" + i, i);
+			daemon.put(p, ProtocalFactory.toBytes(p, protocalFormat), protocalFormat);
+		}
+		// 等时间轮把新登记的任务全部转入各槽位
+		Thread.sleep(2000);
+		long used = usedHeap() - base;
+		System.out.println("QoS4SendDaemonRoot（" + formatName + "）：" + daemon.size() + "条，每条约" + (used / count) + "字节");
+		daemon.stop();
+	}
+
+	private static long usedHeap() throws InterruptedException
+	{
+		Runtime rt = Runtime.getRuntime();
+		for(int i = 0; i < 5; i++)
+		{
+			System.gc();
+			Thread.sleep(100);
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
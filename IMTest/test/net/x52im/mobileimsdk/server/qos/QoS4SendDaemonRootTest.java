@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2021  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK v6.x Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“【即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ */
+package net.x52im.mobileimsdk.server.qos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import net.x52im.mobileimsdk.server.processor.OnlineProcessor;
+import net.x52im.mobileimsdk.server.protocal.Protocal;
+import net.x52im.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.x52im.mobileimsdk.server.protocal.ProtocalFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link QoS4SendDaemonRoot} 的待确认条目（重传、应答、丢包通知）的单元测试。
+ *
+ * @since 6.1
+ */
+public class QoS4SendDaemonRootTest
+{
+	private final static String USER_ID = "qos-test-user";
+
+	/** 接收方的会话收到的全部报文数据 */
+	private final ConcurrentLinkedQueue<byte[]> written = new ConcurrentLinkedQueue<byte[]>();
+	/** 收到的丢包通知 */
+	private final ConcurrentLinkedQueue<Protocal> lost = new ConcurrentLinkedQueue<Protocal>();
+
+	private EmbeddedChannel session;
+	private QoS4SendDaemonRoot daemon;
+
+	@Before
+	public void setUp()
+	{
+		session = new EmbeddedChannel(DefaultChannelId.newInstance(), new ChannelOutboundHandlerAdapter(){
+			@Override
+			public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+			{
+				ByteBuf buf = (ByteBuf)msg;
+				byte[] data = new byte[buf.readableBytes()];
+				buf.getBytes(buf.readerIndex(), data);
+				ReferenceCountUtil.release(msg);
+				written.add(data);
+				promise.setSuccess();
+			}
+		});
+		OnlineProcessor.getInstance().putUser(USER_ID, System.currentTimeMillis(), session);
+
+		// 固定100毫秒检查一次、最多重传1次
+		daemon = new QoS4SendDaemonRoot(100, 100, 1, false, "-test"){
+			@Override
+			protected void notifyMessageLost(ArrayList<Protocal> lostMessages)
+			{
+				lost.addAll(lostMessages);
+			}
+		};
+		daemon.setRtoAdaptive(false);
+	}
+
+	@After
+	public void tearDown()
+	{
+		daemon.stop();
+		OnlineProcessor.getInstance().removeUser(USER_ID, session);
+		session.close();
+	}
+
+	@Test
+	public void ackRemovesEntryWithoutRetransmit() throws Exception
+	{
+		Protocal p = newMessage();
+		daemon.startup(false);
+		daemon.put(p);
+		assertTrue(daemon.exist(p.getFp()));
+
+		daemon.ack(p.getFp(), session);
+		assertFalse(daemon.exist(p.getFp()));
+		assertEquals(0, daemon.size());
+
+		Thread.sleep(500);
+		assertTrue(written.isEmpty());
+		assertTrue(lost.isEmpty());
+	}
+
+	@Test
+	public void unackedEntryIsRetransmittedThenLost() throws Exception
+	{
+		Protocal p = newMessage();
+		byte[] encoded = ProtocalFactory.toBytes(p, ProtocalBinaryCodec.FORMAT_JSON);
+		daemon.startup(false);
+		daemon.put(p, ProtocalBinaryCodec.FORMAT_JSON);
+
+		waitFor(lost, 3000);
+		assertEquals(1, lost.size());
+		assertEquals(p.getFp(), lost.peek().getFp());
+		assertEquals(p.getDataContent(), lost.peek().getDataContent());
+		assertFalse(daemon.exist(p.getFp()));
+
+		// 判定丢包前恰好重传了一次，且发出的就是缓存的已编码数据
+		assertEquals(1, written.size());
+		assertTrue(Arrays.equals(encoded, written.peek()));
+	}
+
+	@Test
+	public void ackAfterRetransmitStopsFurtherRetransmits() throws Exception
+	{
+		Protocal p = newMessage();
+		daemon.startup(false);
+		daemon.put(p, ProtocalBinaryCodec.FORMAT_JSON);
+
+		waitFor(written, 3000);
+		daemon.ack(p.getFp(), session);
+
+		Thread.sleep(500);
+		assertEquals(1, written.size());
+		assertTrue(lost.isEmpty());
+	}
+
+	@Test
+	public void entriesSurviveStopAndAreRescheduledOnStartup() throws Exception
+	{
+		Protocal p = newMessage();
+		daemon.put(p, ProtocalBinaryCodec.FORMAT_JSON);
+		assertFalse(daemon.isRunning());
+
+		Thread.sleep(300);
+		assertTrue(written.isEmpty());
+		assertTrue(daemon.exist(p.getFp()));
+
+		daemon.startup(true);
+		waitFor(lost, 3000);
+		assertEquals(p.getFp(), lost.peek().getFp());
+	}
+
+	private Protocal newMessage()
+	{
+		return ProtocalFactory.createCommonData("hello", "0", USER_ID, true, null, -1);
+	}
+
+	private static void waitFor(ConcurrentLinkedQueue<?> queue, long timeout) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		while(queue.isEmpty() && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+	}
+}